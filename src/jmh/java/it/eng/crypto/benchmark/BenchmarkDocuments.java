@@ -0,0 +1,396 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.ess.ESSCertIDv2;
+import org.bouncycastle.asn1.ess.SigningCertificateV2;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.SignerInfoGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+import org.bouncycastle.util.encoders.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSignatureAppearance;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.security.BouncyCastleDigest;
+import com.itextpdf.text.pdf.security.MakeSignature;
+import com.itextpdf.text.pdf.security.PrivateKeySignature;
+
+/**
+ * Documenti utilizzati dai benchmark, generati con BouncyCastle: CA, certificato di firma e
+ * certificato della TSA, CRL, trusted list, buste P7M, CAdES annidate, M7M, PDF e XML. I documenti
+ * non contengono punti di distribuzione né riferimenti online: le verifiche non richiedono
+ * accesso alla rete.
+ */
+final class BenchmarkDocuments {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static BenchmarkDocuments instance;
+
+    private KeyPair caKeys;
+    private X509Certificate caCertificate;
+    private KeyPair signerKeys;
+    private X509Certificate signerCertificate;
+    private KeyPair tsaKeys;
+    private X509Certificate tsaCertificate;
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * @return i certificati generati una sola volta per JVM, condivisi dagli stati dei benchmark
+     */
+    static synchronized BenchmarkDocuments getInstance() throws Exception {
+        if (instance == null) {
+            Security.addProvider(new BouncyCastleProvider());
+            BenchmarkDocuments documents = new BenchmarkDocuments();
+            documents.createCertificates();
+            instance = documents;
+        }
+        return instance;
+    }
+
+    X509Certificate getCaCertificate() {
+        return caCertificate;
+    }
+
+    X509Certificate getSignerCertificate() {
+        return signerCertificate;
+    }
+
+    PublicKey getCaPublicKey() {
+        return caKeys.getPublic();
+    }
+
+    static File write(File directory, String name, byte[] content) throws IOException {
+        File file = new File(directory, name);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048, new SecureRandom());
+        return generator.generateKeyPair();
+    }
+
+    private static ContentSigner contentSigner(KeyPair keys) throws Exception {
+        return new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).setProvider("BC")
+                .build(keys.getPrivate());
+    }
+
+    /*
+     * CA, certificato di firma e certificato della TSA, privi di punti di distribuzione delle CRL
+     * e di riferimenti all'emittente
+     */
+    private void createCertificates() throws Exception {
+        JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter()
+                .setProvider("BC");
+        Date notBefore = new Date(System.currentTimeMillis() - 24L * 3600 * 1000);
+        Date notAfter = new Date(System.currentTimeMillis() + 365L * 24 * 3600 * 1000);
+        X500Name caName = new X500Name("CN=Benchmark CA,O=Benchmark,C=IT");
+
+        caKeys = generateKeyPair();
+        X509v3CertificateBuilder caBuilder = new JcaX509v3CertificateBuilder(caName,
+                BigInteger.ONE, notBefore, notAfter, caName, caKeys.getPublic());
+        caBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        caBuilder.addExtension(Extension.keyUsage, true,
+                new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        caBuilder.addExtension(Extension.subjectKeyIdentifier, false,
+                extensionUtils.createSubjectKeyIdentifier(caKeys.getPublic()));
+        caCertificate = converter.getCertificate(caBuilder.build(contentSigner(caKeys)));
+
+        signerKeys = generateKeyPair();
+        X509v3CertificateBuilder signerBuilder = new JcaX509v3CertificateBuilder(caCertificate,
+                BigInteger.valueOf(2), notBefore, notAfter,
+                new X500Name("CN=Mario Rossi,SERIALNUMBER=TINIT-RSSMRA80A01H501U,C=IT"),
+                signerKeys.getPublic());
+        signerBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+        signerBuilder.addExtension(Extension.keyUsage, true,
+                new KeyUsage(KeyUsage.nonRepudiation));
+        signerBuilder.addExtension(Extension.authorityKeyIdentifier, false,
+                extensionUtils.createAuthorityKeyIdentifier(caCertificate));
+        signerBuilder.addExtension(Extension.subjectKeyIdentifier, false,
+                extensionUtils.createSubjectKeyIdentifier(signerKeys.getPublic()));
+        signerCertificate = converter.getCertificate(signerBuilder.build(contentSigner(caKeys)));
+
+        tsaKeys = generateKeyPair();
+        X509v3CertificateBuilder tsaBuilder = new JcaX509v3CertificateBuilder(caCertificate,
+                BigInteger.valueOf(3), notBefore, notAfter,
+                new X500Name("CN=Benchmark TSA,O=Benchmark,C=IT"), tsaKeys.getPublic());
+        tsaBuilder.addExtension(Extension.extendedKeyUsage, true,
+                new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+        tsaBuilder.addExtension(Extension.authorityKeyIdentifier, false,
+                extensionUtils.createAuthorityKeyIdentifier(caCertificate));
+        tsaCertificate = converter.getCertificate(tsaBuilder.build(contentSigner(caKeys)));
+    }
+
+    /**
+     * Certificati di CA con soggetti e identificativi della chiave distinti, come quelli di una
+     * trusted list (la chiave pubblica è la stessa per limitare i tempi di generazione)
+     */
+    List<X509Certificate> createTrustedList(int size) throws Exception {
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter()
+                .setProvider("BC");
+        ContentSigner signer = contentSigner(caKeys);
+        Date notBefore = new Date(System.currentTimeMillis() - 24L * 3600 * 1000);
+        Date notAfter = new Date(System.currentTimeMillis() + 365L * 24 * 3600 * 1000);
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+        for (int i = 0; i < size; i++) {
+            X500Name name = new X500Name("CN=Trusted CA " + i + ",O=Benchmark,C=IT");
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name,
+                    BigInteger.valueOf(i + 1), notBefore, notAfter, name, caKeys.getPublic());
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            builder.addExtension(Extension.subjectKeyIdentifier, false,
+                    new SubjectKeyIdentifier(BigInteger.valueOf(i + 1).toByteArray()));
+            certificates.add(converter.getCertificate(builder.build(signer)));
+        }
+        return certificates;
+    }
+
+    /**
+     * CRL della CA con il numero di voci richiesto (seriali da 1000), che non comprende i
+     * certificati generati
+     */
+    byte[] createCRL(int entries) throws Exception {
+        Date now = new Date();
+        X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(caCertificate, now);
+        builder.setNextUpdate(new Date(now.getTime() + 7L * 24 * 3600 * 1000));
+        for (int i = 0; i < entries; i++) {
+            builder.addCRLEntry(BigInteger.valueOf(1000L + i), now, CRLReason.keyCompromise);
+        }
+        builder.addExtension(Extension.authorityKeyIdentifier, false,
+                new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(caCertificate));
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.ONE));
+        return builder.build(contentSigner(caKeys)).getEncoded();
+    }
+
+    /**
+     * Busta CAdES-BES con attributo signingCertificateV2
+     */
+    byte[] sign(byte[] content) throws Exception {
+        DigestCalculatorProvider digestProvider = new JcaDigestCalculatorProviderBuilder()
+                .setProvider("BC").build();
+        byte[] certificateHash = MessageDigest.getInstance("SHA-256")
+                .digest(signerCertificate.getEncoded());
+        Attribute signingCertificate = new Attribute(
+                PKCSObjectIdentifiers.id_aa_signingCertificateV2,
+                new DERSet(new SigningCertificateV2(new ESSCertIDv2[] {
+                        new ESSCertIDv2(certificateHash) })));
+        SignerInfoGenerator signerInfoGenerator = new JcaSignerInfoGeneratorBuilder(digestProvider)
+                .setSignedAttributeGenerator(new DefaultSignedAttributeTableGenerator(
+                        new AttributeTable(signingCertificate)))
+                .build(contentSigner(signerKeys), signerCertificate);
+        CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+        generator.addSignerInfoGenerator(signerInfoGenerator);
+        generator.addCertificates(new JcaCertStore(Arrays.asList(signerCertificate)));
+        return generator.generate(new CMSProcessableByteArray(content), true).getEncoded();
+    }
+
+    byte[] createTimeStampResponse(byte[] content) throws Exception {
+        DigestCalculatorProvider digestProvider = new JcaDigestCalculatorProviderBuilder()
+                .setProvider("BC").build();
+        TimeStampTokenGenerator tokenGenerator = new TimeStampTokenGenerator(
+                new JcaSignerInfoGeneratorBuilder(digestProvider).build(contentSigner(tsaKeys),
+                        tsaCertificate),
+                digestProvider.get(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256)),
+                new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.1"));
+        tokenGenerator.addCertificates(new JcaCertStore(Arrays.asList(tsaCertificate)));
+
+        TimeStampRequestGenerator requestGenerator = new TimeStampRequestGenerator();
+        requestGenerator.setCertReq(true);
+        TimeStampRequest request = requestGenerator.generate(TSPAlgorithms.SHA256,
+                MessageDigest.getInstance("SHA-256").digest(content));
+        return new TimeStampResponseGenerator(tokenGenerator, TSPAlgorithms.ALLOWED)
+                .generate(request, BigInteger.ONE, new Date()).getEncoded();
+    }
+
+    /**
+     * Busta M7M: messaggio MIME con la busta P7M e la marca temporale
+     */
+    static byte[] createM7m(byte[] p7m, byte[] tsr) throws IOException {
+        String boundary = "Benchmark";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeLine(out, "Mime-Version: 1.0");
+        writeLine(out, "Content-Type: multipart/mixed; boundary=\"" + boundary + "\"");
+        writeLine(out, "");
+        writeLine(out, "--" + boundary);
+        writeLine(out, "Content-Type: application/pkcs7-mime; smime-type=signed-data; "
+                + "name=\"documento.bin.p7m\"");
+        writeLine(out, "Content-Transfer-Encoding: binary");
+        writeLine(out, "Content-Disposition: attachment; filename=\"documento.bin.p7m\"");
+        writeLine(out, "");
+        out.write(p7m);
+        writeLine(out, "");
+        writeLine(out, "--" + boundary);
+        writeLine(out, "Content-Type: application/timestamp-reply; name=\"documento.bin.tsr\"");
+        writeLine(out, "Content-Transfer-Encoding: base64");
+        writeLine(out, "Content-Disposition: attachment; filename=\"documento.bin.tsr\"");
+        writeLine(out, "");
+        out.write(Base64.encode(tsr));
+        writeLine(out, "");
+        writeLine(out, "--" + boundary + "--");
+        return out.toByteArray();
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes("US-ASCII"));
+        out.write("\r\n".getBytes("US-ASCII"));
+    }
+
+    File createSignedPdf(File file) throws Exception {
+        ByteArrayOutputStream unsigned = new ByteArrayOutputStream();
+        com.itextpdf.text.Document document = new com.itextpdf.text.Document();
+        PdfWriter.getInstance(document, unsigned);
+        document.open();
+        for (int i = 0; i < 50; i++) {
+            document.add(new Paragraph("Documento di prova per la misura delle verifiche " + i));
+        }
+        document.close();
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            PdfReader reader = new PdfReader(unsigned.toByteArray());
+            PdfStamper stamper = PdfStamper.createSignature(reader, out, '\0');
+            PdfSignatureAppearance appearance = stamper.getSignatureAppearance();
+            appearance.setReason("Benchmark");
+            MakeSignature.signDetached(appearance, new BouncyCastleDigest(),
+                    new PrivateKeySignature(signerKeys.getPrivate(), "SHA-256", "BC"),
+                    new Certificate[] {
+                            signerCertificate, caCertificate },
+                    null, null, null, 0, MakeSignature.CryptoStandard.CADES);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Documento XML con firma XMLDSig enveloped
+     */
+    File createSignedXml(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().newDocument();
+        Element root = document.createElement("Documento");
+        document.appendChild(root);
+        for (int i = 0; i < 200; i++) {
+            Element item = document.createElement("Voce");
+            item.setAttribute("id", String.valueOf(i));
+            item.setTextContent("Contenuto di prova " + i);
+            root.appendChild(item);
+        }
+
+        XMLSignatureFactory signatureFactory = XMLSignatureFactory.getInstance("DOM");
+        Reference reference = signatureFactory.newReference("",
+                signatureFactory.newDigestMethod(DigestMethod.SHA256, null),
+                Collections.singletonList(signatureFactory.newTransform(Transform.ENVELOPED,
+                        (TransformParameterSpec) null)),
+                null, null);
+        SignedInfo signedInfo = signatureFactory.newSignedInfo(
+                signatureFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE,
+                        (C14NMethodParameterSpec) null),
+                signatureFactory.newSignatureMethod(
+                        "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", null),
+                Collections.singletonList(reference));
+        KeyInfoFactory keyInfoFactory = signatureFactory.getKeyInfoFactory();
+        List<X509Certificate> chain = Collections.singletonList(signerCertificate);
+        KeyInfo keyInfo = keyInfoFactory
+                .newKeyInfo(Collections.singletonList(keyInfoFactory.newX509Data(chain)));
+        signatureFactory.newXMLSignature(signedInfo, keyInfo)
+                .sign(new DOMSignContext(signerKeys.getPrivate(), root));
+
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document),
+                new StreamResult(file));
+        return file;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.support.GenericApplicationContext;
+
+import it.eng.crypto.CryptoConstants;
+import it.eng.crypto.context.CryptoSignerApplicationContextProvider;
+import it.eng.crypto.controller.bean.OutputSignerBean;
+import it.eng.crypto.controller.bean.ValidationInfos;
+import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.CMSSigner;
+import it.eng.crypto.data.CRLRevocationIndex;
+import it.eng.crypto.data.CRLUtil;
+import it.eng.crypto.data.DataSigner;
+import it.eng.crypto.data.M7MSigner;
+import it.eng.crypto.data.P7MSigner;
+import it.eng.crypto.data.PdfSigner;
+import it.eng.crypto.data.SignerUtil;
+import it.eng.crypto.data.XMLSigner;
+import it.eng.crypto.data.signature.ISignature;
+import it.eng.crypto.manager.SignatureManager;
+import it.eng.crypto.storage.ICAStorage;
+import it.eng.crypto.storage.ICRLStorage;
+import it.eng.crypto.storage.impl.cache.CachingCAStorage;
+import it.eng.crypto.storage.impl.cache.CachingCRLStorage;
+import it.eng.crypto.storage.impl.filesystem.FileSystemCAStorage;
+import it.eng.crypto.storage.impl.filesystem.FileSystemCRLStorage;
+import it.eng.crypto.storage.impl.filesystem.FileSystemConfigStorage;
+
+/**
+ * Misura con JMH i tempi dei principali passi della verifica: riconoscimento del formato, parsing
+ * delle buste, verifica crittografica, parsing e consultazione di una CRL di grandi dimensioni,
+ * accesso agli storage e verifica completa tramite il {@link SignatureManager}.
+ * <p>
+ * I documenti vengono generati da {@link BenchmarkDocuments} in una directory temporanea e gli
+ * storage JNDI della configurazione vengono sostituiti da quelli su file system: l'esecuzione non
+ * richiede accesso alla rete. Si esegue con il profilo <code>benchmark</code>
+ * (<code>mvn -Pbenchmark test-compile exec:exec</code>); i parametri <code>crlEntries</code>,
+ * <code>trustedListSize</code> e <code>contentSize</code> si impostano con le opzioni di JMH, ad
+ * esempio <code>-Dbenchmark.args="-p crlEntries=1000000"</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class VerificaBenchmark {
+
+    @Param("100000")
+    private int crlEntries;
+
+    @Param("3000")
+    private int trustedListSize;
+
+    @Param("1048576")
+    private int contentSize;
+
+    private File directory;
+    private X509Certificate signerCertificate;
+    private File p7mFile;
+    private File p7mP7mFile;
+    private File m7mFile;
+    private File pdfFile;
+    private File xmlFile;
+
+    private byte[] crlEncoded;
+    private X509CRL crl;
+    private BigInteger revokedSerial;
+
+    private GenericApplicationContext context;
+    private SignerUtil signerUtil;
+    private AbstractSigner p7mSigner;
+    private AbstractSigner cmsSigner;
+    private AbstractSigner m7mSigner;
+    private AbstractSigner pdfSigner;
+    private AbstractSigner xmlSigner;
+    private ISignature signature;
+
+    private ICAStorage fileSystemCaStorage;
+    private ICAStorage cachingCaStorage;
+    private String caKeyId;
+    private ICRLStorage fileSystemCrlStorage;
+    private ICRLStorage cachingCrlStorage;
+    private String crlIssuer;
+    private String crlKeyId;
+    private List<X509Certificate> trustedList;
+    private FileSystemCAStorage trustedListStorage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDocuments documents = BenchmarkDocuments.getInstance();
+        signerCertificate = documents.getSignerCertificate();
+        directory = Files.createTempDirectory("crypto-benchmark").toFile();
+
+        byte[] content = new byte[contentSize];
+        new Random(0).nextBytes(content);
+        byte[] p7m = documents.sign(content);
+        p7mFile = BenchmarkDocuments.write(directory, "documento.bin.p7m", p7m);
+        p7mP7mFile = BenchmarkDocuments.write(directory, "documento.bin.p7m.p7m",
+                documents.sign(p7m));
+        m7mFile = BenchmarkDocuments.write(directory, "documento.bin.m7m",
+                BenchmarkDocuments.createM7m(p7m, documents.createTimeStampResponse(p7m)));
+        pdfFile = documents.createSignedPdf(new File(directory, "documento.pdf"));
+        xmlFile = documents.createSignedXml(new File(directory, "documento.xml"));
+
+        crlEncoded = documents.createCRL(crlEntries);
+        // Stessa rappresentazione della CRL ottenuta dai punti di distribuzione
+        crl = CRLUtil.parse(crlEncoded);
+        revokedSerial = BigInteger.valueOf(1000L + crlEntries / 2);
+
+        context = createContext(documents);
+        signerUtil = SignerUtil.newInstance(context);
+        p7mSigner = getSigner(P7MSigner.class, p7mFile);
+        cmsSigner = getSigner(CMSSigner.class, p7mFile);
+        m7mSigner = getSigner(M7MSigner.class, m7mFile);
+        pdfSigner = getSigner(PdfSigner.class, pdfFile);
+        xmlSigner = getSigner(XMLSigner.class, xmlFile);
+        cmsSigner.setFile(p7mFile);
+        signature = cmsSigner.getSignatures().get(0);
+
+        fileSystemCaStorage = context.getBean(CryptoConstants.ICASTORAGE,
+                FileSystemCAStorage.class);
+        cachingCaStorage = new CachingCAStorage(fileSystemCaStorage);
+        caKeyId = SignerUtil.getAuthorityKeyId(signerCertificate);
+        fileSystemCrlStorage = context.getBean(CryptoConstants.ICRLSTORAGE,
+                FileSystemCRLStorage.class);
+        cachingCrlStorage = new CachingCRLStorage(fileSystemCrlStorage);
+        crlIssuer = crl.getIssuerX500Principal().getName();
+        crlKeyId = SignerUtil.getAuthorityKeyId(crl);
+
+        trustedList = documents.createTrustedList(trustedListSize);
+        trustedListStorage = new FileSystemCAStorage();
+        trustedListStorage.setDirectory(
+                Files.createDirectory(new File(directory, "trusted-list").toPath()).toString());
+        trustedListStorage.insertCAs(trustedList);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        CRLRevocationIndex.clearCache();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /*
+     * Contesto con la configurazione delle verifiche e gli storage su file system
+     */
+    private GenericApplicationContext createContext(BenchmarkDocuments documents)
+            throws Exception {
+        GenericApplicationContext applicationContext = new GenericApplicationContext();
+        new XmlBeanDefinitionReader(applicationContext)
+                .loadBeanDefinitions("classpath:VerificheControllerConfig.xml");
+        applicationContext.registerBeanDefinition(CryptoConstants.ICASTORAGE,
+                BeanDefinitionBuilder.genericBeanDefinition(FileSystemCAStorage.class)
+                        .addPropertyValue("directory", directory.getAbsolutePath())
+                        .getBeanDefinition());
+        applicationContext.registerBeanDefinition(CryptoConstants.ICRLSTORAGE,
+                BeanDefinitionBuilder.genericBeanDefinition(FileSystemCRLStorage.class)
+                        .addPropertyValue("directory", directory.getAbsolutePath())
+                        .getBeanDefinition());
+        applicationContext.registerBeanDefinition(CryptoConstants.ICONFIGSTORAGE,
+                BeanDefinitionBuilder.genericBeanDefinition(FileSystemConfigStorage.class)
+                        .addPropertyValue("directory", directory.getAbsolutePath())
+                        .getBeanDefinition());
+        applicationContext.refresh();
+        // I controller recuperano il contesto tramite il provider
+        new CryptoSignerApplicationContextProvider().setApplicationContext(applicationContext);
+
+        applicationContext.getBean(CryptoConstants.ICASTORAGE, FileSystemCAStorage.class)
+                .insertCA(documents.getCaCertificate());
+        applicationContext.getBean(CryptoConstants.ICRLSTORAGE, FileSystemCRLStorage.class)
+                .upsertCRL(crl);
+        return applicationContext;
+    }
+
+    private AbstractSigner getSigner(Class<? extends AbstractSigner> signerClass, File file)
+            throws Exception {
+        AbstractSigner signer = null;
+        if (signerClass == P7MSigner.class) {
+            signer = new P7MSigner();
+        } else {
+            for (AbstractSigner configured : context.getBean("DataSigner", DataSigner.class)
+                    .getSignersManager()) {
+                if (configured.getClass() == signerClass) {
+                    signer = configured;
+                }
+            }
+        }
+        if (signer == null) {
+            throw new IllegalArgumentException("Signer non configurato: " + signerClass);
+        }
+        if (!signer.isSignedType(file, new ValidationInfos())) {
+            throw new IllegalStateException(
+                    signerClass.getSimpleName() + ": busta non riconosciuta " + file);
+        }
+        return signer;
+    }
+
+    private SignatureManager newSignatureManager() {
+        return context.getBean("VersamentoManager", SignatureManager.class);
+    }
+
+    // Riconoscimento del formato
+
+    @Benchmark
+    public AbstractSigner getSignerManagerP7m() throws Exception {
+        return signerUtil.getSignerManager(p7mFile);
+    }
+
+    @Benchmark
+    public AbstractSigner getSignerManagerP7mAnnidato() throws Exception {
+        return signerUtil.getSignerManager(p7mP7mFile);
+    }
+
+    @Benchmark
+    public AbstractSigner getSignerManagerM7m() throws Exception {
+        return signerUtil.getSignerManager(m7mFile);
+    }
+
+    @Benchmark
+    public AbstractSigner getSignerManagerPdf() throws Exception {
+        return signerUtil.getSignerManager(pdfFile);
+    }
+
+    @Benchmark
+    public AbstractSigner getSignerManagerXml() throws Exception {
+        return signerUtil.getSignerManager(xmlFile);
+    }
+
+    // Parsing delle buste
+
+    @Benchmark
+    public boolean isSignedTypeP7MSigner() throws Exception {
+        return p7mSigner.isSignedType(p7mFile, new ValidationInfos());
+    }
+
+    @Benchmark
+    public List<ISignature> getSignaturesP7MSigner() throws Exception {
+        p7mSigner.setFile(p7mFile);
+        return p7mSigner.getSignatures();
+    }
+
+    @Benchmark
+    public boolean isSignedTypeCMSSigner() throws Exception {
+        return cmsSigner.isSignedType(p7mFile, new ValidationInfos());
+    }
+
+    @Benchmark
+    public List<ISignature> getSignaturesCMSSigner() throws Exception {
+        cmsSigner.setFile(p7mFile);
+        return cmsSigner.getSignatures();
+    }
+
+    @Benchmark
+    public boolean isSignedTypeM7MSigner() throws Exception {
+        return m7mSigner.isSignedType(m7mFile, new ValidationInfos());
+    }
+
+    @Benchmark
+    public List<ISignature> getSignaturesM7MSigner() throws Exception {
+        m7mSigner.setFile(m7mFile);
+        return m7mSigner.getSignatures();
+    }
+
+    @Benchmark
+    public boolean isSignedTypePdfSigner() throws Exception {
+        return pdfSigner.isSignedType(pdfFile, new ValidationInfos());
+    }
+
+    @Benchmark
+    public List<ISignature> getSignaturesPdfSigner() throws Exception {
+        pdfSigner.setFile(pdfFile);
+        return pdfSigner.getSignatures();
+    }
+
+    @Benchmark
+    public boolean isSignedTypeXMLSigner() throws Exception {
+        return xmlSigner.isSignedType(xmlFile, new ValidationInfos());
+    }
+
+    @Benchmark
+    public List<ISignature> getSignaturesXMLSigner() throws Exception {
+        xmlSigner.setFile(xmlFile);
+        return xmlSigner.getSignatures();
+    }
+
+    // Verifica crittografica
+
+    @Benchmark
+    public ValidationInfos verifyCMSSignature() throws Exception {
+        return signature.verify();
+    }
+
+    // CRL
+
+    @Benchmark
+    public X509CRL parseCrl() throws Exception {
+        return CRLUtil.parse(crlEncoded);
+    }
+
+    @Benchmark
+    public X509CRL parseCrlStream() throws Exception {
+        return CRLUtil.parse(new ByteArrayInputStream(crlEncoded));
+    }
+
+    @Benchmark
+    public CRLRevocationIndex readRevocationIndex() throws Exception {
+        return CRLRevocationIndex.read(new ByteArrayInputStream(crlEncoded),
+                BenchmarkDocuments.getInstance().getCaPublicKey());
+    }
+
+    @Benchmark
+    public X509CRLEntry getRevokedCertificateValido() {
+        return crl.getRevokedCertificate(signerCertificate);
+    }
+
+    @Benchmark
+    public X509CRLEntry getRevokedCertificateRevocato() {
+        return crl.getRevokedCertificate(revokedSerial);
+    }
+
+    // Stessa ricerca eseguita da CertificateRevocation per la firma in verifica
+
+    @Benchmark
+    public int revocationIndexOfValido() throws Exception {
+        return CRLRevocationIndex.of(crl).indexOf(signerCertificate);
+    }
+
+    @Benchmark
+    public int revocationIndexOfRevocato() throws Exception {
+        return CRLRevocationIndex.of(crl).indexOf(revokedSerial);
+    }
+
+    // Storage
+
+    @Benchmark
+    public X509Certificate retriveCAFileSystem() throws Exception {
+        return fileSystemCaStorage.retriveCA(signerCertificate.getIssuerX500Principal(), caKeyId);
+    }
+
+    @Benchmark
+    public X509Certificate retriveCACaching() throws Exception {
+        return cachingCaStorage.retriveCA(signerCertificate.getIssuerX500Principal(), caKeyId);
+    }
+
+    @Benchmark
+    public X509CRL retriveCRLFileSystem() throws Exception {
+        return fileSystemCrlStorage.retriveCRL(crlIssuer, crlKeyId);
+    }
+
+    @Benchmark
+    public X509CRL retriveCRLCaching() throws Exception {
+        return cachingCrlStorage.retriveCRL(crlIssuer, crlKeyId);
+    }
+
+    @Benchmark
+    public FileSystemCAStorage insertCAsInvariati() throws Exception {
+        trustedListStorage.insertCAs(trustedList);
+        return trustedListStorage;
+    }
+
+    // Verifica completa
+
+    @Benchmark
+    public OutputSignerBean executeEmbeddedP7m() throws Exception {
+        return newSignatureManager().executeEmbedded(p7mFile);
+    }
+
+    @Benchmark
+    public OutputSignerBean executeEmbeddedP7mAnnidato() throws Exception {
+        return newSignatureManager().executeEmbedded(p7mP7mFile);
+    }
+
+    @Benchmark
+    public OutputSignerBean executeEmbeddedM7m() throws Exception {
+        return newSignatureManager().executeEmbedded(m7mFile);
+    }
+}
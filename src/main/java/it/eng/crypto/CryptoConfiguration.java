@@ -13,7 +13,33 @@
 
 package it.eng.crypto;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.data.CRLDownloadCache;
+import it.eng.crypto.data.CRLRefreshScheduler;
+import it.eng.crypto.data.OCSPResponseCache;
+import it.eng.crypto.data.TrustedListLoader;
+import it.eng.crypto.utils.VerificheEnums.ModalitaControlloRevoca;
 
 /**
  * Classe che setta i parametri di configurazione del sistema
@@ -28,6 +54,13 @@ public class CryptoConfiguration implements Serializable {
      *
      */
     private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(CryptoConfiguration.class);
+
+    /**
+     * Secondi dopo i quali le connessioni HTTP inutilizzate vengono chiuse
+     */
+    private static final long HTTP_IDLE_TIMEOUT = 30;
     /**
      * Schedulazione per il controllo della revoca dei certificati
      */
@@ -64,6 +97,95 @@ public class CryptoConfiguration implements Serializable {
      * Host della macchina utente per autenticazione NTLS
      */
     private String userHost = null;
+    /**
+     * Numero massimo di connessioni HTTP aperte contemporaneamente
+     */
+    private int httpMaxConnections = 50;
+    /**
+     * Numero massimo di connessioni HTTP aperte contemporaneamente verso lo stesso server
+     */
+    private int httpMaxConnectionsPerRoute = 10;
+    /**
+     * Client HTTP condiviso per il download di CRL e trusted list, creato al primo utilizzo
+     */
+    private transient CloseableHttpClient httpClient = null;
+    /**
+     * Intervallo minimo in secondi tra due download della CRL dallo stesso punto di distribuzione
+     */
+    private long crlMinRefreshInterval = 300;
+    /**
+     * Stato dei download delle CRL per punto di distribuzione
+     */
+    private transient CRLDownloadCache crlDownloadCache = null;
+    /**
+     * Indica se interrogare in concorrenza i punti di distribuzione delle CRL, accettando la prima
+     * CRL valida
+     */
+    private boolean crlParallelDownload = false;
+    /**
+     * Ritardo in millisecondi prima di interrogare il punto di distribuzione successivo durante il
+     * download parallelo (0 per interrogarli tutti subito)
+     */
+    private long crlHedgeDelay = 500;
+    /**
+     * Thread utilizzati per il download parallelo delle CRL
+     */
+    private transient ExecutorService crlDownloadExecutor = null;
+    /**
+     * Modalità del controllo di revoca (default: solo CRL)
+     */
+    private ModalitaControlloRevoca revocationCheckMode = ModalitaControlloRevoca.CRL;
+    /**
+     * Numero massimo di risposte OCSP mantenute in memoria
+     */
+    private int ocspCacheMaxEntries = OCSPResponseCache.DEFAULT_MAX_ENTRIES;
+    /**
+     * Risposte OCSP validate, riutilizzate fino al prossimo aggiornamento indicato dal responder
+     */
+    private transient OCSPResponseCache ocspResponseCache = null;
+    /**
+     * Indica se aggiornare in background le CRL utilizzate prima della data di prossimo
+     * aggiornamento
+     */
+    private boolean crlBackgroundRefresh = false;
+    /**
+     * Anticipo in secondi rispetto alla data di prossimo aggiornamento con cui scaricare la CRL
+     */
+    private long crlRefreshAdvance = 900;
+    /**
+     * Ritardo casuale massimo in secondi sottratto all'istante di aggiornamento della CRL
+     */
+    private long crlRefreshJitter = 300;
+    /**
+     * Attesa massima in secondi tra due tentativi di aggiornamento non riusciti
+     */
+    private long crlRefreshMaxBackoff = 3600;
+    /**
+     * Numero massimo di CRL aggiornate contemporaneamente in background
+     */
+    private int crlRefreshThreads = 2;
+    /**
+     * Timeout in secondi di connessione e di lettura utilizzato per l'aggiornamento in background
+     */
+    private int crlRefreshTimeout = 30;
+    /**
+     * Tempo in secondi trascorso il quale una CRL non più utilizzata dalle verifiche smette di
+     * essere aggiornata in background (0 per aggiornarla sempre)
+     */
+    private long crlRefreshIdleTimeout = 7 * 24 * 3600;
+    /**
+     * Timeout in secondi di connessione e di lettura utilizzato per il download delle trusted
+     * list
+     */
+    private int trustedListTimeout = 60;
+    /**
+     * Aggiornamento in background delle CRL
+     */
+    private transient CRLRefreshScheduler crlRefreshScheduler = null;
+    /**
+     * Inserimento in background nello storage dei certificati delle trusted list
+     */
+    private transient TrustedListLoader trustedListLoader = null;
 
     /**
      * URL del servizio di timestamping
@@ -279,6 +401,259 @@ public class CryptoConfiguration implements Serializable {
     public void setUserDomain(String userDomain) {
         this.userDomain = userDomain;
     }
+
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    public void setHttpMaxConnections(int httpMaxConnections) {
+        this.httpMaxConnections = httpMaxConnections;
+    }
+
+    public int getHttpMaxConnectionsPerRoute() {
+        return httpMaxConnectionsPerRoute;
+    }
+
+    public void setHttpMaxConnectionsPerRoute(int httpMaxConnectionsPerRoute) {
+        this.httpMaxConnectionsPerRoute = httpMaxConnectionsPerRoute;
+    }
+
+    public long getCrlMinRefreshInterval() {
+        return crlMinRefreshInterval;
+    }
+
+    public void setCrlMinRefreshInterval(long crlMinRefreshInterval) {
+        this.crlMinRefreshInterval = crlMinRefreshInterval;
+    }
+
+    public boolean isCrlParallelDownload() {
+        return crlParallelDownload;
+    }
+
+    public void setCrlParallelDownload(boolean crlParallelDownload) {
+        this.crlParallelDownload = crlParallelDownload;
+    }
+
+    public long getCrlHedgeDelay() {
+        return crlHedgeDelay;
+    }
+
+    public void setCrlHedgeDelay(long crlHedgeDelay) {
+        this.crlHedgeDelay = crlHedgeDelay;
+    }
+
+    public ModalitaControlloRevoca getRevocationCheckMode() {
+        return revocationCheckMode;
+    }
+
+    public void setRevocationCheckMode(ModalitaControlloRevoca revocationCheckMode) {
+        this.revocationCheckMode = revocationCheckMode;
+    }
+
+    public boolean isCrlBackgroundRefresh() {
+        return crlBackgroundRefresh;
+    }
+
+    public void setCrlBackgroundRefresh(boolean crlBackgroundRefresh) {
+        this.crlBackgroundRefresh = crlBackgroundRefresh;
+    }
+
+    public long getCrlRefreshAdvance() {
+        return crlRefreshAdvance;
+    }
+
+    public void setCrlRefreshAdvance(long crlRefreshAdvance) {
+        this.crlRefreshAdvance = crlRefreshAdvance;
+    }
+
+    public long getCrlRefreshJitter() {
+        return crlRefreshJitter;
+    }
+
+    public void setCrlRefreshJitter(long crlRefreshJitter) {
+        this.crlRefreshJitter = crlRefreshJitter;
+    }
+
+    public long getCrlRefreshMaxBackoff() {
+        return crlRefreshMaxBackoff;
+    }
+
+    public void setCrlRefreshMaxBackoff(long crlRefreshMaxBackoff) {
+        this.crlRefreshMaxBackoff = crlRefreshMaxBackoff;
+    }
+
+    public int getCrlRefreshThreads() {
+        return crlRefreshThreads;
+    }
+
+    public void setCrlRefreshThreads(int crlRefreshThreads) {
+        this.crlRefreshThreads = crlRefreshThreads;
+    }
+
+    public int getCrlRefreshTimeout() {
+        return crlRefreshTimeout;
+    }
+
+    public void setCrlRefreshTimeout(int crlRefreshTimeout) {
+        this.crlRefreshTimeout = crlRefreshTimeout;
+    }
+
+    public long getCrlRefreshIdleTimeout() {
+        return crlRefreshIdleTimeout;
+    }
+
+    public void setCrlRefreshIdleTimeout(long crlRefreshIdleTimeout) {
+        this.crlRefreshIdleTimeout = crlRefreshIdleTimeout;
+    }
+
+    public int getOcspCacheMaxEntries() {
+        return ocspCacheMaxEntries;
+    }
+
+    public void setOcspCacheMaxEntries(int ocspCacheMaxEntries) {
+        this.ocspCacheMaxEntries = ocspCacheMaxEntries;
+    }
+
+    public int getTrustedListTimeout() {
+        return trustedListTimeout;
+    }
+
+    public void setTrustedListTimeout(int trustedListTimeout) {
+        this.trustedListTimeout = trustedListTimeout;
+    }
+
+    /**
+     * Restituisce lo scheduler dell'aggiornamento in background delle CRL
+     *
+     * @return lo scheduler oppure null se l'aggiornamento in background non è abilitato
+     */
+    public synchronized CRLRefreshScheduler getCrlRefreshScheduler() {
+        if (!crlBackgroundRefresh) {
+            return null;
+        }
+        if (crlRefreshScheduler == null) {
+            crlRefreshScheduler = new CRLRefreshScheduler(this);
+        }
+        return crlRefreshScheduler;
+    }
+
+    /**
+     * Restituisce le risposte OCSP già validate
+     *
+     * @return la cache delle risposte OCSP
+     */
+    public synchronized OCSPResponseCache getOcspResponseCache() {
+        if (ocspResponseCache == null) {
+            ocspResponseCache = new OCSPResponseCache(ocspCacheMaxEntries);
+        }
+        return ocspResponseCache;
+    }
+
+    /**
+     * Restituisce il pool di thread per il download parallelo delle CRL dai punti di
+     * distribuzione
+     *
+     * @return il pool di thread
+     */
+    public synchronized ExecutorService getCrlDownloadExecutor() {
+        if (crlDownloadExecutor == null) {
+            final AtomicInteger counter = new AtomicInteger();
+            crlDownloadExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "crl-download-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return crlDownloadExecutor;
+    }
+
+    /**
+     * Restituisce il caricamento in background dei certificati delle trusted list
+     *
+     * @return il caricamento in background
+     */
+    public synchronized TrustedListLoader getTrustedListLoader() {
+        if (trustedListLoader == null) {
+            trustedListLoader = new TrustedListLoader();
+        }
+        return trustedListLoader;
+    }
+
+    /**
+     * Restituisce lo stato dei download delle CRL dai punti di distribuzione HTTP, utilizzato per
+     * le richieste condizionali
+     *
+     * @return lo stato dei download
+     */
+    public synchronized CRLDownloadCache getCrlDownloadCache() {
+        if (crlDownloadCache == null) {
+            crlDownloadCache = new CRLDownloadCache();
+        }
+        return crlDownloadCache;
+    }
+
+    /**
+     * Restituisce il client HTTP condiviso, con pool di connessioni persistenti. Il client viene
+     * creato alla prima invocazione applicando le impostazioni del proxy (e l'eventuale
+     * autenticazione NTLM) presenti in quel momento. I timeout vanno impostati sulle singole
+     * richieste. Le risposte vanno sempre consumate o chiuse per restituire la connessione al
+     * pool.
+     *
+     * @return il client HTTP
+     */
+    public synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(httpMaxConnections);
+            connectionManager.setDefaultMaxPerRoute(httpMaxConnectionsPerRoute);
+
+            HttpClientBuilder builder = HttpClients.custom()
+                    .setConnectionManager(connectionManager).evictExpiredConnections()
+                    .evictIdleConnections(HTTP_IDLE_TIMEOUT, TimeUnit.SECONDS);
+            if (isProxy()) {
+                HttpHost proxy = new HttpHost(proxyHost, proxyPort);
+                Credentials credential = isNTLSAuth()
+                        ? new NTCredentials(proxyUser, proxyPassword, userHost, userDomain)
+                        : new UsernamePasswordCredentials(proxyUser, proxyPassword);
+                CredentialsProvider credsProvider = new BasicCredentialsProvider();
+                credsProvider.setCredentials(new AuthScope(proxy.getHostName(), proxy.getPort()),
+                        credential);
+                builder.setProxy(proxy).setDefaultCredentialsProvider(credsProvider);
+            }
+            httpClient = builder.build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * Chiude il client HTTP condiviso e le relative connessioni e arresta i thread di download
+     * e di aggiornamento delle CRL e di caricamento delle trusted list
+     */
+    public synchronized void destroy() {
+        if (crlRefreshScheduler != null) {
+            crlRefreshScheduler.shutdown();
+            crlRefreshScheduler = null;
+        }
+        if (crlDownloadExecutor != null) {
+            crlDownloadExecutor.shutdownNow();
+            crlDownloadExecutor = null;
+        }
+        if (trustedListLoader != null) {
+            trustedListLoader.shutdown();
+            trustedListLoader = null;
+        }
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Errore nella chiusura del client HTTP", e);
+            }
+            httpClient = null;
+        }
+    }
     // public String getTSAServiceURL() {
     // return TSAServiceURL;
     // }
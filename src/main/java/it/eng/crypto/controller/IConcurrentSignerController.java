@@ -0,0 +1,43 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.controller;
+
+/**
+ * Controller che dichiara le proprietà del bean di output che legge e quelle che valorizza. Il
+ * {@link MasterSignerController} utilizza queste informazioni per eseguire in concorrenza i
+ * controller indipendenti tra loro: un controller viene avviato solo quando sono terminati i
+ * controller precedenti che valorizzano le proprietà da esso richieste.
+ * <p>
+ * I controller che non implementano l'interfaccia vengono eseguiti dopo tutti i precedenti e prima
+ * di tutti i successivi, come nell'esecuzione sequenziale.
+ * </p>
+ *
+ */
+public interface IConcurrentSignerController extends ISignerController {
+
+    /**
+     * Restituisce le proprietà del bean di output lette dal controller
+     *
+     * @return i nomi delle proprietà (array vuoto se il controller non ne legge)
+     */
+    public String[] getRequiredProperties();
+
+    /**
+     * Restituisce le proprietà del bean di output valorizzate dal controller
+     *
+     * @return i nomi delle proprietà (array vuoto se il controller non ne valorizza)
+     */
+    public String[] getProvidedProperties();
+
+}
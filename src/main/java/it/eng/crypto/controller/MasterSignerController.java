@@ -16,10 +16,20 @@ package it.eng.crypto.controller;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.exception.ExceptionController;
+import it.eng.crypto.data.XMLSigner;
 import it.eng.crypto.data.type.SignerType;
 import java.security.cert.CRL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +37,14 @@ import org.slf4j.LoggerFactory;
  * Implementa la gestione dei controller. L'analisi viene innescata dalla chiamata al metodo
  * {@link MasterSignerController#executeControll(InputSignerBean)} e iterata su tutti i controller
  * definiti nell'attributo controllers
+ * <p>
+ * Se è definito un executor i controller che implementano {@link IConcurrentSignerController}
+ * vengono eseguiti in concorrenza, rispettando le dipendenze tra le proprietà del bean di output
+ * che leggono e valorizzano. I controller bloccanti e quelli che non dichiarano le proprietà
+ * vengono eseguiti dopo tutti i precedenti e prima di tutti i successivi. I controller delle
+ * buste XML sono sempre eseguiti in sequenza. L'esecuzione concorrente è disabilitata se non viene
+ * definito un executor.
+ * </p>
  *
  * @author Stefano Zennaro
  *
@@ -40,8 +58,17 @@ public class MasterSignerController {
     private Map<String, Boolean> checks;
     // Lista delle crl
     private CRL crl;
-    // Indica se uno dei controlli bloccanti non è andato a buon fine
-    private boolean interrupted = false;
+    // Indica se uno dei controlli bloccanti non è andato a buon fine nell'ultima esecuzione del
+    // thread corrente: l'istanza è condivisa tra le verifiche eseguite in parallelo
+    private final ThreadLocal<Boolean> interrupted = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+    // Executor per l'esecuzione concorrente dei controller (se null i controller sono eseguiti in
+    // sequenza)
+    private ExecutorService executor;
 
     // Ausiliario
     // private SignerUtil signerUtil = SignerUtil.newInstance();
@@ -78,6 +105,22 @@ public class MasterSignerController {
         return output;
     }
 
+    /**
+     * Effettua l'analisi richiamando l'esecuzione di ciascun controller configurato e popolando il
+     * bean di output passato in ingresso, che in caso di errore bloccante contiene l'esito dei
+     * controlli eseguiti ({@link OutputSignerBean#isInterrupted()} e
+     * {@link OutputSignerBean#MASTER_SIGNER_EXCEPTION_PROPERTY}).
+     *
+     * @param input  bean contenente le informazioni in input per eseguire i controlli
+     * @param output bean di output da popolare
+     *
+     * @throws ExceptionController
+     */
+    public void executeControll(InputSignerBean input, OutputSignerBean output)
+            throws ExceptionController {
+        this.execute(input, output);
+    }
+
     /**
      * Esegue la sequenza di controlli sul bean di input, iterandoli sul contenuto qualora esso
      * risulti ulteriormente firmato
@@ -85,9 +128,21 @@ public class MasterSignerController {
      */
     private void execute(InputSignerBean input, OutputSignerBean output)
             throws ExceptionController {
-        boolean result;
+        interrupted.set(Boolean.FALSE);
         input.setChecks(checks);
         input.setCrl(crl);
+        // Le firme XML condividono il Document DOM della busta, che non è thread-safe: i
+        // controller che vi accedono non possono essere eseguiti in concorrenza
+        if (executor == null || input.getSigner() instanceof XMLSigner) {
+            executeSequential(input, output);
+        } else {
+            executeConcurrent(input, output);
+        }
+    }
+
+    private void executeSequential(InputSignerBean input, OutputSignerBean output)
+            throws ExceptionController {
+        boolean result;
         for (ISignerController controller : controllers) {
             if (controller.canExecute(input)) {
                 try {
@@ -104,7 +159,8 @@ public class MasterSignerController {
                         // interrupted perchè voglio
                         // proseguire le verifiche con lo sbustato
                         if (!input.getSigner().getFormat().equals(SignerType.TSD)) {
-                            interrupted = true;
+                            interrupted.set(Boolean.TRUE);
+                            output.setInterrupted(true);
                         }
                         break;
                     }
@@ -113,7 +169,8 @@ public class MasterSignerController {
                             + " eseguito con successo in " + elapsedTimeMillis + "ms");
                 } catch (ExceptionController e) {
                     if (controller.isCritical()) {
-                        interrupted = true;
+                        interrupted.set(Boolean.TRUE);
+                        output.setInterrupted(true);
                         output.setProperty(OutputSignerBean.MASTER_SIGNER_EXCEPTION_PROPERTY,
                                 controller.getClass().getName());
                         throw e;
@@ -125,6 +182,197 @@ public class MasterSignerController {
 
     }
 
+    /*
+     * Esegue i controller in concorrenza: ciascun controller viene avviato quando sono terminati i
+     * controller da cui dipende (vedi getDependencies). Un controller bloccante dipende da tutti i
+     * precedenti e tutti i successivi dipendono da esso, per cui al suo fallimento non vi sono
+     * altri controller in esecuzione e quelli successivi non vengono avviati, come nell'esecuzione
+     * sequenziale.
+     */
+    private void executeConcurrent(final InputSignerBean input, final OutputSignerBean output)
+            throws ExceptionController {
+        int size = controllers.size();
+        List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            dependencies.add(getDependencies(i));
+        }
+        boolean[] started = new boolean[size];
+        boolean[] completed = new boolean[size];
+        int running = 0;
+        boolean stop = false;
+        ExceptionController failure = null;
+
+        // I controller scrivono contemporaneamente le proprietà del bean di output
+        Map<String, Object> properties = output.getProperties();
+        output.setProperties(Collections.synchronizedMap(properties));
+        CompletionService<ControllerResult> completionService = new ExecutorCompletionService<ControllerResult>(
+                executor);
+        try {
+            do {
+                // Un controller disabilitato viene considerato terminato: la scansione viene
+                // ripetuta perché le dipendenze dei successivi potrebbero essere soddisfatte
+                boolean skipped = true;
+                while (!stop && skipped) {
+                    skipped = false;
+                    for (int i = 0; i < size; i++) {
+                        if (started[i] || !isCompleted(dependencies.get(i), completed)) {
+                            continue;
+                        }
+                        started[i] = true;
+                        final int index = i;
+                        final ISignerController controller = controllers.get(i);
+                        if (!controller.canExecute(input)) {
+                            completed[i] = true;
+                            skipped = true;
+                            continue;
+                        }
+                        completionService.submit(() -> executeController(index, controller,
+                                input, output));
+                        running++;
+                    }
+                }
+                if (running == 0) {
+                    break;
+                }
+                ControllerResult controllerResult = take(completionService);
+                running--;
+                completed[controllerResult.index] = true;
+                ISignerController controller = controllers.get(controllerResult.index);
+                if (controllerResult.exception != null) {
+                    if (controller.isCritical()) {
+                        interrupted.set(Boolean.TRUE);
+                        output.setInterrupted(true);
+                        output.setProperty(OutputSignerBean.MASTER_SIGNER_EXCEPTION_PROPERTY,
+                                controller.getClass().getName());
+                        failure = controllerResult.exception;
+                        stop = true;
+                    }
+                } else if (!controllerResult.result && controller.isCritical()) {
+                    output.setProperty(OutputSignerBean.MASTER_SIGNER_EXCEPTION_PROPERTY,
+                            controller.getClass().getName());
+                    // Vedi executeSequential: per il TSD l'interruzione non è un errore
+                    if (!input.getSigner().getFormat().equals(SignerType.TSD)) {
+                        interrupted.set(Boolean.TRUE);
+                        output.setInterrupted(true);
+                    }
+                    stop = true;
+                }
+            } while (true);
+        } finally {
+            output.setProperties(properties);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+     * Indici dei controller precedenti da cui dipende il controller indicato
+     */
+    private Set<Integer> getDependencies(int index) {
+        Set<Integer> dependencies = new HashSet<Integer>();
+        ISignerController controller = controllers.get(index);
+        boolean barrier = controller.isCritical()
+                || !(controller instanceof IConcurrentSignerController);
+        for (int i = 0; i < index; i++) {
+            ISignerController previous = controllers.get(i);
+            if (barrier || previous.isCritical()
+                    || !(previous instanceof IConcurrentSignerController)
+                    || conflicts((IConcurrentSignerController) previous,
+                            (IConcurrentSignerController) controller)) {
+                dependencies.add(i);
+            }
+        }
+        return dependencies;
+    }
+
+    /*
+     * Due controller sono in conflitto se uno valorizza una proprietà letta o valorizzata
+     * dall'altro
+     */
+    private static boolean conflicts(IConcurrentSignerController previous,
+            IConcurrentSignerController next) {
+        Set<String> previousProvided = toSet(previous.getProvidedProperties());
+        Set<String> nextProvided = toSet(next.getProvidedProperties());
+        for (String property : next.getRequiredProperties()) {
+            if (previousProvided.contains(property)) {
+                return true;
+            }
+        }
+        for (String property : previous.getRequiredProperties()) {
+            if (nextProvided.contains(property)) {
+                return true;
+            }
+        }
+        for (String property : nextProvided) {
+            if (previousProvided.contains(property)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> toSet(String[] properties) {
+        return properties == null ? Collections.<String> emptySet()
+                : new HashSet<String>(Arrays.asList(properties));
+    }
+
+    private static boolean isCompleted(Set<Integer> dependencies, boolean[] completed) {
+        for (Integer dependency : dependencies) {
+            if (!completed[dependency]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ControllerResult executeController(int index, ISignerController controller,
+            InputSignerBean input, OutputSignerBean output) {
+        ControllerResult controllerResult = new ControllerResult(index);
+        try {
+            long start = System.currentTimeMillis();
+            controllerResult.result = controller.execute(input, output);
+            long elapsedTimeMillis = System.currentTimeMillis() - start;
+            log.debug("Controllo: " + controller.getClass().getSimpleName() + " eseguito in "
+                    + elapsedTimeMillis + "ms");
+        } catch (ExceptionController e) {
+            controllerResult.exception = e;
+        }
+        return controllerResult;
+    }
+
+    private static ControllerResult take(CompletionService<ControllerResult> completionService)
+            throws ExceptionController {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExceptionController(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new ExceptionController((Exception) e.getCause());
+        }
+    }
+
+    /*
+     * Esito dell'esecuzione di un controller
+     */
+    private static final class ControllerResult {
+
+        private final int index;
+        private boolean result;
+        private ExceptionController exception;
+
+        ControllerResult(int index) {
+            this.index = index;
+        }
+    }
+
     /**
      * Recupera la mappa dei flag dei controlli
      *
@@ -163,12 +411,34 @@ public class MasterSignerController {
     }
 
     /**
-     * Restituisce lo stato di esecuzione dei controller
+     * Restituisce lo stato dell'ultima esecuzione dei controller avviata dal thread corrente,
+     * corrispondente a {@link OutputSignerBean#isInterrupted()} del relativo bean di output
      *
      * @return true se uno dei controller ha generato un errore bloccante
      */
     public boolean isInterrupted() {
-        return interrupted;
+        return interrupted.get();
+    }
+
+    /**
+     * Recupera l'executor utilizzato per eseguire i controller in concorrenza
+     *
+     * @return l'executor oppure null se i controller sono eseguiti in sequenza
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Definisce l'executor utilizzato per eseguire in concorrenza i controller indipendenti tra
+     * loro. L'executor non deve essere condiviso con i pool utilizzati dai singoli controller e
+     * deve avere un numero limitato di thread, dato che ogni verifica vi sottomette un task per
+     * controller.
+     *
+     * @param executor executor dei controller (null per l'esecuzione sequenziale)
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
     }
 
     /**
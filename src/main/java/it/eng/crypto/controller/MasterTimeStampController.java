@@ -30,6 +30,7 @@ import it.eng.crypto.controller.bean.OutputTimeStampBean;
 import it.eng.crypto.controller.bean.TimeStampValidityBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.controller.exception.ExceptionController;
+import it.eng.crypto.data.DocumentContent;
 
 public class MasterTimeStampController {
 
@@ -115,8 +116,9 @@ public class MasterTimeStampController {
 
         // Recupero la catena delle estensioni
         File[] timeStampExtensionChain = input.getTimeStampExtensionsChain();
-        File timestampFile = input.getTimeStampWithContentFile() == null ? input.getTimeStampFile()
-                : input.getTimeStampWithContentFile();
+        DocumentContent timestampContent = input.getTimeStampWithContent() == null
+                ? input.getTimeStamp()
+                : input.getTimeStampWithContent();
 
         // if (input.getTimeStampExtensionsChain()!=null){
         // Recupero i timestamp
@@ -157,7 +159,7 @@ public class MasterTimeStampController {
         } // Se ci sono estesioni della marca temporale
           // controllo che siano corrette
         else {
-            validateTimeStampsChain(documentAndTimeStampInfos, timestampFile,
+            validateTimeStampsChain(input, documentAndTimeStampInfos, timestampContent,
                     timeStampExtensionChain);
         }
 
@@ -218,9 +220,10 @@ public class MasterTimeStampController {
         return result;
     }
 
-    private void validateTimeStampsChain(
-            List<DocumentAndTimeStampInfoBean> documentAndTimeStampInfos, File signedFile,
-            File[] timeStampExtensionChain) throws ExceptionController {
+    private void validateTimeStampsChain(InputTimeStampBean parentInput,
+            List<DocumentAndTimeStampInfoBean> documentAndTimeStampInfos,
+            DocumentContent signedContent, File[] timeStampExtensionChain)
+            throws ExceptionController {
 
         // Controllo se esiste una catena di estensioni del timestamp
         if (timeStampExtensionChain == null || timeStampExtensionChain.length == 0) {
@@ -238,7 +241,9 @@ public class MasterTimeStampController {
         InputTimeStampBean input = new InputTimeStampBean();
         input.setChecks(checks);
         input.setTimeStampFile(firstExtension);
-        input.setContentFile(signedFile);
+        input.setContent(signedContent);
+        input.setEnvelopeContext(parentInput.getEnvelopeContext());
+        input.setLookupCache(parentInput.getLookupCache());
 
         if (timeStampExtensionChain.length > 1) {
             File[] extensionChainTail = new File[timeStampExtensionChain.length - 1];
@@ -267,11 +272,11 @@ public class MasterTimeStampController {
                 timeStampExtensions.add(documentAndTimeStampExtensionInfo.getTimeStampToken());
             }
             // Valido l'estensione del periodo di validità
-            File timestampFile = input.getTimeStampWithContentFile() == null
-                    ? input.getTimeStampFile()
-                    : input.getTimeStampWithContentFile();
+            DocumentContent timestampContent = input.getTimeStampWithContent() == null
+                    ? input.getTimeStamp()
+                    : input.getTimeStampWithContent();
             validateTimeStampExtensionListOverTimeStampList(documentAndTimeStampInfos,
-                    timeStampTokens, timeStampExtensions, firstExtension, timestampFile);
+                    timeStampTokens, timeStampExtensions, firstExtension, timestampContent);
         } catch (ExceptionController e) {
             setAllValidationInfos(documentAndTimeStampInfos, new String[] {
                     "Errore durante l'analisi dell'estensione della marca temporale "
@@ -283,7 +288,7 @@ public class MasterTimeStampController {
     private boolean validateTimeStampExtensionListOverTimeStampList(
             List<DocumentAndTimeStampInfoBean> documentAndTimeStampInfos,
             List<TimeStampToken> currentTimeStampTokens, List<TimeStampToken> timeStampExtensions,
-            File timeStampExtensionFile, File currentFile) {
+            File timeStampExtensionFile, DocumentContent currentFile) {
         boolean result = true;
         for (int i = 0; i < currentTimeStampTokens.size(); i++) {
             TimeStampToken currentTimeStampToken = currentTimeStampTokens.get(i);
@@ -14,10 +14,15 @@
 package it.eng.crypto.controller.bean;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import it.eng.crypto.data.DocumentContent;
 
 /**
  * Bean d'appoggio contenente il riferimento ai file sbustati e informazioni sul fatto che questi
- * possano contenere a loro volta delle firme
+ * possano contenere a loro volta delle firme. Il contenuto sbustato può essere mantenuto in memoria
+ * ed è salvato su file solo alla richiesta di {@link #getContentFile()}.
  *
  * @author Stefano Zennaro
  *
@@ -25,14 +30,23 @@ import java.io.File;
 public class ContentBean {
 
     private File contentFile;
+    private DocumentContent content;
     private boolean possiblySigned = false;
 
     /**
-     * Recupera il contenuto sbustato
+     * Recupera il contenuto sbustato sotto forma di file, salvandolo su file temporaneo se
+     * mantenuto in memoria
      *
      * @return il contenuto sbustato
      */
     public File getContentFile() {
+        if (contentFile == null && content != null) {
+            try {
+                contentFile = content.getFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return contentFile;
     }
 
@@ -43,6 +57,26 @@ public class ContentBean {
      */
     public void setContentFile(File contentFile) {
         this.contentFile = contentFile;
+        this.content = contentFile == null ? null : DocumentContent.of(contentFile);
+    }
+
+    /**
+     * Recupera il contenuto sbustato, in memoria o su file
+     *
+     * @return il contenuto sbustato
+     */
+    public DocumentContent getContent() {
+        return content;
+    }
+
+    /**
+     * Definisce il contenuto sbustato
+     *
+     * @param content
+     */
+    public void setContent(DocumentContent content) {
+        this.content = content;
+        this.contentFile = null;
     }
 
     /**
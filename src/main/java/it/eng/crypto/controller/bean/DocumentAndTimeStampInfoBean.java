@@ -16,6 +16,7 @@ package it.eng.crypto.controller.bean;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
@@ -29,6 +30,8 @@ import org.bouncycastle.cms.SignerId;
 import org.bouncycastle.tsp.TimeStampToken;
 import org.bouncycastle.util.Store;
 
+import it.eng.crypto.data.DocumentContent;
+
 /**
  * Racchiude le informazioni sull'analisi di marche temporali. Attualmente le informazioni contenute
  * sono le seguenti:
@@ -97,6 +100,7 @@ public class DocumentAndTimeStampInfoBean extends InputBean {
     public static final String PROP_QUALIFIED_CERTIFICATE = "Qualified Certificate";
     // private DocumentBean documentBean;
     private File associatedFile;
+    private DocumentContent associatedContent;
     private TimeStampToken timeStampToken;
     // private Properties tokenInfos;
     private HashMap<String, Object> tokenInfos;
@@ -186,6 +190,13 @@ public class DocumentAndTimeStampInfoBean extends InputBean {
      * @return il file della marca temporale
      */
     public File getAssociatedFile() {
+        if (associatedFile == null && associatedContent != null) {
+            try {
+                associatedFile = associatedContent.getFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return associatedFile;
     }
 
@@ -196,6 +207,27 @@ public class DocumentAndTimeStampInfoBean extends InputBean {
      */
     public void setAssociatedFile(File associatedFile) {
         this.associatedFile = associatedFile;
+        this.associatedContent = associatedFile == null ? null : DocumentContent.of(associatedFile);
+    }
+
+    /**
+     * Recupera il contenuto associato alla marca temporale, in memoria o su file
+     *
+     * @return il contenuto associato
+     */
+    public DocumentContent getAssociatedContent() {
+        return associatedContent;
+    }
+
+    /**
+     * Definisce il contenuto associato alla marca temporale. Il contenuto in memoria viene
+     * salvato su file solo alla richiesta di {@link #getAssociatedFile()}.
+     *
+     * @param associatedContent il contenuto associato
+     */
+    public void setAssociatedContent(DocumentContent associatedContent) {
+        this.associatedContent = associatedContent;
+        this.associatedFile = null;
     }
 
     /**
@@ -259,7 +291,7 @@ public class DocumentAndTimeStampInfoBean extends InputBean {
      * </ul>
      */
     public String toString() {
-        return " Associated File: " + associatedFile + ",\n timeStampToken: " + timeStampToken
+        return " Associated File: " + associatedContent + ",\n timeStampToken: " + timeStampToken
                 + ",\n timeStampTokenType: " + getTimeStampTokenType()
                 + (timeStampExtensionChain == null ? ""
                         : ",\n timeStampExtensions: " + timeStampExtensionChain)
@@ -17,6 +17,9 @@ import java.security.cert.CRL;
 import java.util.HashMap;
 import java.util.Map;
 
+import it.eng.crypto.data.EnvelopeContext;
+import it.eng.crypto.data.SharedLookupCache;
+
 public class InputBean {
 
     // Mappa dei flag indicanti i controlli da effettuare
@@ -35,6 +38,12 @@ public class InputBean {
 
     private boolean checkCAOnline;
 
+    // Buste già analizzate nella verifica corrente
+    private EnvelopeContext envelopeContext;
+
+    // Certificati e CRL condivisi tra le verifiche di un lotto
+    private SharedLookupCache lookupCache;
+
     /**
      * Recupera il valore di un flag di controllo
      *
@@ -131,4 +140,40 @@ public class InputBean {
         this.httpCrlSocketTimeout = httpCrlSocketTimeout;
     }
 
+    /**
+     * Recupera il contesto delle buste già analizzate nella verifica corrente
+     *
+     * @return il contesto oppure null se non definito
+     */
+    public EnvelopeContext getEnvelopeContext() {
+        return envelopeContext;
+    }
+
+    /**
+     * Definisce il contesto delle buste già analizzate nella verifica corrente
+     *
+     * @param envelopeContext
+     */
+    public void setEnvelopeContext(EnvelopeContext envelopeContext) {
+        this.envelopeContext = envelopeContext;
+    }
+
+    /**
+     * Recupera la cache di certificati e CRL condivisa tra le verifiche di un lotto
+     *
+     * @return la cache oppure null se non definita
+     */
+    public SharedLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * Definisce la cache di certificati e CRL condivisa tra le verifiche di un lotto
+     *
+     * @param lookupCache
+     */
+    public void setLookupCache(SharedLookupCache lookupCache) {
+        this.lookupCache = lookupCache;
+    }
+
 }
@@ -14,10 +14,13 @@
 package it.eng.crypto.controller.bean;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
 import java.util.List;
 
 import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.DocumentContent;
 
 /**
  * Bean contenente tutte le proprietà di input del documento firmato da analizzare. Le informazioni
@@ -44,6 +47,7 @@ public class InputSignerBean extends InputBean {
     Date referenceDate;
     AbstractSigner signer;
     File envelope;
+    DocumentContent envelopeContent;
     File detachedFile;
     Boolean useSigninTimeAsReferenceDate;
     Boolean useExternalReferenceTime;
@@ -74,6 +78,13 @@ public class InputSignerBean extends InputBean {
      * @return
      */
     public File getEnvelope() {
+        if (envelope == null && envelopeContent != null) {
+            try {
+                envelope = envelopeContent.getFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return envelope;
     }
 
@@ -84,6 +95,27 @@ public class InputSignerBean extends InputBean {
      */
     public void setEnvelope(File envelope) {
         this.envelope = envelope;
+        this.envelopeContent = envelope == null ? null : DocumentContent.of(envelope);
+    }
+
+    /**
+     * Recupera la busta del documento firmato, in memoria o su file
+     *
+     * @return
+     */
+    public DocumentContent getEnvelopeContent() {
+        return envelopeContent;
+    }
+
+    /**
+     * Definisce la busta del documento firmato. La busta in memoria viene salvata su file solo alla
+     * richiesta di {@link #getEnvelope()}.
+     *
+     * @param envelopeContent
+     */
+    public void setEnvelopeContent(DocumentContent envelopeContent) {
+        this.envelopeContent = envelopeContent;
+        this.envelope = null;
     }
 
     /**
@@ -14,24 +14,32 @@
 package it.eng.crypto.controller.bean;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
 
+import it.eng.crypto.data.DocumentContent;
+
+/**
+ * Bean di input dei controlli sulle marche temporali. I documenti possono essere mantenuti in
+ * memoria: i metodi get*File li salvano su file temporaneo alla prima invocazione.
+ */
 public class InputTimeStampBean extends InputBean {
 
     /**
      * Marca temporale embedded
      */
-    private File timeStampWithContentFile;
+    private DocumentContent timeStampWithContent;
 
     /**
      * File contenente la marca temporale detached
      */
-    private File timeStampFile;
+    private DocumentContent timeStamp;
 
     /**
      * Contenuto marcato
      */
-    private File contentFile;
+    private DocumentContent content;
 
     /**
      * Catena delle estensioni della marca temporale
@@ -47,42 +55,84 @@ public class InputTimeStampBean extends InputBean {
      * @return the timeStampWithContentFile
      */
     public File getTimeStampWithContentFile() {
-        return timeStampWithContentFile;
+        return toFile(timeStampWithContent);
     }
 
     /**
      * @param timeStampWithContentFile the timeStampWithContentFile to set
      */
     public void setTimeStampWithContentFile(File timeStampWithContentFile) {
-        this.timeStampWithContentFile = timeStampWithContentFile;
+        this.timeStampWithContent = of(timeStampWithContentFile);
+    }
+
+    /**
+     * @return the timeStampWithContent
+     */
+    public DocumentContent getTimeStampWithContent() {
+        return timeStampWithContent;
+    }
+
+    /**
+     * @param timeStampWithContent the timeStampWithContent to set
+     */
+    public void setTimeStampWithContent(DocumentContent timeStampWithContent) {
+        this.timeStampWithContent = timeStampWithContent;
     }
 
     /**
      * @return the timeStampFile
      */
     public File getTimeStampFile() {
-        return timeStampFile;
+        return toFile(timeStamp);
     }
 
     /**
      * @param timeStampFile the timeStampFile to set
      */
     public void setTimeStampFile(File timeStampFile) {
-        this.timeStampFile = timeStampFile;
+        this.timeStamp = of(timeStampFile);
+    }
+
+    /**
+     * @return the timeStamp
+     */
+    public DocumentContent getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * @param timeStamp the timeStamp to set
+     */
+    public void setTimeStamp(DocumentContent timeStamp) {
+        this.timeStamp = timeStamp;
     }
 
     /**
      * @return the contentFile
      */
     public File getContentFile() {
-        return contentFile;
+        return toFile(content);
     }
 
     /**
      * @param contentFile the contentFile to set
      */
     public void setContentFile(File contentFile) {
-        this.contentFile = contentFile;
+        this.content = of(contentFile);
+    }
+
+    /**
+     * @return the content
+     */
+    public DocumentContent getContent() {
+        return content;
+    }
+
+    /**
+     * @param content the content to set
+     */
+    public void setContent(DocumentContent content) {
+        this.content = content;
     }
 
     /**
@@ -113,4 +163,16 @@ public class InputTimeStampBean extends InputBean {
         this.referenceDate = referenceDate;
     }
 
+    private static DocumentContent of(File file) {
+        return file == null ? null : DocumentContent.of(file);
+    }
+
+    private static File toFile(DocumentContent content) {
+        try {
+            return content == null ? null : content.getFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
 }
@@ -111,6 +111,11 @@ public class OutputSignerBean extends OutputBean {
      */
     private ContentBean content;
 
+    /*
+     * Indica se uno dei controlli bloccanti non è andato a buon fine
+     */
+    private boolean interrupted = false;
+
     /**
      * Recupera il contenuto sbustato
      *
@@ -129,4 +134,22 @@ public class OutputSignerBean extends OutputBean {
         this.content = content;
     }
 
+    /**
+     * Restituisce true se l'analisi della busta è stata interrotta da un controllo bloccante
+     *
+     * @return
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Definisce se l'analisi della busta è stata interrotta da un controllo bloccante
+     *
+     * @param interrupted
+     */
+    public void setInterrupted(boolean interrupted) {
+        this.interrupted = interrupted;
+    }
+
 }
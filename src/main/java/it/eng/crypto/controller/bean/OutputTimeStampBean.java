@@ -15,6 +15,7 @@ package it.eng.crypto.controller.bean;
 
 import it.eng.crypto.data.AbstractSigner;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +24,8 @@ public class OutputTimeStampBean extends OutputBean {
     List<DocumentAndTimeStampInfoBean> documentAndTimeStampInfos;
     AbstractSigner signer;
     Map<String, ValidationInfos> complianceChecks;
+    boolean incomplete = false;
+    Map<File, OutputTimeStampBean> fileOutputs;
 
     /**
      * @return the documentAndTimeStampInfos
@@ -60,4 +63,34 @@ public class OutputTimeStampBean extends OutputBean {
     public void setComplianceChecks(Map complianceChecks) {
         this.complianceChecks = complianceChecks;
     }
+
+    /**
+     * Indica se l'output non contiene le informazioni di tutti i file di contenuto (verifica
+     * interrotta o non riuscita per alcuni file)
+     *
+     * @return true se l'output è parziale
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    public void setIncomplete(boolean incomplete) {
+        this.incomplete = incomplete;
+    }
+
+    /**
+     * Restituisce gli output dei singoli file di contenuto verificati con
+     * {@link it.eng.crypto.manager.SignatureManager#executeMassiveTimeStamp(File, File[])}, da cui
+     * è stato ricavato questo output
+     *
+     * @return mappa tra i file di contenuto e i rispettivi output, null se l'output riguarda un
+     *         solo file
+     */
+    public Map<File, OutputTimeStampBean> getFileOutputs() {
+        return fileOutputs;
+    }
+
+    public void setFileOutputs(Map<File, OutputTimeStampBean> fileOutputs) {
+        this.fileOutputs = fileOutputs;
+    }
 }
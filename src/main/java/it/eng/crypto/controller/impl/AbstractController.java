@@ -13,14 +13,32 @@
 
 package it.eng.crypto.controller.impl;
 
+import java.io.File;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+
+import it.eng.crypto.FactorySigner;
 import it.eng.crypto.controller.ISignerController;
 import it.eng.crypto.controller.bean.InputBean;
 import it.eng.crypto.controller.bean.OutputBean;
 import it.eng.crypto.controller.exception.ExceptionController;
+import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.DocumentContent;
+import it.eng.crypto.data.OCSPResult;
 import it.eng.crypto.data.SignerUtil;
+import it.eng.crypto.exception.CryptoSignerException;
+import it.eng.crypto.storage.ICAStorage;
+import it.eng.crypto.storage.ICRLStorage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class AbstractController implements ISignerController {
 
+    private static final Logger log = LoggerFactory.getLogger(AbstractController.class);
+
     /**
      * Indica se il controllo corrente è bloccante (default=false)
      */
@@ -56,6 +74,189 @@ public abstract class AbstractController implements ISignerController {
         return null;
     }
 
+    /**
+     * Recupera il signer del file, riutilizzando la busta già analizzata se il bean di input
+     * definisce un {@link it.eng.crypto.data.EnvelopeContext}
+     *
+     * @param input bean di input del controllo
+     * @param file  busta da analizzare
+     *
+     * @return il signer che gestisce il formato del file
+     *
+     * @throws CryptoSignerException se nessun signer riconosce il file
+     */
+    protected AbstractSigner getSignerManager(InputBean input, File file)
+            throws CryptoSignerException {
+        if (input != null && input.getEnvelopeContext() != null) {
+            return input.getEnvelopeContext().getSignerManager(file);
+        }
+        return signerUtil.getSignerManager(file);
+    }
+
+    /**
+     * Recupera il signer del contenuto, in memoria o su file, riutilizzando la busta già
+     * analizzata se il bean di input definisce un {@link it.eng.crypto.data.EnvelopeContext}
+     *
+     * @param input   bean di input del controllo
+     * @param content busta da analizzare
+     *
+     * @return il signer che gestisce il formato del contenuto
+     *
+     * @throws CryptoSignerException se nessun signer riconosce il contenuto
+     */
+    protected AbstractSigner getSignerManager(InputBean input, DocumentContent content)
+            throws CryptoSignerException {
+        if (content == null) {
+            return getSignerManager(input, (File) null);
+        }
+        if (input != null && input.getEnvelopeContext() != null) {
+            return input.getEnvelopeContext().getSignerManager(content);
+        }
+        return signerUtil.getSignerManager(content);
+    }
+
+    /**
+     * Recupera lo storage dei certificati di certificazione, condiviso con le altre verifiche del
+     * lotto se il bean di input definisce una {@link it.eng.crypto.data.SharedLookupCache}
+     *
+     * @param input bean di input del controllo
+     *
+     * @return lo storage dei certificati
+     */
+    protected ICAStorage getCAStorage(InputBean input) {
+        ICAStorage storage = FactorySigner.getInstanceCAStorage();
+        if (input != null && input.getLookupCache() != null) {
+            return input.getLookupCache().getCAStorage(storage);
+        }
+        return storage;
+    }
+
+    /**
+     * Recupera lo storage delle CRL, condiviso con le altre verifiche del lotto se il bean di
+     * input definisce una {@link it.eng.crypto.data.SharedLookupCache}
+     *
+     * @param input bean di input del controllo
+     *
+     * @return lo storage delle CRL
+     */
+    protected ICRLStorage getCRLStorage(InputBean input) {
+        ICRLStorage storage = FactorySigner.getInstanceCRLStorage();
+        if (input != null && input.getLookupCache() != null) {
+            return input.getLookupCache().getCRLStorage(storage);
+        }
+        return storage;
+    }
+
+    /**
+     * Scarica la CRL dai punti di distribuzione con i timeout definiti nel bean di input
+     *
+     * @param input bean di input del controllo
+     * @param urls  punti di distribuzione della CRL
+     *
+     * @return la CRL più recente tra quelle scaricate, null se non è stato possibile scaricarla
+     */
+    protected X509CRL getCrlByURL(InputBean input, List<String> urls) {
+        return getCrlByURL(input, urls, null);
+    }
+
+    /**
+     * Scarica la CRL dai punti di distribuzione con i timeout definiti nel bean di input
+     *
+     * @param input         bean di input del controllo
+     * @param urls          punti di distribuzione della CRL
+     * @param referenceDate data di riferimento che la CRL deve coprire (può essere null)
+     *
+     * @return la CRL scaricata, null se non è stato possibile scaricarla
+     *
+     * @see SignerUtil#getCrlByURL(List, Date, int, int, int)
+     */
+    protected X509CRL getCrlByURL(InputBean input, List<String> urls, Date referenceDate) {
+        if (input != null && input.getLookupCache() != null) {
+            return input.getLookupCache().getCrlByURL(signerUtil, urls, referenceDate,
+                    input.getHttpCrlTimeoutConnection(), input.getHttpCrlSocketTimeout(),
+                    input.getLdapCrlTimeoutConnection());
+        }
+        return signerUtil.getCrlByURL(urls, referenceDate, input.getHttpCrlTimeoutConnection(),
+                input.getHttpCrlSocketTimeout(), input.getLdapCrlTimeoutConnection());
+    }
+
+    /**
+     * Recupera la delta CRL da applicare alla CRL completa, se il certificato o la CRL completa
+     * indicano i punti di distribuzione delle delta CRL (estensione <code>freshestCRL</code>). La
+     * delta CRL salvata nello storage viene utilizzata finché non scade, altrimenti viene scaricata
+     * e salvata la delta più recente.
+     *
+     * @param input       bean di input del controllo
+     * @param certificate certificato da verificare
+     * @param crl         CRL completa dell'emittente del certificato
+     * @param crlStorage  storage delle CRL
+     *
+     * @return la delta CRL applicabile alla CRL completa oppure null
+     */
+    protected X509CRL getDeltaCRL(InputBean input, X509Certificate certificate, X509CRL crl,
+            ICRLStorage crlStorage) {
+        return signerUtil.getDeltaCRL(certificate, crl, crlStorage,
+                urls -> getCrlByURL(input, urls));
+    }
+
+    /**
+     * Recupera la delta CRL valida alla data di riferimento da applicare alla CRL completa salvata
+     * nello storage e già scaduta, per non scaricare di nuovo la CRL completa finché la delta CRL
+     * corrente si riferisce ad essa
+     *
+     * @param input         bean di input del controllo
+     * @param certificate   certificato da verificare
+     * @param crl           CRL completa scaduta dell'emittente del certificato
+     * @param crlStorage    storage delle CRL
+     * @param referenceDate data di riferimento della verifica
+     *
+     * @return la delta CRL corrente oppure null se occorre scaricare la CRL completa
+     *
+     * @see SignerUtil#getCurrentDeltaCRL(X509Certificate, X509CRL, ICRLStorage, Date,
+     *      java.util.function.Function)
+     */
+    protected X509CRL getCurrentDeltaCRL(InputBean input, X509Certificate certificate,
+            X509CRL crl, ICRLStorage crlStorage, Date referenceDate) {
+        return signerUtil.getCurrentDeltaCRL(certificate, crl, crlStorage, referenceDate,
+                urls -> getCrlByURL(input, urls));
+    }
+
+    /**
+     * Verifica lo stato di revoca del certificato tramite OCSP con i timeout HTTP definiti nel
+     * bean di input
+     *
+     * @param input       bean di input del controllo
+     * @param certificate certificato da verificare
+     * @param issuer      certificato della CA emittente (può essere null)
+     *
+     * @return lo stato del certificato se il responder lo ha indicato, altrimenti null
+     *
+     * @see SignerUtil#getOCSPStatus(X509Certificate, X509Certificate, int, int)
+     */
+    protected OCSPResult getOCSPStatus(InputBean input, X509Certificate certificate,
+            X509Certificate issuer) {
+        return signerUtil.getOCSPStatus(certificate, issuer, input.getHttpCrlTimeoutConnection(),
+                input.getHttpCrlSocketTimeout());
+    }
+
+    /**
+     * Recupera online il certificato della CA che ha emesso il certificato passato
+     *
+     * @param input              bean di input del controllo
+     * @param signingCertificate certificato di cui cercare l'emittente
+     * @param storage            storage dei certificati di certificazione
+     *
+     * @return il certificato della CA oppure null
+     */
+    protected X509Certificate getCACertificateOnline(InputBean input,
+            X509Certificate signingCertificate, ICAStorage storage) {
+        if (input != null && input.getLookupCache() != null) {
+            return input.getLookupCache().getCACertificateOnline(signerUtil, signingCertificate,
+                    storage);
+        }
+        return signerUtil.getCACertificateOnline(signingCertificate, storage);
+    }
+
     @Override
     public abstract boolean execute(InputBean input, OutputBean output) throws ExceptionController;
 
@@ -19,9 +19,16 @@ import it.eng.crypto.controller.bean.OutputBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.exception.ExceptionController;
 import it.eng.crypto.controller.impl.AbstractController;
+import it.eng.crypto.controller.impl.signature.SignatureCheckPool.SignatureCheck;
+import it.eng.crypto.data.signature.ISignature;
+import it.eng.crypto.data.signature.XAdESSignature;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Definisce la classe di base per l'implementazione di un
@@ -36,9 +43,23 @@ public abstract class AbstractSignerController extends AbstractController {
      */
     protected boolean performCounterSignaturesCheck = true;
 
+    /**
+     * Pool utilizzato per verificare le firme in parallelo (se null le firme sono verificate in
+     * sequenza)
+     */
+    protected SignatureCheckPool signatureCheckPool;
+
     protected DateFormat dateFormatter = SimpleDateFormat.getDateTimeInstance(DateFormat.LONG,
             DateFormat.LONG, Locale.ITALY);
 
+    // DateFormat non è thread-safe: ogni thread utilizza una copia di dateFormatter
+    protected final ThreadLocal<DateFormat> threadDateFormatter = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return (DateFormat) dateFormatter.clone();
+        }
+    };
+
     /**
      * Restituisce true se occorre effettuare i controlli anche sulle controfirme
      */
@@ -55,6 +76,64 @@ public abstract class AbstractSignerController extends AbstractController {
         this.performCounterSignaturesCheck = performCounterSignaturesCheck;
     }
 
+    public SignatureCheckPool getSignatureCheckPool() {
+        return signatureCheckPool;
+    }
+
+    public void setSignatureCheckPool(SignatureCheckPool signatureCheckPool) {
+        this.signatureCheckPool = signatureCheckPool;
+    }
+
+    /**
+     * Esegue la verifica su ciascuna firma e, se richiesto, sulle relative controfirme. Le firme
+     * sono indipendenti tra loro e vengono verificate in parallelo se è definito il
+     * {@link SignatureCheckPool}, ad eccezione delle firme XML che sono sempre verificate in
+     * sequenza.
+     *
+     * @param signatures firme da verificare
+     * @param check      verifica da eseguire sulla singola firma
+     *
+     * @return il risultato della verifica per ciascuna firma e controfirma
+     */
+    protected <T> Map<ISignature, T> checkSignatures(List<ISignature> signatures,
+            SignatureCheck<T> check) {
+        List<ISignature> allSignatures = new ArrayList<ISignature>();
+        collectSignatures(allSignatures, signatures);
+        if (signatureCheckPool != null && !sharesDocument(allSignatures)) {
+            return signatureCheckPool.execute(allSignatures, check);
+        }
+        Map<ISignature, T> results = new HashMap<ISignature, T>();
+        for (ISignature signature : allSignatures) {
+            results.put(signature, check.check(signature));
+        }
+        return results;
+    }
+
+    /*
+     * Le firme XML di una busta condividono lo stesso Document DOM, che non è thread-safe neanche
+     * in lettura: vanno verificate in sequenza
+     */
+    private static boolean sharesDocument(List<ISignature> signatures) {
+        for (ISignature signature : signatures) {
+            if (signature instanceof XAdESSignature) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void collectSignatures(List<ISignature> allSignatures, List<ISignature> signatures) {
+        if (signatures == null) {
+            return;
+        }
+        for (ISignature signature : signatures) {
+            allSignatures.add(signature);
+            if (performCounterSignaturesCheck) {
+                collectSignatures(allSignatures, signature.getCounterSignatures());
+            }
+        }
+    }
+
     public boolean execute(InputBean input, OutputBean output) throws ExceptionController {
         if (input instanceof InputSignerBean && output instanceof OutputSignerBean)
             return execute((InputSignerBean) input, (OutputSignerBean) output);
@@ -13,6 +13,7 @@
 
 package it.eng.crypto.controller.impl.signature;
 
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.bean.TrustChainCheck;
@@ -34,7 +35,8 @@ import java.util.Map;
  * @author Stefano Zennaro
  *
  */
-public class CertificateAssociation extends AbstractSignerController {
+public class CertificateAssociation extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     /**
      * Proprietà restituita dal metodo
@@ -47,6 +49,17 @@ public class CertificateAssociation extends AbstractSignerController {
         return CERTIFICATE_ASSOCIATION_CHECK;
     }
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY,
+                OutputSignerBean.CERTIFICATE_RELIABILITY_PROPERTY };
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.CERTIFICATE_VALIDATION_PROPERTY };
+    }
+
     @Override
     public boolean execute(InputSignerBean input, OutputSignerBean output)
             throws ExceptionController {
@@ -61,8 +74,11 @@ public class CertificateAssociation extends AbstractSignerController {
             signatures = (List<ISignature>) output.getProperty(OutputSignerBean.SIGNATURE_PROPERTY);
             certificateReliabilityMap = (Map<ISignature, List<TrustChainCheck>>) output
                     .getProperty(OutputSignerBean.CERTIFICATE_RELIABILITY_PROPERTY);
+            final Map<ISignature, List<TrustChainCheck>> reliabilityMap = certificateReliabilityMap;
+            Map<ISignature, ValidationInfos> checked = checkSignatures(signatures,
+                    signature -> checkAssociation(signature, input, reliabilityMap));
             result = populateValidationInfosMapFromSignatureList(validationInfosMap, signatures,
-                    input, certificateReliabilityMap);
+                    checked);
             output.setProperty(OutputSignerBean.CERTIFICATE_VALIDATION_PROPERTY,
                     validationInfosMap);
         }
@@ -71,57 +87,62 @@ public class CertificateAssociation extends AbstractSignerController {
 
     private boolean populateValidationInfosMapFromSignatureList(
             Map<ISignature, ValidationInfos> validationInfosMap, List<ISignature> signatures,
-            InputSignerBean input,
-            Map<ISignature, List<TrustChainCheck>> certificateReliabilityMap) {
+            Map<ISignature, ValidationInfos> checked) {
         boolean result = true;
         for (ISignature signature : signatures) {
 
-            // Certificato del firmatario
-            X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
-
-            X509Certificate issuerCertificate = null;
-
-            // Recupero il certificato accreditato (se presente)
-            if (certificateReliabilityMap != null
-                    && certificateReliabilityMap.get(signature) != null) {
-                issuerCertificate = certificateReliabilityMap.get(signature).get(0).getCerificate();
-            }
-
-            // se il certificato non è accreditato
-            if (issuerCertificate == null) {
-                Collection<? extends Certificate> embeddedCertificates = input.getSigner()
-                        .getEmbeddedCertificates();
-                if (embeddedCertificates != null) {
-                    issuerCertificate = SignerUtil.getCertificateFromCollection(
-                            signatureCertificate.getIssuerX500Principal(), embeddedCertificates);
-                }
-            }
-
-            ValidationInfos validationInfos = new ValidationInfos();
-
-            // Se non è stato possibile reperire il certificato dell'issuer
-            // restituisco un errore
-            if (issuerCertificate == null) {
-                validationInfos
-                        .addWarning("Impossibile recuperare il certificato di certificazione");
+            ValidationInfos validationInfos = checked.get(signature);
+            if (!validationInfos.isValid(true)) {
                 result = false;
-            } else {
-                try {
-                    signatureCertificate.verify(issuerCertificate.getPublicKey());
-                } catch (Exception e) {
-                    validationInfos.addError(
-                            "Corrispondenza tra certificato dell'issuer e quello di firma non verificata");
-                    result = false;
-                }
             }
             validationInfosMap.put(signature, validationInfos);
 
             if (performCounterSignaturesCheck) {
                 List<ISignature> counterSignatures = signature.getCounterSignatures();
                 result = populateValidationInfosMapFromSignatureList(validationInfosMap,
-                        counterSignatures, input, certificateReliabilityMap);
+                        counterSignatures, checked);
             }
         }
         return result;
     }
+
+    private ValidationInfos checkAssociation(ISignature signature, InputSignerBean input,
+            Map<ISignature, List<TrustChainCheck>> certificateReliabilityMap) {
+
+        // Certificato del firmatario
+        X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
+
+        X509Certificate issuerCertificate = null;
+
+        // Recupero il certificato accreditato (se presente)
+        if (certificateReliabilityMap != null && certificateReliabilityMap.get(signature) != null) {
+            issuerCertificate = certificateReliabilityMap.get(signature).get(0).getCerificate();
+        }
+
+        // se il certificato non è accreditato
+        if (issuerCertificate == null) {
+            Collection<? extends Certificate> embeddedCertificates = input.getSigner()
+                    .getEmbeddedCertificates();
+            if (embeddedCertificates != null) {
+                issuerCertificate = SignerUtil.getCertificateFromCollection(
+                        signatureCertificate.getIssuerX500Principal(), embeddedCertificates);
+            }
+        }
+
+        ValidationInfos validationInfos = new ValidationInfos();
+
+        // Se non è stato possibile reperire il certificato dell'issuer
+        // restituisco un errore
+        if (issuerCertificate == null) {
+            validationInfos.addWarning("Impossibile recuperare il certificato di certificazione");
+        } else {
+            try {
+                signatureCertificate.verify(issuerCertificate.getPublicKey());
+            } catch (Exception e) {
+                validationInfos.addError(
+                        "Corrispondenza tra certificato dell'issuer e quello di firma non verificata");
+            }
+        }
+        return validationInfos;
+    }
 }
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
@@ -34,7 +35,8 @@ import it.eng.crypto.utils.VerificheEnums.EsitoControllo;
  * @author Stefano Zennaro
  *
  */
-public class CertificateExpiration extends AbstractSignerController {
+public class CertificateExpiration extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     /**
      * Proprietà restituita dal metodo
@@ -47,6 +49,16 @@ public class CertificateExpiration extends AbstractSignerController {
         return CERTIFICATE_EXPIRATION_CHECK;
     }
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY };
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.CERTIFICATE_EXPIRATION_PROPERTY };
+    }
+
     /**
      * L'esecuzione prevede i seguenti passi:
      * <ul>
@@ -64,7 +76,10 @@ public class CertificateExpiration extends AbstractSignerController {
         if (output.getProperties().containsKey(OutputSignerBean.SIGNATURE_PROPERTY)) {
             signatures = (List<ISignature>) output.getProperty(OutputSignerBean.SIGNATURE_PROPERTY);
 
-            result = populateValidationInfosMapFromSignatureList(validationInfosMap, signatures);
+            Map<ISignature, ValidationInfos> checked = checkSignatures(signatures,
+                    this::checkExpiration);
+            result = populateValidationInfosMapFromSignatureList(validationInfosMap, signatures,
+                    checked);
             output.setProperty(OutputSignerBean.CERTIFICATE_EXPIRATION_PROPERTY,
                     validationInfosMap);
         }
@@ -73,46 +88,12 @@ public class CertificateExpiration extends AbstractSignerController {
     }
 
     private boolean populateValidationInfosMapFromSignatureList(
-            Map<ISignature, ValidationInfos> validationInfosMap, List<ISignature> signatures) {
+            Map<ISignature, ValidationInfos> validationInfosMap, List<ISignature> signatures,
+            Map<ISignature, ValidationInfos> checked) {
         boolean result = true;
         for (ISignature signature : signatures) {
 
-            ValidationInfos validationInfos = new ValidationInfos();
-
-            /*
-             * Verifica della validità dei certificati di firma :
-             */
-            X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
-
-            /*
-             * Verifico che il certificato sia valido rispetto ai valori di expiration indicati nel
-             * certificato stesso
-             */
-            try {
-                if (signature.getReferenceDate() == null) {
-                    signatureCertificate.checkValidity();
-                } else {
-                    signatureCertificate.checkValidity(signature.getReferenceDate());
-                }
-                validationInfos.setEsito(EsitoControllo.POSITIVO);
-            } catch (CertificateExpiredException e) {
-
-                validationInfos.addError("Il certificato è scaduto in data: "
-                        + dateFormatter.format(signatureCertificate.getNotAfter()));
-                validationInfos.setEsito(EsitoControllo.CERTIFICATO_SCADUTO);
-            } catch (CertificateNotYetValidException e) {
-                validationInfos.addError("Il certificato è valido a partire dalla data: "
-                        + dateFormatter.format(signatureCertificate.getNotBefore())
-                        + " successiva al riferimento temporale usato: "
-                        + dateFormatter.format(signature.getReferenceDate()));
-                validationInfos.setEsito(EsitoControllo.CERTIFICATO_NON_VALIDO);
-            }
-
-            boolean[] keyUsage = signature.getSignerBean().getCertificate().getKeyUsage();
-            if (keyUsage == null || !keyUsage[1]) {
-                validationInfos.addError("Il certificato non supporta l'utilizzo non-repudation");
-                validationInfos.setEsito(EsitoControllo.CERTIFICATO_ERRATO);
-            }
+            ValidationInfos validationInfos = checked.get(signature);
 
             validationInfosMap.put(signature, validationInfos);
 
@@ -120,9 +101,51 @@ public class CertificateExpiration extends AbstractSignerController {
 
             if (performCounterSignaturesCheck) {
                 List<ISignature> counterSignatures = signature.getCounterSignatures();
-                populateValidationInfosMapFromSignatureList(validationInfosMap, counterSignatures);
+                populateValidationInfosMapFromSignatureList(validationInfosMap, counterSignatures,
+                        checked);
             }
         }
         return result;
     }
+
+    private ValidationInfos checkExpiration(ISignature signature) {
+        ValidationInfos validationInfos = new ValidationInfos();
+
+        /*
+         * Verifica della validità dei certificati di firma :
+         */
+        X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
+
+        /*
+         * Verifico che il certificato sia valido rispetto ai valori di expiration indicati nel
+         * certificato stesso
+         */
+        try {
+            if (signature.getReferenceDate() == null) {
+                signatureCertificate.checkValidity();
+            } else {
+                signatureCertificate.checkValidity(signature.getReferenceDate());
+            }
+            validationInfos.setEsito(EsitoControllo.POSITIVO);
+        } catch (CertificateExpiredException e) {
+
+            validationInfos.addError("Il certificato è scaduto in data: "
+                    + threadDateFormatter.get().format(signatureCertificate.getNotAfter()));
+            validationInfos.setEsito(EsitoControllo.CERTIFICATO_SCADUTO);
+        } catch (CertificateNotYetValidException e) {
+            validationInfos.addError("Il certificato è valido a partire dalla data: "
+                    + threadDateFormatter.get().format(signatureCertificate.getNotBefore())
+                    + " successiva al riferimento temporale usato: "
+                    + threadDateFormatter.get().format(signature.getReferenceDate()));
+            validationInfos.setEsito(EsitoControllo.CERTIFICATO_NON_VALIDO);
+        }
+
+        boolean[] keyUsage = signature.getSignerBean().getCertificate().getKeyUsage();
+        if (keyUsage == null || !keyUsage[1]) {
+            validationInfos.addError("Il certificato non supporta l'utilizzo non-repudation");
+            validationInfos.setEsito(EsitoControllo.CERTIFICATO_ERRATO);
+        }
+
+        return validationInfos;
+    }
 }
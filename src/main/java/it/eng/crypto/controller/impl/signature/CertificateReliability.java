@@ -13,22 +13,24 @@
 
 package it.eng.crypto.controller.impl.signature;
 
-import it.eng.crypto.FactorySigner;
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.MasterSignerController;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.bean.TrustChainCheck;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.controller.exception.ExceptionController;
+import it.eng.crypto.data.CRLRevocationIndex;
+import it.eng.crypto.data.OCSPResult;
 import it.eng.crypto.data.signature.ISignature;
 import it.eng.crypto.exception.CryptoSignerException;
 import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICAStorage;
 import it.eng.crypto.storage.ICRLStorage;
+import it.eng.crypto.utils.VerificheEnums.ModalitaControlloRevoca;
 
 import java.io.IOException;
 import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Date;
@@ -57,7 +59,8 @@ import org.slf4j.LoggerFactory;
  * @author Stefano Zennaro
  *
  */
-public class CertificateReliability extends AbstractSignerController {
+public class CertificateReliability extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     /**
      * Proprietà restituita dal metodo
@@ -71,6 +74,17 @@ public class CertificateReliability extends AbstractSignerController {
         return CERTIFICATE_RELIABILITY_CHECK;
     }
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY };
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.CERTIFICATE_UNQUALIFIED_PROPERTY,
+                OutputSignerBean.CERTIFICATE_RELIABILITY_PROPERTY };
+    }
+
     // I passi per verificare la correttezza del certificato sono i seguenti:
     // - recupero la firma del certificato
     // - recupero l'issuer del certificato
@@ -88,16 +102,14 @@ public class CertificateReliability extends AbstractSignerController {
             referenceDate = new Date();
         }
 
-        ICAStorage certificatesAuthorityStorage = FactorySigner.getInstanceCAStorage();
+        ICAStorage certificatesAuthorityStorage = getCAStorage(input);
 
         // Firme
         List<ISignature> signatures = null;
         if (output.getProperties().containsKey(OutputSignerBean.SIGNATURE_PROPERTY)) {
             signatures = (List<ISignature>) output.getProperty(OutputSignerBean.SIGNATURE_PROPERTY);
-            result = populateUnqualifiedSignaturesList(tCheckMap,
-                    unqualifiedSignatureValidationInfos, signatures, certificatesAuthorityStorage,
-                    input.isCheckCAOnline(), input.getHttpCrlTimeoutConnection(),
-                    input.getHttpCrlSocketTimeout(), input.getLdapCrlTimeoutConnection());
+            result = populateUnqualifiedSignaturesList(input, tCheckMap,
+                    unqualifiedSignatureValidationInfos, signatures, certificatesAuthorityStorage);
 
             // Popolo la lista delle firme con certificato non accreditato
             output.setProperty(OutputSignerBean.CERTIFICATE_UNQUALIFIED_PROPERTY,
@@ -116,192 +128,284 @@ public class CertificateReliability extends AbstractSignerController {
             List<ISignature> signatures, ICAStorage certificatesAuthorityStorage,
             boolean checkCaOnline, int httpCrlTimeoutConnection, int httpCrlSocketTimeout,
             int ldapCrlTimeoutConnection) {
+        InputSignerBean input = new InputSignerBean();
+        input.setCheckCAOnline(checkCaOnline);
+        input.setHttpCrlTimeoutConnection(httpCrlTimeoutConnection);
+        input.setHttpCrlSocketTimeout(httpCrlSocketTimeout);
+        input.setLdapCrlTimeoutConnection(ldapCrlTimeoutConnection);
+        return populateUnqualifiedSignaturesList(input, tCheckMap,
+                unqualifiedSignatureValidationInfos, signatures, certificatesAuthorityStorage);
+    }
+
+    private boolean populateUnqualifiedSignaturesList(InputSignerBean input,
+            Map<ISignature, List<TrustChainCheck>> tCheckMap,
+            Map<ISignature, ValidationInfos> unqualifiedSignatureValidationInfos,
+            List<ISignature> signatures, ICAStorage certificatesAuthorityStorage) {
+
+        Map<ISignature, ReliabilityCheck> checked = checkSignatures(signatures,
+                signature -> checkReliability(input, signature, certificatesAuthorityStorage));
+        return populateUnqualifiedSignaturesList(tCheckMap, unqualifiedSignatureValidationInfos,
+                signatures, checked);
+    }
+
+    private boolean populateUnqualifiedSignaturesList(
+            Map<ISignature, List<TrustChainCheck>> tCheckMap,
+            Map<ISignature, ValidationInfos> unqualifiedSignatureValidationInfos,
+            List<ISignature> signatures, Map<ISignature, ReliabilityCheck> checked) {
 
         boolean result = true;
 
         for (ISignature signature : signatures) {
-            ValidationInfos validationInfos = new ValidationInfos();
-            X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
-            X500Principal issuerPrincipal = signatureCertificate.getIssuerX500Principal();
-            List<TrustChainCheck> tChainList = new ArrayList<TrustChainCheck>();
-            // Controllo se il certificato attuale è contenuto tra quelli accreditati
-            X509Certificate qualifiedCertificate = null;
-            do {
-                TrustChainCheck tChainCheck = new TrustChainCheck();
-                try {
-                    qualifiedCertificate = certificatesAuthorityStorage.retriveCA(issuerPrincipal,
-                            signerUtil.getAuthorityKeyId(signatureCertificate));
-                    log.debug(
-                            "Controllo se il certificato attuale è contenuto tra quelli accreditati");
-                } catch (CryptoStorageException | IOException e1) {
-                    log.debug("Errore durante il recupero del certificato dallo storage", e1);
-                }
+            ReliabilityCheck check = checked.get(signature);
+            unqualifiedSignatureValidationInfos.put(signature, check.validationInfos);
+            result &= check.validationInfos.isValid();
+            tCheckMap.put(signature, check.trustChain);
+            if (performCounterSignaturesCheck) {
+                List<ISignature> counterSignatures = signature.getCounterSignatures();
+                result &= populateUnqualifiedSignaturesList(tCheckMap,
+                        unqualifiedSignatureValidationInfos, counterSignatures, checked);
+            }
 
-                if (checkCaOnline) {
+        }
 
-                    // Potrebbe succedere che il DB delle CA non sia ancora stato riempito. Provo a
-                    // controllare ONLINE.
-                    if (qualifiedCertificate == null) {
-                        X509Certificate caCert = signerUtil.getCACertificateOnline(
-                                signatureCertificate, certificatesAuthorityStorage);
-                        if (caCert != null) {
-                            qualifiedCertificate = caCert;
-                            try {
-                                // per motivi di performance aggiungo subito la CA rischiando
-                                // contesa con i job.
-                                certificatesAuthorityStorage.insertCA(caCert);
-                            } catch (CryptoStorageException ex) {
-                                log.debug("Errore durante l'inserimento della CA ", ex);
-                            }
+        return result;
+    }
+
+    /*
+     * Ricostruisce la catena di certificazione della singola firma
+     */
+    private ReliabilityCheck checkReliability(InputSignerBean input, ISignature signature,
+            ICAStorage certificatesAuthorityStorage) {
+        ValidationInfos validationInfos = new ValidationInfos();
+        X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
+        X500Principal issuerPrincipal = signatureCertificate.getIssuerX500Principal();
+        List<TrustChainCheck> tChainList = new ArrayList<TrustChainCheck>();
+        // Controllo se il certificato attuale è contenuto tra quelli accreditati
+        X509Certificate qualifiedCertificate = null;
+        do {
+            TrustChainCheck tChainCheck = new TrustChainCheck();
+            try {
+                qualifiedCertificate = certificatesAuthorityStorage.retriveCA(issuerPrincipal,
+                        signerUtil.getAuthorityKeyId(signatureCertificate));
+                log.debug(
+                        "Controllo se il certificato attuale è contenuto tra quelli accreditati");
+            } catch (CryptoStorageException | IOException e1) {
+                log.debug("Errore durante il recupero del certificato dallo storage", e1);
+            }
+
+            if (input.isCheckCAOnline()) {
+
+                // Potrebbe succedere che il DB delle CA non sia ancora stato riempito. Provo a
+                // controllare ONLINE.
+                if (qualifiedCertificate == null) {
+                    X509Certificate caCert = getCACertificateOnline(input,
+                            signatureCertificate, certificatesAuthorityStorage);
+                    if (caCert != null) {
+                        qualifiedCertificate = caCert;
+                        try {
+                            // per motivi di performance aggiungo subito la CA rischiando
+                            // contesa con i job.
+                            certificatesAuthorityStorage.insertCA(caCert);
+                        } catch (CryptoStorageException ex) {
+                            log.debug("Errore durante l'inserimento della CA ", ex);
                         }
                     }
                 }
-                boolean isQualified;
-                if (qualifiedCertificate == null) {
-                    isQualified = false;
+            }
+            boolean isQualified;
+            if (qualifiedCertificate == null) {
+                isQualified = false;
+                validationInfos.addError(
+                        "La CA non è presente nella lista dei certificatori accreditati da eIDAS");
+                log.debug(
+                        "La CA non è presente nella lista dei certificatori accreditati dal eIDAS");
+            } else {
+                issuerPrincipal = qualifiedCertificate.getIssuerX500Principal();
+                // Di default il certificato è accreditato se presente nella lista del eidas
+                isQualified = true;
+
+                // Occorre controllare che il certificato sia ancora attivo
+                if (signature.getReferenceDate().after(qualifiedCertificate.getNotAfter())) {
+                    isQualified = true;
                     validationInfos.addError(
-                            "La CA non è presente nella lista dei certificatori accreditati da eIDAS");
-                    log.debug(
-                            "La CA non è presente nella lista dei certificatori accreditati dal eIDAS");
-                } else {
-                    issuerPrincipal = qualifiedCertificate.getIssuerX500Principal();
-                    // Di default il certificato è accreditato se presente nella lista del eidas
+                            "Il certificato di certificazione è accreditato ma è scaduto in data: "
+                                    + threadDateFormatter.get()
+                                            .format(qualifiedCertificate.getNotAfter())
+                                    + " precedente al riferimento temporale: "
+                                    + threadDateFormatter.get()
+                                            .format(signature.getReferenceDate()));
+                } else if (signature.getReferenceDate()
+                        .before(qualifiedCertificate.getNotBefore())) {
+                    // isQualified = false;
                     isQualified = true;
-
-                    // Occorre controllare che il certificato sia ancora attivo
-                    if (signature.getReferenceDate().after(qualifiedCertificate.getNotAfter())) {
-                        isQualified = true;
-                        validationInfos.addError(
-                                "Il certificato di certificazione è accreditato ma è scaduto in data: "
-                                        + dateFormatter.format(qualifiedCertificate.getNotAfter())
-                                        + " precedente al riferimento temporale: "
-                                        + dateFormatter.format(signature.getReferenceDate()));
-                    } else if (signature.getReferenceDate()
-                            .before(qualifiedCertificate.getNotBefore())) {
-                        // isQualified = false;
-                        isQualified = true;
-                        validationInfos.addError(
-                                "Il certificato di certificazione è accreditato ma è entrato in vigore in data: "
-                                        + dateFormatter.format(qualifiedCertificate.getNotBefore())
-                                        + " successivo al riferimento temporale: "
-                                        + dateFormatter.format(signature.getReferenceDate()));
-                    } // controllo che non sia stato revocato rispetto alla CRL indicata dal suo
-                      // distribution point
-                    else {
-                        // se è una ROOT CA non effettuo la verifica CRL
-                        if (issuerPrincipal.getName()
-                                .equals(qualifiedCertificate.getSubjectX500Principal().getName())) {
-                            log.debug(
-                                    "Controllo di revoca non effettuato sulla CA perchè si tratta di una ROOT CA");
-                        } else {
-                            // Storage delle CRL
-                            ICRLStorage crlStorage = FactorySigner.getInstanceCRLStorage();
-                            // Issuer del certificato di certificazione
-                            X500Principal qualifiedCertificateIssuer = qualifiedCertificate
-                                    .getIssuerX500Principal();
-                            X509CRL qualifiedCertificateCRL = null;
-                            try {
+                    validationInfos.addError(
+                            "Il certificato di certificazione è accreditato ma è entrato in vigore in data: "
+                                    + threadDateFormatter.get()
+                                            .format(qualifiedCertificate.getNotBefore())
+                                    + " successivo al riferimento temporale: "
+                                    + threadDateFormatter.get()
+                                            .format(signature.getReferenceDate()));
+                } // controllo che non sia stato revocato rispetto alla CRL indicata dal suo
+                  // distribution point
+                else {
+                    // se è una ROOT CA non effettuo la verifica CRL
+                    if (issuerPrincipal.getName()
+                            .equals(qualifiedCertificate.getSubjectX500Principal().getName())) {
+                        log.debug(
+                                "Controllo di revoca non effettuato sulla CA perchè si tratta di una ROOT CA");
+                    } else {
+                        // Storage delle CRL
+                        ICRLStorage crlStorage = getCRLStorage(input);
+                        // Issuer del certificato di certificazione
+                        X500Principal qualifiedCertificateIssuer = qualifiedCertificate
+                                .getIssuerX500Principal();
+                        OCSPResult ocspResult = null;
+                        if (signerUtil.isRevocationCheckMode(ModalitaControlloRevoca.OCSP_CRL)) {
+                            ocspResult = signerUtil.getOCSPStatus(qualifiedCertificate,
+                                    certificatesAuthorityStorage,
+                                    input.getHttpCrlTimeoutConnection(),
+                                    input.getHttpCrlSocketTimeout());
+                        }
+                        X509CRL qualifiedCertificateCRL = null;
+                        try {
+                            if (ocspResult == null) {
                                 qualifiedCertificateCRL = crlStorage.retriveCRL(
                                         qualifiedCertificateIssuer.getName(),
                                         signerUtil.getAuthorityKeyId(qualifiedCertificate));
-                            } catch (CryptoStorageException | IOException e) {
-                                log.error("Errore recuperando il certificato dallo storage", e);
                             }
-                            if (qualifiedCertificateCRL != null) {
-                                log.debug(
-                                        "Recuperata la CRL dal repository cache/db; effettuo il controllo di revoca");
-                                tChainCheck.setCrl(qualifiedCertificateCRL);
-                                // crlInfosMap.put(signature, qualifiedCertificateCRL);
-                                isQualified = checkCRL(validationInfos, qualifiedCertificate,
-                                        qualifiedCertificateCRL, signature.getReferenceDate());
-                            } else {
-                                // Se la CRL non era presente nello storage
-                                // verifico rispetto al distribution point
-                                try {
-                                    List<String> urlCRLDistributionPoints = signerUtil
-                                            .getURLCrlDistributionPoint(qualifiedCertificate);
-                                    X509CRL envelopeCrl = null;
-                                    if (urlCRLDistributionPoints != null) {
-                                        log.debug("CRL nel db non trovata, scarico la CRL");
-                                        envelopeCrl = signerUtil.getCrlByURL(
-                                                urlCRLDistributionPoints, httpCrlTimeoutConnection,
-                                                httpCrlSocketTimeout, ldapCrlTimeoutConnection);
-                                    }
-                                    if (envelopeCrl != null) {
-                                        tChainCheck.setCrl(envelopeCrl);
-                                        // crlInfosMap.put(signature, envelopeCrl);
-                                        log.debug("effettuo il controllo di revoca");
-                                        isQualified = checkCRL(validationInfos,
-                                                qualifiedCertificate, envelopeCrl,
-                                                signature.getReferenceDate());
-
-                                        // La CRL deve essere storicizzata
-                                        try {
-                                            log.debug("salvo la CRL sul DB e in cache");
-                                            crlStorage.upsertCRL(envelopeCrl);
-                                        } catch (CryptoStorageException e) {
-                                            // TODO Auto-generated catch block
-                                            e.printStackTrace();
-                                        }
-
-                                    } else {
-                                        throw new CryptoSignerException();
+                        } catch (CryptoStorageException | IOException e) {
+                            log.error("Errore recuperando il certificato dallo storage", e);
+                        }
+                        if (ocspResult != null) {
+                            log.debug("Stato del certificato di certificazione ottenuto via OCSP");
+                            isQualified = checkOCSP(validationInfos, ocspResult,
+                                    signature.getReferenceDate());
+                        } else if (qualifiedCertificateCRL != null) {
+                            log.debug(
+                                    "Recuperata la CRL dal repository cache/db; effettuo il controllo di revoca");
+                            tChainCheck.setCrl(qualifiedCertificateCRL);
+                            // crlInfosMap.put(signature, qualifiedCertificateCRL);
+                            signerUtil.scheduleCrlRefresh(qualifiedCertificate,
+                                    qualifiedCertificateCRL);
+                            isQualified = checkCRL(validationInfos, qualifiedCertificate,
+                                    qualifiedCertificateCRL,
+                                    getDeltaCRL(input, qualifiedCertificate,
+                                            qualifiedCertificateCRL, crlStorage),
+                                    signature.getReferenceDate());
+                        } else {
+                            // Se la CRL non era presente nello storage
+                            // verifico rispetto al distribution point
+                            try {
+                                List<String> urlCRLDistributionPoints = signerUtil
+                                        .getURLCrlDistributionPoint(qualifiedCertificate);
+                                X509CRL envelopeCrl = null;
+                                if (urlCRLDistributionPoints != null) {
+                                    log.debug("CRL nel db non trovata, scarico la CRL");
+                                    envelopeCrl = getCrlByURL(input,
+                                            urlCRLDistributionPoints);
+                                }
+                                if (envelopeCrl != null) {
+                                    tChainCheck.setCrl(envelopeCrl);
+                                    // crlInfosMap.put(signature, envelopeCrl);
+                                    log.debug("effettuo il controllo di revoca");
+                                    isQualified = checkCRL(validationInfos,
+                                            qualifiedCertificate, envelopeCrl,
+                                            getDeltaCRL(input, qualifiedCertificate, envelopeCrl,
+                                                    crlStorage),
+                                            signature.getReferenceDate());
+
+                                    // La CRL deve essere storicizzata
+                                    try {
+                                        log.debug("salvo la CRL sul DB e in cache");
+                                        signerUtil.storeDownloadedCrl(crlStorage, envelopeCrl);
+                                    } catch (CryptoStorageException e) {
+                                        log.error("Errore nel salvataggio della CRL", e);
                                     }
-                                } catch (CryptoSignerException e) {
-                                    // Non è stato possibile validare il certificato di
-                                    // certificazione rispetto alle CRL
-                                    // tengo traccia dell'errore ma considero il certificato
-                                    // comunque accreditato
-                                    // (poichè presente nella lista del eIDAS e attivo al
-                                    // riferimento temporale)
-                                    validationInfos.addWarning(
-                                            "Controllo delle CRL del certificato dell'issuer non effettuato");
-                                    isQualified = true;
+
+                                } else if (signerUtil
+                                        .isRevocationCheckMode(ModalitaControlloRevoca.CRL_OCSP)
+                                        && (ocspResult = signerUtil.getOCSPStatus(
+                                                qualifiedCertificate, certificatesAuthorityStorage,
+                                                input.getHttpCrlTimeoutConnection(),
+                                                input.getHttpCrlSocketTimeout())) != null) {
+                                    log.debug("CRL non disponibile, effettuo il controllo via OCSP");
+                                    isQualified = checkOCSP(validationInfos, ocspResult,
+                                            signature.getReferenceDate());
+                                } else {
+                                    throw new CryptoSignerException();
                                 }
+                            } catch (CryptoSignerException e) {
+                                // Non è stato possibile validare il certificato di
+                                // certificazione rispetto alle CRL
+                                // tengo traccia dell'errore ma considero il certificato
+                                // comunque accreditato
+                                // (poichè presente nella lista del eIDAS e attivo al
+                                // riferimento temporale)
+                                validationInfos.addWarning(
+                                        "Controllo delle CRL del certificato dell'issuer non effettuato");
+                                isQualified = true;
                             }
                         }
                     }
-
                 }
-                tChainCheck.setCerificate(qualifiedCertificate);
-                tChainList.add(tChainCheck);
-
-                unqualifiedSignatureValidationInfos.put(signature, validationInfos);
-                result &= validationInfos.isValid();
-            } while (qualifiedCertificate != null && !qualifiedCertificate.getIssuerX500Principal()
-                    .getName().equals(qualifiedCertificate.getSubjectX500Principal().getName()));
-            tCheckMap.put(signature, tChainList);
-            if (performCounterSignaturesCheck) {
-                List<ISignature> counterSignatures = signature.getCounterSignatures();
-                result &= populateUnqualifiedSignaturesList(tCheckMap,
-                        unqualifiedSignatureValidationInfos, counterSignatures,
-                        certificatesAuthorityStorage, checkCaOnline, httpCrlTimeoutConnection,
-                        httpCrlSocketTimeout, ldapCrlTimeoutConnection);
-            }
-
-        }
 
-        return result;
+            }
+            tChainCheck.setCerificate(qualifiedCertificate);
+            tChainList.add(tChainCheck);
+        } while (qualifiedCertificate != null && !qualifiedCertificate.getIssuerX500Principal()
+                .getName().equals(qualifiedCertificate.getSubjectX500Principal().getName()));
+        return new ReliabilityCheck(validationInfos, tChainList);
     }
 
     private boolean checkCRL(ValidationInfos validationInfos, X509Certificate caCertificate,
-            X509CRL crl, Date date) {
+            X509CRL crl, X509CRL deltaCrl, Date date) {
         log.debug("Inizio controllo di revoca");
-        X509CRLEntry crlEntry = crl.getRevokedCertificate(caCertificate);
+        CRLRevocationIndex revocationIndex = CRLRevocationIndex.of(crl, deltaCrl);
+        int crlEntry = revocationIndex.indexOf(caCertificate);
         log.debug("Fine controllo di revoca");
         // il certificato è stato revocato
-        if (crlEntry != null) {
-            if (date != null && crlEntry.getRevocationDate().before(date)) {
-                validationInfos.addError("Certificato revocato in data: "
-                        + dateFormatter.format(crlEntry.getRevocationDate()) + " (antecedente a: "
-                        + dateFormatter.format(date) + ")");
-                return false;
-            } else if (date == null) {
-                validationInfos.addError("Certificato già revocato in data: "
-                        + dateFormatter.format(crlEntry.getRevocationDate()));
-                return false;
-            }
+        if (crlEntry >= 0) {
+            return checkRevocationDate(validationInfos,
+                    revocationIndex.getRevocationDate(crlEntry), date);
         }
         return true;
     }
+
+    private boolean checkOCSP(ValidationInfos validationInfos, OCSPResult ocspResult,
+            Date date) {
+        if (ocspResult.getStatus() == OCSPResult.Status.REVOKED) {
+            return checkRevocationDate(validationInfos, ocspResult.getRevocationDate(), date);
+        }
+        return true;
+    }
+
+    private boolean checkRevocationDate(ValidationInfos validationInfos, Date revocationDate,
+            Date date) {
+        if (date != null && revocationDate.before(date)) {
+            validationInfos.addError("Certificato revocato in data: "
+                    + threadDateFormatter.get()
+                            .format(revocationDate) + " (antecedente a: "
+                    + threadDateFormatter.get().format(date) + ")");
+            return false;
+        } else if (date == null) {
+            validationInfos.addError("Certificato già revocato in data: "
+                    + threadDateFormatter.get().format(revocationDate));
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Esito del controllo di attendibilità di una firma
+     */
+    private static final class ReliabilityCheck {
+
+        private final ValidationInfos validationInfos;
+        private final List<TrustChainCheck> trustChain;
+
+        ReliabilityCheck(ValidationInfos validationInfos, List<TrustChainCheck> trustChain) {
+            this.validationInfos = validationInfos;
+            this.trustChain = trustChain;
+        }
+    }
 }
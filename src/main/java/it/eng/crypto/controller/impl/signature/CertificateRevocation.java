@@ -16,11 +16,11 @@ package it.eng.crypto.controller.impl.signature;
 import java.io.IOException;
 import java.security.Principal;
 import java.security.cert.CRL;
+import java.security.cert.CRLReason;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.Calendar;
 import java.util.Collection;
@@ -28,23 +28,27 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import it.eng.crypto.FactorySigner;
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.MasterSignerController;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.bean.TrustChainCheck;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.controller.exception.ExceptionController;
+import it.eng.crypto.data.CRLRevocationIndex;
+import it.eng.crypto.data.OCSPResult;
 import it.eng.crypto.data.SignerUtil;
 import it.eng.crypto.data.signature.ISignature;
 import it.eng.crypto.exception.CryptoSignerException;
 import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICRLStorage;
 import it.eng.crypto.utils.VerificheEnums.EsitoControllo;
+import it.eng.crypto.utils.VerificheEnums.ModalitaControlloRevoca;
 
 /**
  * Prende in considerazione come riferimento temporale il timestamp in input (se presente) oppure la
@@ -60,7 +64,8 @@ import it.eng.crypto.utils.VerificheEnums.EsitoControllo;
  *
  * @author Stefano Zennaro
  */
-public class CertificateRevocation extends AbstractSignerController {
+public class CertificateRevocation extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     public static final String CERTIFICATE_REVOCATION_CHECK = "performCertificateRevocation";
     Logger log = LoggerFactory.getLogger(MasterSignerController.class.getName());
@@ -70,6 +75,19 @@ public class CertificateRevocation extends AbstractSignerController {
         return CERTIFICATE_REVOCATION_CHECK;
     }
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY,
+                OutputSignerBean.CERTIFICATE_EXPIRATION_PROPERTY,
+                OutputSignerBean.CERTIFICATE_RELIABILITY_PROPERTY };
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.CRL_VALIDATION_PROPERTY,
+                OutputSignerBean.CRL_PROPERTY };
+    }
+
     public boolean execute(InputSignerBean input, OutputSignerBean output)
             throws ExceptionController {
 
@@ -111,6 +129,39 @@ public class CertificateRevocation extends AbstractSignerController {
             Map<ISignature, X509CRL> crlInfosMap, InputSignerBean input, OutputSignerBean output,
             List<ISignature> signatures) {
 
+        // Storage delle CRL
+        ICRLStorage crlStorage = getCRLStorage(input);
+
+        // Le firme sono verificate in parallelo: le CRL utilizzate sono raccolte in una mappa
+        // concorrente e riportate nell'output al termine
+        Map<ISignature, X509CRL> crls = new ConcurrentHashMap<ISignature, X509CRL>();
+        Map<ISignature, ValidationInfos> checked = checkSignatures(signatures,
+                signature -> checkRevocation(signature, input, output, crlStorage, crls));
+        crlInfosMap.putAll(crls);
+        return populateValidationInfosMap(validationInfosMap, signatures, checked);
+    }
+
+    private boolean populateValidationInfosMap(Map<ISignature, ValidationInfos> validationInfosMap,
+            List<ISignature> signatures, Map<ISignature, ValidationInfos> checked) {
+        boolean result = true;
+        for (ISignature signature : signatures) {
+            ValidationInfos validationInfos = checked.get(signature);
+            // Aggiungo il risultato della validazione della CRL della firma
+            validationInfosMap.put(signature, validationInfos);
+            result &= validationInfos.isValid();
+
+            if (performCounterSignaturesCheck) {
+                List<ISignature> counterSignatures = signature.getCounterSignatures();
+                result &= populateValidationInfosMap(validationInfosMap, counterSignatures,
+                        checked);
+            }
+        }
+        return result;
+    }
+
+    private ValidationInfos checkRevocation(ISignature signature, InputSignerBean input,
+            OutputSignerBean output, ICRLStorage crlStorage, Map<ISignature, X509CRL> crlInfosMap) {
+
         Map<ISignature, ValidationInfos> expiredCertificates = (Map<ISignature, ValidationInfos>) output
                 .getProperty(OutputSignerBean.CERTIFICATE_EXPIRATION_PROPERTY);
         Map<ISignature, List<TrustChainCheck>> certificateReliabilityMap = (Map<ISignature, List<TrustChainCheck>>) output
@@ -120,84 +171,116 @@ public class CertificateRevocation extends AbstractSignerController {
         Collection<? extends Certificate> embeddedCertificates = input.getSigner()
                 .getEmbeddedCertificates();
 
-        boolean result = true;
+        ValidationInfos validationInfos = new ValidationInfos();
 
-        // Storage delle CRL
-        ICRLStorage crlStorage = FactorySigner.getInstanceCRLStorage();
-
-        for (ISignature signature : signatures) {
-
-            ValidationInfos validationInfos = new ValidationInfos();
+        /*
+         * Verifico se il certificato era già scaduto alla data di riferimento temporale Solo se
+         * la configurazione prevede questa verifica
+         */
+        ValidationInfos certificateExpirationInfo = null;
+        if (isCheckCertificateExpiration()) {
+            certificateExpirationInfo = expiredCertificates.get(signature);
+        }
+        if (certificateExpirationInfo != null && !certificateExpirationInfo.isValid()) {
+            if (certificateExpirationInfo.getEsito()
+                    .equals(EsitoControllo.CERTIFICATO_ERRATO)) {
+                validationInfos
+                        .addError("Certificato di firma errato, verifica CRL non effettuata");
+            } else {
+                validationInfos.addError(
+                        "Certificato scaduto alla data del riferimento temporale, verifica CRL non effettuata");
+            }
+            validationInfos.setEsito(EsitoControllo.NON_NECESSARIO);
+        } else {
+            X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
+            Principal issuerDN = signatureCertificate.getIssuerX500Principal();
 
             /*
-             * Verifico se il certificato era già scaduto alla data di riferimento temporale Solo se
-             * la configurazione prevede questa verifica
+             * Recupero la CRL dell'issuer del certificato
              */
-            ValidationInfos certificateExpirationInfo = null;
-            if (isCheckCertificateExpiration()) {
-                certificateExpirationInfo = expiredCertificates.get(signature);
-            }
-            if (certificateExpirationInfo != null && !certificateExpirationInfo.isValid()) {
-                if (certificateExpirationInfo.getEsito()
-                        .equals(EsitoControllo.CERTIFICATO_ERRATO)) {
-                    validationInfos
-                            .addError("Certificato di firma errato, verifica CRL non effettuata");
-                } else {
-                    validationInfos.addError(
-                            "Certificato scaduto alla data del riferimento temporale, verifica CRL non effettuata");
-                }
-                validationInfos.setEsito(EsitoControllo.NON_NECESSARIO);
-            } else {
-                X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
-                Principal issuerDN = signatureCertificate.getIssuerX500Principal();
 
-                /*
-                 * Recupero la CRL dell'issuer del certificato
-                 */
-
-                X509CRL historicalCRL = null;
+            OCSPResult ocspResult = null;
+            if (signerUtil.isRevocationCheckMode(ModalitaControlloRevoca.OCSP_CRL)) {
+                ocspResult = getOCSPStatus(input, signatureCertificate, getIssuerCertificate(input,
+                        signature, certificateReliabilityMap, embeddedCertificates));
+            }
+            X509CRL historicalCRL = null;
+            X509CRL currentDeltaCRL = null;
+            if (ocspResult == null) {
                 try {
                     historicalCRL = crlStorage.retriveCRL(issuerDN.getName(),
                             signerUtil.getAuthorityKeyId(signatureCertificate));
                 } catch (CryptoStorageException | IOException e) {
                     log.error("Errore recuperando il certificato dallo storage", e);
                 }
-                // TODO MQ: verificare se aggiungere questo controllo anche durante il
-                // CertificateReliability
-                // Verifico se la data di prossimo aggiornamento della CRL è >= della
-                // data del riferimento temporale
+                // CRL completa scaduta: è sufficiente una delta CRL corrente che vi si riferisca
                 if (historicalCRL != null
-                        && historicalCRL.getNextUpdate().after(signature.getReferenceDate())) {
-                    log.debug(
-                            "Recuperata la CRL dal repository cache/db; effettuo il controllo di revoca");
-                    checkCRL(validationInfos, signature, historicalCRL, crlInfosMap);
-                } else {
-
-                    // Se la CRL storica non è stato trovata oppure
-                    // se il suo periodo di validità non è applicabile
-                    // cerco di scaricare la CRL dal distribution point
-                    try {
-                        log.debug("CRL nel db non trovata oppure scaduta, scarico la CRL");
-                        List<String> urlCRLDistributionPoints = signerUtil
-                                .getURLCrlDistributionPoint(signatureCertificate);
-
-                        if (urlCRLDistributionPoints != null) {
-                            X509CRL distributionPointCRL = signerUtil.getCrlByURL(
-                                    urlCRLDistributionPoints, input.getHttpCrlTimeoutConnection(),
-                                    input.getHttpCrlSocketTimeout(),
-                                    input.getLdapCrlTimeoutConnection());
-
-                            // Se la CRL è stata scaricata correttamente
-                            // allora questa deve essere storicizzata
-                            if (distributionPointCRL == null) {
+                        && !historicalCRL.getNextUpdate().after(signature.getReferenceDate())) {
+                    currentDeltaCRL = getCurrentDeltaCRL(input, signatureCertificate,
+                            historicalCRL, crlStorage, signature.getReferenceDate());
+                }
+            }
+            // TODO MQ: verificare se aggiungere questo controllo anche durante il
+            // CertificateReliability
+            // Verifico se la data di prossimo aggiornamento della CRL è >= della
+            // data del riferimento temporale
+            if (ocspResult != null) {
+                log.debug("Stato del certificato ottenuto tramite OCSP");
+                checkOCSP(validationInfos, signature, ocspResult);
+            } else if (historicalCRL != null
+                    && historicalCRL.getNextUpdate().after(signature.getReferenceDate())) {
+                log.debug(
+                        "Recuperata la CRL dal repository cache/db; effettuo il controllo di revoca");
+                signerUtil.scheduleCrlRefresh(signatureCertificate, historicalCRL);
+                checkCRL(validationInfos, signature, historicalCRL,
+                        getDeltaCRL(input, signatureCertificate, historicalCRL, crlStorage),
+                        crlInfosMap);
+            } else if (currentDeltaCRL != null) {
+                log.debug(
+                        "CRL del repository cache/db scaduta; effettuo il controllo di revoca con la delta CRL");
+                checkCRL(validationInfos, signature, historicalCRL, currentDeltaCRL, crlInfosMap);
+            } else {
+
+                // Se la CRL storica non è stato trovata oppure
+                // se il suo periodo di validità non è applicabile
+                // cerco di scaricare la CRL dal distribution point
+                try {
+                    log.debug("CRL nel db non trovata oppure scaduta, scarico la CRL");
+                    List<String> urlCRLDistributionPoints = signerUtil
+                            .getURLCrlDistributionPoint(signatureCertificate);
+
+                    if (urlCRLDistributionPoints != null) {
+                        X509CRL distributionPointCRL = getCrlByURL(input,
+                                urlCRLDistributionPoints, signature.getReferenceDate());
+
+                        // Se la CRL è stata scaricata correttamente
+                        // allora questa deve essere storicizzata
+                        if (distributionPointCRL == null) {
+                            // CRL non disponibile: verifico lo stato tramite OCSP, se previsto
+                            if (signerUtil
+                                    .isRevocationCheckMode(ModalitaControlloRevoca.CRL_OCSP)) {
+                                ocspResult = getOCSPStatus(input, signatureCertificate,
+                                        getIssuerCertificate(input, signature,
+                                                certificateReliabilityMap, embeddedCertificates));
+                            }
+                            if (ocspResult == null) {
                                 throw new CryptoSignerException();
                             }
-                            try {
-                                log.debug("salvo la CRL sul DB e in cache");
-                                crlStorage.upsertCRL(distributionPointCRL);
-                            } catch (CryptoStorageException e) {
-                                // TODO Auto-generated catch block
-                                e.printStackTrace();
+                            log.debug("Stato del certificato ottenuto tramite OCSP");
+                            checkOCSP(validationInfos, signature, ocspResult);
+                        } else {
+                            if (historicalCRL != null && historicalCRL.getThisUpdate()
+                                    .equals(distributionPointCRL.getThisUpdate())) {
+                                // Il punto di distribuzione non ha pubblicato una nuova CRL
+                                log.debug("CRL invariata rispetto a quella salvata sul DB");
+                            } else {
+                                try {
+                                    log.debug("salvo la CRL sul DB e in cache");
+                                    signerUtil.storeDownloadedCrl(crlStorage, distributionPointCRL);
+                                } catch (CryptoStorageException e) {
+                                    // TODO Auto-generated catch block
+                                    e.printStackTrace();
+                                }
                             }
                             // Effettuo nuovamente il controllo di validità della CRL appena
                             // scaricata
@@ -205,230 +288,281 @@ public class CertificateRevocation extends AbstractSignerController {
                                     .after(signature.getReferenceDate())) {
                                 log.debug("effettuo il controllo di revoca");
                                 checkCRL(validationInfos, signature, distributionPointCRL,
+                                        getDeltaCRL(input, signatureCertificate,
+                                                distributionPointCRL, crlStorage),
                                         crlInfosMap);
                             } else {
                                 validationInfos.addError(
                                         "La CRL ottenuta dal punto di distribuzione dalla CA scade il: "
-                                                + dateFormatter.format(
+                                                + threadDateFormatter.get().format(
                                                         distributionPointCRL.getNextUpdate())
                                                 + " precedente alla data del riferimento temporale usato: "
-                                                + dateFormatter
+                                                + threadDateFormatter.get()
                                                         .format(signature.getReferenceDate()));
                                 validationInfos.setEsito(EsitoControllo.CRL_SCADUTA);
                                 // anche in caso di CRL_SCADUTA devo popolare la mappa: la CRL deve
                                 // essere persistita
                                 crlInfosMap.put(signature, distributionPointCRL);
                             }
-
-                        } else {
-                            throw new CryptoSignerException();
                         }
 
-                    } catch (CryptoSignerException e) {
+                    } else {
+                        throw new CryptoSignerException();
+                    }
 
-                        // Se si è verificato un errore durante lo scaricamento
-                        // dal distribution point, oppure questo non è indicato nella busta
-                        // si verifica se il certificato dell'issuer è ancora valido
+                } catch (CryptoSignerException e) {
 
-                        X509Certificate issuerCertificate = null;
-                        // TODO controllo se la mappa è diversa da null ... potrei aver non
-                        // effettuato il controllo di
-                        // Ceritificate Reliability
-                        if (certificateReliabilityMap != null
-                                && certificateReliabilityMap.get(signature) != null) {
-                            issuerCertificate = certificateReliabilityMap.get(signature).get(0)
-                                    .getCerificate();
-                        }
+                    // Se si è verificato un errore durante lo scaricamento
+                    // dal distribution point, oppure questo non è indicato nella busta
+                    // si verifica se il certificato dell'issuer è ancora valido
 
-                        if (issuerCertificate == null) {
-                            issuerCertificate = SignerUtil.getCertificateFromCollection(issuerDN,
-                                    embeddedCertificates);
-                        }
-
-                        if (issuerCertificate != null) {
-                            try {
-                                issuerCertificate.checkValidity();
-                                // Se il certificato di certificazione è ancora valido
-                                // doveva essere possibile scaricare la CRL,
-                                // poichè ciò non è avvenuto, restituisco un errore
-                                validationInfos.addError(
-                                        "CRL non verificabile, il certificato dell'issuer risulta ancora valido ma non è stato possibile recuperare la CRL su cui validare il certificato di firma");
-                                validationInfos.setEsito(EsitoControllo.CRL_NON_SCARICABILE);
-                            } catch (CertificateExpiredException e1) {
+                    X509Certificate issuerCertificate = null;
+                    // TODO controllo se la mappa è diversa da null ... potrei aver non
+                    // effettuato il controllo di
+                    // Ceritificate Reliability
+                    if (certificateReliabilityMap != null
+                            && certificateReliabilityMap.get(signature) != null) {
+                        issuerCertificate = certificateReliabilityMap.get(signature).get(0)
+                                .getCerificate();
+                    }
 
-                                // Il certificato di certificazione è scaduto
-                                // verifico sulle CRL della busta
-                                boolean existsEmbeddedCRLReferredToIssuer = false;
-                                if (embeddedCRLs != null && embeddedCRLs.size() != 0) {
+                    if (issuerCertificate == null) {
+                        issuerCertificate = SignerUtil.getCertificateFromCollection(issuerDN,
+                                embeddedCertificates);
+                    }
 
-                                    for (CRL embeddedCRL : embeddedCRLs) {
-                                        if (embeddedCRL instanceof X509CRL) {
-                                            X509CRL x509EmbeddedCRL = (X509CRL) embeddedCRL;
+                    if (issuerCertificate != null) {
+                        try {
+                            issuerCertificate.checkValidity();
+                            // Se il certificato di certificazione è ancora valido
+                            // doveva essere possibile scaricare la CRL,
+                            // poichè ciò non è avvenuto, restituisco un errore
+                            validationInfos.addError(
+                                    "CRL non verificabile, il certificato dell'issuer risulta ancora valido ma non è stato possibile recuperare la CRL su cui validare il certificato di firma");
+                            validationInfos.setEsito(EsitoControllo.CRL_NON_SCARICABILE);
+                        } catch (CertificateExpiredException e1) {
 
-                                            // Verifico che la CRL sia relativa al certificato
-                                            // dell'issuer
-                                            try {
-                                                x509EmbeddedCRL
-                                                        .verify(issuerCertificate.getPublicKey());
-
-                                                // Verifico che la CRL della busta abbia una data di
-                                                // validità successiva al riferimento temporale
-                                                if (x509EmbeddedCRL.getNextUpdate()
-                                                        .after(signature.getReferenceDate())) {
-
-                                                    checkCRL(validationInfos, signature,
-                                                            (X509CRL) embeddedCRL, crlInfosMap);
-
-                                                    // Tengo traccia che almeno una CRL nella busta
-                                                    // è relativa
-                                                    // al certificato dell'issuer
-                                                    existsEmbeddedCRLReferredToIssuer |= true;
-
-                                                    // Se è valida si può storicizzare
-                                                    try {
-                                                        crlStorage.upsertCRL(x509EmbeddedCRL);
-                                                    } catch (CryptoStorageException e2) {
-                                                        e2.printStackTrace();
-                                                    }
-                                                }
+                            // Il certificato di certificazione è scaduto
+                            // verifico sulle CRL della busta
+                            boolean existsEmbeddedCRLReferredToIssuer = false;
+                            if (embeddedCRLs != null && embeddedCRLs.size() != 0) {
 
-                                            } catch (Exception e2) {
+                                for (CRL embeddedCRL : embeddedCRLs) {
+                                    if (embeddedCRL instanceof X509CRL) {
+                                        X509CRL x509EmbeddedCRL = (X509CRL) embeddedCRL;
 
-                                                // Una CRL nella busta non è relativa al
-                                                // certificato
-                                                // dell'issuer
-                                                existsEmbeddedCRLReferredToIssuer |= false;
-                                            }
+                                        // Verifico che la CRL sia relativa al certificato
+                                        // dell'issuer
+                                        try {
+                                            x509EmbeddedCRL
+                                                    .verify(issuerCertificate.getPublicKey());
 
-                                        }
-                                    }
+                                            // Verifico che la CRL della busta abbia una data di
+                                            // validità successiva al riferimento temporale
+                                            if (x509EmbeddedCRL.getNextUpdate()
+                                                    .after(signature.getReferenceDate())) {
 
-                                    if (!existsEmbeddedCRLReferredToIssuer) {
-                                        validationInfos.addWarning("Nella busta sono presenti "
-                                                + embeddedCRLs.size()
-                                                + " CRL ma nessuna è valida rispetto al certificato dell'issuer");
-                                        validationInfos.setEsito(EsitoControllo.CRL_NON_VALIDA);
-                                    }
-                                }
+                                                checkCRL(validationInfos, signature,
+                                                        (X509CRL) embeddedCRL, crlInfosMap);
 
-                                // Non sono presenti CRL nella busta oppure nessuna delle presenti
-                                // è
-                                // valida
-                                // verifico rispetto alla CRL in input
-                                if (embeddedCRLs == null || embeddedCRLs.size() == 0
-                                        || !existsEmbeddedCRLReferredToIssuer) {
-                                    if (inputCRL instanceof X509CRL) {
-                                        X509CRL x509InputCRL = (X509CRL) inputCRL;
-                                        try {
-                                            x509InputCRL.verify(issuerCertificate.getPublicKey());
-                                            if (x509InputCRL.getNextUpdate()
-                                                    .after(signature.getReferenceDate())) {
-                                                checkCRL(validationInfos, signature, x509InputCRL,
-                                                        crlInfosMap);
+                                                // Tengo traccia che almeno una CRL nella busta
+                                                // è relativa
+                                                // al certificato dell'issuer
+                                                existsEmbeddedCRLReferredToIssuer |= true;
 
                                                 // Se è valida si può storicizzare
                                                 try {
-                                                    crlStorage.upsertCRL(x509InputCRL);
+                                                    crlStorage.upsertCRL(x509EmbeddedCRL);
                                                 } catch (CryptoStorageException e2) {
                                                     e2.printStackTrace();
                                                 }
-                                            } else {
-                                                validationInfos.addError(
-                                                        "CRL non verificabile, errore durante la validazione con CRL in input, la CRL non è valida per il riferimento temporale considerato: "
-                                                                + dateFormatter.format(signature
-                                                                        .getReferenceDate()));
-                                                validationInfos
-                                                        .setEsito(EsitoControllo.CRL_SCADUTA);
-                                                // anche in caso di CRL_SCADUTA devo popolare la
-                                                // mappa: la CRL deve
-                                                // essere persistita
-                                                crlInfosMap.put(signature, x509InputCRL);
                                             }
 
                                         } catch (Exception e2) {
-                                            validationInfos.addError(
-                                                    "CRL non verificabile, la CRL in input non si riferisce al certificato dell'issuer");
-                                            validationInfos.setEsito(EsitoControllo.CRL_NON_VALIDA);
+
+                                            // Una CRL nella busta non è relativa al
+                                            // certificato
+                                            // dell'issuer
+                                            existsEmbeddedCRLReferredToIssuer |= false;
                                         }
-                                    } else {
-                                        validationInfos.addError(
-                                                "CRL non verificabile, non si dispone di una CRL su cui validare il certificato di firma");
-                                        Calendar cal = Calendar.getInstance();
-                                        cal.set(2009, Calendar.DECEMBER, 3);
-                                        // Se il certificato della CA è scaduto prima del 3 dicembre
-                                        // 2009 la CRL
-                                        // potrebbe non esserci
-                                        if (issuerCertificate.getNotAfter().before(cal.getTime())) {
-                                            validationInfos.setEsito(
-                                                    EsitoControllo.CERTIFICATO_SCADUTO_3_12_2009);
+
+                                    }
+                                }
+
+                                if (!existsEmbeddedCRLReferredToIssuer) {
+                                    validationInfos.addWarning("Nella busta sono presenti "
+                                            + embeddedCRLs.size()
+                                            + " CRL ma nessuna è valida rispetto al certificato dell'issuer");
+                                    validationInfos.setEsito(EsitoControllo.CRL_NON_VALIDA);
+                                }
+                            }
+
+                            // Non sono presenti CRL nella busta oppure nessuna delle presenti
+                            // è
+                            // valida
+                            // verifico rispetto alla CRL in input
+                            if (embeddedCRLs == null || embeddedCRLs.size() == 0
+                                    || !existsEmbeddedCRLReferredToIssuer) {
+                                if (inputCRL instanceof X509CRL) {
+                                    X509CRL x509InputCRL = (X509CRL) inputCRL;
+                                    try {
+                                        x509InputCRL.verify(issuerCertificate.getPublicKey());
+                                        if (x509InputCRL.getNextUpdate()
+                                                .after(signature.getReferenceDate())) {
+                                            checkCRL(validationInfos, signature, x509InputCRL,
+                                                    crlInfosMap);
+
+                                            // Se è valida si può storicizzare
+                                            try {
+                                                crlStorage.upsertCRL(x509InputCRL);
+                                            } catch (CryptoStorageException e2) {
+                                                e2.printStackTrace();
+                                            }
                                         } else {
+                                            validationInfos.addError(
+                                                    "CRL non verificabile, errore durante la validazione con CRL in input, la CRL non è valida per il riferimento temporale considerato: "
+                                                            + threadDateFormatter.get()
+                                                                    .format(signature
+                                                                    .getReferenceDate()));
                                             validationInfos
-                                                    .setEsito(EsitoControllo.CRL_NON_SCARICABILE);
+                                                    .setEsito(EsitoControllo.CRL_SCADUTA);
+                                            // anche in caso di CRL_SCADUTA devo popolare la
+                                            // mappa: la CRL deve
+                                            // essere persistita
+                                            crlInfosMap.put(signature, x509InputCRL);
                                         }
 
+                                    } catch (Exception e2) {
+                                        validationInfos.addError(
+                                                "CRL non verificabile, la CRL in input non si riferisce al certificato dell'issuer");
+                                        validationInfos.setEsito(EsitoControllo.CRL_NON_VALIDA);
+                                    }
+                                } else {
+                                    validationInfos.addError(
+                                            "CRL non verificabile, non si dispone di una CRL su cui validare il certificato di firma");
+                                    Calendar cal = Calendar.getInstance();
+                                    cal.set(2009, Calendar.DECEMBER, 3);
+                                    // Se il certificato della CA è scaduto prima del 3 dicembre
+                                    // 2009 la CRL
+                                    // potrebbe non esserci
+                                    if (issuerCertificate.getNotAfter().before(cal.getTime())) {
+                                        validationInfos.setEsito(
+                                                EsitoControllo.CERTIFICATO_SCADUTO_3_12_2009);
+                                    } else {
+                                        validationInfos
+                                                .setEsito(EsitoControllo.CRL_NON_SCARICABILE);
                                     }
-                                }
 
-                            } catch (CertificateNotYetValidException e1) {
-                                validationInfos.addError(
-                                        "CRL non verificabile, il certificato dell'issuer risulta non essere ancora valido");
-                                validationInfos.setEsito(EsitoControllo.CRL_NON_SCARICABILE);
+                                }
                             }
 
-                        } else {
+                        } catch (CertificateNotYetValidException e1) {
                             validationInfos.addError(
-                                    "CRL non verificabile, non si dispone di una CRL su cui validare il certificato di firma e non è stato possibile reperire il certificato dell'issuer");
+                                    "CRL non verificabile, il certificato dell'issuer risulta non essere ancora valido");
                             validationInfos.setEsito(EsitoControllo.CRL_NON_SCARICABILE);
                         }
 
+                    } else {
+                        validationInfos.addError(
+                                "CRL non verificabile, non si dispone di una CRL su cui validare il certificato di firma e non è stato possibile reperire il certificato dell'issuer");
+                        validationInfos.setEsito(EsitoControllo.CRL_NON_SCARICABILE);
                     }
 
                 }
 
             }
 
-            if (validationInfos.isValid()) {
-                validationInfos.setEsito(EsitoControllo.POSITIVO);
-            }
-            // Aggiungo il risultato della validazione della CRL della firma
-            validationInfosMap.put(signature, validationInfos);
-            result &= validationInfos.isValid();
+        }
 
-            if (performCounterSignaturesCheck) {
-                List<ISignature> counterSignatures = signature.getCounterSignatures();
-                result &= populateValidationInfosMapFromInputOutput(validationInfosMap, crlInfosMap,
-                        input, output, counterSignatures);
-            }
+        if (validationInfos.isValid()) {
+            validationInfos.setEsito(EsitoControllo.POSITIVO);
         }
-        return result;
+        return validationInfos;
     }
 
     private void checkCRL(ValidationInfos validationInfos, ISignature signature, X509CRL crl,
             Map<ISignature, X509CRL> crlInfosMap) {
+        checkCRL(validationInfos, signature, crl, null, crlInfosMap);
+    }
+
+    /*
+     * Controllo di revoca sulla CRL completa aggiornata con l'eventuale delta CRL
+     */
+    private void checkCRL(ValidationInfos validationInfos, ISignature signature, X509CRL crl,
+            X509CRL deltaCrl, Map<ISignature, X509CRL> crlInfosMap) {
         // Popolo la mappa con la CRL usata
         crlInfosMap.put(signature, crl);
         Date date = signature.getReferenceDate();
         X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
         log.debug("Inizio controllo di revoca");
-        X509CRLEntry crlEntry = crl.getRevokedCertificate(signatureCertificate);
+        CRLRevocationIndex revocationIndex = CRLRevocationIndex.of(crl, deltaCrl);
+        int crlEntry = revocationIndex.indexOf(signatureCertificate);
         log.debug("Fine controllo di revoca");
         // il certificato è stato revocato
-        if (crlEntry != null) {
-            String reason = (crlEntry.getRevocationReason() != null)
-                    ? " - Motivo di revoca: " + crlEntry.getRevocationReason().toString()
-                    : "";
-            if (date != null && crlEntry.getRevocationDate().before(date)) {
-                validationInfos.addError("Certificato revocato in data: "
-                        + dateFormatter.format(crlEntry.getRevocationDate()) + " (antecedente a: "
-                        + dateFormatter.format(date) + ")" + reason);
-                validationInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
-            } else if (date == null) {
-                validationInfos.addError("Certificato già revocato in data: "
-                        + dateFormatter.format(crlEntry.getRevocationDate()) + reason);
-                validationInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
-            }
+        if (crlEntry >= 0) {
+            checkRevocationDate(validationInfos, date, revocationIndex.getRevocationDate(crlEntry),
+                    revocationIndex.getRevocationReason(crlEntry));
+        }
+
+    }
+
+    /*
+     * Controllo di revoca sulla risposta OCSP
+     */
+    private void checkOCSP(ValidationInfos validationInfos, ISignature signature,
+            OCSPResult ocspResult) {
+        if (ocspResult.getStatus() == OCSPResult.Status.REVOKED) {
+            checkRevocationDate(validationInfos, signature.getReferenceDate(),
+                    ocspResult.getRevocationDate(), ocspResult.getRevocationReason());
+        }
+    }
+
+    private void checkRevocationDate(ValidationInfos validationInfos, Date date,
+            Date revocationDate, CRLReason revocationReason) {
+        String reason = (revocationReason != null)
+                ? " - Motivo di revoca: " + revocationReason.toString()
+                : "";
+        if (date != null && revocationDate.before(date)) {
+            validationInfos.addError("Certificato revocato in data: "
+                    + threadDateFormatter.get()
+                            .format(revocationDate) + " (antecedente a: "
+                    + threadDateFormatter.get().format(date) + ")" + reason);
+            validationInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
+        } else if (date == null) {
+            validationInfos.addError("Certificato già revocato in data: "
+                    + threadDateFormatter.get().format(revocationDate) + reason);
+            validationInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
         }
+    }
 
+    /*
+     * Certificato della CA emittente necessario per la richiesta OCSP: dalla catena di
+     * attendibilità, dai certificati della busta o dallo storage delle CA
+     */
+    private X509Certificate getIssuerCertificate(InputSignerBean input, ISignature signature,
+            Map<ISignature, List<TrustChainCheck>> certificateReliabilityMap,
+            Collection<? extends Certificate> embeddedCertificates) {
+        if (certificateReliabilityMap != null && certificateReliabilityMap.get(signature) != null
+                && !certificateReliabilityMap.get(signature).isEmpty()) {
+            X509Certificate issuerCertificate = certificateReliabilityMap.get(signature).get(0)
+                    .getCerificate();
+            if (issuerCertificate != null) {
+                return issuerCertificate;
+            }
+        }
+        X509Certificate signatureCertificate = signature.getSignerBean().getCertificate();
+        X509Certificate issuerCertificate = SignerUtil.getCertificateFromCollection(
+                signatureCertificate.getIssuerX500Principal(), embeddedCertificates);
+        if (issuerCertificate == null) {
+            try {
+                issuerCertificate = getCAStorage(input).retriveCA(
+                        signatureCertificate.getIssuerX500Principal(),
+                        SignerUtil.getAuthorityKeyId(signatureCertificate));
+            } catch (CryptoStorageException | IOException e) {
+                log.error("Errore recuperando il certificato della CA dallo storage", e);
+            }
+        }
+        return issuerCertificate;
     }
 
     public boolean isCheckCertificateExpiration() {
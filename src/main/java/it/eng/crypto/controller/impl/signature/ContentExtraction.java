@@ -13,7 +13,6 @@
 
 package it.eng.crypto.controller.impl.signature;
 
-import java.io.File;
 import java.io.IOException;
 
 import it.eng.crypto.controller.bean.ContentBean;
@@ -21,11 +20,12 @@ import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.exception.ExceptionController;
 import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.DocumentContent;
 
 /**
  * Recupera il contenuto della busta tramite il metodo
- * {@link it.eng.crypto.data.AbstractSigner#getContentAsFile getContentAsFile} del signer ad esso
- * associato.
+ * {@link it.eng.crypto.data.AbstractSigner#getContent getContent} del signer ad esso associato. Il
+ * contenuto resta in memoria se non supera la soglia del signer.
  *
  * @author Administrator
  */
@@ -34,15 +34,15 @@ public class ContentExtraction extends AbstractSignerController {
     public boolean execute(InputSignerBean input, OutputSignerBean output)
             throws ExceptionController {
         AbstractSigner signer = input.getSigner();
-        File contentFile;
+        DocumentContent documentContent;
         try {
-            contentFile = signer.getContentAsFile();
+            documentContent = signer.getContent();
         } catch (IOException e) {
             throw new ExceptionController(e);
         }
         ContentBean content = new ContentBean();
         content.setPossiblySigned(signer.canContentBeSigned());
-        content.setContentFile(contentFile);
+        content.setContent(documentContent);
         output.setContent(content);
         return true;
     }
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
@@ -40,7 +41,8 @@ import it.eng.crypto.data.signature.ISignature;
  * @author Administrator
  *
  */
-public class FormatValidity extends AbstractSignerController {
+public class FormatValidity extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     /**
      * Proprietà restituita dal metodo
@@ -53,8 +55,21 @@ public class FormatValidity extends AbstractSignerController {
         return FORMAT_VALIDITY_CHECK;
     }
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY };
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.ENVELOPE_FORMAT_PROPERTY,
+                OutputSignerBean.FORMAT_VALIDITY_PROPERTY };
+    }
+
     private Properties validityProperties;
     private DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+    // DateFormat non è thread-safe: ogni thread utilizza una copia di dateFormat
+    private volatile ThreadLocal<DateFormat> threadDateFormat = newThreadDateFormat(dateFormat);
 
     /**
      * Recupera i periodi di validità associati a ciascun formato di firma
@@ -90,6 +105,16 @@ public class FormatValidity extends AbstractSignerController {
      */
     public void setDateFormat(DateFormat dateFormat) {
         this.dateFormat = dateFormat;
+        this.threadDateFormat = newThreadDateFormat(dateFormat);
+    }
+
+    private static ThreadLocal<DateFormat> newThreadDateFormat(final DateFormat dateFormat) {
+        return new ThreadLocal<DateFormat>() {
+            @Override
+            protected DateFormat initialValue() {
+                return (DateFormat) dateFormat.clone();
+            }
+        };
     }
 
     public boolean execute(InputSignerBean input, OutputSignerBean output)
@@ -146,20 +171,21 @@ public class FormatValidity extends AbstractSignerController {
                 if (validity != null) {
                     ValidationInfos validationInfos = new ValidationInfos();
                     try {
-                        Date date = dateFormat.parse(validity);
+                        Date date = threadDateFormat.get().parse(validity);
                         if (date.before(signature.getReferenceDate())) {
                             validationInfos
                                     .addError("Il formato di firma utilizzato è scaduto in data "
-                                            + dateFormatter.format(date)
+                                            + threadDateFormatter.get().format(date)
                                             + ", antecedente al riferimento temporale considerato: "
-                                            + dateFormatter.format(signature.getReferenceDate()));
+                                            + threadDateFormatter.get()
+                                                    .format(signature.getReferenceDate()));
                             result = false;
                         }
                     } catch (ParseException e) {
                         e.printStackTrace();
                         validationInfos.addError(
                                 "Non è stato possibile verificare la scadenza della data, poichè il formato della data non è riconosciuto: "
-                                        + dateFormatter.format(validity));
+                                        + threadDateFormatter.get().format(validity));
                         result = false;
                     }
                     validationInfosMap.put(signature, validationInfos);
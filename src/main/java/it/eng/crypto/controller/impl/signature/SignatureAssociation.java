@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
@@ -28,7 +29,8 @@ import it.eng.crypto.data.signature.ISignature;
  * nel {@link it.eng.crypto.controller.bean.InputSignerBean bean di input} viene richiamato il
  * metodo {@link it.eng.crypto.data.signature.ISignature#verify} della firma e salvato il risultato
  */
-public class SignatureAssociation extends AbstractSignerController {
+public class SignatureAssociation extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     public static final String SIGNATURE_ASSOCIATION_CHECK = "performSignatureAssociation";
 
@@ -36,6 +38,16 @@ public class SignatureAssociation extends AbstractSignerController {
         return SIGNATURE_ASSOCIATION_CHECK;
     }
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY };
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_VALIDATION_PROPERTY };
+    }
+
     public boolean execute(InputSignerBean input, OutputSignerBean output)
             throws ExceptionController {
         boolean result = true;
@@ -44,27 +56,33 @@ public class SignatureAssociation extends AbstractSignerController {
         if (output.getProperties().containsKey(OutputSignerBean.SIGNATURE_PROPERTY)) {
             signatures = (List<ISignature>) output.getProperty(OutputSignerBean.SIGNATURE_PROPERTY);
             Map<ISignature, ValidationInfos> validationInfosMap = new HashMap<ISignature, ValidationInfos>();
-            result = populateValidationInfosMapFromSignatureList(validationInfosMap, signatures);
+            // Le firme sono verificate in parallelo, i risultati riportati nell'ordine della busta
+            Map<ISignature, ValidationInfos> verified = checkSignatures(signatures,
+                    signature -> signature.verify());
+            result = populateValidationInfosMapFromSignatureList(validationInfosMap, signatures,
+                    verified);
             output.setProperty(OutputSignerBean.SIGNATURE_VALIDATION_PROPERTY, validationInfosMap);
         }
         return result;
     }
 
     private boolean populateValidationInfosMapFromSignatureList(
-            Map<ISignature, ValidationInfos> validationInfosMap, List<ISignature> signatures) {
+            Map<ISignature, ValidationInfos> validationInfosMap, List<ISignature> signatures,
+            Map<ISignature, ValidationInfos> verified) {
         boolean result = true;
         if (signatures == null || signatures.isEmpty())
             // Perchè la busta sia valida deve esserci almeno una firma
             return false;
         for (ISignature signature : signatures) {
 
-            ValidationInfos validationInfos = signature.verify();
+            ValidationInfos validationInfos = verified.get(signature);
 
             validationInfosMap.put(signature, validationInfos);
             result &= validationInfos.isValid();
             if (performCounterSignaturesCheck) {
                 List<ISignature> counterSignatures = signature.getCounterSignatures();
-                populateValidationInfosMapFromSignatureList(validationInfosMap, counterSignatures);
+                populateValidationInfosMapFromSignatureList(validationInfosMap, counterSignatures,
+                        verified);
             }
 
         }
@@ -0,0 +1,147 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.controller.impl.signature;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.data.signature.ISignature;
+
+/**
+ * Pool di thread condiviso dai controller di firma per verificare in parallelo le firme (e le
+ * controfirme) di una busta. Ciascuna firma viene elaborata indipendentemente dalle altre e i
+ * risultati vengono restituiti al controller, che li riporta nelle mappe di output.
+ * <p>
+ * Il pool va definito come bean singleton e iniettato nei controller tramite la proprietà
+ * <code>signatureCheckPool</code>: in assenza del pool le firme vengono verificate in sequenza dal
+ * thread chiamante. Le firme XML, che condividono il Document DOM della busta, non vengono
+ * verificate tramite il pool.
+ * </p>
+ *
+ */
+public class SignatureCheckPool {
+
+    private static final Logger log = LoggerFactory.getLogger(SignatureCheckPool.class);
+
+    /**
+     * Verifica eseguita su una singola firma
+     *
+     * @param <T> tipo del risultato della verifica
+     */
+    public interface SignatureCheck<T> {
+
+        public T check(ISignature signature);
+
+    }
+
+    private final ExecutorService executor;
+
+    /**
+     * Crea un pool con un thread per ciascun processore disponibile
+     */
+    public SignatureCheckPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Crea un pool con il numero di thread indicato
+     *
+     * @param poolSize numero di firme verificate contemporaneamente
+     */
+    public SignatureCheckPool(int poolSize) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, poolSize), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "signature-check-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Esegue la verifica su ciascuna delle firme indicate. La prima firma viene verificata dal
+     * thread chiamante, le altre dal pool.
+     *
+     * @param signatures firme da verificare
+     * @param check      verifica da eseguire
+     *
+     * @return il risultato della verifica per ciascuna firma
+     */
+    public <T> Map<ISignature, T> execute(List<ISignature> signatures,
+            final SignatureCheck<T> check) {
+        Map<ISignature, T> results = new HashMap<ISignature, T>();
+        if (signatures.size() < 2) {
+            for (ISignature signature : signatures) {
+                results.put(signature, check.check(signature));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(signatures.size());
+        for (int i = 1; i < signatures.size(); i++) {
+            final ISignature signature = signatures.get(i);
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return check.check(signature);
+                }
+            }));
+        }
+        try {
+            results.put(signatures.get(0), check.check(signatures.get(0)));
+            for (int i = 1; i < signatures.size(); i++) {
+                results.put(signatures.get(i), futures.get(i - 1).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Verifica delle firme interrotta", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            log.error("Errore durante la verifica delle firme", cause);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Arresta i thread del pool
+     */
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -17,6 +17,7 @@ import java.util.List;
 
 import org.bouncycastle.tsp.TimeStampToken;
 
+import it.eng.crypto.controller.IConcurrentSignerController;
 import it.eng.crypto.controller.bean.DocumentAndTimeStampInfoBean;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.OutputSignerBean;
@@ -33,10 +34,21 @@ import it.eng.crypto.utils.VerificheEnums.TipoRifTemporale;
  * @author Stefano Zennaro
  *
  */
-public class SignatureExtraction extends AbstractSignerController {
+public class SignatureExtraction extends AbstractSignerController
+        implements IConcurrentSignerController {
 
     private boolean useSigninTimeAsReferenceDate;
 
+    @Override
+    public String[] getRequiredProperties() {
+        return new String[0];
+    }
+
+    @Override
+    public String[] getProvidedProperties() {
+        return new String[] { OutputSignerBean.SIGNATURE_PROPERTY };
+    }
+
     public boolean execute(InputSignerBean input, OutputSignerBean output)
             throws ExceptionController {
         AbstractSigner signer = input.getSigner();
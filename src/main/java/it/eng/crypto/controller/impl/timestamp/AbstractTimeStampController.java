@@ -34,6 +34,14 @@ public abstract class AbstractTimeStampController extends AbstractController {
     protected DateFormat dateFormatter = SimpleDateFormat.getDateTimeInstance(DateFormat.LONG,
             DateFormat.LONG, Locale.ITALY);
 
+    // DateFormat non è thread-safe: ogni thread utilizza una copia di dateFormatter
+    protected final ThreadLocal<DateFormat> threadDateFormatter = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return (DateFormat) dateFormatter.clone();
+        }
+    };
+
     public abstract boolean execute(InputTimeStampBean input, OutputTimeStampBean output)
             throws ExceptionController;
 
@@ -28,7 +28,6 @@ import org.bouncycastle.util.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import it.eng.crypto.FactorySigner;
 import it.eng.crypto.controller.bean.DocumentAndTimeStampInfoBean;
 import it.eng.crypto.controller.bean.InputTimeStampBean;
 import it.eng.crypto.controller.bean.OutputTimeStampBean;
@@ -107,7 +106,7 @@ public class TSAReliability extends AbstractTimeStampController {
                 }
                 // Refactored: end
                 // Controllo se il certificato di firma è attendibile
-                ICAStorage certificatesAuthorityStorage = FactorySigner.getInstanceCAStorage();
+                ICAStorage certificatesAuthorityStorage = getCAStorage(input);
 
                 for (Certificate saCertificate : saCertificates) {
                     if (saCertificate instanceof X509Certificate) {
@@ -148,7 +147,7 @@ public class TSAReliability extends AbstractTimeStampController {
                                     // a
                                     // controllare ONLINE.
                                     if (issuerCertificate == null) {
-                                        X509Certificate tsaCert = signerUtil.getCACertificateOnline(
+                                        X509Certificate tsaCert = getCACertificateOnline(input,
                                                 saX509Certificate, certificatesAuthorityStorage);
                                         if (tsaCert != null) {
                                             issuerCertificate = tsaCert;
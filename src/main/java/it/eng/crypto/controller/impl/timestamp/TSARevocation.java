@@ -17,7 +17,6 @@ import java.security.Principal;
 import java.security.cert.CRL;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.Date;
@@ -30,17 +29,19 @@ import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.tsp.TimeStampToken;
 import org.bouncycastle.util.Store;
 
-import it.eng.crypto.FactorySigner;
 import it.eng.crypto.controller.bean.DocumentAndTimeStampInfoBean;
 import it.eng.crypto.controller.bean.InputTimeStampBean;
 import it.eng.crypto.controller.bean.OutputTimeStampBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.controller.exception.ExceptionController;
+import it.eng.crypto.data.CRLRevocationIndex;
+import it.eng.crypto.data.OCSPResult;
 import it.eng.crypto.exception.CryptoSignerException;
 import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICAStorage;
 import it.eng.crypto.storage.ICRLStorage;
 import it.eng.crypto.utils.VerificheEnums.EsitoControllo;
+import it.eng.crypto.utils.VerificheEnums.ModalitaControlloRevoca;
 import it.eng.crypto.utils.VerificheEnums.TipoControlli;
 
 public class TSARevocation extends AbstractTimeStampController {
@@ -69,7 +70,7 @@ public class TSARevocation extends AbstractTimeStampController {
 
         boolean result = true;
 
-        ICAStorage certificatesAuthorityStorage = FactorySigner.getInstanceCAStorage();
+        ICAStorage certificatesAuthorityStorage = getCAStorage(input);
 
         try {
             for (DocumentAndTimeStampInfoBean documentAndTimeStampInfo : documentAndTimeStampInfos) {
@@ -109,24 +110,49 @@ public class TSARevocation extends AbstractTimeStampController {
                      * controllo che il certificato non faccia parte della CRL indicata dalla TSA
                      */
                     // Storage delle CRL
-                    ICRLStorage crlStorage = FactorySigner.getInstanceCRLStorage();
+                    ICRLStorage crlStorage = getCRLStorage(input);
                     Principal issuerDN = saX509Certificate.getIssuerX500Principal();
+                    OCSPResult ocspResult = null;
+                    if (signerUtil.isRevocationCheckMode(ModalitaControlloRevoca.OCSP_CRL)) {
+                        ocspResult = signerUtil.getOCSPStatus(saX509Certificate,
+                                certificatesAuthorityStorage, input.getHttpCrlTimeoutConnection(),
+                                input.getHttpCrlSocketTimeout());
+                    }
                     X509CRL historicalCRL = null;
                     try {
-                        historicalCRL = crlStorage.retriveCRL(issuerDN.getName(),
-                                signerUtil.getAuthorityKeyId(saX509Certificate));
+                        if (ocspResult == null) {
+                            historicalCRL = crlStorage.retriveCRL(issuerDN.getName(),
+                                    signerUtil.getAuthorityKeyId(saX509Certificate));
+                        }
                     } catch (CryptoStorageException e) {
                         // Si è verificato un errore durante il recupero della CRL storicizzata
                     }
+                    // CRL completa scaduta: è sufficiente una delta CRL corrente che vi si
+                    // riferisca
+                    X509CRL currentDeltaCRL = null;
+                    if (historicalCRL != null
+                            && !historicalCRL.getNextUpdate().after(timestampDate)) {
+                        currentDeltaCRL = getCurrentDeltaCRL(input, saX509Certificate,
+                                historicalCRL, crlStorage, timestampDate);
+                    }
 
                     // Verifico se la data di prossimo aggiornamento della CRL è >= della
                     // data del riferimento temporale
-                    if (historicalCRL != null
+                    if (ocspResult != null) {
+                        checkOCSP(validationInfos, ocspResult, timestampDate, crlValidInfos);
+                    } else if (historicalCRL != null
                             && historicalCRL.getNextUpdate().after(timestampDate)) {
                         documentAndTimeStampInfo.setProperty(DocumentAndTimeStampInfoBean.PROP_CRL,
                                 historicalCRL);
-                        checkCRL(validationInfos, saX509Certificate, historicalCRL, timestampDate,
-                                crlValidInfos);
+                        signerUtil.scheduleCrlRefresh(saX509Certificate, historicalCRL);
+                        checkCRL(validationInfos, saX509Certificate, historicalCRL,
+                                getDeltaCRL(input, saX509Certificate, historicalCRL, crlStorage),
+                                timestampDate, crlValidInfos);
+                    } else if (currentDeltaCRL != null) {
+                        documentAndTimeStampInfo.setProperty(DocumentAndTimeStampInfoBean.PROP_CRL,
+                                historicalCRL);
+                        checkCRL(validationInfos, saX509Certificate, historicalCRL,
+                                currentDeltaCRL, timestampDate, crlValidInfos);
                     } else {
 
                         // Se la CRL storica non è stato trovata oppure
@@ -138,17 +164,14 @@ public class TSARevocation extends AbstractTimeStampController {
                                     .getURLCrlDistributionPoint(saX509Certificate);
                             X509CRL envelopeCrl = null;
                             if (urlCRLDistributionPoints != null) {
-                                envelopeCrl = signerUtil.getCrlByURL(urlCRLDistributionPoints,
-                                        input.getHttpCrlTimeoutConnection(),
-                                        input.getHttpCrlSocketTimeout(),
-                                        input.getLdapCrlTimeoutConnection());
+                                envelopeCrl = getCrlByURL(input, urlCRLDistributionPoints);
                             }
                             if (envelopeCrl != null) {
                                 // Se arriva qua, è stata scaricata una crl valida
 
                                 // La CRL deve essere storicizzata
                                 try {
-                                    crlStorage.upsertCRL(envelopeCrl);
+                                    signerUtil.storeDownloadedCrl(crlStorage, envelopeCrl);
                                 } catch (CryptoStorageException e) {
                                     // TODO Auto-generated catch block
                                     e.printStackTrace();
@@ -164,17 +187,30 @@ public class TSARevocation extends AbstractTimeStampController {
                                     // Controllo la validità del certificato rispetto alla crl
                                     // scaricata
                                     checkCRL(validationInfos, saX509Certificate, envelopeCrl,
+                                            getDeltaCRL(input, saX509Certificate, envelopeCrl,
+                                                    crlStorage),
                                             timestampDate, crlValidInfos);
                                 } else {
                                     validationInfos.addError(
                                             "La CRL ottenuta dal punto di distribuzione dalla TSA scade il: "
-                                                    + dateFormatter
+                                                    + threadDateFormatter.get()
                                                             .format(envelopeCrl.getNextUpdate())
                                                     + " successivo alla data del riferimento temporale usato: "
-                                                    + dateFormatter.format(timestampDate));
+                                                    + threadDateFormatter.get()
+                                                            .format(timestampDate));
                                     validationInfos.setEsito(EsitoControllo.CRL_SCADUTA);
                                 }
 
+                            } else if (signerUtil
+                                    .isRevocationCheckMode(ModalitaControlloRevoca.CRL_OCSP)
+                                    && (ocspResult = signerUtil.getOCSPStatus(saX509Certificate,
+                                            certificatesAuthorityStorage,
+                                            input.getHttpCrlTimeoutConnection(),
+                                            input.getHttpCrlSocketTimeout())) != null) {
+                                // CRL non disponibile: stato del certificato ottenuto tramite
+                                // OCSP
+                                checkOCSP(validationInfos, ocspResult, timestampDate,
+                                        crlValidInfos);
                             } else {
                                 throw new CryptoSignerException();
                             }
@@ -243,7 +279,7 @@ public class TSARevocation extends AbstractTimeStampController {
                                                                 DocumentAndTimeStampInfoBean.PROP_CRL,
                                                                 embeddedCRL);
                                                         checkCRL(validationInfos, saX509Certificate,
-                                                                (X509CRL) embeddedCRL,
+                                                                (X509CRL) embeddedCRL, null,
                                                                 timestampDate, crlValidInfos);
 
                                                         // Tengo traccia che almeno una CRL nella
@@ -309,23 +345,36 @@ public class TSARevocation extends AbstractTimeStampController {
     }
 
     private void checkCRL(ValidationInfos validationInfos, X509Certificate signatureCertificate,
-            X509CRL crl, Date date, ValidationInfos crlValidInfos) {
-        X509CRLEntry crlEntry = crl.getRevokedCertificate(signatureCertificate);
+            X509CRL crl, X509CRL deltaCrl, Date date, ValidationInfos crlValidInfos) {
+        CRLRevocationIndex revocationIndex = CRLRevocationIndex.of(crl, deltaCrl);
+        int crlEntry = revocationIndex.indexOf(signatureCertificate);
         // il certificato è stato revocato
-        if (crlEntry != null) {
-            if (date != null && crlEntry.getRevocationDate().before(date)) {
-                validationInfos.addError("Certificato revocato in data: "
-                        + crlEntry.getRevocationDate() + " (antecedente a: " + date + ")");
-                crlValidInfos.addError("Certificato revocato in data: "
-                        + crlEntry.getRevocationDate() + " (antecedente a: " + date + ")");
-                crlValidInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
-            } else if (date == null) {
-                validationInfos.addError(
-                        "Certificato già revocato in data: " + crlEntry.getRevocationDate());
-                crlValidInfos.addError(
-                        "Certificato già revocato in data: " + crlEntry.getRevocationDate());
-                crlValidInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
-            }
+        if (crlEntry >= 0) {
+            checkRevocationDate(validationInfos, revocationIndex.getRevocationDate(crlEntry), date,
+                    crlValidInfos);
+        }
+    }
+
+    private void checkOCSP(ValidationInfos validationInfos, OCSPResult ocspResult, Date date,
+            ValidationInfos crlValidInfos) {
+        if (ocspResult.getStatus() == OCSPResult.Status.REVOKED) {
+            checkRevocationDate(validationInfos, ocspResult.getRevocationDate(), date,
+                    crlValidInfos);
+        }
+    }
+
+    private void checkRevocationDate(ValidationInfos validationInfos, Date revocationDate,
+            Date date, ValidationInfos crlValidInfos) {
+        if (date != null && revocationDate.before(date)) {
+            validationInfos.addError("Certificato revocato in data: " + revocationDate
+                    + " (antecedente a: " + date + ")");
+            crlValidInfos.addError("Certificato revocato in data: " + revocationDate
+                    + " (antecedente a: " + date + ")");
+            crlValidInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
+        } else if (date == null) {
+            validationInfos.addError("Certificato già revocato in data: " + revocationDate);
+            crlValidInfos.addError("Certificato già revocato in data: " + revocationDate);
+            crlValidInfos.setEsito(EsitoControllo.CERTIFICATO_REVOCATO);
         }
     }
 }
@@ -22,7 +22,6 @@ import java.security.cert.CRL;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -46,11 +45,14 @@ import it.eng.crypto.controller.bean.DocumentAndTimeStampInfoBean;
 import it.eng.crypto.controller.bean.TimeStampValidityBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.CRLRevocationIndex;
+import it.eng.crypto.data.OCSPResult;
 import it.eng.crypto.data.SignerUtil;
 import it.eng.crypto.exception.CryptoSignerException;
 import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICAStorage;
 import it.eng.crypto.storage.ICRLStorage;
+import it.eng.crypto.utils.VerificheEnums.ModalitaControlloRevoca;
 
 /**
  * Consente di effettuare l'analisi di file contenenti marche temporali (metodo
@@ -211,20 +213,55 @@ public class TimeStampController implements ITimeStampController {
                             // Storage delle CRL
                             ICRLStorage crlStorage = FactorySigner.getInstanceCRLStorage();
                             Principal issuerDN = saX509Certificate.getIssuerX500Principal();
+                            OCSPResult ocspResult = null;
+                            if (signerUtil
+                                    .isRevocationCheckMode(ModalitaControlloRevoca.OCSP_CRL)) {
+                                ocspResult = signerUtil.getOCSPStatus(saX509Certificate,
+                                        certificatesAuthorityStorage,
+                                        documentAndTimeStampInfo.getHttpCrlTimeoutConnection(),
+                                        documentAndTimeStampInfo.getHttpCrlSocketTimeout());
+                            }
                             X509CRL historicalCRL = null;
                             try {
-                                historicalCRL = crlStorage.retriveCRL(issuerDN.getName(),
-                                        signerUtil.getAuthorityKeyId(saX509Certificate));
+                                if (ocspResult == null) {
+                                    historicalCRL = crlStorage.retriveCRL(issuerDN.getName(),
+                                            signerUtil.getAuthorityKeyId(saX509Certificate));
+                                }
                             } catch (CryptoStorageException e) {
 
                             }
+                            int httpTimeoutConnection = documentAndTimeStampInfo
+                                    .getHttpCrlTimeoutConnection();
+                            int httpSocketTimeout = documentAndTimeStampInfo
+                                    .getHttpCrlSocketTimeout();
+                            int ldapTimeoutConnection = documentAndTimeStampInfo
+                                    .getLdapCrlTimeoutConnection();
+                            // CRL completa scaduta: è sufficiente una delta CRL corrente che vi
+                            // si riferisca
+                            X509CRL currentDeltaCRL = null;
+                            if (historicalCRL != null
+                                    && !historicalCRL.getNextUpdate().after(timestampDate)) {
+                                currentDeltaCRL = signerUtil.getCurrentDeltaCRL(saX509Certificate,
+                                        historicalCRL, crlStorage, timestampDate,
+                                        httpTimeoutConnection, httpSocketTimeout,
+                                        ldapTimeoutConnection);
+                            }
 
                             // Verifico se la data di prossimo aggiornamento della CRL è >= della
                             // data del riferimento temporale
-                            if (historicalCRL != null
+                            if (ocspResult != null) {
+                                checkOCSP(validationInfos, ocspResult, timestampDate);
+                            } else if (historicalCRL != null
                                     && historicalCRL.getNextUpdate().after(timestampDate)) {
+                                signerUtil.scheduleCrlRefresh(saX509Certificate, historicalCRL);
                                 checkCRL(validationInfos, saX509Certificate, historicalCRL,
+                                        signerUtil.getDeltaCRL(saX509Certificate, historicalCRL,
+                                                crlStorage, httpTimeoutConnection,
+                                                httpSocketTimeout, ldapTimeoutConnection),
                                         timestampDate);
+                            } else if (currentDeltaCRL != null) {
+                                checkCRL(validationInfos, saX509Certificate, historicalCRL,
+                                        currentDeltaCRL, timestampDate);
                             } else {
 
                                 // Se la CRL storica non è stato trovata oppure
@@ -249,7 +286,7 @@ public class TimeStampController implements ITimeStampController {
 
                                         // La CRL deve essere storicizzata
                                         try {
-                                            crlStorage.upsertCRL(envelopeCrl);
+                                            signerUtil.storeDownloadedCrl(crlStorage, envelopeCrl);
                                         } catch (CryptoStorageException e) {
                                             e.printStackTrace();
                                         }
@@ -257,7 +294,22 @@ public class TimeStampController implements ITimeStampController {
                                         // Controllo la validita' del certificato rispetto alla crl
                                         // scaricata
                                         checkCRL(validationInfos, saX509Certificate, envelopeCrl,
+                                                signerUtil.getDeltaCRL(saX509Certificate,
+                                                        envelopeCrl, crlStorage,
+                                                        httpTimeoutConnection, httpSocketTimeout,
+                                                        ldapTimeoutConnection),
                                                 timestampDate);
+                                    } else if (signerUtil
+                                            .isRevocationCheckMode(ModalitaControlloRevoca.CRL_OCSP)
+                                            && (ocspResult = signerUtil.getOCSPStatus(
+                                                    saX509Certificate, certificatesAuthorityStorage,
+                                                    documentAndTimeStampInfo
+                                                            .getHttpCrlTimeoutConnection(),
+                                                    documentAndTimeStampInfo
+                                                            .getHttpCrlSocketTimeout())) != null) {
+                                        // CRL non disponibile: stato del certificato ottenuto
+                                        // tramite OCSP
+                                        checkOCSP(validationInfos, ocspResult, timestampDate);
                                     } else {
                                         throw new CryptoSignerException();
                                     }
@@ -323,7 +375,7 @@ public class TimeStampController implements ITimeStampController {
 
                                                                 checkCRL(validationInfos,
                                                                         saX509Certificate,
-                                                                        (X509CRL) embeddedCRL,
+                                                                        (X509CRL) embeddedCRL, null,
                                                                         timestampDate);
 
                                                                 // Tengo traccia che almeno una CRL
@@ -583,17 +635,28 @@ public class TimeStampController implements ITimeStampController {
     }
 
     private void checkCRL(ValidationInfos validationInfos, X509Certificate signatureCertificate,
-            X509CRL crl, Date date) {
-        X509CRLEntry crlEntry = crl.getRevokedCertificate(signatureCertificate);
+            X509CRL crl, X509CRL deltaCrl, Date date) {
+        CRLRevocationIndex revocationIndex = CRLRevocationIndex.of(crl, deltaCrl);
+        int crlEntry = revocationIndex.indexOf(signatureCertificate);
         // il certificato è stato revocato
-        if (crlEntry != null) {
-            if (date != null && crlEntry.getRevocationDate().before(date)) {
-                validationInfos.addError("Certificato revocato in data: "
-                        + crlEntry.getRevocationDate() + " (antecedente a: " + date + ")");
-            } else if (date == null) {
-                validationInfos.addError(
-                        "Certificato già revocato in data: " + crlEntry.getRevocationDate());
-            }
+        if (crlEntry >= 0) {
+            checkRevocationDate(validationInfos, revocationIndex.getRevocationDate(crlEntry), date);
+        }
+    }
+
+    private void checkOCSP(ValidationInfos validationInfos, OCSPResult ocspResult, Date date) {
+        if (ocspResult.getStatus() == OCSPResult.Status.REVOKED) {
+            checkRevocationDate(validationInfos, ocspResult.getRevocationDate(), date);
+        }
+    }
+
+    private void checkRevocationDate(ValidationInfos validationInfos, Date revocationDate,
+            Date date) {
+        if (date != null && revocationDate.before(date)) {
+            validationInfos.addError("Certificato revocato in data: " + revocationDate
+                    + " (antecedente a: " + date + ")");
+        } else if (date == null) {
+            validationInfos.addError("Certificato già revocato in data: " + revocationDate);
         }
     }
 
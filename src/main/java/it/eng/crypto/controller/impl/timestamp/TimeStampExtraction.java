@@ -13,7 +13,6 @@
 
 package it.eng.crypto.controller.impl.timestamp;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -28,6 +27,7 @@ import it.eng.crypto.controller.bean.OutputTimeStampBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.controller.exception.ExceptionController;
 import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.DocumentContent;
 import it.eng.crypto.data.type.SignerType;
 import it.eng.crypto.exception.CryptoSignerException;
 import it.eng.crypto.utils.VerificheEnums.EsitoControllo;
@@ -46,34 +46,34 @@ public class TimeStampExtraction extends AbstractTimeStampController {
         boolean result = true;
         try {
             // Solo marca embedded
-            if (input.getTimeStampWithContentFile() != null) {
-                signer = signerUtil.getSignerManager(input.getTimeStampWithContentFile());
+            if (input.getTimeStampWithContent() != null) {
+                signer = getSignerManager(input, input.getTimeStampWithContent());
                 timeStampTokens = signer.getTimeStampTokens();
                 if (timeStampTokens != null) {
 
                     for (TimeStampToken timeStampToken : timeStampTokens) {
                         documentAndTimeStampInfoList.add(addDocumentAndTSInfoBeanEmbedded(
-                                input.getTimeStampWithContentFile(), timeStampToken, signer));
+                                input.getTimeStampWithContent(), timeStampToken, signer));
                     }
                 }
             } // marca detached ed eventualmente embedded
             else {
 
-                signer = signerUtil.getSignerManager(input.getTimeStampFile());
+                signer = getSignerManager(input, input.getTimeStamp());
                 timeStampTokens = signer.getTimeStampTokens();
                 if (timeStampTokens != null) {
                     for (TimeStampToken timeStampToken : timeStampTokens) {
                         documentAndTimeStampInfoList.add(addDocumentAndTSInfoBeanDetached(
-                                input.getContentFile(), timeStampToken, signer));
+                                input.getContent(), timeStampToken, signer));
                     }
                 }
                 try {
-                    signer = signerUtil.getSignerManager(input.getContentFile());
+                    signer = getSignerManager(input, input.getContent());
                     timeStampTokens = signer.getTimeStampTokens();
                     if (timeStampTokens != null) {
                         for (TimeStampToken timeStampToken : timeStampTokens) {
                             documentAndTimeStampInfoList.add(addDocumentAndTSInfoBeanEmbedded(
-                                    input.getContentFile(), timeStampToken, signer));
+                                    input.getContent(), timeStampToken, signer));
                         }
                     }
                 } catch (CryptoSignerException e) {
@@ -123,11 +123,11 @@ public class TimeStampExtraction extends AbstractTimeStampController {
         documentAndTimeStampInfo.setProperty(DocumentAndTimeStampInfoBean.PROP_DATE, timestampDate);
     }
 
-    private DocumentAndTimeStampInfoBean addDocumentAndTSInfoBeanEmbedded(File inputFile,
-            TimeStampToken timeStampToken, AbstractSigner signer)
+    private DocumentAndTimeStampInfoBean addDocumentAndTSInfoBeanEmbedded(
+            DocumentContent inputContent, TimeStampToken timeStampToken, AbstractSigner signer)
             throws CloneNotSupportedException {
         DocumentAndTimeStampInfoBean documentAndTimeStampInfo = new DocumentAndTimeStampInfoBean();
-        documentAndTimeStampInfo.setAssociatedFile(inputFile);
+        documentAndTimeStampInfo.setAssociatedContent(inputContent);
         documentAndTimeStampInfo.setTimeStampToken(timeStampToken);
 
         /*
@@ -172,12 +172,12 @@ public class TimeStampExtraction extends AbstractTimeStampController {
 
     }
 
-    private DocumentAndTimeStampInfoBean addDocumentAndTSInfoBeanDetached(File inputFile,
-            TimeStampToken timeStampToken, AbstractSigner signer)
+    private DocumentAndTimeStampInfoBean addDocumentAndTSInfoBeanDetached(
+            DocumentContent inputContent, TimeStampToken timeStampToken, AbstractSigner signer)
             throws CloneNotSupportedException {
         DocumentAndTimeStampInfoBean documentAndTimeStampInfo = new DocumentAndTimeStampInfoBean();
 
-        documentAndTimeStampInfo.setAssociatedFile(inputFile);
+        documentAndTimeStampInfo.setAssociatedContent(inputContent);
         documentAndTimeStampInfo.setTimeStampToken(timeStampToken);
 
         /*
@@ -195,7 +195,7 @@ public class TimeStampExtraction extends AbstractTimeStampController {
         /*
          * Verifica che la marca temporale corrisponda al file di appartenenza
          */
-        ValidationInfos infos = signer.validateTimeStampTokensDetached(inputFile);
+        ValidationInfos infos = signer.validateTimeStampTokensDetached(inputContent);
 
         if (infos == null) {
             infos = new ValidationInfos();
@@ -14,12 +14,14 @@
 package it.eng.crypto.data;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -110,21 +112,35 @@ public abstract class AbstractSigner {
      * File di firma con/senza contenuto
      */
     protected File file;
+    /**
+     * Busta mantenuta in memoria: il file di firma viene creato solo se richiesto da
+     * {@link #getFile()}
+     */
+    protected DocumentContent source;
     /**
      * Contenuto detached
      */
     protected List<File> detachedFiles;
+    /**
+     * Contenuto detached mantenuto in memoria, salvato su file solo se richiesto da
+     * {@link #getDetachedFile()}
+     */
+    protected DocumentContent detachedContent;
     /**
      * File precedentemente sbustato
      */
     protected File alreadyExtractedFile;
+    /**
+     * Contenuto estratto dalla busta, in memoria o su file a seconda della dimensione
+     */
+    protected DocumentContent extractedContent;
     /**
      * Marche temporali contenute nella busta
      */
     protected TimeStampToken[] timestamptokens = null;
     /**
      * Dimensione in byte oltre la quale effettuare una gestione NON in memoria (ie. in streaming)
-     * del file Default: 20MB
+     * del file: il contenuto estratto più grande viene salvato su file temporaneo. Default: 20MB
      */
     protected long sizeThreshold = 1024 * 1024 * 20;
 
@@ -219,9 +235,13 @@ public abstract class AbstractSigner {
      */
 
     /**
-     * Recupera il file di firma
+     * Recupera il file di firma. La busta mantenuta in memoria viene salvata su file temporaneo
+     * alla prima invocazione.
      */
     public File getFile() {
+        if (file == null && source != null) {
+            file = toFile(source);
+        }
         return file;
     }
 
@@ -232,7 +252,83 @@ public abstract class AbstractSigner {
      */
     public void setFile(File file) {
         this.file = file;
+        this.source = null;
         this.alreadyExtractedFile = null;
+        this.extractedContent = null;
+    }
+
+    /**
+     * Definisce la busta di firma. Il contenuto in memoria viene analizzato senza salvarlo su file,
+     * che viene creato solo se richiesto da {@link #getFile()}.
+     *
+     * @param content busta con/senza contenuto
+     */
+    public void setSource(DocumentContent content) {
+        if (content != null && !content.isInMemory()) {
+            setFile(toFile(content));
+        } else {
+            setFile(null);
+            this.source = content;
+        }
+    }
+
+    /**
+     * Restituisce la busta di firma, in memoria o su file
+     *
+     * @return la busta oppure null se non definita
+     */
+    public DocumentContent getSource() {
+        if (file == null) {
+            return source;
+        }
+        return DocumentContent.of(file);
+    }
+
+    /**
+     * @return true se è definita la busta di firma, in memoria o su file
+     */
+    protected boolean hasSource() {
+        return file != null || source != null;
+    }
+
+    /**
+     * Apre uno stream sulla busta di firma, senza salvare su file il contenuto in memoria
+     *
+     * @return lo stream, che va chiuso dal chiamante
+     *
+     * @throws IOException in caso di errore di lettura
+     */
+    protected InputStream openSource() throws IOException {
+        if (file == null && source != null) {
+            return source.openStream();
+        }
+        return FileUtils.openInputStream(file);
+    }
+
+    /**
+     * Ripete il riconoscimento della busta di firma: la busta in memoria viene analizzata tramite
+     * {@link #isSignedType(byte[], ValidationInfos)}
+     *
+     * @param complianceCheck controlli di conformità
+     *
+     * @return true se la busta è riconosciuta
+     */
+    protected boolean isSignedSource(ValidationInfos complianceCheck) {
+        if (file == null && source != null) {
+            return isSignedType(source.getBytes(), complianceCheck);
+        }
+        return isSignedType(file, complianceCheck);
+    }
+
+    /*
+     * Salva su file il contenuto in memoria
+     */
+    private static File toFile(DocumentContent content) {
+        try {
+            return content.getFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -262,6 +358,20 @@ public abstract class AbstractSigner {
         return null;
     }
 
+    /**
+     * Esegue la validazione di marche temporali detached su un contenuto in memoria o su file. Il
+     * contenuto in memoria viene salvato su file solo dai signer che non ne gestiscono la lettura
+     * diretta.
+     *
+     * @param attachedContent contenuto marcato
+     *
+     * @return le informazioni sull'esito della validazione
+     */
+    public ValidationInfos validateTimeStampTokensDetached(DocumentContent attachedContent) {
+        return validateTimeStampTokensDetached(
+                attachedContent == null ? null : toFile(attachedContent));
+    }
+
     /**
      * Metodo di utilità che esegue la validazione di un timestamptoken rispetto al messaggio di
      * request contenente l'hashmap del contenuto da marcare.
@@ -491,27 +601,29 @@ public abstract class AbstractSigner {
     }
 
     /**
-     * Recupera il contenuto sbustato sotto forma di file.
+     * Recupera il contenuto sbustato. Il contenuto estratto resta in memoria se non supera
+     * {@link #getSizeThreshold() sizeThreshold}, altrimenti viene salvato in un file temporaneo.
      *
-     *
-     * @return restituisce il file originario se si tratta di marche detached, altrimenti salva il
-     *         contenuto sbustato in un file temporaneo e ne restituisce il riferimento
+     * @return il file originario se si tratta di marche detached, altrimenti il contenuto sbustato
+     *         (null se non presente)
      *
      * @throws IOException
      */
-    public File getContentAsFile() throws IOException {
+    public DocumentContent getContent() throws IOException {
 
         // Se si tratta di una firma detached restituisco
-        // il file a cui si riferisce
-        File detachedFile = getDetachedFile();
-        if (detachedFile != null) {
-            return detachedFile;
+        // il contenuto a cui si riferisce
+        DocumentContent detached = getDetachedContent();
+        if (detached != null) {
+            return detached;
         }
 
-        // Se è già stato estratto il contenuto
-        // restituisco il file corrispondente
+        // Se è già stato estratto il contenuto lo restituisco
+        if (extractedContent != null) {
+            return extractedContent;
+        }
         if (alreadyExtractedFile != null && alreadyExtractedFile.exists()) {
-            return alreadyExtractedFile;
+            return DocumentContent.of(alreadyExtractedFile);
         }
 
         // Altrimenti occorre estrarre il contenuto..
@@ -520,43 +632,66 @@ public abstract class AbstractSigner {
         // per preservare l'estensione originaria
         String extension = getEnclosedEnvelopeExtension();
         InputStream contentIS = null;
-        OutputStream out = null;
         try {
             contentIS = getUnsignedContent();
             if (contentIS == null) {
                 if (alreadyExtractedFile != null && alreadyExtractedFile.exists()) {
-                    return alreadyExtractedFile;
+                    return DocumentContent.of(alreadyExtractedFile);
                 } else {
                     return null;
                 }
             }
-            alreadyExtractedFile = File.createTempFile("content-abstract-signer-", extension);
-            out = new FileOutputStream(alreadyExtractedFile);
-            byte buf[] = new byte[1024];
-            int len;
-            while ((len = contentIS.read(buf)) > 0) {
-                out.write(buf, 0, len);
-            }
-
-        } catch (IOException ex) {
-            throw ex;
+            extractedContent = DocumentContent.of(contentIS, extension, sizeThreshold);
         } finally {
-            if (out != null) {
-                out.close();
-            }
             if (contentIS != null) {
                 contentIS.close();
             }
         }
-        return alreadyExtractedFile;
+        return extractedContent;
+    }
 
+    /**
+     * Recupera il contenuto sbustato sotto forma di file.
+     *
+     *
+     * @return restituisce il file originario se si tratta di marche detached, altrimenti salva il
+     *         contenuto sbustato in un file temporaneo e ne restituisce il riferimento
+     *
+     * @throws IOException
+     */
+    public File getContentAsFile() throws IOException {
+        DocumentContent content = getContent();
+        if (content == null) {
+            return null;
+        }
+        File contentFile = content.getFile();
+        if (!hasDetachedContent()) {
+            alreadyExtractedFile = contentFile;
+        }
+        return contentFile;
     }
 
     public String getEnclosedEnvelopeExtension() {
         if (file == null) {
-            return null;
+            // Per la busta in memoria si utilizza l'estensione del file temporaneo
+            if (source == null || source.getSuffix() == null) {
+                return null;
+            }
+            return getEnclosedEnvelopeExtension(
+                    DocumentContent.TEMP_FILE_PREFIX + source.getSuffix());
         }
-        String fileName = getFile().getName();
+        return getEnclosedEnvelopeExtension(getFile());
+    }
+
+    /**
+     * Restituisce l'estensione originaria del contenuto della busta indicata, se presente nel nome
+     * del file (ad esempio .doc per test.doc.p7m)
+     */
+    protected static String getEnclosedEnvelopeExtension(File file) {
+        return getEnclosedEnvelopeExtension(file.getName());
+    }
+
+    private static String getEnclosedEnvelopeExtension(String fileName) {
         String extension = null;
         StringTokenizer tokenizer = new StringTokenizer(fileName, ".");
         if (tokenizer.countTokens() > 2) {
@@ -574,6 +709,19 @@ public abstract class AbstractSigner {
             detachedFiles = new ArrayList<File>();
         }
         detachedFiles.add(0, detachedFile);
+        detachedContent = null;
+    }
+
+    /**
+     * Definisce il contenuto detached a cui si riferiscono le firme e le marche temporali. Il
+     * contenuto in memoria viene salvato su file solo se richiesto da {@link #getDetachedFile()}.
+     */
+    public void setDetachedContent(DocumentContent content) {
+        if (content == null || !content.isInMemory()) {
+            setDetachedFile(content == null ? null : toFile(content));
+        } else {
+            this.detachedContent = content;
+        }
     }
 
     /**
@@ -582,7 +730,38 @@ public abstract class AbstractSigner {
      * @return
      */
     public File getDetachedFile() {
-        return detachedFiles == null ? null : detachedFiles.get(0);
+        List<File> files = getDetachedFiles();
+        return files == null ? null : files.get(0);
+    }
+
+    /**
+     * Recupera i file detached, salvando su file l'eventuale contenuto detached in memoria
+     */
+    protected List<File> getDetachedFiles() {
+        if (detachedContent != null) {
+            setDetachedFile(toFile(detachedContent));
+        }
+        return detachedFiles;
+    }
+
+    /**
+     * Recupera il contenuto detached, in memoria o su file
+     *
+     * @return il contenuto oppure null se la firma non è detached
+     */
+    public DocumentContent getDetachedContent() {
+        if (detachedContent != null) {
+            return detachedContent;
+        }
+        File detachedFile = detachedFiles == null ? null : detachedFiles.get(0);
+        return detachedFile == null ? null : DocumentContent.of(detachedFile);
+    }
+
+    /**
+     * @return true se è definito un contenuto detached, in memoria o su file
+     */
+    protected boolean hasDetachedContent() {
+        return detachedContent != null || (detachedFiles != null && detachedFiles.get(0) != null);
     }
 
     public long getSizeThreshold() {
@@ -652,4 +831,37 @@ public abstract class AbstractSigner {
         return cmsSignedData;
 
     }
+
+    /**
+     * Decodifica la busta CMS in memoria, nei formati PEM, DER e Base64 gestiti da
+     * {@link #getSignedData(File)}
+     *
+     * @param content busta
+     *
+     * @return la busta decodificata oppure null se il contenuto non è in formato CMS
+     */
+    protected CMSSignedData getSignedData(byte[] content) {
+        try (PEMParser pr = new PEMParser(new InputStreamReader(
+                new ByteArrayInputStream(content), StandardCharsets.US_ASCII))) {
+            Object obj = pr.readObject();
+            if (obj instanceof ContentInfo) {
+                return new CMSSignedData((ContentInfo) obj);
+            }
+        } catch (Exception e) {
+            log.debug("Il contenuto non è in formato PEM");
+        }
+        try {
+            return new CMSSignedData(content);
+        } catch (Exception e) {
+            log.debug("Il contenuto non è in formato DER");
+        }
+        try (InputStream stream = new Base64InputStream(new ByteArrayInputStream(content))) {
+            ContentInfo ci = ContentInfo.getInstance(
+                    new ASN1InputStream(stream, content.length).readObject());
+            return new CMSSignedData(ci);
+        } catch (Exception e) {
+            log.debug("Il contenuto non è in formato BASE64");
+        }
+        return null;
+    }
 }
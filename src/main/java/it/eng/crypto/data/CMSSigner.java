@@ -25,7 +25,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.Map.Entry;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.bouncycastle.asn1.cms.Attribute;
 import org.bouncycastle.asn1.cms.AttributeTable;
@@ -62,8 +61,8 @@ public class CMSSigner extends P7MSigner {
         ArrayList<TimeStampToken> timestampTokensList = new ArrayList<TimeStampToken>();
         if (timestamptokens == null) {
             try {
-                stream = FileUtils.openInputStream(file);
                 if (cmsSignedData == null) {
+                    stream = openSource();
                     cmsSignedData = new CMSSignedData(stream);
                 }
                 SignerInformationStore signersStore = cmsSignedData.getSignerInfos();
@@ -176,8 +175,16 @@ public class CMSSigner extends P7MSigner {
     @Override
     public boolean isSignedType(File file, ValidationInfos complianceCheck) {
         boolean signed = false;
+        streamedContent = null;
+        streamedSignerInfos = null;
         try {
-            cmsSignedData = getSignedData(file);
+            // Le buste di grandi dimensioni vengono analizzate in streaming
+            CMSSignedData streamedSignedData = null;
+            if (file.length() > sizeThreshold) {
+                streamedSignedData = getStreamedSignedData(file);
+            }
+            cmsSignedData = streamedSignedData != null ? streamedSignedData
+                    : getSignedData(file);
             signed = isSignedType(cmsSignedData, complianceCheck);
             if (!signed) {
                 type = super.getFormat();
@@ -196,13 +203,19 @@ public class CMSSigner extends P7MSigner {
     @Override
     public boolean isSignedType(byte[] content, ValidationInfos complianceCheck) {
         boolean signed = false;
+        streamedContent = null;
+        streamedSignerInfos = null;
         try {
-            CMSSignedData cmsSignedData = new CMSSignedData(content);
+            cmsSignedData = getSignedData(content);
+            if (cmsSignedData == null) {
+                return false;
+            }
             signed = isSignedType(cmsSignedData, complianceCheck);
             if (!signed) {
                 type = super.getFormat();
                 signed = super.isSignedType(cmsSignedData, complianceCheck);
             }
+            signed = compliantCheckBC(signed, complianceCheck);
         } catch (Exception e) {
             signed = false;
         }
@@ -222,7 +235,7 @@ public class CMSSigner extends P7MSigner {
         ValidationInfos validationInfos = new ValidationInfos();
 
         if (this.timestamptokens == null) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
                 return validationInfos;
@@ -277,7 +290,7 @@ public class CMSSigner extends P7MSigner {
         }
 
         if (this.timestamptokens == null) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
                 return validationInfos;
@@ -331,7 +344,7 @@ public class CMSSigner extends P7MSigner {
     }
 
     public boolean compliantCheckBC(boolean signed, ValidationInfos complianceCheck) {
-        Collection<SignerInformation> signers = cmsSignedData.getSignerInfos().getSigners();
+        Collection<SignerInformation> signers = getSignerInfos().getSigners();
         if (signers != null) {
             for (SignerInformation signer : signers) {
                 // Verifico la conformità con BouncyCastle chiamando il motodo che fa anche la
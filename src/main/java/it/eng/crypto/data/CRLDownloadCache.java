@@ -0,0 +1,256 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.IOException;
+import java.security.cert.X509CRL;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.exception.CryptoStorageException;
+import it.eng.crypto.storage.ICRLStorage;
+
+/**
+ * Stato dei download delle CRL per ciascun punto di distribuzione HTTP: intestazioni
+ * <code>ETag</code> e <code>Last-Modified</code> restituite dal server, istante dell'ultimo
+ * contatto con il server e dati che identificano la CRL scaricata nello storage (emittente, chiave
+ * e data di emissione).
+ * <p>
+ * Le informazioni consentono di inviare richieste condizionali e di non contattare il server prima
+ * dell'intervallo minimo configurato. La CRL non viene mantenuta in memoria: se il server conferma
+ * che non è cambiata viene recuperata dallo storage delle CRL, dove è stata salvata dopo il
+ * download; se lo storage non contiene la stessa CRL il download successivo è completo.
+ * </p>
+ *
+ */
+public class CRLDownloadCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CRLDownloadCache.class);
+
+    /**
+     * Esito dell'ultimo download da un punto di distribuzione
+     */
+    static final class Entry {
+
+        private final String subjectDN;
+        private final String keyId;
+        private final boolean delta;
+        private final Date thisUpdate;
+        private final String eTag;
+        private final String lastModified;
+        private final long fetchTime;
+
+        private Entry(X509CRL crl, String eTag, String lastModified, long fetchTime) {
+            this.subjectDN = crl.getIssuerX500Principal().getName();
+            this.keyId = authorityKeyId(crl);
+            this.delta = CRLUtil.isDeltaCRL(crl);
+            this.thisUpdate = crl.getThisUpdate();
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchTime = fetchTime;
+        }
+
+        private Entry(Entry entry, long fetchTime) {
+            this.subjectDN = entry.subjectDN;
+            this.keyId = entry.keyId;
+            this.delta = entry.delta;
+            this.thisUpdate = entry.thisUpdate;
+            this.eTag = entry.eTag;
+            this.lastModified = entry.lastModified;
+            this.fetchTime = fetchTime;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        Date getThisUpdate() {
+            return thisUpdate;
+        }
+
+        /**
+         * Indica se il server può essere nuovamente contattato
+         *
+         * @param minRefreshInterval intervallo minimo tra due contatti in secondi
+         *
+         * @return true se l'intervallo minimo è trascorso
+         */
+        boolean isRefreshAllowed(long minRefreshInterval) {
+            return System.currentTimeMillis() - fetchTime >= minRefreshInterval * 1000;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, FutureTask<X509CRL>> inFlight = new ConcurrentHashMap<String, FutureTask<X509CRL>>();
+    private final ConcurrentMap<String, Date> storedCrls = new ConcurrentHashMap<String, Date>();
+
+    /**
+     * Esegue il download identificato dalla chiave, attendendo l'esito del download già in corso
+     * da parte di un altro thread
+     *
+     * @param key      chiave del download (punti di distribuzione)
+     * @param download download da eseguire
+     *
+     * @return la CRL scaricata oppure null
+     */
+    X509CRL fetch(String key, Callable<X509CRL> download) {
+        FutureTask<X509CRL> task = inFlight.get(key);
+        if (task == null) {
+            FutureTask<X509CRL> newTask = new FutureTask<X509CRL>(download);
+            task = inFlight.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(key, task);
+                }
+            } else {
+                log.debug("Download della CRL già in corso, attendo l'esito: {}", key);
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Errore durante il download della CRL da " + key, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Salva nello storage la CRL scaricata, a meno che la stessa CRL (o una più recente) dello
+     * stesso emittente non sia già stata salvata da un altro thread. Le delta CRL vengono salvate
+     * separatamente dalle CRL complete.
+     *
+     * @param storage storage delle CRL
+     * @param crl     CRL scaricata
+     *
+     * @throws CryptoStorageException in caso di errore dello storage
+     */
+    void store(ICRLStorage storage, X509CRL crl) throws CryptoStorageException {
+        boolean delta = CRLUtil.isDeltaCRL(crl);
+        String key = crl.getIssuerX500Principal().getName() + "|" + authorityKeyId(crl)
+                + (delta ? "|delta" : "");
+        Date thisUpdate = crl.getThisUpdate();
+        Date stored;
+        do {
+            stored = storedCrls.get(key);
+            if (stored != null && !thisUpdate.after(stored)) {
+                log.debug("CRL già salvata nello storage: {}", key);
+                return;
+            }
+        } while (stored == null ? storedCrls.putIfAbsent(key, thisUpdate) != null
+                : !storedCrls.replace(key, stored, thisUpdate));
+        try {
+            if (delta) {
+                storage.upsertDeltaCRL(crl);
+            } else {
+                storage.upsertCRL(crl);
+            }
+        } catch (CryptoStorageException | RuntimeException e) {
+            // Salvataggio non riuscito: consento un nuovo tentativo
+            storedCrls.remove(key, thisUpdate);
+            throw e;
+        }
+    }
+
+    private static String authorityKeyId(X509CRL crl) {
+        try {
+            return SignerUtil.getAuthorityKeyId(crl);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Restituisce lo stato dell'ultimo download dall'indirizzo indicato
+     *
+     * @param url indirizzo del punto di distribuzione
+     *
+     * @return lo stato oppure null se la CRL non è mai stata scaricata
+     */
+    Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Registra la CRL scaricata dall'indirizzo indicato
+     *
+     * @param url          indirizzo del punto di distribuzione
+     * @param crl          CRL scaricata
+     * @param eTag         intestazione ETag della risposta (può essere null)
+     * @param lastModified intestazione Last-Modified della risposta (può essere null)
+     */
+    void put(String url, X509CRL crl, String eTag, String lastModified) {
+        entries.put(url, new Entry(crl, eTag, lastModified, System.currentTimeMillis()));
+    }
+
+    /**
+     * Recupera dallo storage la CRL scaricata l'ultima volta dall'indirizzo indicato
+     *
+     * @param storage storage delle CRL
+     * @param entry   stato dell'ultimo download
+     *
+     * @return la CRL oppure null se lo storage non contiene la CRL scaricata (assente o con una
+     *         data di emissione diversa)
+     */
+    X509CRL retrieve(ICRLStorage storage, Entry entry) {
+        X509CRL crl;
+        try {
+            crl = entry.delta ? storage.retriveDeltaCRL(entry.subjectDN, entry.keyId)
+                    : storage.retriveCRL(entry.subjectDN, entry.keyId);
+        } catch (CryptoStorageException | RuntimeException e) {
+            log.debug("CRL di " + entry.subjectDN + " non disponibile nello storage", e);
+            return null;
+        }
+        if (crl == null || !crl.getThisUpdate().equals(entry.thisUpdate)) {
+            log.debug("Lo storage non contiene la CRL di {} del {}", entry.subjectDN,
+                    entry.thisUpdate);
+            return null;
+        }
+        return crl;
+    }
+
+    /**
+     * Registra che il server ha confermato la validità della CRL già scaricata
+     *
+     * @param url   indirizzo del punto di distribuzione
+     * @param entry stato corrente
+     */
+    void touch(String url, Entry entry) {
+        entries.replace(url, entry, new Entry(entry, System.currentTimeMillis()));
+    }
+
+    /**
+     * Elimina lo stato dei download
+     */
+    public void clear() {
+        entries.clear();
+        storedCrls.clear();
+    }
+}
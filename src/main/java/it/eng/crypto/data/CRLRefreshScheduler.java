@@ -0,0 +1,359 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.IOException;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.CryptoConfiguration;
+import it.eng.crypto.FactorySigner;
+import it.eng.crypto.bean.ConfigBean;
+import it.eng.crypto.exception.CryptoStorageException;
+
+/**
+ * Aggiornamento in background delle CRL utilizzate dalle verifiche o configurate nello storage
+ * delle configurazioni.
+ * <p>
+ * Ogni CRL viene scaricata nuovamente poco prima della data di prossimo aggiornamento (anticipo
+ * configurato più un ritardo casuale, per non contattare tutti i punti di distribuzione nello
+ * stesso istante) e salvata nello storage, in modo che le verifiche trovino quasi sempre una CRL
+ * valida senza doverla scaricare. Gli aggiornamenti sono eseguiti da un numero limitato di thread;
+ * in caso di errore, o se il punto di distribuzione non ha ancora pubblicato una CRL più recente,
+ * il tentativo viene ripetuto con attesa crescente.
+ * </p>
+ * <p>
+ * Le CRL non più utilizzate dalle verifiche per il periodo configurato
+ * ({@link CryptoConfiguration#getCrlRefreshIdleTimeout()}) vengono rimosse al momento
+ * dell'aggiornamento successivo; quelle dei punti di distribuzione registrati nello storage delle
+ * configurazioni vengono sempre aggiornate.
+ * </p>
+ *
+ */
+public class CRLRefreshScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(CRLRefreshScheduler.class);
+
+    /**
+     * Attesa minima in millisecondi prima di un nuovo tentativo
+     */
+    private static final long MIN_RETRY_DELAY = 60000;
+
+    /**
+     * CRL da aggiornare
+     */
+    private static final class Entry {
+
+        private final List<String> urls;
+        private final boolean configured;
+        private Date nextUpdate;
+        private int failures;
+        private ScheduledFuture<?> future;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Entry(List<String> urls, Date nextUpdate, boolean configured) {
+            this.urls = Collections.unmodifiableList(new ArrayList<String>(urls));
+            this.nextUpdate = nextUpdate;
+            this.configured = configured;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicBoolean configLoaded = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor executor;
+    private final long advance;
+    private final long jitter;
+    private final long minDelay;
+    private final long maxBackoff;
+    private final int timeout;
+    private final long idleTimeout;
+    /*
+     * Valorizzato durante l'aggiornamento in background, che non costituisce un utilizzo della
+     * CRL da parte delle verifiche
+     */
+    private final ThreadLocal<Boolean> refreshing = new ThreadLocal<Boolean>();
+    private volatile SignerUtil signerUtil;
+
+    /**
+     * Crea lo scheduler con i parametri della configurazione
+     *
+     * @param configuration configurazione della libreria
+     */
+    public CRLRefreshScheduler(CryptoConfiguration configuration) {
+        this.advance = TimeUnit.SECONDS.toMillis(configuration.getCrlRefreshAdvance());
+        this.jitter = TimeUnit.SECONDS.toMillis(configuration.getCrlRefreshJitter());
+        this.minDelay = TimeUnit.SECONDS.toMillis(configuration.getCrlMinRefreshInterval());
+        this.maxBackoff = TimeUnit.SECONDS.toMillis(configuration.getCrlRefreshMaxBackoff());
+        this.timeout = configuration.getCrlRefreshTimeout();
+        this.idleTimeout = TimeUnit.SECONDS.toMillis(configuration.getCrlRefreshIdleTimeout());
+        final AtomicInteger counter = new AtomicInteger();
+        int threads = Math.max(1, configuration.getCrlRefreshThreads());
+        executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "crl-refresh-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Registra l'utilizzo della CRL da parte di una verifica, se la CRL è già aggiornata in
+     * background
+     *
+     * @param crl CRL
+     *
+     * @return true se la CRL dello stesso emittente è già gestita
+     */
+    boolean markUsed(X509CRL crl) {
+        Entry entry = entries.get(key(crl));
+        if (entry == null) {
+            return false;
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Aggiunge la CRL a quelle aggiornate in background. Se la CRL dello stesso emittente è già
+     * gestita, l'aggiornamento viene ripianificato solo se la CRL indicata è più recente. Le delta
+     * CRL non vengono gestite.
+     *
+     * @param signerUtil utility utilizzata per scaricare e salvare le CRL
+     * @param urls       punti di distribuzione della CRL
+     * @param crl        CRL scaricata o recuperata dallo storage
+     */
+    void track(SignerUtil signerUtil, List<String> urls, X509CRL crl) {
+        if (urls == null || urls.isEmpty() || crl.getNextUpdate() == null
+                || CRLUtil.isDeltaCRL(crl) || executor.isShutdown()) {
+            return;
+        }
+        this.signerUtil = signerUtil;
+        loadConfiguredCrls();
+        String key = key(crl);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry newEntry = new Entry(urls, crl.getNextUpdate(), false);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                log.debug("Aggiornamento in background della CRL di {} da {}", key, urls);
+                synchronized (newEntry) {
+                    schedule(key, newEntry, refreshDelay(newEntry.nextUpdate));
+                }
+                return;
+            }
+        }
+        if (refreshing.get() == null) {
+            entry.lastUsed = System.currentTimeMillis();
+        }
+        synchronized (entry) {
+            if (isNewer(entry.nextUpdate, crl)) {
+                entry.nextUpdate = crl.getNextUpdate();
+                entry.failures = 0;
+                schedule(key, entry, refreshDelay(entry.nextUpdate));
+            }
+        }
+    }
+
+    /**
+     * Aggiunge alle CRL aggiornate in background quelle dei punti di distribuzione registrati
+     * nello storage delle configurazioni. Il caricamento avviene una sola volta, in background.
+     */
+    private void loadConfiguredCrls() {
+        if (!configLoaded.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ConfigBean> configs;
+                try {
+                    configs = FactorySigner.getInstanceConfigStorage().retriveAllConfig();
+                } catch (CryptoStorageException | RuntimeException e) {
+                    log.debug("Configurazioni dei punti di distribuzione non disponibili", e);
+                    return;
+                }
+                if (configs == null) {
+                    return;
+                }
+                Map<String, List<String>> urlsByIssuer = new LinkedHashMap<String, List<String>>();
+                for (ConfigBean config : configs) {
+                    if (config.getCrlURL() == null || config.getSubjectDN() == null) {
+                        continue;
+                    }
+                    String key = config.getSubjectDN() + "|" + config.getKeyId();
+                    List<String> urls = urlsByIssuer.get(key);
+                    if (urls == null) {
+                        urls = new ArrayList<String>();
+                        urlsByIssuer.put(key, urls);
+                    }
+                    urls.add(config.getCrlURL());
+                }
+                for (Map.Entry<String, List<String>> config : urlsByIssuer.entrySet()) {
+                    Entry entry = new Entry(config.getValue(), null, true);
+                    if (entries.putIfAbsent(config.getKey(), entry) == null) {
+                        synchronized (entry) {
+                            schedule(config.getKey(), entry, randomJitter());
+                        }
+                    }
+                }
+                log.debug("Aggiornamento in background di {} CRL configurate",
+                        urlsByIssuer.size());
+            }
+        });
+    }
+
+    /**
+     * Scarica la CRL, la salva nello storage e pianifica l'aggiornamento successivo
+     */
+    private void refresh(String key, Entry entry) {
+        if (isIdle(entry)) {
+            if (entries.remove(key, entry)) {
+                log.debug("CRL di {} non più utilizzata dalle verifiche: aggiornamento terminato",
+                        key);
+            }
+            return;
+        }
+        Date previous;
+        synchronized (entry) {
+            previous = entry.nextUpdate;
+        }
+        X509CRL crl = null;
+        SignerUtil util = signerUtil;
+        refreshing.set(Boolean.TRUE);
+        try {
+            crl = util.getCrlByURL(entry.urls, null, timeout, timeout, timeout);
+            if (crl != null && isNewer(previous, crl)) {
+                util.storeDownloadedCrl(FactorySigner.getInstanceCRLStorage(), crl);
+            }
+        } catch (CryptoStorageException | RuntimeException e) {
+            log.warn("Errore durante l'aggiornamento in background della CRL di " + key, e);
+            crl = null;
+        } finally {
+            refreshing.remove();
+        }
+        synchronized (entry) {
+            if (crl != null && isNewer(previous, crl)) {
+                log.debug("CRL di {} aggiornata, prossimo aggiornamento: {}", key,
+                        crl.getNextUpdate());
+                if (isNewer(entry.nextUpdate, crl)) {
+                    entry.nextUpdate = crl.getNextUpdate();
+                }
+                entry.failures = 0;
+                schedule(key, entry, refreshDelay(entry.nextUpdate));
+            } else {
+                // Errore o CRL non ancora pubblicata: nuovo tentativo con attesa crescente
+                entry.failures++;
+                long delay = backoff(entry.failures);
+                log.debug("CRL di {} non aggiornata (tentativo {}), nuovo tentativo tra {} ms", key,
+                        entry.failures, delay);
+                schedule(key, entry, delay);
+            }
+        }
+    }
+
+    /*
+     * Indica se la CRL non è stata utilizzata dalle verifiche per il periodo configurato
+     */
+    private boolean isIdle(Entry entry) {
+        return !entry.configured && idleTimeout > 0
+                && System.currentTimeMillis() - entry.lastUsed > idleTimeout;
+    }
+
+    private static boolean isNewer(Date nextUpdate, X509CRL crl) {
+        return crl.getNextUpdate() != null
+                && (nextUpdate == null || crl.getNextUpdate().after(nextUpdate));
+    }
+
+    /**
+     * Pianifica l'aggiornamento annullando quello eventualmente già pianificato. Va invocato
+     * sincronizzando sulla CRL.
+     */
+    private void schedule(final String key, final Entry entry, long delay) {
+        if (entry.future != null) {
+            entry.future.cancel(false);
+        }
+        if (executor.isShutdown()) {
+            return;
+        }
+        entry.future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(key, entry);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attesa prima dell'aggiornamento: anticipo rispetto al prossimo aggiornamento meno una quota
+     * casuale, mai inferiore all'intervallo minimo tra due download
+     */
+    private long refreshDelay(Date nextUpdate) {
+        long delay = nextUpdate.getTime() - System.currentTimeMillis() - advance - randomJitter();
+        return Math.max(delay, minDelay);
+    }
+
+    private long backoff(int failures) {
+        long delay = Math.max(minDelay, MIN_RETRY_DELAY) << Math.min(failures - 1, 16);
+        return Math.min(delay, maxBackoff) + randomJitter();
+    }
+
+    private long randomJitter() {
+        return jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+    }
+
+    private static String key(X509CRL crl) {
+        String keyId;
+        try {
+            keyId = SignerUtil.getAuthorityKeyId(crl);
+        } catch (IOException e) {
+            keyId = null;
+        }
+        return crl.getIssuerX500Principal().getName() + "|" + keyId;
+    }
+
+    /**
+     * @return il numero di CRL aggiornate in background
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Arresta gli aggiornamenti in background
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        entries.clear();
+    }
+}
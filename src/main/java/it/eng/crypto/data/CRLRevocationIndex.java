@@ -0,0 +1,710 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.security.cert.CRLReason;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indice compatto dei certificati revocati di una CRL. I numeri di serie sono memorizzati ordinati
+ * in array di tipi primitivi (tre parole da 64 bit per seriale), con date e motivi di revoca in
+ * array paralleli: la ricerca è binaria e non alloca oggetti.
+ * <p>
+ * L'indice viene costruito una sola volta per CRL e mantenuto in una cache con una voce per
+ * emittente e chiave, sostituita quando viene indicizzata una CRL diversa dello stesso emittente.
+ * La voce conserva solo l'indice e i dati che identificano la CRL (emittente, date, numero e
+ * firma), non l'istanza {@link X509CRL}: la CRL può essere rilasciata dalle cache delle CRL senza
+ * perdere l'indice. Le voci meno usate vengono eliminate oltre un numero massimo di indici o di
+ * certificati revocati indicizzati.
+ * Le voci di una CRL indiretta relative ad altri emittenti non vengono indicizzate.
+ * </p>
+ * <p>
+ * L'indice può unire alla CRL completa una delta CRL: le voci della delta sostituiscono quelle
+ * della CRL completa e le voci con motivo <code>removeFromCRL</code> le eliminano.
+ * </p>
+ * <p>
+ * Con {@link #read(InputStream, PublicKey)} l'indice viene costruito leggendo la CRL codificata in
+ * streaming, verificandone la firma durante la lettura, senza decodificare la CRL né mantenerne in
+ * memoria la codifica.
+ * </p>
+ *
+ */
+public final class CRLRevocationIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(CRLRevocationIndex.class);
+
+    private static final int WORDS = 3;
+    private static final int MAX_BITS = WORDS * Long.SIZE;
+    private static final String CRL_NUMBER_OID = "2.5.29.20";
+    private static final String DELTA_CRL_INDICATOR_OID = "2.5.29.27";
+    private static final CRLReason[] REASONS = CRLReason.values();
+    private static final byte REMOVE_FROM_CRL = (byte) CRLReason.REMOVE_FROM_CRL.ordinal();
+
+    /**
+     * Numero massimo di indici mantenuti in cache
+     */
+    private static final int MAX_CACHED_INDEXES = 256;
+    /**
+     * Numero massimo di certificati revocati indicizzati in cache (circa 33 byte per voce)
+     */
+    private static final long MAX_CACHED_ENTRIES = 4000000;
+
+    /*
+     * Voce della cache: l'indice e le firme delle CRL indicizzate, che le identificano insieme ai
+     * dati conservati nell'indice
+     */
+    private static final class CacheEntry {
+
+        private final byte[] crlSignature;
+        private final byte[] deltaCrlSignature;
+        private final CRLRevocationIndex index;
+
+        private CacheEntry(X509CRL crl, X509CRL deltaCrl, CRLRevocationIndex index) {
+            this.crlSignature = crl.getSignature();
+            this.deltaCrlSignature = deltaCrl != null ? deltaCrl.getSignature() : null;
+            this.index = index;
+        }
+
+        private boolean isIndexOf(X509CRL crl, X509CRL deltaCrl) {
+            return index.isIndexOf(crl, deltaCrl) && Arrays.equals(crlSignature, crl.getSignature())
+                    && (deltaCrl == null
+                            || Arrays.equals(deltaCrlSignature, deltaCrl.getSignature()));
+        }
+    }
+
+    /*
+     * Cache in ordine di accesso, acceduta sincronizzando su CACHE
+     */
+    private static final LinkedHashMap<String, CacheEntry> CACHE = new LinkedHashMap<String, CacheEntry>(
+            16, 0.75f, true);
+    private static long cachedEntries;
+
+    private final X500Principal issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final long encodedLength;
+    private final byte[] crlNumber;
+    private final Date deltaThisUpdate;
+    private final byte[] deltaCrlNumber;
+    /*
+     * Seriali ordinati, parola più significativa per prima
+     */
+    private final long[] serials;
+    private final long[] revocationTimes;
+    private final byte[] reasons;
+    /*
+     * Seriali negativi o più lunghi di MAX_BITS (non conformi alla RFC 5280), ordinati
+     */
+    private final BigInteger[] otherSerials;
+    private final long[] otherRevocationTimes;
+    private final byte[] otherReasons;
+
+    private CRLRevocationIndex(Builder crl, Builder deltaCrl) {
+        this.issuer = crl.issuer;
+        this.thisUpdate = crl.thisUpdate;
+        this.nextUpdate = crl.nextUpdate;
+        this.encodedLength = crl.encodedLength;
+        this.crlNumber = crl.crlNumber;
+        this.deltaThisUpdate = deltaCrl != null ? deltaCrl.thisUpdate : null;
+        this.deltaCrlNumber = deltaCrl != null ? deltaCrl.crlNumber : null;
+
+        crl.sort();
+        Builder entries = crl;
+        if (deltaCrl != null) {
+            deltaCrl.sort();
+            entries = crl.merge(deltaCrl);
+        }
+        serials = Arrays.copyOf(entries.serials, entries.count * WORDS);
+        revocationTimes = Arrays.copyOf(entries.revocationTimes, entries.count);
+        reasons = Arrays.copyOf(entries.reasons, entries.count);
+
+        List<OtherEntry> otherEntries = entries.otherEntries;
+        Collections.sort(otherEntries, new Comparator<OtherEntry>() {
+            @Override
+            public int compare(OtherEntry e1, OtherEntry e2) {
+                return e1.serialNumber.compareTo(e2.serialNumber);
+            }
+        });
+        otherSerials = new BigInteger[otherEntries.size()];
+        otherRevocationTimes = new long[otherEntries.size()];
+        otherReasons = new byte[otherEntries.size()];
+        for (int i = 0; i < otherEntries.size(); i++) {
+            OtherEntry entry = otherEntries.get(i);
+            otherSerials[i] = entry.serialNumber;
+            otherRevocationTimes[i] = entry.revocationTime;
+            otherReasons[i] = entry.reason;
+        }
+    }
+
+    /**
+     * Restituisce l'indice della CRL, costruendolo se la CRL non è già stata indicizzata
+     *
+     * @param crl CRL da indicizzare
+     *
+     * @return l'indice dei certificati revocati
+     */
+    public static CRLRevocationIndex of(X509CRL crl) {
+        return of(crl, null);
+    }
+
+    /**
+     * Restituisce l'indice della CRL completa aggiornata con la delta CRL, costruendolo se le due
+     * CRL non sono già state indicizzate
+     *
+     * @param crl      CRL completa da indicizzare
+     * @param deltaCrl delta CRL riferita alla CRL completa (può essere null)
+     *
+     * @return l'indice dei certificati revocati
+     */
+    public static CRLRevocationIndex of(X509CRL crl, X509CRL deltaCrl) {
+        String key = cacheKey(crl);
+        if (deltaCrl != null) {
+            key = key + "|+delta";
+        }
+        synchronized (CACHE) {
+            CacheEntry entry = CACHE.get(key);
+            if (entry != null && entry.isIndexOf(crl, deltaCrl)) {
+                return entry.index;
+            }
+        }
+        long start = System.currentTimeMillis();
+        CRLRevocationIndex index = new CRLRevocationIndex(builder(crl),
+                deltaCrl != null ? builder(deltaCrl) : null);
+        put(key, new CacheEntry(crl, deltaCrl, index));
+        log.debug("Indicizzata la CRL di {} ({} voci{}) in {} ms", crl.getIssuerX500Principal(),
+                index.size(), deltaCrl != null ? ", con delta CRL" : "",
+                System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * Costruisce l'indice leggendo in streaming la CRL in codifica DER, senza decodificarla in un
+     * {@link X509CRL}: le voci sono aggiunte all'indice man mano che vengono lette e la firma è
+     * verificata sui byte della TBSCertList durante la lettura. Lo stream non viene chiuso.
+     *
+     * @param crlStream stream della CRL in codifica DER
+     * @param issuerKey chiave pubblica dell'emittente della CRL
+     *
+     * @return l'indice dei certificati revocati
+     *
+     * @throws IOException  in caso di errore di lettura o di codifica non valida
+     * @throws CRLException se la firma non è valida o l'algoritmo non è supportato
+     */
+    public static CRLRevocationIndex read(InputStream crlStream, PublicKey issuerKey)
+            throws IOException, CRLException {
+        if (issuerKey == null) {
+            throw new IllegalArgumentException("Chiave pubblica dell'emittente non valorizzata");
+        }
+        long start = System.currentTimeMillis();
+        CRLRevocationIndex index = new CRLRevocationIndex(
+                CRLStreamDecoder.decode(crlStream, issuerKey), null);
+        log.debug("Indicizzata in streaming la CRL di {} ({} voci) in {} ms", index.issuer,
+                index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /*
+     * Voci della CRL: lette dalla codifica senza decodificare le singole voci oppure, se la
+     * codifica non è DER, dalle voci decodificate dal provider
+     */
+    private static Builder builder(X509CRL crl) {
+        try {
+            return CRLStreamDecoder.decode(new ByteArrayInputStream(crl.getEncoded()), null);
+        } catch (IOException | CRLException e) {
+            log.debug("Lettura della codifica della CRL non riuscita ({}), utilizzo le voci "
+                    + "decodificate", e.getMessage());
+        }
+        Builder builder = new Builder();
+        builder.issuer = crl.getIssuerX500Principal();
+        builder.thisUpdate = crl.getThisUpdate();
+        builder.nextUpdate = crl.getNextUpdate();
+        builder.crlNumber = crl.getExtensionValue(CRL_NUMBER_OID);
+        builder.deltaCrlIndicator = crl.getExtensionValue(DELTA_CRL_INDICATOR_OID);
+        try {
+            builder.authorityKeyId = SignerUtil.getAuthorityKeyId(crl);
+        } catch (IOException e) {
+            builder.authorityKeyId = null;
+        }
+        for (X509CRLEntry entry : entries(crl)) {
+            builder.add(entry.getSerialNumber(), entry.getRevocationDate().getTime(),
+                    reasonCode(entry));
+        }
+        return builder;
+    }
+
+    /*
+     * Inserisce l'indice in cache eliminando le voci meno usate oltre i limiti. L'ultima voce
+     * inserita resta comunque in cache.
+     */
+    private static void put(String key, CacheEntry entry) {
+        synchronized (CACHE) {
+            CacheEntry previous = CACHE.put(key, entry);
+            cachedEntries += entry.index.size() - (previous != null ? previous.index.size() : 0);
+            Iterator<CacheEntry> eldest = CACHE.values().iterator();
+            while (CACHE.size() > 1
+                    && (CACHE.size() > MAX_CACHED_INDEXES || cachedEntries > MAX_CACHED_ENTRIES)) {
+                cachedEntries -= eldest.next().index.size();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Svuota la cache degli indici
+     */
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedEntries = 0;
+        }
+    }
+
+    /**
+     * @return il numero di certificati revocati indicizzati
+     */
+    public int size() {
+        return revocationTimes.length + otherRevocationTimes.length;
+    }
+
+    /**
+     * @return l'emittente della CRL
+     */
+    public X500Principal getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * @return la data di emissione della CRL
+     */
+    public Date getThisUpdate() {
+        return new Date(thisUpdate.getTime());
+    }
+
+    /**
+     * @return la data di prossimo aggiornamento della CRL oppure null se non indicata
+     */
+    public Date getNextUpdate() {
+        return nextUpdate != null ? new Date(nextUpdate.getTime()) : null;
+    }
+
+    /**
+     * @return la dimensione in byte della codifica DER della CRL (completa) letta per costruire
+     *         l'indice oppure -1 se l'indice è stato costruito dalle voci decodificate
+     */
+    public long getEncodedLength() {
+        return encodedLength;
+    }
+
+    /**
+     * Cerca il certificato tra quelli revocati. Come {@link X509CRL#getRevokedCertificate}, il
+     * certificato deve essere stato emesso dall'emittente della CRL.
+     *
+     * @param certificate certificato da cercare
+     *
+     * @return la posizione del certificato nell'indice oppure -1 se non è revocato
+     */
+    public int indexOf(X509Certificate certificate) {
+        if (!issuer.equals(certificate.getIssuerX500Principal())) {
+            return -1;
+        }
+        return indexOf(certificate.getSerialNumber());
+    }
+
+    /**
+     * Cerca il numero di serie tra quelli revocati
+     *
+     * @param serialNumber numero di serie da cercare
+     *
+     * @return la posizione del seriale nell'indice oppure -1 se non è revocato
+     */
+    public int indexOf(BigInteger serialNumber) {
+        if (!fits(serialNumber)) {
+            int position = Arrays.binarySearch(otherSerials, serialNumber);
+            return position < 0 ? -1 : revocationTimes.length + position;
+        }
+        long high = word(serialNumber, 2);
+        long middle = word(serialNumber, 1);
+        long low = word(serialNumber, 0);
+        int lower = 0;
+        int upper = revocationTimes.length - 1;
+        while (lower <= upper) {
+            int mid = (lower + upper) >>> 1;
+            int base = mid * WORDS;
+            int cmp = Long.compareUnsigned(serials[base], high);
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(serials[base + 1], middle);
+                if (cmp == 0) {
+                    cmp = Long.compareUnsigned(serials[base + 2], low);
+                }
+            }
+            if (cmp < 0) {
+                lower = mid + 1;
+            } else if (cmp > 0) {
+                upper = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indica se il seriale risulta revocato prima della data di riferimento
+     *
+     * @param serialNumber  numero di serie da cercare
+     * @param referenceDate data di riferimento (se null è sufficiente che il seriale sia revocato)
+     *
+     * @return true se il seriale è revocato
+     */
+    public boolean isRevoked(BigInteger serialNumber, Date referenceDate) {
+        int position = indexOf(serialNumber);
+        return position >= 0
+                && (referenceDate == null || getRevocationTime(position) < referenceDate.getTime());
+    }
+
+    /**
+     * Restituisce la data di revoca
+     *
+     * @param position posizione restituita da {@link #indexOf(BigInteger)}
+     *
+     * @return la data di revoca
+     */
+    public Date getRevocationDate(int position) {
+        return new Date(getRevocationTime(position));
+    }
+
+    /**
+     * Restituisce il motivo della revoca
+     *
+     * @param position posizione restituita da {@link #indexOf(BigInteger)}
+     *
+     * @return il motivo oppure null se non indicato nella CRL
+     */
+    public CRLReason getRevocationReason(int position) {
+        byte reason = position < revocationTimes.length ? reasons[position]
+                : otherReasons[position - revocationTimes.length];
+        return reason < 0 ? null : REASONS[reason];
+    }
+
+    private long getRevocationTime(int position) {
+        return position < revocationTimes.length ? revocationTimes[position]
+                : otherRevocationTimes[position - revocationTimes.length];
+    }
+
+    private boolean isIndexOf(X509CRL crl, X509CRL deltaCrl) {
+        if (deltaCrl == null ? deltaThisUpdate != null
+                : !deltaCrl.getThisUpdate().equals(deltaThisUpdate) || !Arrays
+                        .equals(deltaCrlNumber, deltaCrl.getExtensionValue(CRL_NUMBER_OID))) {
+            return false;
+        }
+        return thisUpdate.equals(crl.getThisUpdate())
+                && issuer.equals(crl.getIssuerX500Principal())
+                && Arrays.equals(crlNumber, crl.getExtensionValue(CRL_NUMBER_OID));
+    }
+
+    /*
+     * Voci della CRL relative all'emittente della CRL
+     */
+    private static List<X509CRLEntry> entries(X509CRL crl) {
+        List<X509CRLEntry> entries = new ArrayList<X509CRLEntry>();
+        Set<? extends X509CRLEntry> revoked = crl.getRevokedCertificates();
+        if (revoked != null) {
+            X500Principal crlIssuer = crl.getIssuerX500Principal();
+            for (X509CRLEntry entry : revoked) {
+                X500Principal entryIssuer = entry.getCertificateIssuer();
+                if (entryIssuer == null || entryIssuer.equals(crlIssuer)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String cacheKey(X509CRL crl) {
+        String keyId;
+        try {
+            keyId = SignerUtil.getAuthorityKeyId(crl);
+        } catch (IOException e) {
+            keyId = null;
+        }
+        String key = crl.getIssuerX500Principal().getName() + "|" + keyId;
+        if (crl.getExtensionValue(DELTA_CRL_INDICATOR_OID) != null) {
+            key = key + "|delta";
+        }
+        return key;
+    }
+
+    private static byte reasonCode(X509CRLEntry entry) {
+        CRLReason reason = entry.getRevocationReason();
+        return reason == null ? -1 : (byte) reason.ordinal();
+    }
+
+    private static boolean fits(BigInteger serialNumber) {
+        return serialNumber.signum() >= 0 && serialNumber.bitLength() <= MAX_BITS;
+    }
+
+    /*
+     * Parola di 64 bit del seriale (0 la meno significativa), calcolata senza allocazioni
+     */
+    private static long word(BigInteger serialNumber, int index) {
+        if (index == 0) {
+            return serialNumber.longValue();
+        }
+        int from = index * Long.SIZE;
+        int to = Math.min(from + Long.SIZE, serialNumber.bitLength());
+        long value = 0;
+        for (int bit = from; bit < to; bit++) {
+            if (serialNumber.testBit(bit)) {
+                value |= 1L << (bit - from);
+            }
+        }
+        return value;
+    }
+
+    /*
+     * Voce con seriale non rappresentabile in MAX_BITS
+     */
+    private static final class OtherEntry {
+
+        private final BigInteger serialNumber;
+        private final long revocationTime;
+        private final byte reason;
+
+        private OtherEntry(BigInteger serialNumber, long revocationTime, byte reason) {
+            this.serialNumber = serialNumber;
+            this.revocationTime = revocationTime;
+            this.reason = reason;
+        }
+    }
+
+    /*
+     * Dati e voci di una CRL raccolti durante la lettura, in array di tipi primitivi che crescono
+     * al bisogno
+     */
+    static final class Builder {
+
+        X500Principal issuer;
+        Date thisUpdate;
+        Date nextUpdate;
+        byte[] crlNumber;
+        byte[] deltaCrlIndicator;
+        String authorityKeyId;
+        long encodedLength = -1;
+
+        private long[] serials;
+        private long[] revocationTimes;
+        private byte[] reasons;
+        private int count;
+        private final List<OtherEntry> otherEntries = new ArrayList<OtherEntry>();
+
+        Builder() {
+            this(64);
+        }
+
+        private Builder(int capacity) {
+            serials = new long[capacity * WORDS];
+            revocationTimes = new long[capacity];
+            reasons = new byte[capacity];
+        }
+
+        /*
+         * Aggiunge la voce a partire dal contenuto DER dell'INTEGER del seriale, senza
+         * allocazioni per i seriali conformi alla RFC 5280
+         */
+        void add(byte[] value, int offset, int length, long revocationTime, byte reason) {
+            int end = offset + length;
+            if (value[offset] >= 0) {
+                int start = offset;
+                while (start < end - 1 && value[start] == 0) {
+                    start++;
+                }
+                if (end - start <= MAX_BITS / Byte.SIZE) {
+                    int base = next(revocationTime, reason) * WORDS;
+                    for (int i = end - 1, bit = 0; i >= start; i--, bit += Byte.SIZE) {
+                        serials[base + WORDS - 1 - bit / Long.SIZE] |= (value[i] & 0xFFL) << (bit
+                                % Long.SIZE);
+                    }
+                    return;
+                }
+            }
+            otherEntries.add(new OtherEntry(new BigInteger(Arrays.copyOfRange(value, offset, end)),
+                    revocationTime, reason));
+        }
+
+        void add(BigInteger serialNumber, long revocationTime, byte reason) {
+            if (fits(serialNumber)) {
+                int base = next(revocationTime, reason) * WORDS;
+                for (int w = 0; w < WORDS; w++) {
+                    serials[base + w] = word(serialNumber, WORDS - 1 - w);
+                }
+            } else {
+                otherEntries.add(new OtherEntry(serialNumber, revocationTime, reason));
+            }
+        }
+
+        private int next(long revocationTime, byte reason) {
+            if (count == revocationTimes.length) {
+                int capacity = count * 2;
+                serials = Arrays.copyOf(serials, capacity * WORDS);
+                revocationTimes = Arrays.copyOf(revocationTimes, capacity);
+                reasons = Arrays.copyOf(reasons, capacity);
+            }
+            int position = count++;
+            Arrays.fill(serials, position * WORDS, (position + 1) * WORDS, 0L);
+            revocationTimes[position] = revocationTime;
+            reasons[position] = reason;
+            return position;
+        }
+
+        /*
+         * Ordina le voci per seriale; le CRL sono spesso già ordinate
+         */
+        void sort() {
+            for (int i = 1; i < count; i++) {
+                if (compare(this, i - 1, this, i) > 0) {
+                    sort(0, count - 1);
+                    return;
+                }
+            }
+        }
+
+        private void sort(int from, int to) {
+            while (to - from > 16) {
+                int mid = (from + to) >>> 1;
+                // mediana di tre come pivot, spostata in fondo
+                if (compare(this, mid, this, from) < 0) {
+                    swap(mid, from);
+                }
+                if (compare(this, to, this, from) < 0) {
+                    swap(to, from);
+                }
+                if (compare(this, to, this, mid) < 0) {
+                    swap(to, mid);
+                }
+                swap(mid, to);
+                int store = from;
+                for (int i = from; i < to; i++) {
+                    if (compare(this, i, this, to) < 0) {
+                        swap(i, store++);
+                    }
+                }
+                swap(store, to);
+                // ricorsione sulla parte più piccola
+                if (store - from < to - store) {
+                    sort(from, store - 1);
+                    from = store + 1;
+                } else {
+                    sort(store + 1, to);
+                    to = store - 1;
+                }
+            }
+            for (int i = from + 1; i <= to; i++) {
+                for (int j = i; j > from && compare(this, j - 1, this, j) > 0; j--) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            for (int w = 0; w < WORDS; w++) {
+                long serial = serials[i * WORDS + w];
+                serials[i * WORDS + w] = serials[j * WORDS + w];
+                serials[j * WORDS + w] = serial;
+            }
+            long revocationTime = revocationTimes[i];
+            revocationTimes[i] = revocationTimes[j];
+            revocationTimes[j] = revocationTime;
+            byte reason = reasons[i];
+            reasons[i] = reasons[j];
+            reasons[j] = reason;
+        }
+
+        private static int compare(Builder b1, int i, Builder b2, int j) {
+            for (int w = 0; w < WORDS; w++) {
+                int cmp = Long.compareUnsigned(b1.serials[i * WORDS + w],
+                        b2.serials[j * WORDS + w]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        private void copy(Builder source, int i) {
+            int base = next(source.revocationTimes[i], source.reasons[i]) * WORDS;
+            System.arraycopy(source.serials, i * WORDS, serials, base, WORDS);
+        }
+
+        /*
+         * Unisce le voci ordinate della delta CRL: sostituiscono quelle con lo stesso seriale e
+         * quelle con motivo removeFromCRL le eliminano
+         */
+        Builder merge(Builder delta) {
+            Builder merged = new Builder(Math.max(count + delta.count, 1));
+            int i = 0;
+            int j = 0;
+            while (i < count || j < delta.count) {
+                int cmp = i == count ? 1 : j == delta.count ? -1 : compare(this, i, delta, j);
+                if (cmp < 0) {
+                    merged.copy(this, i++);
+                } else {
+                    while (i < count && compare(this, i, delta, j) == 0) {
+                        i++;
+                    }
+                    if (delta.reasons[j] != REMOVE_FROM_CRL) {
+                        merged.copy(delta, j);
+                    }
+                    j++;
+                }
+            }
+            Map<BigInteger, OtherEntry> others = new HashMap<BigInteger, OtherEntry>();
+            for (OtherEntry entry : otherEntries) {
+                others.put(entry.serialNumber, entry);
+            }
+            for (OtherEntry entry : delta.otherEntries) {
+                if (entry.reason == REMOVE_FROM_CRL) {
+                    others.remove(entry.serialNumber);
+                } else {
+                    others.put(entry.serialNumber, entry);
+                }
+            }
+            merged.otherEntries.addAll(others.values());
+            return merged;
+        }
+    }
+}
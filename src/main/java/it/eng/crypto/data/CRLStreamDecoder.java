@@ -0,0 +1,647 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CRLException;
+import java.security.cert.CRLReason;
+import java.security.spec.PSSParameterSpec;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1UTCTime;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Lettura in streaming di una CRL in codifica DER (RFC 5280, 5.1). La TBSCertList viene percorsa
+ * un elemento alla volta: le voci dei certificati revocati sono aggiunte all'indice in costruzione
+ * man mano che vengono lette, senza mantenere in memoria la codifica della CRL né oggetti per le
+ * singole voci. Se è indicata la chiave pubblica dell'emittente, la firma viene verificata
+ * aggiornandola con i byte della TBSCertList durante la lettura.
+ * <p>
+ * Come per {@link java.security.cert.X509CRL#getRevokedCertificates()}, le voci di una CRL
+ * indiretta relative ad altri emittenti (estensione <code>certificateIssuer</code>) vengono
+ * escluse. Le codifiche BER a lunghezza indefinita non sono supportate.
+ * </p>
+ */
+final class CRLStreamDecoder {
+
+    private static final int TAG_BOOLEAN = 0x01;
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_BIT_STRING = 0x03;
+    private static final int TAG_OCTET_STRING = 0x04;
+    private static final int TAG_OID = 0x06;
+    private static final int TAG_ENUMERATED = 0x0A;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_CRL_EXTENSIONS = 0xA0;
+
+    /*
+     * Contenuto degli OID delle estensioni reasonCode (2.5.29.21) e certificateIssuer (2.5.29.29)
+     */
+    private static final byte[] REASON_CODE_OID = { 0x55, 0x1D, 0x15 };
+    private static final byte[] CERTIFICATE_ISSUER_OID = { 0x55, 0x1D, 0x1D };
+
+    private static final int REASONS = CRLReason.values().length;
+
+    /**
+     * Dimensione massima di un singolo elemento letto in memoria (voce, nome, estensioni)
+     */
+    private static final int MAX_ELEMENT_LENGTH = 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final PublicKey issuerKey;
+    private final CRLRevocationIndex.Builder builder = new CRLRevocationIndex.Builder();
+
+    /*
+     * Blocco letto dallo stream e numero di byte consumati dall'inizio della CRL
+     */
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkPosition;
+    private int chunkLimit;
+    private long position;
+    /*
+     * Durante la lettura della TBSCertList i byte letti aggiornano la firma a blocchi, a partire
+     * da digestMark; quelli letti prima di conoscere l'algoritmo sono mantenuti in pending
+     */
+    private boolean digesting;
+    private int digestMark;
+    private ByteArrayOutputStream pending;
+    private Signature signature;
+
+    /*
+     * Elemento corrente letto in memoria
+     */
+    private byte[] buffer = new byte[512];
+    private int cursor;
+    private int limit;
+    /*
+     * False dopo una voce con estensione certificateIssuer diversa dall'emittente della CRL: le
+     * voci successive ereditano l'emittente (RFC 5280, 5.3.3)
+     */
+    private boolean entryIssuerMatches = true;
+
+    private CRLStreamDecoder(InputStream crlStream, PublicKey issuerKey) {
+        this.in = crlStream;
+        this.issuerKey = issuerKey;
+    }
+
+    /**
+     * Legge la CRL dallo stream. Lo stream, letto a blocchi, non viene chiuso.
+     *
+     * @param crlStream stream della CRL in codifica DER
+     * @param issuerKey chiave pubblica dell'emittente con cui verificare la firma (se null la
+     *                  firma non viene verificata)
+     *
+     * @return le voci e i dati della CRL
+     *
+     * @throws IOException  in caso di errore di lettura o di codifica non valida
+     * @throws CRLException se la firma non è valida o l'algoritmo non è supportato
+     */
+    static CRLRevocationIndex.Builder decode(InputStream crlStream, PublicKey issuerKey)
+            throws IOException, CRLException {
+        return new CRLStreamDecoder(crlStream, issuerKey).decode();
+    }
+
+    private CRLRevocationIndex.Builder decode() throws IOException, CRLException {
+        readLength(TAG_SEQUENCE);
+        if (issuerKey != null) {
+            pending = new ByteArrayOutputStream();
+            startDigest();
+        }
+        long tbsEnd = readLength(TAG_SEQUENCE);
+        tbsEnd += position;
+        if (peek() == TAG_INTEGER) {
+            // versione
+            readElement(TAG_INTEGER);
+        }
+        byte[] algorithm = readElement(TAG_SEQUENCE);
+        if (issuerKey != null) {
+            initVerification(algorithm);
+        }
+        try {
+            builder.issuer = new X500Principal(readElement(TAG_SEQUENCE));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Emittente della CRL non valido", e);
+        }
+        builder.thisUpdate = new Date(readTime());
+        if (position < tbsEnd && isTime(peek())) {
+            builder.nextUpdate = new Date(readTime());
+        }
+        if (position < tbsEnd && peek() == TAG_SEQUENCE) {
+            readEntries(readLength(TAG_SEQUENCE));
+        }
+        if (position < tbsEnd && peek() == TAG_CRL_EXTENSIONS) {
+            readLength(TAG_CRL_EXTENSIONS);
+            readExtensions(readElement(TAG_SEQUENCE));
+        }
+        if (position != tbsEnd) {
+            throw new IOException("Struttura della TBSCertList non valida");
+        }
+        stopDigest();
+        byte[] signatureAlgorithm = readElement(TAG_SEQUENCE);
+        byte[] signatureValue = readContent(TAG_BIT_STRING);
+        if (issuerKey != null) {
+            verify(algorithm, signatureAlgorithm, signatureValue);
+        }
+        builder.encodedLength = position;
+        return builder;
+    }
+
+    private void readEntries(long length) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            int entryLength = checkLength(readLength(TAG_SEQUENCE));
+            if (buffer.length < entryLength) {
+                buffer = new byte[Math.max(entryLength, buffer.length * 2)];
+            }
+            readFully(buffer, 0, entryLength);
+            parseEntry(entryLength);
+        }
+        if (position != end) {
+            throw new IOException("Lista dei certificati revocati non valida");
+        }
+    }
+
+    /*
+     * Voce della CRL in buffer: numero di serie, data di revoca ed eventuali estensioni
+     */
+    private void parseEntry(int length) throws IOException {
+        cursor = 0;
+        limit = length;
+        int serialLength = enter(TAG_INTEGER);
+        if (serialLength == 0) {
+            throw new IOException("Numero di serie della voce della CRL non valido");
+        }
+        int serialOffset = cursor;
+        cursor += serialLength;
+        int timeTag = cursor < limit ? buffer[cursor] & 0xFF : -1;
+        if (!isTime(timeTag)) {
+            throw new IOException("Data di revoca della voce della CRL non valida");
+        }
+        int timeLength = enter(timeTag);
+        long revocationTime = parseTime(timeTag, cursor, timeLength);
+        cursor += timeLength;
+        byte reason = -1;
+        if (cursor < limit) {
+            int extensionsEnd = enter(TAG_SEQUENCE);
+            extensionsEnd += cursor;
+            while (cursor < extensionsEnd) {
+                int extensionEnd = enter(TAG_SEQUENCE);
+                extensionEnd += cursor;
+                int oidLength = enter(TAG_OID);
+                int oidOffset = cursor;
+                cursor += oidLength;
+                if (cursor < extensionEnd && (buffer[cursor] & 0xFF) == TAG_BOOLEAN) {
+                    // critical
+                    int criticalLength = enter(TAG_BOOLEAN);
+                    cursor += criticalLength;
+                }
+                int valueLength = enter(TAG_OCTET_STRING);
+                int valueOffset = cursor;
+                if (matches(oidOffset, oidLength, REASON_CODE_OID)) {
+                    reason = reasonCode(valueOffset, valueLength);
+                } else if (matches(oidOffset, oidLength, CERTIFICATE_ISSUER_OID)) {
+                    entryIssuerMatches = isCRLIssuer(valueOffset, valueLength);
+                }
+                cursor = valueOffset + valueLength;
+                if (cursor != extensionEnd) {
+                    throw new IOException("Estensione della voce della CRL non valida");
+                }
+            }
+        }
+        if (cursor != limit) {
+            throw new IOException("Voce della CRL non valida");
+        }
+        if (entryIssuerMatches) {
+            builder.add(buffer, serialOffset, serialLength, revocationTime, reason);
+        }
+    }
+
+    /*
+     * Intestazione DER dell'elemento in buffer alla posizione corrente: restituisce la lunghezza
+     * del contenuto e sposta la posizione all'inizio del contenuto
+     */
+    private int enter(int tag) throws IOException {
+        if (cursor + 2 > limit || (buffer[cursor] & 0xFF) != tag) {
+            throw new IOException("Codifica DER della voce della CRL non valida");
+        }
+        int first = buffer[cursor + 1] & 0xFF;
+        cursor += 2;
+        int length;
+        if (first < 0x80) {
+            length = first;
+        } else {
+            int lengthBytes = first & 0x7F;
+            if (lengthBytes == 0 || lengthBytes > 3 || cursor + lengthBytes > limit) {
+                throw new IOException("Lunghezza DER della voce della CRL non valida");
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (buffer[cursor++] & 0xFF);
+            }
+        }
+        if (length > limit - cursor) {
+            throw new IOException("Lunghezza DER della voce della CRL non valida");
+        }
+        return length;
+    }
+
+    private boolean matches(int offset, int length, byte[] oid) {
+        if (length != oid.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[offset + i] != oid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte reasonCode(int offset, int length) {
+        if (length == 3 && buffer[offset] == TAG_ENUMERATED && buffer[offset + 1] == 1) {
+            int code = buffer[offset + 2];
+            if (code >= 0 && code < REASONS) {
+                return (byte) code;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isCRLIssuer(int offset, int length) throws IOException {
+        try {
+            GeneralNames names = GeneralNames.getInstance(ASN1Primitive
+                    .fromByteArray(Arrays.copyOfRange(buffer, offset, offset + length)));
+            for (GeneralName name : names.getNames()) {
+                if (name.getTagNo() == GeneralName.directoryName) {
+                    return builder.issuer.equals(
+                            new X500Principal(name.getName().toASN1Primitive().getEncoded()));
+                }
+            }
+            return false;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Estensione certificateIssuer non valida", e);
+        }
+    }
+
+    private void readExtensions(byte[] element) throws IOException {
+        Extensions extensions;
+        try {
+            extensions = Extensions.getInstance(ASN1Primitive.fromByteArray(element));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Estensioni della CRL non valide", e);
+        }
+        builder.crlNumber = extensionValue(extensions, Extension.cRLNumber);
+        builder.deltaCrlIndicator = extensionValue(extensions, Extension.deltaCRLIndicator);
+        Extension authorityKeyId = extensions.getExtension(Extension.authorityKeyIdentifier);
+        if (authorityKeyId != null) {
+            byte[] keyId = AuthorityKeyIdentifier.getInstance(authorityKeyId.getParsedValue())
+                    .getKeyIdentifierOctets();
+            builder.authorityKeyId = keyId != null ? Hex.encodeHexString(keyId) : null;
+        }
+    }
+
+    /*
+     * Valore dell'estensione codificato come OCTET STRING, come restituito da
+     * X509CRL.getExtensionValue
+     */
+    private static byte[] extensionValue(Extensions extensions, ASN1ObjectIdentifier oid)
+            throws IOException {
+        Extension extension = extensions.getExtension(oid);
+        return extension != null ? extension.getExtnValue().getEncoded() : null;
+    }
+
+    private long readTime() throws IOException {
+        int tag = peek();
+        if (!isTime(tag)) {
+            throw new IOException("Data della CRL non valida");
+        }
+        int length = checkLength(readLength(tag));
+        if (buffer.length < length) {
+            buffer = new byte[length];
+        }
+        readFully(buffer, 0, length);
+        return parseTime(tag, 0, length);
+    }
+
+    private static boolean isTime(int tag) {
+        return tag == TAG_UTC_TIME || tag == TAG_GENERALIZED_TIME;
+    }
+
+    /*
+     * Data in buffer nelle forme DER (YYMMDDHHMMSSZ e YYYYMMDDHHMMSS[.fff]Z), convertita senza
+     * allocazioni; le altre forme sono lasciate a BouncyCastle
+     */
+    private long parseTime(int tag, int offset, int length) throws IOException {
+        int end = offset + length;
+        int p = offset;
+        int year;
+        if (tag == TAG_UTC_TIME && length == 13) {
+            year = digits(p, 2);
+            year += year >= 50 ? 1900 : 2000;
+            p += 2;
+        } else if (tag == TAG_GENERALIZED_TIME && length >= 15) {
+            year = digits(p, 4);
+            p += 4;
+        } else {
+            return parseTimeWithBouncyCastle(tag, offset, length);
+        }
+        int month = digits(p, 2);
+        int day = digits(p + 2, 2);
+        int hour = digits(p + 4, 2);
+        int minute = digits(p + 6, 2);
+        int second = digits(p + 8, 2);
+        p += 10;
+        int millis = 0;
+        if (p < end - 1 && buffer[p] == '.') {
+            int scale = 100;
+            for (p++; p < end - 1; p++) {
+                int digit = buffer[p] - '0';
+                if (digit < 0 || digit > 9) {
+                    return parseTimeWithBouncyCastle(tag, offset, length);
+                }
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59 || p != end - 1
+                || buffer[p] != 'Z') {
+            return parseTimeWithBouncyCastle(tag, offset, length);
+        }
+        return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L
+                + second * 1000L + millis;
+    }
+
+    private int digits(int offset, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int digit = buffer[offset + i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /*
+     * Giorni dal 1970-01-01 nel calendario gregoriano
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private long parseTimeWithBouncyCastle(int tag, int offset, int length) throws IOException {
+        byte[] header = header(tag, length);
+        byte[] element = Arrays.copyOf(header, header.length + length);
+        System.arraycopy(buffer, offset, element, header.length, length);
+        try {
+            if (tag == TAG_UTC_TIME) {
+                return ASN1UTCTime.getInstance(element).getAdjustedDate().getTime();
+            }
+            return ASN1GeneralizedTime.getInstance(element).getDate().getTime();
+        } catch (ParseException | IllegalArgumentException e) {
+            throw new IOException("Data della CRL non valida", e);
+        }
+    }
+
+    private void initVerification(byte[] algorithm) throws CRLException {
+        try {
+            AlgorithmIdentifier algorithmId = AlgorithmIdentifier
+                    .getInstance(ASN1Primitive.fromByteArray(algorithm));
+            Signature verifier = createSignature(algorithmId);
+            verifier.initVerify(issuerKey);
+            digestConsumed();
+            verifier.update(pending.toByteArray());
+            signature = verifier;
+            pending = null;
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+            throw new CRLException("Algoritmo di firma della CRL non supportato", e);
+        }
+    }
+
+    private static Signature createSignature(AlgorithmIdentifier algorithmId)
+            throws GeneralSecurityException, IOException {
+        String oid = algorithmId.getAlgorithm().getId();
+        Signature verifier;
+        try {
+            verifier = Signature.getInstance(oid, BouncyCastleProvider.PROVIDER_NAME);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            verifier = Signature.getInstance(oid);
+        }
+        ASN1Encodable parameters = algorithmId.getParameters();
+        if (PKCSObjectIdentifiers.id_RSASSA_PSS.equals(algorithmId.getAlgorithm())
+                && parameters != null) {
+            AlgorithmParameters pss = AlgorithmParameters.getInstance("PSS",
+                    verifier.getProvider());
+            pss.init(parameters.toASN1Primitive().getEncoded());
+            verifier.setParameter(pss.getParameterSpec(PSSParameterSpec.class));
+        }
+        return verifier;
+    }
+
+    private void verify(byte[] algorithm, byte[] signatureAlgorithm, byte[] signatureValue)
+            throws CRLException {
+        if (!Arrays.equals(algorithm, signatureAlgorithm)) {
+            throw new CRLException(
+                    "L'algoritmo di firma della CRL non corrisponde a quello della TBSCertList");
+        }
+        try {
+            if (signatureValue.length < 2 || signatureValue[0] != 0 || !signature
+                    .verify(signatureValue, 1, signatureValue.length - 1)) {
+                throw new CRLException("Firma della CRL non valida");
+            }
+        } catch (SignatureException e) {
+            throw new CRLException("Firma della CRL non valida", e);
+        }
+    }
+
+    /*
+     * Lettura dallo stream
+     */
+
+    private int peek() throws IOException {
+        if (chunkPosition == chunkLimit && !fill()) {
+            return -1;
+        }
+        return chunk[chunkPosition] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (chunkPosition == chunkLimit && !fill()) {
+            throw new EOFException("CRL troncata");
+        }
+        position++;
+        return chunk[chunkPosition++] & 0xFF;
+    }
+
+    private void readFully(byte[] b, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (chunkPosition == chunkLimit && !fill()) {
+                throw new EOFException("CRL troncata");
+            }
+            int count = Math.min(length, chunkLimit - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, b, offset, count);
+            chunkPosition += count;
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /*
+     * Legge il blocco successivo, dopo aver aggiornato la firma con i byte già letti del blocco
+     * corrente
+     */
+    private boolean fill() throws IOException {
+        digestConsumed();
+        int count = in.read(chunk);
+        while (count == 0) {
+            count = in.read(chunk);
+        }
+        chunkPosition = 0;
+        chunkLimit = Math.max(count, 0);
+        digestMark = 0;
+        return count > 0;
+    }
+
+    private void startDigest() {
+        digesting = true;
+        digestMark = chunkPosition;
+    }
+
+    private void stopDigest() throws IOException {
+        digestConsumed();
+        digesting = false;
+    }
+
+    /*
+     * Aggiorna la firma con i byte letti dal blocco corrente dall'ultimo aggiornamento
+     */
+    private void digestConsumed() throws IOException {
+        if (!digesting || chunkPosition == digestMark) {
+            return;
+        }
+        if (signature != null) {
+            try {
+                signature.update(chunk, digestMark, chunkPosition - digestMark);
+            } catch (SignatureException e) {
+                throw new IOException(e);
+            }
+        } else {
+            pending.write(chunk, digestMark, chunkPosition - digestMark);
+        }
+        digestMark = chunkPosition;
+    }
+
+    /*
+     * Intestazione DER con il tag atteso: restituisce la lunghezza del contenuto
+     */
+    private long readLength(int tag) throws IOException {
+        int actual = read();
+        if (actual != tag) {
+            throw new IOException("Codifica DER della CRL non valida: atteso il tag " + tag
+                    + ", trovato " + actual);
+        }
+        int first = read();
+        if (first < 0x80) {
+            return first;
+        }
+        int lengthBytes = first & 0x7F;
+        if (lengthBytes == 0) {
+            throw new IOException("Codifica BER a lunghezza indefinita non supportata");
+        }
+        if (lengthBytes > 4) {
+            throw new IOException("Lunghezza DER della CRL non supportata");
+        }
+        long length = 0;
+        for (int i = 0; i < lengthBytes; i++) {
+            length = (length << 8) | read();
+        }
+        return length;
+    }
+
+    private byte[] readContent(int tag) throws IOException {
+        byte[] content = new byte[checkLength(readLength(tag))];
+        readFully(content, 0, content.length);
+        return content;
+    }
+
+    /*
+     * Elemento completo (intestazione e contenuto)
+     */
+    private byte[] readElement(int tag) throws IOException {
+        int length = checkLength(readLength(tag));
+        byte[] header = header(tag, length);
+        byte[] element = Arrays.copyOf(header, header.length + length);
+        readFully(element, header.length, length);
+        return element;
+    }
+
+    private static int checkLength(long length) throws IOException {
+        if (length > MAX_ELEMENT_LENGTH) {
+            throw new IOException("Elemento della CRL troppo grande: " + length + " byte");
+        }
+        return (int) length;
+    }
+
+    private static byte[] header(int tag, int length) {
+        if (length < 0x80) {
+            return new byte[] { (byte) tag, (byte) length };
+        }
+        int lengthBytes = length > 0xFFFFFF ? 4 : length > 0xFFFF ? 3 : length > 0xFF ? 2 : 1;
+        byte[] header = new byte[2 + lengthBytes];
+        header[0] = (byte) tag;
+        header[1] = (byte) (0x80 | lengthBytes);
+        for (int i = 0; i < lengthBytes; i++) {
+            header[2 + i] = (byte) (length >>> (8 * (lengthBytes - 1 - i)));
+        }
+        return header;
+    }
+}
@@ -13,25 +13,32 @@
 
 package it.eng.crypto.data;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchProviderException;
+import java.security.PublicKey;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Map;
+import java.util.List;
 import java.util.Vector;
 
 import javax.naming.CommunicationException;
@@ -43,22 +50,16 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.NTCredentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
@@ -70,17 +71,39 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.eng.crypto.CryptoConfiguration;
+import it.eng.crypto.FactorySigner;
 import it.eng.crypto.exception.CryptoSignerException;
 
 public class CRLUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(CRLUtil.class.getName());
 
+    /**
+     * Attributo LDAP della CRL (RFC 4523)
+     */
+    private static final String CRL_LDAP_ATTRIBUTE = "certificateRevocationList";
+
     private static final String X509 = "X.509";
     private static final String BC_PROVIDER = "BC";
+    private static final int DER_SEQUENCE = 0x30;
+    /**
+     * Dimensione della codifica oltre la quale la CRL letta da stream viene appoggiata su file
+     */
+    private static final long CRL_MEMORY_THRESHOLD = 1024 * 1024;
+    private static final String CRL_NUMBER_OID = "2.5.29.20";
+    private static final String DELTA_CRL_INDICATOR_OID = "2.5.29.27";
 
     /**
-     * Recupera le CRL tramite il protocollo HTTP/HTTPS con supporto proxy
+     * Recupera le CRL tramite il protocollo HTTP/HTTPS con supporto proxy. La richiesta GET viene
+     * eseguita con il client condiviso della configurazione, che mantiene le connessioni aperte
+     * tra un download e il successivo.
+     * <p>
+     * Se la CRL è già stata scaricata dallo stesso indirizzo ed è presente nello storage delle CRL,
+     * il server non viene contattato prima dell'intervallo minimo configurato; trascorso
+     * l'intervallo la richiesta è condizionale (<code>If-None-Match</code>/
+     * <code>If-Modified-Since</code>) e, se la CRL non è cambiata, viene restituita la CRL dello
+     * storage.
+     * </p>
      *
      * @param url                   URL della CRL
      * @param configuration         Configurazione della connessione
@@ -96,142 +119,222 @@ public class CRLUtil {
             int httpTimeoutConnection, int httpSocketTimeout) throws IOException,
             CryptoSignerException, CertificateException, NoSuchProviderException {
 
+        CRLDownloadCache downloadCache = configuration.getCrlDownloadCache();
+        CRLDownloadCache.Entry entry = downloadCache.get(url);
+        X509CRL cachedCrl = null;
+        if (entry != null) {
+            try {
+                cachedCrl = downloadCache.retrieve(FactorySigner.getInstanceCRLStorage(), entry);
+            } catch (RuntimeException e) {
+                LOG.debug("Storage delle CRL non disponibile", e);
+            }
+        }
+        if (cachedCrl != null
+                && !entry.isRefreshAllowed(configuration.getCrlMinRefreshInterval())) {
+            LOG.debug("CRL scaricata di recente (prossimo aggiornamento: {}), utilizzo la copia "
+                    + "dello storage per: {}", cachedCrl.getNextUpdate(), url);
+            return cachedCrl;
+        }
+
         final int connectionTimeout = httpTimeoutConnection * 1000; // conversione in millisecondi
         final int socketTimeout = httpSocketTimeout * 1000; // conversione in millisecondi
-        RequestConfig.Builder requestConfigBuilder = RequestConfig.custom()
-                .setConnectTimeout(connectionTimeout).setSocketTimeout(socketTimeout);
-
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-
-        if (configuration.isProxy()) {
-            HttpHost proxy = new HttpHost(configuration.getProxyHost(),
-                    configuration.getProxyPort());
-            requestConfigBuilder.setProxy(proxy);
-
-            Credentials credential = configuration.isNTLSAuth()
-                    ? new NTCredentials(configuration.getProxyUser(),
-                            configuration.getProxyPassword(), configuration.getUserHost(),
-                            configuration.getUserDomain())
-                    : new UsernamePasswordCredentials(configuration.getProxyUser(),
-                            configuration.getProxyPassword());
-            credsProvider.setCredentials(new AuthScope(proxy.getHostName(), proxy.getPort()),
-                    credential);
+        HttpGet request = new HttpGet(url);
+        request.setConfig(RequestConfig.custom().setConnectTimeout(connectionTimeout)
+                .setConnectionRequestTimeout(connectionTimeout).setSocketTimeout(socketTimeout)
+                .build());
+        if (cachedCrl != null) {
+            if (entry.getETag() != null) {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.getETag());
+            }
+            if (entry.getLastModified() != null) {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+            }
         }
 
-        RequestConfig requestConfig = requestConfigBuilder.build();
-
-        try (CloseableHttpClient httpclient = HttpClients.custom()
-                .setDefaultRequestConfig(requestConfig).setDefaultCredentialsProvider(credsProvider)
-                .build()) {
-
-            byte[] content = executeHttpRequest(httpclient, new HttpPost(url));
-            if (content == null || content.length == 0) {
-                content = executeHttpRequest(httpclient, new HttpGet(url));
+        try (CloseableHttpResponse httpResponse = configuration.getHttpClient().execute(request)) {
+            HttpEntity entity = httpResponse.getEntity();
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedCrl != null) {
+                EntityUtils.consume(entity);
+                LOG.debug("CRL non modificata, utilizzo la copia dello storage per: {}", url);
+                downloadCache.touch(url, entry);
+                return cachedCrl;
             }
-            if (content != null && content.length != 0) {
-                return parse(content);
-            } else {
+            if (statusCode != HttpURLConnection.HTTP_OK) {
+                EntityUtils.consume(entity);
+                throw new CryptoSignerException("The server returned code: " + statusCode);
+            }
+            if (entity == null || entity.getContentLength() == 0) {
                 throw new CryptoSignerException(
                         "Il server non ha restituito alcun dato per la CRL dall'URL: " + url);
             }
+            X509CRL crl;
+            try (InputStream content = entity.getContent()) {
+                crl = parse(content);
+            }
+            if (crl == null) {
+                throw new CryptoSignerException("CRL non valida dall'URL: " + url);
+            }
+            if (cachedCrl != null && crl.getThisUpdate().before(entry.getThisUpdate())) {
+                LOG.warn("La CRL restituita da {} è precedente a quella già scaricata, "
+                        + "utilizzo la copia dello storage", url);
+                crl = cachedCrl;
+            }
+            downloadCache.put(url, crl, headerValue(httpResponse, HttpHeaders.ETAG),
+                    headerValue(httpResponse, HttpHeaders.LAST_MODIFIED));
+            return crl;
         } catch (IOException e) {
             throw new CryptoSignerException("La connessione è stata interrotta per un errore", e);
         }
     }
 
-    private byte[] executeHttpRequest(CloseableHttpClient httpclient, HttpUriRequest request)
-            throws IOException, CryptoSignerException {
-        try (CloseableHttpResponse httpResponse = httpclient.execute(request)) {
-            HttpEntity entity = httpResponse.getEntity();
-            int statusCode = httpResponse.getStatusLine().getStatusCode();
-            if (statusCode == HttpURLConnection.HTTP_OK) {
-                return EntityUtils.toByteArray(entity);
-            } else {
-                EntityUtils.consume(entity);
-                if (request instanceof HttpPost) {
-                    ((HttpPost) request).abort();
-                    return null;
-                } else {
-                    throw new CryptoSignerException("The server returned code: " + statusCode);
-                }
-            }
-        }
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
     }
 
     /**
-     * Recupera le CRL tramite il protocollo LDAP
+     * Recupera le CRL tramite il protocollo LDAP. Viene richiesto il solo attributo della CRL
+     * (quello indicato nell'URL oppure <code>certificateRevocationList;binary</code>) e le
+     * connessioni vengono riutilizzate tramite il pool del provider LDAP del JDK, configurabile con
+     * le proprietà di sistema <code>com.sun.jndi.ldap.connect.pool.*</code> (ad esempio
+     * <code>com.sun.jndi.ldap.connect.pool.timeout</code> per chiudere le connessioni inattive).
      *
-     * @param url
-     * @param ldapTimeoutConnection
+     * @param url                   URL LDAP della CRL
+     * @param ldapTimeoutConnection timeout di connessione e lettura in secondi
      *
-     * @return
+     * @return CRL recuperata oppure null se l'attributo non è presente
      * @throws IOException
      * @throws NoSuchProviderException
      * @throws CertificateException
      * @throws CryptoSignerException
-     *
-     * @throws Exception
      */
     X509CRL searchCrlByLDAP(String url, int ldapTimeoutConnection) throws CertificateException,
             NoSuchProviderException, IOException, CryptoSignerException {
         final String timeout = String.valueOf(ldapTimeoutConnection * 1000); // conversione in
                                                                              // millisecondi
-        String ldapUrl = url.replace(" ", "%20");
-        X509CRL ret = null;
-        if (ldapUrl.toLowerCase().indexOf("?certificaterevocationlist") < 0) {
-            ldapUrl = ldapUrl + "?certificaterevocationlist";
-        }
-        Map<String, String> env = new HashMap<String, String>();
+        LdapURL ldapUrl = LdapURL.parse(url);
+        Hashtable<String, String> env = new Hashtable<String, String>();
         env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        env.put(Context.PROVIDER_URL, ldapUrl);
+        env.put(Context.PROVIDER_URL, ldapUrl.server);
         env.put("com.sun.jndi.ldap.read.timeout", timeout);
-        env.put("com.sun.jndi.ldap.connect.pool.timeout", timeout);
         env.put("com.sun.jndi.ldap.connect.timeout", timeout);
-        DirContext ctx = null;
-        NamingEnumeration<? extends Attribute> ae = null;
+        env.put("com.sun.jndi.ldap.connect.pool", "true");
+        env.put("java.naming.ldap.attributes.binary", CRL_LDAP_ATTRIBUTE);
         try {
-            ctx = new InitialDirContext(new Hashtable<>(env));
-            Attributes attribs = ctx.getAttributes("");
-            ae = attribs.getAll();
-            while (ae.hasMore()) {
-                Attribute a = ae.next();
-                if (a.getID() != null
-                        && a.getID().toLowerCase().indexOf("certificaterevocationlist") != -1) {
-                    ret = parse((byte[]) a.get(0));
-                    break;
-                }
-            }
-
+            return searchCrlByLDAP(env, ldapUrl);
         } catch (CommunicationException ex) {
-            throw new CryptoSignerException("Errore di comunicazione con la CA", ex);
+            // La connessione del pool può essere stata chiusa dal server: nuovo tentativo
+            LOG.debug("Errore di comunicazione con {}, nuovo tentativo: {}", ldapUrl.server,
+                    ex.getMessage());
+            try {
+                return searchCrlByLDAP(env, ldapUrl);
+            } catch (NamingException e) {
+                throw new CryptoSignerException("Errore di comunicazione con la CA", e);
+            }
         } catch (NamingException ex) {
             throw new CryptoSignerException("Errore di comunicazione con la CA", ex);
-        } finally {
-            if (ae != null) {
-                try {
-                    ae.close();
-                } catch (Exception e) {
-                    LOG.error("Unable to close LDAP Attributes: {}", e.getMessage());
+        }
+    }
+
+    private X509CRL searchCrlByLDAP(Hashtable<String, String> env, LdapURL ldapUrl)
+            throws NamingException, CertificateException, NoSuchProviderException, IOException {
+        DirContext ctx = new InitialDirContext(env);
+        try {
+            Attributes attribs = ctx.getAttributes(ldapUrl.dn, ldapUrl.attributes);
+            NamingEnumeration<? extends Attribute> ae = attribs.getAll();
+            try {
+                while (ae.hasMore()) {
+                    Attribute a = ae.next();
+                    if (a.getID() != null && a.getID().toLowerCase()
+                            .startsWith(CRL_LDAP_ATTRIBUTE.toLowerCase()) && a.size() > 0) {
+                        Object value = a.get(0);
+                        if (!(value instanceof byte[])) {
+                            return null;
+                        }
+                        byte[] crlEnc = (byte[]) value;
+                        X509CRL crl = null;
+                        try {
+                            crl = parse(new ByteArrayInputStream(crlEnc));
+                        } catch (IOException e) {
+                            LOG.debug("CRL LDAP non in formato DER valido, provo il parsing "
+                                    + "completo: {}", e.getMessage());
+                        }
+                        return crl != null ? crl : parse(crlEnc);
+                    }
                 }
+            } finally {
+                ae.close();
+            }
+            return null;
+        } finally {
+            // restituisce la connessione al pool
+            ctx.close();
+        }
+    }
+
+    /**
+     * Componenti di un URL LDAP (RFC 4516) utilizzati per il recupero della CRL
+     */
+    private static final class LdapURL {
+
+        private final String server;
+        private final String dn;
+        private final String[] attributes;
+
+        private LdapURL(String server, String dn, String[] attributes) {
+            this.server = server;
+            this.dn = dn;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Separa server, DN e attributi richiesti dall'URL
+         *
+         * @param url URL LDAP (ldap://host:porta/dn?attributi)
+         *
+         * @return i componenti dell'URL
+         */
+        static LdapURL parse(String url) throws CryptoSignerException {
+            int schemeEnd = url.indexOf("://");
+            if (schemeEnd < 0) {
+                throw new CryptoSignerException("URL LDAP non valido: " + url);
             }
-            if (ctx != null) {
-                try {
-                    ctx.close();
-                } catch (Exception e) {
-                    LOG.error("Unable to close LDAP Context {}", e.getMessage());
+            int pathStart = url.indexOf('/', schemeEnd + 3);
+            String server = pathStart < 0 ? url : url.substring(0, pathStart);
+            String path = pathStart < 0 ? "" : url.substring(pathStart + 1);
+            String[] parts = path.split("\\?", -1);
+            List<String> attributes = new ArrayList<String>();
+            if (parts.length > 1) {
+                for (String attribute : decode(parts[1]).split(",")) {
+                    if (!attribute.trim().isEmpty()) {
+                        attributes.add(attribute.trim());
+                    }
                 }
             }
+            if (attributes.isEmpty()) {
+                attributes.add(CRL_LDAP_ATTRIBUTE + ";binary");
+            }
+            return new LdapURL(server, decode(parts[0]),
+                    attributes.toArray(new String[attributes.size()]));
         }
 
-        return ret;
+        private static String decode(String value) throws CryptoSignerException {
+            try {
+                // il carattere '+' è ammesso nei DN e non va interpretato come spazio
+                return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+            } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+                throw new CryptoSignerException("URL LDAP non valido: " + value, e);
+            }
+        }
     }
 
     X509CRL ricercaCrlByFile(String url)
             throws URISyntaxException, IOException, CertificateException, NoSuchProviderException {
         Path crlPath = Paths.get(new URI(url));
-        byte[] crlBytes = Files.readAllBytes(crlPath);
-        return parse(crlBytes);
-
+        try (InputStream crlStream = Files.newInputStream(crlPath)) {
+            return parse(crlStream);
+        }
     }
 
     // ******************************************************************************************************************************
@@ -286,6 +389,224 @@ public class CRLUtil {
         return crl;
     }
 
+    /**
+     * Legge la CRL dallo stream in ingresso. Il formato viene riconosciuto dal primo byte: una CRL
+     * DER inizia con il tag SEQUENCE, altrimenti il contenuto è considerato Base64 (con o senza
+     * intestazioni PEM) e viene decodificato durante la lettura. La codifica DER resta in memoria
+     * solo fino a 1 MB: oltre viene salvata su un file temporaneo da cui legge il
+     * CertificateFactory, così che in memoria resti soltanto la CRL decodificata.
+     * Lo stream non viene chiuso.
+     *
+     * @param crlStream stream della crl così come fornito dall'url
+     *
+     * @return crl o null
+     * @throws IOException             in caso di errore di lettura o di codifica non valida
+     * @throws CertificateException    in caso di errore sul certificato
+     * @throws NoSuchProviderException in caso che il provider BC non sia stato registrato
+     */
+    public static X509CRL parse(InputStream crlStream)
+            throws CertificateException, IOException, NoSuchProviderException {
+        InputStream derStream = openDer(crlStream);
+        if (derStream == null) {
+            return null;
+        }
+        DocumentContent crlData = DocumentContent.of(derStream, ".crl", CRL_MEMORY_THRESHOLD);
+        try {
+            return parseDer(crlData);
+        } finally {
+            crlData.dispose();
+        }
+    }
+
+    /**
+     * Costruisce l'indice dei certificati revocati leggendo la CRL in streaming, senza
+     * decodificarla in un {@link X509CRL} e verificandone la firma durante la lettura (vedi
+     * {@link CRLRevocationIndex#read(InputStream, PublicKey)}). Il formato (DER oppure Base64, con
+     * o senza intestazioni PEM) viene riconosciuto come in {@link #parse(InputStream)}. Lo stream
+     * non viene chiuso.
+     *
+     * @param crlStream stream della crl così come fornito dall'url
+     * @param issuerKey chiave pubblica dell'emittente della CRL
+     *
+     * @return l'indice oppure null se lo stream è vuoto
+     * @throws IOException  in caso di errore di lettura o di codifica non valida
+     * @throws CRLException se la firma della CRL non è valida
+     */
+    public static CRLRevocationIndex readRevocationIndex(InputStream crlStream,
+            PublicKey issuerKey) throws IOException, CRLException {
+        InputStream derStream = openDer(crlStream);
+        return derStream != null ? CRLRevocationIndex.read(derStream, issuerKey) : null;
+    }
+
+    /*
+     * Stream della codifica DER della CRL, decodificando il Base64 se il contenuto non inizia con
+     * il tag SEQUENCE; null se lo stream è vuoto
+     */
+    private static InputStream openDer(InputStream crlStream) throws IOException {
+        if (crlStream == null) {
+            return null;
+        }
+        PushbackInputStream in = new PushbackInputStream(new BufferedInputStream(crlStream));
+        int first = in.read();
+        while (first != -1 && Character.isWhitespace(first)) {
+            first = in.read();
+        }
+        if (first == -1) {
+            return null;
+        }
+        in.unread(first);
+        if (first != DER_SEQUENCE) {
+            LOG.debug("CRL non in formato DER, decodifica Base64");
+            return java.util.Base64.getMimeDecoder().wrap(new PemBodyInputStream(in));
+        }
+        return in;
+    }
+
+    private static X509CRL parseDer(DocumentContent crlData)
+            throws CertificateException, IOException, NoSuchProviderException {
+        X509CRL crl = null;
+        try (InputStream is = crlData.openStream()) {
+            crl = (X509CRL) CertificateFactory.getInstance(X509).generateCRL(is);
+        } catch (CRLException e) {
+            LOG.debug("CRL non parsabile con provider Java, provo con BouncyCastle Errore: {}",
+                    e.getMessage());
+            try (InputStream is = crlData.openStream()) {
+                crl = (X509CRL) CertificateFactory.getInstance(X509, BC_PROVIDER)
+                        .generateCRL(is);
+            } catch (CRLException ex) {
+                LOG.debug("CRL non parsabile con provider BouncyCastle Errore: {}",
+                        ex.getMessage());
+            }
+        }
+        return crl;
+    }
+
+    /**
+     * Stream che elimina le righe di intestazione PEM (<code>-----BEGIN ...</code> e
+     * <code>-----END ...</code>) lasciando il solo contenuto Base64
+     */
+    private static final class PemBodyInputStream extends FilterInputStream {
+
+        private boolean lineStart = true;
+
+        PemBodyInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            while (lineStart && b == '-') {
+                // riga di intestazione: la salto fino al fine riga
+                while (b != -1 && b != '\n' && b != '\r') {
+                    b = in.read();
+                }
+                while (b == '\n' || b == '\r') {
+                    b = in.read();
+                }
+            }
+            lineStart = b == '\n' || b == '\r';
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = 0;
+            int c;
+            while (count < len && (c = read()) != -1) {
+                b[off + count++] = (byte) c;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Indica se la CRL è una delta CRL (estensione <code>deltaCRLIndicator</code>)
+     *
+     * @param crl CRL da verificare
+     *
+     * @return true se la CRL è una delta CRL
+     */
+    public static boolean isDeltaCRL(X509CRL crl) {
+        return crl.getExtensionValue(DELTA_CRL_INDICATOR_OID) != null;
+    }
+
+    /**
+     * Restituisce il numero della CRL (estensione <code>cRLNumber</code>)
+     *
+     * @param crl CRL
+     *
+     * @return il numero della CRL oppure null se non presente o non leggibile
+     */
+    public static BigInteger getCRLNumber(X509CRL crl) {
+        return getIntegerExtension(crl, CRL_NUMBER_OID);
+    }
+
+    /**
+     * Restituisce il numero della CRL completa a cui si riferisce la delta CRL
+     *
+     * @param deltaCrl delta CRL
+     *
+     * @return il numero della CRL completa oppure null se la CRL non è una delta CRL
+     */
+    public static BigInteger getBaseCRLNumber(X509CRL deltaCrl) {
+        return getIntegerExtension(deltaCrl, DELTA_CRL_INDICATOR_OID);
+    }
+
+    /**
+     * Verifica che la delta CRL possa essere applicata alla CRL completa: stesso emittente e
+     * stessa chiave, CRL completa di riferimento non successiva a quella indicata e delta più
+     * recente della CRL completa (RFC 5280, 5.2.4)
+     *
+     * @param deltaCrl delta CRL
+     * @param crl      CRL completa
+     *
+     * @return true se la delta CRL è applicabile
+     */
+    public static boolean isDeltaOf(X509CRL deltaCrl, X509CRL crl) {
+        if (deltaCrl == null || crl == null || !isDeltaCRL(deltaCrl) || isDeltaCRL(crl)
+                || !deltaCrl.getIssuerX500Principal().equals(crl.getIssuerX500Principal())) {
+            return false;
+        }
+        BigInteger crlNumber = getCRLNumber(crl);
+        BigInteger deltaCrlNumber = getCRLNumber(deltaCrl);
+        BigInteger baseCrlNumber = getBaseCRLNumber(deltaCrl);
+        if (crlNumber == null || deltaCrlNumber == null || baseCrlNumber == null
+                || baseCrlNumber.compareTo(crlNumber) > 0
+                || deltaCrlNumber.compareTo(crlNumber) <= 0) {
+            return false;
+        }
+        try {
+            String keyId = SignerUtil.getAuthorityKeyId(crl);
+            String deltaKeyId = SignerUtil.getAuthorityKeyId(deltaCrl);
+            return keyId == null || deltaKeyId == null || keyId.equals(deltaKeyId);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static BigInteger getIntegerExtension(X509CRL crl, String oid) {
+        byte[] extension = crl.getExtensionValue(oid);
+        if (extension == null) {
+            return null;
+        }
+        try {
+            byte[] octets = ASN1OctetString.getInstance(extension).getOctets();
+            return ASN1Integer.getInstance(ASN1Primitive.fromByteArray(octets)).getValue();
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Estensione {} della CRL non valida: {}", oid, e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * In alcuni casi il base64 decoder di BC non è in grado di interpretare il base64 del
      * certificato perché presentato su più righe. In questo caso elimino i caratteri di fine linea
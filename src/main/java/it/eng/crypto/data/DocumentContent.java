@@ -0,0 +1,255 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Contenuto di un documento da verificare, mantenuto in memoria oppure su file. Il contenuto letto
+ * da uno stream resta in memoria fino alla dimensione indicata e viene salvato su un file
+ * temporaneo solo oltre tale soglia.
+ * <p>
+ * Le componenti che richiedono un file (ad esempio i signer) lo ottengono tramite
+ * {@link #getFile()}: il contenuto in memoria viene scritto su file temporaneo solo alla prima
+ * richiesta. I file temporanei creati dall'istanza vengono eliminati da {@link #dispose()}, mentre
+ * i file forniti dal chiamante non vengono mai rimossi.
+ * </p>
+ *
+ */
+public final class DocumentContent {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentContent.class);
+
+    static final String TEMP_FILE_PREFIX = "document-content-";
+
+    private final byte[] bytes;
+    private final String suffix;
+    private File file;
+    /*
+     * True se il file è stato creato dall'istanza e va eliminato da dispose()
+     */
+    private boolean temporary;
+
+    private DocumentContent(byte[] bytes, File file, String suffix, boolean temporary) {
+        this.bytes = bytes;
+        this.file = file;
+        this.suffix = suffix;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Contenuto memorizzato su file
+     *
+     * @param file file contenente il documento
+     *
+     * @return il contenuto
+     */
+    public static DocumentContent of(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File non valorizzato");
+        }
+        return new DocumentContent(null, file, null, false);
+    }
+
+    /**
+     * Contenuto in memoria. L'array non viene copiato e non deve essere modificato dal chiamante.
+     *
+     * @param content contenuto del documento
+     * @param suffix  estensione dell'eventuale file temporaneo (può essere null)
+     *
+     * @return il contenuto
+     */
+    public static DocumentContent of(byte[] content, String suffix) {
+        if (content == null) {
+            throw new IllegalArgumentException("Contenuto non valorizzato");
+        }
+        return new DocumentContent(content, null, suffix, false);
+    }
+
+    /**
+     * Contenuto in memoria letto dai byte rimanenti del buffer, senza modificarne la posizione
+     *
+     * @param buffer buffer contenente il documento
+     * @param suffix estensione dell'eventuale file temporaneo (può essere null)
+     *
+     * @return il contenuto
+     */
+    public static DocumentContent of(ByteBuffer buffer, String suffix) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Contenuto non valorizzato");
+        }
+        ByteBuffer source = buffer.duplicate();
+        if (source.hasArray() && source.arrayOffset() == 0 && source.position() == 0
+                && source.remaining() == source.array().length) {
+            return of(source.array(), suffix);
+        }
+        byte[] content = new byte[source.remaining()];
+        source.get(content);
+        return of(content, suffix);
+    }
+
+    /**
+     * Legge lo stream fino alla fine: il contenuto resta in memoria se non supera la soglia
+     * indicata, altrimenti viene salvato su file temporaneo. Lo stream non viene chiuso.
+     *
+     * @param stream        stream contenente il documento
+     * @param suffix        estensione dell'eventuale file temporaneo (può essere null)
+     * @param sizeThreshold dimensione in byte oltre la quale il contenuto viene salvato su file
+     *
+     * @return il contenuto
+     *
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    public static DocumentContent of(InputStream stream, String suffix, long sizeThreshold)
+            throws IOException {
+        if (stream == null) {
+            throw new IllegalArgumentException("Contenuto non valorizzato");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = stream.read(buf)) != -1) {
+            buffer.write(buf, 0, len);
+            if (buffer.size() > sizeThreshold) {
+                return new DocumentContent(null, spill(buffer, stream, suffix), suffix, true);
+            }
+        }
+        return new DocumentContent(buffer.toByteArray(), null, suffix, false);
+    }
+
+    private static File spill(ByteArrayOutputStream buffer, InputStream stream, String suffix)
+            throws IOException {
+        File tmpFile = File.createTempFile(TEMP_FILE_PREFIX, suffix);
+        log.debug("Contenuto oltre la soglia di memoria, salvataggio su file: " + tmpFile);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            buffer.writeTo(out);
+            IOUtils.copyLarge(stream, out);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tmpFile);
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        return tmpFile;
+    }
+
+    /**
+     * @return true se il contenuto è mantenuto in memoria
+     */
+    public boolean isInMemory() {
+        return bytes != null;
+    }
+
+    /**
+     * Restituisce il contenuto in memoria (l'array non va modificato)
+     *
+     * @return il contenuto oppure null se il documento è su file
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return l'estensione dell'eventuale file temporaneo (può essere null)
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * @return la dimensione in byte del documento
+     */
+    public synchronized long getLength() {
+        return bytes != null ? bytes.length : file.length();
+    }
+
+    /**
+     * Apre uno stream sul contenuto, che va chiuso dal chiamante
+     *
+     * @return lo stream
+     *
+     * @throws IOException in caso di errore di apertura del file
+     */
+    public synchronized InputStream openStream() throws IOException {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return FileUtils.openInputStream(file);
+    }
+
+    /**
+     * Restituisce il file contenente il documento. Il contenuto in memoria viene salvato su file
+     * temporaneo alla prima invocazione.
+     *
+     * @return il file
+     *
+     * @throws IOException in caso di errore di scrittura del file temporaneo
+     */
+    public synchronized File getFile() throws IOException {
+        if (file == null) {
+            File tmpFile = File.createTempFile(TEMP_FILE_PREFIX, suffix);
+            try {
+                FileUtils.writeByteArrayToFile(tmpFile, bytes);
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(tmpFile);
+                throw e;
+            }
+            file = tmpFile;
+            temporary = true;
+        }
+        return file;
+    }
+
+    /**
+     * Elimina l'eventuale file temporaneo creato per il contenuto. Un contenuto mantenuto in
+     * memoria resta utilizzabile e viene nuovamente salvato su file alla successiva richiesta;
+     * un contenuto salvato su file perché oltre la soglia non è più disponibile.
+     */
+    public synchronized void dispose() {
+        if (temporary && file != null) {
+            FileUtils.deleteQuietly(file);
+            if (bytes != null) {
+                file = null;
+                temporary = false;
+            }
+        }
+    }
+
+    /**
+     * Descrizione del contenuto per i messaggi: il percorso del file oppure la dimensione del
+     * contenuto in memoria
+     */
+    @Override
+    public synchronized String toString() {
+        if (file != null) {
+            return file.toString();
+        }
+        return "contenuto in memoria (" + bytes.length + " byte)";
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.exception.CryptoSignerException;
+
+/**
+ * Contesto delle buste già analizzate nel corso di una singola verifica. Ogni file viene
+ * riconosciuto e decodificato una sola volta: le richieste successive sullo stesso file (fase di
+ * estrazione della marca temporale, controllo delle firme, validazione della catena di estensioni)
+ * riutilizzano il signer ottenuto la prima volta, oppure l'eccezione se il file non è firmato.
+ * <p>
+ * Il file è identificato da percorso assoluto, dimensione e data di ultima modifica, il contenuto
+ * in memoria dall'istanza di {@link DocumentContent}. Il contesto non è thread-safe: va creato per ogni verifica e scartato al termine.
+ * </p>
+ *
+ */
+public class EnvelopeContext {
+
+    private static final Logger log = LoggerFactory.getLogger(EnvelopeContext.class);
+
+    private final SignerUtil signerUtil;
+    private final Map<Object, AbstractSigner> signers = new HashMap<Object, AbstractSigner>();
+    private final Map<Object, CryptoSignerException> failures = new HashMap<Object, CryptoSignerException>();
+
+    public EnvelopeContext(SignerUtil signerUtil) {
+        this.signerUtil = signerUtil;
+    }
+
+    /**
+     * Restituisce il signer associato al file, analizzandolo solo alla prima richiesta
+     *
+     * @param file busta da analizzare
+     *
+     * @return il signer che gestisce il formato del file
+     *
+     * @throws CryptoSignerException se nessun signer riconosce il file (anche da cache)
+     */
+    public AbstractSigner getSignerManager(File file) throws CryptoSignerException {
+        if (file == null) {
+            return signerUtil.getSignerManager(file);
+        }
+        return getSignerManager(new FileKey(file), DocumentContent.of(file));
+    }
+
+    /**
+     * Restituisce il signer associato al contenuto, analizzandolo solo alla prima richiesta. Il
+     * contenuto in memoria non viene salvato su file.
+     *
+     * @param content busta da analizzare
+     *
+     * @return il signer che gestisce il formato del contenuto
+     *
+     * @throws CryptoSignerException se nessun signer riconosce il contenuto (anche da cache)
+     */
+    public AbstractSigner getSignerManager(DocumentContent content)
+            throws CryptoSignerException {
+        if (content == null || !content.isInMemory()) {
+            try {
+                return getSignerManager(content == null ? null : content.getFile());
+            } catch (IOException e) {
+                throw new CryptoSignerException("Errore nella lettura del contenuto", e);
+            }
+        }
+        return getSignerManager(content, content);
+    }
+
+    private AbstractSigner getSignerManager(Object key, DocumentContent content)
+            throws CryptoSignerException {
+        AbstractSigner signer = signers.get(key);
+        if (signer != null) {
+            log.debug("Busta già analizzata, riutilizzo il signer");
+            return signer;
+        }
+        CryptoSignerException failure = failures.get(key);
+        if (failure != null) {
+            throw new CryptoSignerException(failure.getMessage(), failure.getComplianceChecks());
+        }
+        try {
+            signer = signerUtil.getSignerManager(content);
+        } catch (CryptoSignerException e) {
+            failures.put(key, e);
+            throw e;
+        }
+        signers.put(key, signer);
+        return signer;
+    }
+
+    /**
+     * Rilascia i riferimenti alle buste analizzate
+     */
+    public void clear() {
+        signers.clear();
+        failures.clear();
+    }
+
+    /**
+     * Identità di un file: percorso assoluto, dimensione e data di ultima modifica
+     */
+    private static final class FileKey {
+
+        private final String path;
+        private final long length;
+        private final long lastModified;
+
+        FileKey(File file) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FileKey)) {
+                return false;
+            }
+            FileKey other = (FileKey) obj;
+            return length == other.length && lastModified == other.lastModified
+                    && path.equals(other.path);
+        }
+    }
+}
@@ -75,7 +75,7 @@ public class M7MSigner extends AbstractSigner {
             TimeStampToken tsToken = null;
             InputStream stream = null;
             try {
-                stream = FileUtils.openInputStream(getFile());
+                stream = openSource();
                 MessageBuilder build = new DefaultMessageBuilder();
                 Message mimeMsg = build.parseMessage(stream);
                 if (mimeMsg.isMultipart()) {
@@ -127,7 +127,7 @@ public class M7MSigner extends AbstractSigner {
     private BodyPart getP7MPart() {
         InputStream stream = null;
         try {
-            stream = FileUtils.openInputStream(getFile());
+            stream = openSource();
             MessageBuilder build = new DefaultMessageBuilder();
             Message mimeMsg = build.parseMessage(stream);
             if (mimeMsg.isMultipart()) {
@@ -295,7 +295,7 @@ public class M7MSigner extends AbstractSigner {
 
     public ValidationInfos validateTimeStampTokensEmbedded() {
         ValidationInfos validationInfos = new ValidationInfos();
-        if (this.file == null) {
+        if (!hasSource()) {
             validationInfos.addError("File non specificato");
             validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
             return validationInfos;
@@ -345,7 +345,7 @@ public class M7MSigner extends AbstractSigner {
     public ValidationInfos validateTimeStampTokensEmbedded(TimeStampToken timeStampToken) {
         ValidationInfos validationInfos = new ValidationInfos();
 
-        if (this.file == null) {
+        if (!hasSource()) {
             validationInfos.addError("File non specificato");
             validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
             return validationInfos;
@@ -421,13 +421,11 @@ public class M7MSigner extends AbstractSigner {
     }
 
     public InputStream getUnsignedContent() {
-        File detachedFile = getDetachedFile();
-
         // Si tratta della firma di un file detached?
         // - in teoria possono esistere m7m detached..
-        if (detachedFile != null) {
+        if (hasDetachedContent()) {
             try {
-                return FileUtils.openInputStream(detachedFile);
+                return getDetachedContent().openStream();
             } catch (IOException e1) {
                 return null;
             }
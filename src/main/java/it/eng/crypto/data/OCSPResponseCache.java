@@ -0,0 +1,118 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Risposte OCSP validate, indicizzate per hash della chiave dell'emittente e numero di serie del
+ * certificato. Ogni risposta viene riutilizzata fino alla data di prossimo aggiornamento indicata
+ * dal responder; le risposte senza tale data non vengono memorizzate.
+ * <p>
+ * Il numero di risposte mantenute è limitato: al raggiungimento del limite vengono eliminate le
+ * risposte scadute e, se non basta, quelle utilizzate meno di recente.
+ * </p>
+ *
+ */
+public class OCSPResponseCache {
+
+    /**
+     * Numero massimo di risposte mantenute per default
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, OCSPResult> results;
+
+    public OCSPResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries numero massimo di risposte mantenute
+     */
+    public OCSPResponseCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.results = new LinkedHashMap<String, OCSPResult>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OCSPResult> eldest) {
+                return size() > OCSPResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Restituisce la risposta memorizzata, se non ancora scaduta
+     *
+     * @param key chiave (hash della chiave dell'emittente e numero di serie)
+     *
+     * @return la risposta oppure null
+     */
+    synchronized OCSPResult get(String key) {
+        OCSPResult result = results.get(key);
+        if (result != null && result.getNextUpdate().getTime() <= System.currentTimeMillis()) {
+            results.remove(key);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Memorizza la risposta, se indica la data di prossimo aggiornamento
+     *
+     * @param key    chiave (hash della chiave dell'emittente e numero di serie)
+     * @param result risposta validata
+     */
+    synchronized void put(String key, OCSPResult result) {
+        if (result.getNextUpdate() != null) {
+            if (results.size() >= maxEntries && !results.containsKey(key)) {
+                // Prima di eliminare risposte valide elimino quelle scadute
+                purge();
+            }
+            results.put(key, result);
+        }
+    }
+
+    /**
+     * Elimina le risposte scadute
+     */
+    public synchronized void purge() {
+        long now = System.currentTimeMillis();
+        Iterator<OCSPResult> values = results.values().iterator();
+        while (values.hasNext()) {
+            if (values.next().getNextUpdate().getTime() <= now) {
+                values.remove();
+            }
+        }
+    }
+
+    /**
+     * @return il numero di risposte mantenute
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Elimina tutte le risposte
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+}
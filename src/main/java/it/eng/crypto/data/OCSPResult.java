@@ -0,0 +1,88 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.security.cert.CRLReason;
+import java.util.Date;
+
+/**
+ * Stato di revoca di un certificato restituito da un responder OCSP e già validato
+ *
+ */
+public final class OCSPResult {
+
+    /**
+     * Stato del certificato
+     */
+    public enum Status {
+        GOOD, REVOKED, UNKNOWN
+    }
+
+    private final Status status;
+    private final Date revocationDate;
+    private final CRLReason revocationReason;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final String responderURL;
+
+    OCSPResult(Status status, Date revocationDate, CRLReason revocationReason, Date thisUpdate,
+            Date nextUpdate, String responderURL) {
+        this.status = status;
+        this.revocationDate = revocationDate;
+        this.revocationReason = revocationReason;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.responderURL = responderURL;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true se il responder ha indicato se il certificato è valido o revocato
+     */
+    public boolean isConclusive() {
+        return status != Status.UNKNOWN;
+    }
+
+    /**
+     * @return la data di revoca oppure null se il certificato non è revocato
+     */
+    public Date getRevocationDate() {
+        return revocationDate;
+    }
+
+    /**
+     * @return il motivo della revoca oppure null se non indicato
+     */
+    public CRLReason getRevocationReason() {
+        return revocationReason;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /**
+     * @return la data entro cui la risposta può essere riutilizzata, null se non indicata
+     */
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    public String getResponderURL() {
+        return responderURL;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.security.PublicKey;
+import java.security.cert.CRLReason;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.CryptoConfiguration;
+import it.eng.crypto.exception.CryptoSignerException;
+
+/**
+ * Client OCSP (RFC 6960): individua i responder dall'estensione Authority Information Access del
+ * certificato, invia la richiesta tramite il client HTTP condiviso della configurazione e valida
+ * la risposta (firma del responder, corrispondenza del certificato e periodo di validità).
+ * <p>
+ * Sono accettate le risposte firmate dalla CA emittente o da un responder delegato, il cui
+ * certificato sia emesso dalla stessa CA e abbia l'uso esteso <code>id-kp-OCSPSigning</code>.
+ * </p>
+ *
+ */
+public class OCSPUtil {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OCSPUtil.class);
+
+    private static final String OCSP_REQUEST_TYPE = "application/ocsp-request";
+    private static final String OCSP_RESPONSE_TYPE = "application/ocsp-response";
+    private static final String OCSP_SIGNING = "1.3.6.1.5.5.7.3.9";
+    /**
+     * Tolleranza in millisecondi sulle date della risposta per le differenze tra gli orologi
+     */
+    private static final long CLOCK_SKEW = 5 * 60 * 1000L;
+    private static final CRLReason[] REASONS = CRLReason.values();
+
+    /**
+     * Recupera gli indirizzi dei responder OCSP dall'estensione Authority Information Access
+     *
+     * @param certificate certificato da verificare
+     *
+     * @return gli indirizzi HTTP dei responder (lista vuota se non presenti)
+     */
+    public static List<String> getOCSPURLs(X509Certificate certificate) {
+        List<String> urls = new ArrayList<String>();
+        byte[] extension = certificate.getExtensionValue(Extension.authorityInfoAccess.getId());
+        if (extension == null) {
+            return urls;
+        }
+        try {
+            AuthorityInformationAccess aia = AuthorityInformationAccess.getInstance(
+                    ASN1Primitive.fromByteArray(ASN1OctetString.getInstance(extension).getOctets()));
+            for (AccessDescription description : aia.getAccessDescriptions()) {
+                GeneralName location = description.getAccessLocation();
+                if (AccessDescription.id_ad_ocsp.equals(description.getAccessMethod())
+                        && location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                    String url = ((ASN1String) location.getName()).getString();
+                    if (url.toLowerCase().startsWith("http")) {
+                        urls.add(url);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Estensione Authority Information Access non valida: {}", e.getMessage());
+        }
+        return urls;
+    }
+
+    /**
+     * Verifica lo stato del certificato interrogando i responder OCSP indicati nel certificato,
+     * riutilizzando la risposta memorizzata se non ancora scaduta
+     *
+     * @param certificate           certificato da verificare
+     * @param issuer                certificato della CA emittente
+     * @param configuration         configurazione (client HTTP e cache delle risposte)
+     * @param httpTimeoutConnection timeout di connessione HTTP in secondi
+     * @param httpSocketTimeout     timeout di socket HTTP in secondi
+     *
+     * @return lo stato del certificato oppure null se nessun responder ha fornito una risposta
+     *         valida
+     *
+     * @throws CryptoSignerException in caso di errore nella preparazione della richiesta
+     */
+    OCSPResult check(X509Certificate certificate, X509Certificate issuer,
+            CryptoConfiguration configuration, int httpTimeoutConnection, int httpSocketTimeout)
+            throws CryptoSignerException {
+        List<String> urls = getOCSPURLs(certificate);
+        if (urls.isEmpty()) {
+            LOG.debug("Nessun responder OCSP indicato nel certificato");
+            return null;
+        }
+        CertificateID certificateId;
+        X509CertificateHolder issuerHolder;
+        try {
+            issuerHolder = new JcaX509CertificateHolder(issuer);
+            certificateId = new CertificateID(
+                    new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                    issuerHolder, certificate.getSerialNumber());
+        } catch (CertificateException | OperatorCreationException | OCSPException e) {
+            throw new CryptoSignerException("Errore nella preparazione della richiesta OCSP", e);
+        }
+        String key = Hex.toHexString(certificateId.getIssuerKeyHash()) + "|"
+                + certificate.getSerialNumber().toString(16);
+        OCSPResponseCache cache = configuration.getOcspResponseCache();
+        OCSPResult result = cache.get(key);
+        if (result != null) {
+            LOG.debug("Risposta OCSP già disponibile (prossimo aggiornamento: {})",
+                    result.getNextUpdate());
+            return result;
+        }
+        for (String url : urls) {
+            try {
+                result = request(url, certificateId, issuer, configuration,
+                        httpTimeoutConnection, httpSocketTimeout);
+                cache.put(key, result);
+                return result;
+            } catch (CryptoSignerException e) {
+                LOG.warn("Risposta OCSP non valida da {}: {}", url, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private OCSPResult request(String url, CertificateID certificateId, X509Certificate issuer,
+            CryptoConfiguration configuration, int httpTimeoutConnection, int httpSocketTimeout)
+            throws CryptoSignerException {
+        final int connectionTimeout = httpTimeoutConnection * 1000; // conversione in millisecondi
+        final int socketTimeout = httpSocketTimeout * 1000; // conversione in millisecondi
+        byte[] encodedResponse;
+        try {
+            OCSPReq ocspRequest = new OCSPReqBuilder().addRequest(certificateId).build();
+            HttpPost request = new HttpPost(url);
+            request.setConfig(RequestConfig.custom().setConnectTimeout(connectionTimeout)
+                    .setConnectionRequestTimeout(connectionTimeout).setSocketTimeout(socketTimeout)
+                    .build());
+            request.setHeader(HttpHeaders.ACCEPT, OCSP_RESPONSE_TYPE);
+            request.setEntity(new ByteArrayEntity(ocspRequest.getEncoded(),
+                    ContentType.create(OCSP_REQUEST_TYPE)));
+            try (CloseableHttpResponse httpResponse = configuration.getHttpClient()
+                    .execute(request)) {
+                HttpEntity entity = httpResponse.getEntity();
+                int statusCode = httpResponse.getStatusLine().getStatusCode();
+                if (statusCode != HttpURLConnection.HTTP_OK || entity == null) {
+                    EntityUtils.consume(entity);
+                    throw new CryptoSignerException("The server returned code: " + statusCode);
+                }
+                encodedResponse = EntityUtils.toByteArray(entity);
+            }
+        } catch (IOException | OCSPException e) {
+            throw new CryptoSignerException("Errore di comunicazione con il responder OCSP", e);
+        }
+        return validate(encodedResponse, certificateId, issuer, url);
+    }
+
+    /**
+     * Valida la risposta OCSP e ne estrae lo stato del certificato
+     */
+    OCSPResult validate(byte[] encodedResponse, CertificateID certificateId,
+            X509Certificate issuer, String url) throws CryptoSignerException {
+        try {
+            OCSPResp response = new OCSPResp(encodedResponse);
+            if (response.getStatus() != OCSPResp.SUCCESSFUL) {
+                throw new CryptoSignerException(
+                        "Il responder ha restituito lo stato: " + response.getStatus());
+            }
+            BasicOCSPResp basicResponse = (BasicOCSPResp) response.getResponseObject();
+            if (basicResponse == null) {
+                throw new CryptoSignerException("Risposta OCSP priva di contenuto");
+            }
+            if (!isSignedByIssuer(basicResponse, issuer)) {
+                throw new CryptoSignerException("Firma della risposta OCSP non valida");
+            }
+            long now = System.currentTimeMillis();
+            for (SingleResp singleResponse : basicResponse.getResponses()) {
+                if (!certificateId.equals(singleResponse.getCertID())) {
+                    continue;
+                }
+                Date thisUpdate = singleResponse.getThisUpdate();
+                Date nextUpdate = singleResponse.getNextUpdate();
+                if (thisUpdate.getTime() > now + CLOCK_SKEW
+                        || (nextUpdate != null && nextUpdate.getTime() < now - CLOCK_SKEW)) {
+                    throw new CryptoSignerException("Risposta OCSP fuori dal periodo di validità");
+                }
+                CertificateStatus status = singleResponse.getCertStatus();
+                if (status == CertificateStatus.GOOD) {
+                    return new OCSPResult(OCSPResult.Status.GOOD, null, null, thisUpdate,
+                            nextUpdate, url);
+                }
+                if (status instanceof RevokedStatus) {
+                    RevokedStatus revoked = (RevokedStatus) status;
+                    CRLReason reason = null;
+                    if (revoked.hasRevocationReason()
+                            && revoked.getRevocationReason() < REASONS.length) {
+                        reason = REASONS[revoked.getRevocationReason()];
+                    }
+                    return new OCSPResult(OCSPResult.Status.REVOKED,
+                            revoked.getRevocationTime(), reason, thisUpdate, nextUpdate, url);
+                }
+                return new OCSPResult(OCSPResult.Status.UNKNOWN, null, null, thisUpdate,
+                        nextUpdate, url);
+            }
+            throw new CryptoSignerException("La risposta OCSP non riguarda il certificato");
+        } catch (IOException | OCSPException | ClassCastException e) {
+            throw new CryptoSignerException("Risposta OCSP non leggibile", e);
+        }
+    }
+
+    /*
+     * Verifica che la risposta sia firmata dalla CA emittente o da un responder delegato dalla CA
+     */
+    private static boolean isSignedByIssuer(BasicOCSPResp response, X509Certificate issuer) {
+        if (isSignedBy(response, issuer.getPublicKey())) {
+            return true;
+        }
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+        for (X509CertificateHolder holder : response.getCerts()) {
+            try {
+                X509Certificate responder = converter.getCertificate(holder);
+                List<String> extendedKeyUsage = responder.getExtendedKeyUsage();
+                if (responder.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())
+                        && extendedKeyUsage != null && extendedKeyUsage.contains(OCSP_SIGNING)) {
+                    responder.verify(issuer.getPublicKey());
+                    responder.checkValidity(response.getProducedAt());
+                    if (isSignedBy(response, responder.getPublicKey())) {
+                        return true;
+                    }
+                }
+            } catch (Exception e) {
+                LOG.debug("Certificato del responder OCSP non valido: {}", e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSignedBy(BasicOCSPResp response, PublicKey key) {
+        try {
+            return response
+                    .isSignatureValid(new JcaContentVerifierProviderBuilder().build(key));
+        } catch (OperatorCreationException | OCSPException e) {
+            return false;
+        }
+    }
+}
@@ -15,8 +15,8 @@ package it.eng.crypto.data;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -34,28 +34,44 @@ import java.util.List;
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.DLSet;
 import org.bouncycastle.asn1.cms.Attribute;
 import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
 import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.OtherRevocationInfoFormat;
+import org.bouncycastle.asn1.cms.SignedData;
 import org.bouncycastle.asn1.ess.ESSCertID;
 import org.bouncycastle.asn1.ess.ESSCertIDv2;
 import org.bouncycastle.asn1.ess.SigningCertificate;
 import org.bouncycastle.asn1.ess.SigningCertificateV2;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509AttributeCertificateHolder;
+import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessable;
+import org.bouncycastle.cms.CMSProcessableByteArray;
 import org.bouncycastle.cms.CMSProcessableFile;
 import org.bouncycastle.cms.CMSSignedData;
 import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.CMSSignedDataParser;
 import org.bouncycastle.cms.CMSTypedData;
+import org.bouncycastle.cms.CMSTypedStream;
 import org.bouncycastle.cms.SignerId;
 import org.bouncycastle.cms.SignerInformation;
 import org.bouncycastle.cms.SignerInformationStore;
 import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.bouncycastle.tsp.TimeStampToken;
 import org.bouncycastle.util.Store;
 import org.slf4j.Logger;
@@ -79,6 +95,15 @@ public class P7MSigner extends AbstractSigner {
      * Contenuto CMS
      */
     protected CMSSignedData cmsSignedData = null;
+    /**
+     * Contenuto della busta estratto durante l'analisi in streaming (null se la busta è stata
+     * caricata in memoria)
+     */
+    protected DocumentContent streamedContent = null;
+    /**
+     * Firme lette durante l'analisi in streaming, con il digest del contenuto già calcolato
+     */
+    protected SignerInformationStore streamedSignerInfos = null;
     static Logger logger = LoggerFactory.getLogger(P7MSigner.class.getName());
     protected SignerType type = null;
 
@@ -110,9 +135,140 @@ public class P7MSigner extends AbstractSigner {
         return signed;
     }
 
+    /**
+     * Analizza la busta in streaming tramite {@link CMSSignedDataParser}, senza caricarla in
+     * memoria: il contenuto incapsulato viene copiato nel contenuto estratto (in memoria o su file
+     * temporaneo a seconda di {@link #getSizeThreshold() sizeThreshold}) e il suo digest viene
+     * calcolato nella stessa lettura. Certificati, CRL e firme vengono letti dalla coda della busta.
+     * Sono gestiti i formati DER e Base64.
+     *
+     * @param file busta da analizzare
+     *
+     * @return la busta, il cui contenuto viene letto dal contenuto estratto, oppure null se il
+     *         file non è in formato CMS
+     */
+    protected CMSSignedData getStreamedSignedData(File file) {
+        streamedContent = null;
+        streamedSignerInfos = null;
+        CMSSignedData signedData = parseStreamed(file, false);
+        if (signedData == null) {
+            logger.debug("Il file non è in formato DER");
+            signedData = parseStreamed(file, true);
+        }
+        return signedData;
+    }
+
+    private CMSSignedData parseStreamed(File file, boolean base64) {
+        InputStream stream = null;
+        CMSSignedDataParser parser = null;
+        DocumentContent content = null;
+        try {
+            stream = new BufferedInputStream(FileUtils.openInputStream(file));
+            if (base64) {
+                stream = new Base64InputStream(stream);
+            }
+            parser = new CMSSignedDataParser(
+                    new JcaDigestCalculatorProviderBuilder().setProvider("BC").build(), stream);
+            CMSTypedStream signedContent = parser.getSignedContent();
+            if (signedContent != null) {
+                content = DocumentContent.of(signedContent.getContentStream(),
+                        getEnclosedEnvelopeExtension(file), sizeThreshold);
+                signedContent.drain();
+            }
+            SignerInformationStore signerInfos = parser.getSignerInfos();
+            ContentInfo contentInfo = toContentInfo(parser, signerInfos);
+            CMSSignedData signedData;
+            if (content == null) {
+                signedData = new CMSSignedData(contentInfo);
+            } else {
+                CMSProcessable processable = content.isInMemory()
+                        ? new CMSProcessableByteArray(content.getBytes())
+                        : new CMSProcessableFile(content.getFile());
+                signedData = new CMSSignedData(processable, contentInfo);
+                streamedSignerInfos = signerInfos;
+            }
+            streamedContent = content;
+            return signedData;
+        } catch (Exception e) {
+            if (content != null) {
+                content.dispose();
+            }
+            return null;
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    logger.debug("Errore IO", e);
+                }
+            }
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /*
+     * Formati delle informazioni di revoca diverse dalle CRL X.509 mantenuti nella struttura
+     * ricostruita dal parser
+     */
+    private static final ASN1ObjectIdentifier[] OTHER_REVOCATION_INFO_FORMATS = {
+            CMSObjectIdentifiers.id_ri_ocsp_response, CMSObjectIdentifiers.id_ri_scvp };
+
+    /*
+     * Ricostruisce la struttura SignedData priva del contenuto incapsulato
+     */
+    private static ContentInfo toContentInfo(CMSSignedDataParser parser,
+            SignerInformationStore signerInfos) throws CMSException {
+        ASN1EncodableVector digestAlgorithms = new ASN1EncodableVector();
+        for (AlgorithmIdentifier digestAlgorithm : parser.getDigestAlgorithmIDs()) {
+            digestAlgorithms.add(digestAlgorithm);
+        }
+        ASN1EncodableVector certificates = new ASN1EncodableVector();
+        for (X509CertificateHolder holder : parser.getCertificates().getMatches(null)) {
+            certificates.add(holder.toASN1Structure());
+        }
+        // Certificati di attributo: [2] IMPLICIT AttributeCertificate
+        for (X509AttributeCertificateHolder holder : parser.getAttributeCertificates()
+                .getMatches(null)) {
+            certificates.add(new DERTaggedObject(false, 2, holder.toASN1Structure()));
+        }
+        ASN1EncodableVector crls = new ASN1EncodableVector();
+        for (X509CRLHolder holder : parser.getCRLs().getMatches(null)) {
+            crls.add(holder.toASN1Structure());
+        }
+        // Risposte OCSP e SCVP: [1] IMPLICIT OtherRevocationInfoFormat
+        for (ASN1ObjectIdentifier format : OTHER_REVOCATION_INFO_FORMATS) {
+            for (Object info : parser.getOtherRevocationInfo(format).getMatches(null)) {
+                crls.add(new DERTaggedObject(false, 1,
+                        new OtherRevocationInfoFormat(format, (ASN1Encodable) info)));
+            }
+        }
+        ASN1EncodableVector signers = new ASN1EncodableVector();
+        for (SignerInformation signer : signerInfos.getSigners()) {
+            signers.add(signer.toASN1Structure());
+        }
+        SignedData signedData = new SignedData(new DLSet(digestAlgorithms),
+                new ContentInfo(new ASN1ObjectIdentifier(parser.getSignedContentTypeOID()), null),
+                certificates.size() == 0 ? null : new DLSet(certificates),
+                crls.size() == 0 ? null : new DLSet(crls), new DLSet(signers));
+        return new ContentInfo(CMSObjectIdentifiers.signedData, signedData);
+    }
+
+    /**
+     * Restituisce le firme della busta. Se la busta è stata analizzata in streaming vengono
+     * restituite le firme lette dal parser, che non richiedono una nuova lettura del contenuto per
+     * la verifica.
+     */
+    protected SignerInformationStore getSignerInfos() {
+        if (streamedSignerInfos != null) {
+            return streamedSignerInfos;
+        }
+        return cmsSignedData.getSignerInfos();
+    }
+
     /**
      * Restituisce true se il contenuto del file è di tipo CMS e l'algoritmo di digest è di tipo
-     * SHA1
+     * SHA1. I file più grandi di {@link #getSizeThreshold() sizeThreshold} vengono analizzati in
+     * streaming.
      */
     @Override
     public boolean isSignedType(File file, ValidationInfos complianceCheck) {
@@ -121,6 +277,15 @@ public class P7MSigner extends AbstractSigner {
         // CMSProcessable process = new CMSProcessableFile(file);
         // byte[] out = (byte[]) process.getContent();
 
+        streamedContent = null;
+        streamedSignerInfos = null;
+        if (file.length() > sizeThreshold) {
+            cmsSignedData = getStreamedSignedData(file);
+            if (cmsSignedData != null) {
+                return isSignedType(cmsSignedData, complianceCheck);
+            }
+        }
+
         PEMParser pr = null;
 
         try {
@@ -169,11 +334,11 @@ public class P7MSigner extends AbstractSigner {
     @Override
     public boolean isSignedType(byte[] content, ValidationInfos complianceCheck) {
         boolean signed = false;
-        try {
-            cmsSignedData = new CMSSignedData(content);
+        streamedContent = null;
+        streamedSignerInfos = null;
+        cmsSignedData = getSignedData(content);
+        if (cmsSignedData != null) {
             signed = isSignedType(cmsSignedData, complianceCheck);
-        } catch (CMSException e) {
-            signed = false;
         }
         return signed;
     }
@@ -213,22 +378,37 @@ public class P7MSigner extends AbstractSigner {
         }
     }
 
+    @Override
+    public DocumentContent getContent() throws IOException {
+        // Contenuto già estratto durante l'analisi in streaming
+        if (!hasDetachedContent() && streamedContent != null) {
+            return streamedContent;
+        }
+        return super.getContent();
+    }
+
     @Override
     public InputStream getUnsignedContent() {
-        try (FileInputStream fis = FileUtils.openInputStream(file)) {
-            File detachedFile = getDetachedFile();
+        try {
+            DocumentContent detached = getDetachedContent();
             // Si tratta della firma di un file detached?
-            if (detachedFile != null) {
-                return FileUtils.openInputStream(detachedFile);
+            if (detached != null) {
+                return detached.openStream();
+            } else if (streamedContent != null) {
+                return streamedContent.openStream();
             } else {
                 if (cmsSignedData == null) {
-                    cmsSignedData = new CMSSignedData(fis);
-                } else {
-                    // TODO modificato (da testare)
-                    // return getCMSSignedDataUnsignedContent(cmsSignedData);
-                    writeExtractedContentToFile();
-                    return null;
+                    try (InputStream stream = openSource()) {
+                        cmsSignedData = new CMSSignedData(stream);
+                    }
                 }
+                // La busta non supera sizeThreshold (altrimenti sarebbe stata analizzata in
+                // streaming): il contenuto viene restituito in memoria
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                if (cmsSignedData.getSignedContent() != null) {
+                    cmsSignedData.getSignedContent().write(content);
+                }
+                return new ByteArrayInputStream(content.toByteArray());
             }
         } catch (Exception e) {
             logger.error("Eccezione generica", e);
@@ -272,6 +452,22 @@ public class P7MSigner extends AbstractSigner {
      */
     public static List<ISignature> getISigneturesFromCMSSignedData(CMSSignedData signedData,
             List<File> detachedContent, SignerType type, boolean isPDF, boolean isDetached) {
+        return getISigneturesFromCMSSignedData(signedData, signedData.getSignerInfos(),
+                detachedContent, type, isPDF, isDetached);
+    }
+
+    /**
+     * Recupera la lista di firme indicate, utilizzando i certificati della struttura di tipo CMS
+     *
+     * @param signedData      contenuto di tipo CMS
+     * @param signerInfos     firme da restituire
+     * @param detachedContent contenuto detached
+     *
+     * @return la lista di firme
+     */
+    protected static List<ISignature> getISigneturesFromCMSSignedData(CMSSignedData signedData,
+            SignerInformationStore signerInfos, List<File> detachedContent, SignerType type,
+            boolean isPDF, boolean isDetached) {
 
         List<ISignature> result = new ArrayList<ISignature>();
 
@@ -291,8 +487,8 @@ public class P7MSigner extends AbstractSigner {
             e.printStackTrace();
         }
 
-        Collection<SignerInformation> signers = (Collection<SignerInformation>) signedData
-                .getSignerInfos().getSigners();
+        Collection<SignerInformation> signers = (Collection<SignerInformation>) signerInfos
+                .getSigners();
         for (SignerInformation signer : signers) {
             SignerId signerID = signer.getSID();
             ISignature signature = getISignatureFromSignerInformationAndCertificates(signer,
@@ -452,17 +648,21 @@ public class P7MSigner extends AbstractSigner {
     @Override
     public List<ISignature> getSignatures() {
         boolean isDetached = cmsSignedData.getSignedContent() == null;
-        if (detachedFiles != null && !detachedFiles.isEmpty()) {
-            CMSTypedData detachedCMS = new CMSProcessableFile(detachedFiles.get(0));
+        if (hasDetachedContent()) {
+            // Il contenuto detached in memoria non viene salvato su file
+            CMSTypedData detachedCMS = detachedContent != null
+                    ? new CMSProcessableByteArray(detachedContent.getBytes())
+                    : new CMSProcessableFile(getDetachedFile());
             try {
                 cmsSignedData = new CMSSignedData(detachedCMS, cmsSignedData.toASN1Structure());
             } catch (CMSException e) {
                 return new ArrayList<>(); // emtpy list
             }
+            streamedSignerInfos = null;
             isDetached = true;
         }
-        return getISigneturesFromCMSSignedData(cmsSignedData, detachedFiles, null, false,
-                isDetached);
+        return getISigneturesFromCMSSignedData(cmsSignedData, getSignerInfos(), detachedFiles,
+                null, false, isDetached);
     }
 
     @Override
@@ -504,7 +704,7 @@ public class P7MSigner extends AbstractSigner {
     @Override
     public Collection<CRL> getEmbeddedCRLs() {
         if (cmsSignedData == null) {
-            try (FileInputStream fis = FileUtils.openInputStream(file)) {
+            try (InputStream fis = openSource()) {
                 cmsSignedData = new CMSSignedData(fis);
                 return getCRLsFromCMSSignedData(cmsSignedData);
             } catch (Exception e) {
@@ -516,7 +716,7 @@ public class P7MSigner extends AbstractSigner {
     @Override
     public Collection<? extends Certificate> getEmbeddedCertificates() {
         if (cmsSignedData == null) {
-            try (FileInputStream fis = FileUtils.openInputStream(file)) {
+            try (InputStream fis = openSource()) {
                 cmsSignedData = new CMSSignedData(fis);
 
             } catch (Exception e) {
@@ -191,7 +191,7 @@ public class PdfSigner extends AbstractSigner {
     public ValidationInfos validateTimeStampTokensEmbedded() {
         ValidationInfos validationInfos = new ValidationInfos();
         if (this.signaturesByName == null) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
                 return validationInfos;
@@ -223,7 +223,7 @@ public class PdfSigner extends AbstractSigner {
     public ValidationInfos validateTimeStampTokensEmbedded(TimeStampToken timeStampToken) {
         ValidationInfos validationInfos = new ValidationInfos();
         if (this.signaturesByName == null) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
                 return validationInfos;
@@ -259,7 +259,7 @@ public class PdfSigner extends AbstractSigner {
 
     public List<ISignature> getSignatures() {
         if (signaturesByName == null) {
-            if (!this.isSignedType(file, new ValidationInfos())) {
+            if (!this.isSignedSource(new ValidationInfos())) {
                 return null;
             }
         }
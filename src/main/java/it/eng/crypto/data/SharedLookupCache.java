@@ -0,0 +1,292 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.exception.CryptoStorageException;
+import it.eng.crypto.storage.ICAStorage;
+import it.eng.crypto.storage.ICRLStorage;
+
+/**
+ * Cache delle informazioni di certificazione condivise tra le verifiche di un lotto: certificati
+ * delle CA, CRL dello storage e CRL scaricate dai punti di distribuzione. Più verifiche che
+ * richiedono contemporaneamente la stessa CRL attendono un unico download.
+ * <p>
+ * La cache è thread-safe ed è pensata per avere la durata del lotto: non applica scadenze e va
+ * scartata al termine dell'elaborazione.
+ * </p>
+ *
+ */
+public class SharedLookupCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedLookupCache.class);
+
+    /*
+     * Segnaposto per i valori null (le mappe concorrenti non ammettono null)
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private final ConcurrentMap<String, Object> certificates = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentMap<String, Object> storedCrls = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentMap<String, FutureTask<X509CRL>> downloadedCrls = new ConcurrentHashMap<String, FutureTask<X509CRL>>();
+    private final ConcurrentMap<String, FutureTask<X509Certificate>> onlineCertificates = new ConcurrentHashMap<String, FutureTask<X509Certificate>>();
+
+    /**
+     * Restituisce una vista dello storage dei certificati che memorizza gli esiti di
+     * {@link ICAStorage#retriveCA(X500Principal, String)}
+     *
+     * @param storage storage da decorare
+     *
+     * @return lo storage decorato
+     */
+    public ICAStorage getCAStorage(ICAStorage storage) {
+        return storage == null ? null : new SharedCAStorage(storage);
+    }
+
+    /**
+     * Restituisce una vista dello storage delle CRL che memorizza gli esiti di
+     * {@link ICRLStorage#retriveCRL(String, String)}
+     *
+     * @param storage storage da decorare
+     *
+     * @return lo storage decorato
+     */
+    public ICRLStorage getCRLStorage(ICRLStorage storage) {
+        return storage == null ? null : new SharedCRLStorage(storage);
+    }
+
+    /**
+     * Scarica la CRL dai punti di distribuzione indicati una sola volta per lotto e riferimento
+     * temporale
+     *
+     * @see SignerUtil#getCrlByURL(List, Date, int, int, int)
+     */
+    public X509CRL getCrlByURL(final SignerUtil signerUtil, final List<String> urls,
+            final Date referenceDate, final int httpTimeoutConnection,
+            final int httpSocketTimeout, final int ldapTimeoutConnection) {
+        if (urls == null) {
+            return null;
+        }
+        // La CRL scelta dipende dal riferimento temporale
+        final String key = urls.toString() + "|"
+                + (referenceDate != null ? referenceDate.getTime() : "");
+        X509CRL crl = compute(downloadedCrls, key, new Callable<X509CRL>() {
+            @Override
+            public X509CRL call() {
+                return signerUtil.getCrlByURL(urls, referenceDate, httpTimeoutConnection,
+                        httpSocketTimeout, ldapTimeoutConnection);
+            }
+        });
+        if (crl == null) {
+            // Download fallito: consento un nuovo tentativo alle verifiche successive
+            downloadedCrls.remove(key);
+        }
+        return crl;
+    }
+
+    /**
+     * Recupera online il certificato della CA una sola volta per lotto
+     *
+     * @see SignerUtil#getCACertificateOnline(X509Certificate, ICAStorage)
+     */
+    public X509Certificate getCACertificateOnline(final SignerUtil signerUtil,
+            final X509Certificate signingCertificate, final ICAStorage storage) {
+        String key = signingCertificate.getIssuerX500Principal().getName() + "|"
+                + authorityKeyId(signingCertificate);
+        return compute(onlineCertificates, key, new Callable<X509Certificate>() {
+            @Override
+            public X509Certificate call() {
+                return signerUtil.getCACertificateOnline(signingCertificate, storage);
+            }
+        });
+    }
+
+    /**
+     * Svuota la cache
+     */
+    public void clear() {
+        certificates.clear();
+        storedCrls.clear();
+        downloadedCrls.clear();
+        onlineCertificates.clear();
+    }
+
+    private <T> T compute(ConcurrentMap<String, FutureTask<T>> map, String key,
+            Callable<T> callable) {
+        FutureTask<T> task = map.get(key);
+        if (task == null) {
+            FutureTask<T> newTask = new FutureTask<T>(callable);
+            task = map.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Errore durante il recupero dell'elemento " + key, e.getCause());
+            map.remove(key, task);
+            return null;
+        }
+    }
+
+    private static String authorityKeyId(X509Certificate certificate) {
+        try {
+            return SignerUtil.getAuthorityKeyId(certificate);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String key(String name, String keyId) {
+        return name + "|" + keyId;
+    }
+
+    private static Object wrap(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unwrap(Object value) {
+        return value == NULL_VALUE ? null : (T) value;
+    }
+
+    private class SharedCAStorage implements ICAStorage {
+
+        private final ICAStorage delegate;
+
+        SharedCAStorage(ICAStorage delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void insertCA(X509Certificate certificate) throws CryptoStorageException {
+            delegate.insertCA(certificate);
+            invalidate(certificates, certificate.getSubjectX500Principal().getName());
+        }
+
+        @Override
+        public void insertCAs(Collection<X509Certificate> caCertificates)
+                throws CryptoStorageException {
+            delegate.insertCAs(caCertificates);
+            certificates.clear();
+        }
+
+        @Override
+        public X509Certificate retriveCA(X500Principal subject, String authorityKeyId)
+                throws CryptoStorageException {
+            String key = key(subject.getName(), authorityKeyId);
+            Object value = certificates.get(key);
+            if (value == null) {
+                value = wrap(delegate.retriveCA(subject, authorityKeyId));
+                certificates.putIfAbsent(key, value);
+            }
+            return unwrap(value);
+        }
+
+        @Override
+        public List<X509Certificate> retriveActiveCA() throws CryptoStorageException {
+            return delegate.retriveActiveCA();
+        }
+
+        @Override
+        public boolean isActive(X509Certificate certificate, String authorityKeyId)
+                throws CryptoStorageException {
+            return delegate.isActive(certificate, authorityKeyId);
+        }
+
+        @Override
+        public void revokeCA(X509Certificate certificate) throws CryptoStorageException {
+            delegate.revokeCA(certificate);
+            invalidate(certificates, certificate.getSubjectX500Principal().getName());
+        }
+    }
+
+    private class SharedCRLStorage implements ICRLStorage {
+
+        private final ICRLStorage delegate;
+
+        SharedCRLStorage(ICRLStorage delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void upsertCRL(X509CRL crl) throws CryptoStorageException {
+            delegate.upsertCRL(crl);
+            invalidate(storedCrls, crl.getIssuerX500Principal().getName());
+        }
+
+        @Override
+        public X509CRL retriveCRL(String subjectDN, String keyId) throws CryptoStorageException {
+            String key = key(subjectDN, keyId);
+            Object value = storedCrls.get(key);
+            if (value == null) {
+                value = wrap(delegate.retriveCRL(subjectDN, keyId));
+                storedCrls.putIfAbsent(key, value);
+            }
+            return unwrap(value);
+        }
+
+        @Override
+        public void upsertDeltaCRL(X509CRL crl) throws CryptoStorageException {
+            delegate.upsertDeltaCRL(crl);
+            invalidate(storedCrls, crl.getIssuerX500Principal().getName());
+        }
+
+        @Override
+        public X509CRL retriveDeltaCRL(String subjectDN, String keyId)
+                throws CryptoStorageException {
+            String key = key(subjectDN, keyId) + "|delta";
+            Object value = storedCrls.get(key);
+            if (value == null) {
+                value = wrap(delegate.retriveDeltaCRL(subjectDN, keyId));
+                storedCrls.putIfAbsent(key, value);
+            }
+            return unwrap(value);
+        }
+    }
+
+    /*
+     * Rimuove le voci relative al soggetto indicato, qualunque sia l'identificativo della chiave
+     */
+    private static void invalidate(ConcurrentMap<String, Object> map, String name) {
+        String prefix = name + "|";
+        Iterator<String> keys = map.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Classificatore preliminare del formato di una busta firmata. Legge una sola volta i primi byte
+ * del file (intestazione ASN.1 e OID del ContentInfo, preambolo PDF, prologo XML, header MIME,
+ * alfabeto PEM/Base64) e restituisce l'elenco dei signer plausibili, in modo da evitare che ogni
+ * signer tenti il parsing completo del file. I formati che non possono contenere firme (archivi ZIP,
+ * immagini, documenti OLE2) vengono riconosciuti senza interrogare alcun signer.
+ *
+ * @author Engineering Ingegneria Informatica S.p.A.
+ *
+ */
+public class SignerFormatDetector {
+
+    /**
+     * Numero di byte letti dall'inizio del file per la classificazione
+     */
+    public static final int SAMPLE_SIZE = 4096;
+
+    private static final byte[] PDF_PREAMBLE = new byte[] {
+            '%', 'P', 'D', 'F', '-' };
+    private static final byte[] PEM_PREAMBLE = "-----BEGIN".getBytes(StandardCharsets.US_ASCII);
+
+    /*
+     * Intestazioni di formati che nessun signer può riconoscere come buste firmate: ZIP (anche
+     * OOXML e ODF), JPEG, PNG, GIF, TIFF, OLE2 (documenti Office 97-2003)
+     */
+    private static final byte[][] UNSIGNED_PREAMBLES = new byte[][] {
+            { 'P', 'K', 0x03, 0x04 }, { 'P', 'K', 0x05, 0x06 },
+            { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF },
+            { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A }, { 'G', 'I', 'F', '8' },
+            { 'I', 'I', 0x2A, 0x00 }, { 'M', 'M', 0x00, 0x2A },
+            { (byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A,
+                    (byte) 0xE1 } };
+
+    /*
+     * OID (contenuto DER, senza tag e lunghezza) dei ContentInfo riconosciuti
+     */
+    // 1.2.840.113549.1.7.2 signedData
+    private static final byte[] OID_SIGNED_DATA = new byte[] {
+            0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x02 };
+    // 1.2.840.113549.1.9.16.1.31 timestampedData (RFC 5544)
+    private static final byte[] OID_TIMESTAMPED_DATA = new byte[] {
+            0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x09, 0x10, 0x01,
+            0x1F };
+
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_OID = 0x06;
+    private static final int TAG_INTEGER = 0x02;
+
+    /**
+     * Esito della classificazione
+     */
+    public static class Detection {
+
+        private final List<Class<? extends AbstractSigner>> candidates;
+        private final boolean certain;
+
+        Detection(List<Class<? extends AbstractSigner>> candidates, boolean certain) {
+            this.candidates = candidates;
+            this.certain = certain;
+        }
+
+        /**
+         * Restituisce i tipi di signer plausibili per il file, nell'ordine in cui vanno provati.
+         * Lista vuota se il formato non è stato riconosciuto.
+         *
+         * @return lista dei tipi di signer candidati
+         */
+        public List<Class<? extends AbstractSigner>> getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * Indica se il formato è stato riconosciuto senza ambiguità: in tal caso è inutile
+         * interrogare i signer non candidati.
+         *
+         * @return true se la classificazione è certa
+         */
+        public boolean isCertain() {
+            return certain;
+        }
+
+        /**
+         * Indica se il formato è stato riconosciuto come un formato che non può contenere firme:
+         * in tal caso è inutile interrogare i signer.
+         *
+         * @return true se il contenuto non è una busta firmata
+         */
+        public boolean isUnsigned() {
+            return certain && candidates.isEmpty();
+        }
+
+        /**
+         * Indica se il signer passato è tra i candidati
+         *
+         * @param signer signer da verificare
+         *
+         * @return true se il signer è plausibile per il file
+         */
+        public boolean isCandidate(AbstractSigner signer) {
+            for (Class<? extends AbstractSigner> clazz : candidates) {
+                if (clazz.isInstance(signer)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final Detection UNKNOWN = new Detection(
+            Collections.<Class<? extends AbstractSigner>> emptyList(), false);
+
+    private static final Detection UNSIGNED = new Detection(
+            Collections.<Class<? extends AbstractSigner>> emptyList(), true);
+
+    /**
+     * Classifica il file leggendone l'intestazione
+     *
+     * @param file file da classificare
+     *
+     * @return esito della classificazione, mai null
+     */
+    public Detection detect(File file) {
+        if (file == null || !file.isFile()) {
+            return UNKNOWN;
+        }
+        try (InputStream stream = FileUtils.openInputStream(file)) {
+            byte[] buffer = new byte[SAMPLE_SIZE];
+            int read = IOUtils.read(stream, buffer);
+            return detect(buffer, read);
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Classifica il contenuto leggendone l'intestazione, senza salvare su file il contenuto in
+     * memoria
+     *
+     * @param content contenuto da classificare
+     *
+     * @return esito della classificazione, mai null
+     */
+    public Detection detect(DocumentContent content) {
+        if (content == null) {
+            return UNKNOWN;
+        }
+        if (content.isInMemory()) {
+            byte[] bytes = content.getBytes();
+            return detect(bytes, Math.min(bytes.length, SAMPLE_SIZE));
+        }
+        try {
+            return detect(content.getFile());
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Classifica il contenuto a partire dai primi byte
+     *
+     * @param sample primi byte del contenuto
+     * @param length numero di byte validi in sample
+     *
+     * @return esito della classificazione, mai null
+     */
+    public Detection detect(byte[] sample, int length) {
+        if (sample == null || length <= 0) {
+            return UNKNOWN;
+        }
+        int len = Math.min(length, sample.length);
+
+        // PDF: il preambolo deve trovarsi all'inizio del file (vedi PdfSigner)
+        if (startsWith(sample, len, 0, PDF_PREAMBLE)) {
+            return certain(PdfSigner.class);
+        }
+
+        // Formati che non contengono buste firmate
+        for (byte[] preamble : UNSIGNED_PREAMBLES) {
+            if (startsWith(sample, len, 0, preamble)) {
+                return UNSIGNED;
+            }
+        }
+
+        // DER/BER
+        if ((sample[0] & 0xFF) == TAG_SEQUENCE) {
+            return detectAsn1(sample, len);
+        }
+
+        int start = skipBomAndWhitespace(sample, len);
+        if (start >= len) {
+            return UNKNOWN;
+        }
+
+        // XML
+        if (sample[start] == '<') {
+            return certain(XMLSigner.class);
+        }
+
+        // PEM
+        if (startsWith(sample, len, start, PEM_PREAMBLE)) {
+            return ambiguous(CMSSigner.class, TsrSigner.class);
+        }
+
+        if (isText(sample, len)) {
+            // MIME (M7M)
+            if (hasMimeHeaders(sample, start, len)) {
+                return ambiguous(M7MSigner.class);
+            }
+            // Base64
+            if (isBase64(sample, start, len)) {
+                return ambiguous(TsrSigner.class, CMSSigner.class);
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private Detection detectAsn1(byte[] sample, int len) {
+        // SEQUENCE esterna
+        int pos = skipTagAndLength(sample, len, 0);
+        if (pos < 0 || pos >= len) {
+            return ambiguous(TsdSigner.class, TsrSigner.class, CMSSigner.class);
+        }
+        int tag = sample[pos] & 0xFF;
+        if (tag == TAG_OID) {
+            // ContentInfo: contentType OBJECT IDENTIFIER
+            int oidLen = pos + 1 < len ? sample[pos + 1] & 0xFF : -1;
+            int oidStart = pos + 2;
+            if (oidLen > 0 && oidLen < 0x80 && oidStart + oidLen <= len) {
+                byte[] oid = Arrays.copyOfRange(sample, oidStart, oidStart + oidLen);
+                if (Arrays.equals(oid, OID_TIMESTAMPED_DATA)) {
+                    return certain(TsdSigner.class);
+                }
+                if (Arrays.equals(oid, OID_SIGNED_DATA)) {
+                    // Busta CAdES/P7M oppure marca temporale (TimeStampToken)
+                    return certain(TsrSigner.class, CMSSigner.class);
+                }
+            }
+        } else if (tag == TAG_SEQUENCE) {
+            // TimeStampResp: SEQUENCE { PKIStatusInfo SEQUENCE { status INTEGER ... } ... }
+            int inner = skipTagAndLength(sample, len, pos);
+            if (inner > 0 && inner < len && (sample[inner] & 0xFF) == TAG_INTEGER) {
+                return certain(TsrSigner.class);
+            }
+        }
+        return ambiguous(TsdSigner.class, TsrSigner.class, CMSSigner.class);
+    }
+
+    /**
+     * Salta tag e lunghezza (forma breve, lunga o indefinita) dell'elemento in posizione pos
+     *
+     * @return posizione del contenuto oppure -1 se l'intestazione non è valida
+     */
+    private int skipTagAndLength(byte[] sample, int len, int pos) {
+        int p = pos + 1;
+        if (p >= len) {
+            return -1;
+        }
+        int first = sample[p] & 0xFF;
+        p++;
+        if (first == 0x80) {
+            // lunghezza indefinita (BER)
+            return p;
+        }
+        if ((first & 0x80) != 0) {
+            int octets = first & 0x7F;
+            if (octets > 4 || p + octets > len) {
+                return -1;
+            }
+            p += octets;
+        }
+        return p;
+    }
+
+    private int skipBomAndWhitespace(byte[] sample, int len) {
+        int pos = 0;
+        if (len >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB
+                && (sample[2] & 0xFF) == 0xBF) {
+            pos = 3;
+        }
+        while (pos < len && Character.isWhitespace(sample[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean startsWith(byte[] sample, int len, int offset, byte[] prefix) {
+        if (offset + prefix.length > len) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (sample[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isText(byte[] sample, int len) {
+        for (int i = 0; i < len; i++) {
+            int b = sample[i] & 0xFF;
+            if (b < 0x09 || (b > 0x0D && b < 0x20) || b == 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasMimeHeaders(byte[] sample, int start, int len) {
+        String header = new String(sample, start, len - start, StandardCharsets.US_ASCII)
+                .toLowerCase(Locale.ROOT);
+        return header.startsWith("mime-version:") || header.startsWith("content-type:")
+                || header.contains("\nmime-version:") || header.contains("\ncontent-type:");
+    }
+
+    private boolean isBase64(byte[] sample, int start, int len) {
+        for (int i = start; i < len; i++) {
+            int b = sample[i];
+            boolean valid = (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z')
+                    || (b >= '0' && b <= '9') || b == '+' || b == '/' || b == '='
+                    || b == '\r' || b == '\n' || b == ' ' || b == '\t';
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SafeVarargs
+    private static Detection certain(Class<? extends AbstractSigner>... classes) {
+        return new Detection(toList(classes), true);
+    }
+
+    @SafeVarargs
+    private static Detection ambiguous(Class<? extends AbstractSigner>... classes) {
+        return new Detection(toList(classes), false);
+    }
+
+    private static List<Class<? extends AbstractSigner>> toList(
+            Class<? extends AbstractSigner>[] classes) {
+        return Collections.unmodifiableList(
+                new ArrayList<Class<? extends AbstractSigner>>(Arrays.asList(classes)));
+    }
+}
@@ -27,13 +27,22 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.security.cert.X509Extension;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import javax.security.auth.x500.X500Principal;
 import javax.xml.parsers.DocumentBuilder;
@@ -45,15 +54,10 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.NTCredentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Primitive;
@@ -89,7 +93,10 @@ import it.eng.crypto.context.CryptoSignerApplicationContextProvider;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.data.type.SignerType;
 import it.eng.crypto.exception.CryptoSignerException;
+import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICAStorage;
+import it.eng.crypto.storage.ICRLStorage;
+import it.eng.crypto.utils.VerificheEnums.ModalitaControlloRevoca;
 
 public class SignerUtil {
 
@@ -99,6 +106,7 @@ public class SignerUtil {
     }
 
     Logger log = LoggerFactory.getLogger(SignerUtil.class);
+    private static final SignerFormatDetector FORMAT_DETECTOR = new SignerFormatDetector();
     private ApplicationContext context;
 
     private SignerUtil(ApplicationContext applicationContext) {
@@ -140,30 +148,112 @@ public class SignerUtil {
      * @throws CryptoSignerException
      */
     public AbstractSigner getSignerManager(File file) throws CryptoSignerException {
-        // Controllo che tipo di Signer Utilizzare
-        Map<String, ValidationInfos> complianceChecks = null;
-        DataSigner dataSigner = context.getBean("DataSigner", DataSigner.class);
-        for (AbstractSigner signer : dataSigner.getSignersManager()) {
+        if (file == null) {
+            throw new CryptoSignerException("Nessun Manager Signer Trovato per il file specificato");
+        }
+        return getSignerManager(DocumentContent.of(file), file);
+    }
 
-            // AbstractSigner newSigner = signer.getClass().newInstance();
-            ValidationInfos vi = new ValidationInfos();
-            if (signer.isSignedType(file, vi)) {
-                signer.setFile(file);
-                return signer;
+    /**
+     * Recupera l'{@link it.eng.crypto.data.AbstractSigner} preposto al riconoscimento del
+     * contenuto. Il contenuto mantenuto in memoria viene classificato dall'intestazione e
+     * riconosciuto dai signer senza salvarlo su file.
+     *
+     * @param content il contenuto firmato di cui ricavare il signer
+     *
+     * @return l'{@link it.eng.crypto.data.AbstractSigner} da utilizzare
+     *
+     * @throws CryptoSignerException
+     */
+    public AbstractSigner getSignerManager(DocumentContent content) throws CryptoSignerException {
+        if (!content.isInMemory()) {
+            try {
+                return getSignerManager(content.getFile());
+            } catch (IOException e) {
+                throw new CryptoSignerException("Errore nella lettura del contenuto", e);
             }
-            // aggiungo alla mappa i controlli di conformità
-            if (!vi.isValid(true)) {
-                if (complianceChecks == null) {
-                    complianceChecks = new HashMap<String, ValidationInfos>();
+        }
+        if (!canBeSigned(content)) {
+            throw new CryptoSignerException(
+                    "Nessun Manager Signer Trovato per il contenuto specificato");
+        }
+        return getSignerManager(content, "contenuto in memoria");
+    }
+
+    private AbstractSigner getSignerManager(DocumentContent content, Object description)
+            throws CryptoSignerException {
+        // Controllo che tipo di Signer Utilizzare
+        Map<String, ValidationInfos> complianceChecks = new HashMap<String, ValidationInfos>();
+        DataSigner dataSigner = context.getBean("DataSigner", DataSigner.class);
+        List<AbstractSigner> signers = dataSigner.getSignersManager();
+
+        // Classificazione preliminare: si interrogano prima i soli signer plausibili
+        SignerFormatDetector.Detection detection = FORMAT_DETECTOR.detect(content);
+        List<AbstractSigner> others = new ArrayList<AbstractSigner>();
+        for (AbstractSigner signer : signers) {
+            if (detection.isCandidate(signer)) {
+                if (isSignedType(signer, content, complianceChecks)) {
+                    return signer;
                 }
-                complianceChecks.put(signer.getClass().getSimpleName(), vi);
+            } else {
+                others.add(signer);
             }
+        }
 
+        // Formato non riconosciuto o ambiguo: provo tutti i rimanenti signer
+        if (!detection.isCertain()) {
+            for (AbstractSigner signer : others) {
+                if (isSignedType(signer, content, complianceChecks)) {
+                    return signer;
+                }
+            }
+        } else {
+            log.debug("Formato riconosciuto dall'intestazione, signer non candidati ignorati: "
+                    + description);
         }
         // Se sono arrivato fino a qui lancio una eccezione;
         throw new CryptoSignerException(
-                "Nessun Manager Signer Trovato per il file specificato: " + file, complianceChecks);
+                "Nessun Manager Signer Trovato per il file specificato: " + description,
+                complianceChecks.isEmpty() ? null : complianceChecks);
+
+    }
+
+    /**
+     * Indica se il contenuto può essere una busta firmata, classificandolo dall'intestazione
+     *
+     * @param content contenuto da classificare
+     *
+     * @return false se il formato non può contenere firme (ad esempio archivi ZIP o immagini)
+     */
+    public static boolean canBeSigned(DocumentContent content) {
+        return !FORMAT_DETECTOR.detect(content).isUnsigned();
+    }
 
+    /*
+     * Il contenuto in memoria viene riconosciuto dai byte, quello su file dal file stesso
+     */
+    private boolean isSignedType(AbstractSigner signer, DocumentContent content,
+            Map<String, ValidationInfos> complianceChecks) throws CryptoSignerException {
+        ValidationInfos vi = new ValidationInfos();
+        boolean signed;
+        if (content.isInMemory()) {
+            signed = signer.isSignedType(content.getBytes(), vi);
+        } else {
+            try {
+                signed = signer.isSignedType(content.getFile(), vi);
+            } catch (IOException e) {
+                throw new CryptoSignerException("Errore nella lettura del contenuto", e);
+            }
+        }
+        if (signed) {
+            signer.setSource(content);
+            return true;
+        }
+        // aggiungo alla mappa i controlli di conformità
+        if (!vi.isValid(true)) {
+            complianceChecks.put(signer.getClass().getSimpleName(), vi);
+        }
+        return false;
     }
 
     /**
@@ -279,43 +369,415 @@ public class SignerUtil {
      */
     public X509CRL getCrlByURL(List<String> urls, int httpTimeoutConnection, int httpSocketTimeout,
             int ldapTimeoutConnection) {
+        return getCrlByURL(urls, null, httpTimeoutConnection, httpSocketTimeout,
+                ldapTimeoutConnection);
+    }
+
+    /**
+     * Recupera la CRL in base agli url passati in ingresso. Se la configurazione abilita il
+     * download parallelo, i punti di distribuzione vengono interrogati in concorrenza e viene
+     * restituita la prima CRL che copre sia la data corrente sia la data di riferimento; in caso
+     * contrario vengono interrogati tutti in sequenza e viene restituita la CRL con la data di
+     * prossimo aggiornamento più recente.
+     *
+     * @param urls                  lista di indirizzi delle CRL
+     * @param referenceDate         data di riferimento della verifica (può essere null)
+     * @param httpTimeoutConnection timeout connessione HTTP
+     * @param httpSocketTimeout     timeout socket HTTP
+     * @param ldapTimeoutConnection timeout connessione LDAP
+     * @return oggetto CRL
+     */
+    public X509CRL getCrlByURL(final List<String> urls, final Date referenceDate,
+            final int httpTimeoutConnection, final int httpSocketTimeout,
+            final int ldapTimeoutConnection) {
+        final CryptoConfiguration configuration = CryptoSingleton.getInstance().getConfiguration();
+        // Un solo download alla volta per gli stessi punti di distribuzione
+        X509CRL crl = configuration.getCrlDownloadCache().fetch(urls.toString(),
+                new Callable<X509CRL>() {
+                    @Override
+                    public X509CRL call() {
+                        if (configuration.isCrlParallelDownload() && urls.size() > 1) {
+                            return downloadFirstCrl(configuration, urls, referenceDate,
+                                    httpTimeoutConnection, httpSocketTimeout,
+                                    ldapTimeoutConnection);
+                        }
+                        return downloadCrl(urls, httpTimeoutConnection, httpSocketTimeout,
+                                ldapTimeoutConnection);
+                    }
+                });
+        CRLRefreshScheduler refreshScheduler = configuration.getCrlRefreshScheduler();
+        if (crl != null && refreshScheduler != null) {
+            refreshScheduler.track(this, urls, crl);
+        }
+        return crl;
+    }
+
+    /**
+     * Se l'aggiornamento in background è abilitato, aggiunge la CRL recuperata dallo storage a
+     * quelle da aggiornare prima della data di prossimo aggiornamento, utilizzando i punti di
+     * distribuzione del certificato
+     *
+     * @param certificate certificato verificato con la CRL
+     * @param crl         CRL recuperata dallo storage
+     */
+    public void scheduleCrlRefresh(X509Certificate certificate, X509CRL crl) {
+        CRLRefreshScheduler refreshScheduler = CryptoSingleton.getInstance().getConfiguration()
+                .getCrlRefreshScheduler();
+        if (refreshScheduler == null || refreshScheduler.markUsed(crl)) {
+            return;
+        }
+        try {
+            refreshScheduler.track(this, getURLCrlDistributionPoint(certificate), crl);
+        } catch (CryptoSignerException e) {
+            log.debug("Punti di distribuzione della CRL non disponibili", e);
+        }
+    }
+
+    /**
+     * Salva nello storage una CRL scaricata dai punti di distribuzione. Se più verifiche
+     * concorrenti hanno ottenuto la stessa CRL, questa viene salvata una sola volta.
+     *
+     * @param storage storage delle CRL
+     * @param crl     CRL scaricata
+     *
+     * @throws CryptoStorageException in caso di errore dello storage
+     */
+    public void storeDownloadedCrl(ICRLStorage storage, X509CRL crl)
+            throws CryptoStorageException {
+        CryptoSingleton.getInstance().getConfiguration().getCrlDownloadCache().store(storage, crl);
+    }
+
+    /**
+     * Recupera la delta CRL da applicare alla CRL completa, se il certificato o la CRL completa
+     * indicano i punti di distribuzione delle delta CRL (estensione <code>freshestCRL</code>)
+     *
+     * @param certificate           certificato da verificare
+     * @param crl                   CRL completa dell'emittente del certificato
+     * @param storage               storage delle CRL
+     * @param httpTimeoutConnection timeout connessione HTTP
+     * @param httpSocketTimeout     timeout socket HTTP
+     * @param ldapTimeoutConnection timeout connessione LDAP
+     *
+     * @return la delta CRL applicabile alla CRL completa oppure null
+     *
+     * @see #getDeltaCRL(X509Certificate, X509CRL, ICRLStorage, Function)
+     */
+    public X509CRL getDeltaCRL(X509Certificate certificate, X509CRL crl, ICRLStorage storage,
+            int httpTimeoutConnection, int httpSocketTimeout, int ldapTimeoutConnection) {
+        return getDeltaCRL(certificate, crl, storage, urls -> getCrlByURL(urls,
+                httpTimeoutConnection, httpSocketTimeout, ldapTimeoutConnection));
+    }
+
+    /**
+     * Recupera la delta CRL da applicare alla CRL completa, se il certificato o la CRL completa
+     * indicano i punti di distribuzione delle delta CRL (estensione <code>freshestCRL</code>). La
+     * delta CRL salvata nello storage viene utilizzata finché non scade, altrimenti viene scaricata
+     * e salvata la delta più recente.
+     *
+     * @param certificate certificato da verificare
+     * @param crl         CRL completa dell'emittente del certificato
+     * @param storage     storage delle CRL
+     * @param download    scaricamento della CRL dai punti di distribuzione indicati
+     *
+     * @return la delta CRL applicabile alla CRL completa oppure null
+     */
+    public X509CRL getDeltaCRL(X509Certificate certificate, X509CRL crl, ICRLStorage storage,
+            Function<List<String>, X509CRL> download) {
+        List<String> urls;
+        try {
+            urls = getURLFreshestCRL(certificate);
+            if (urls.isEmpty()) {
+                urls = getURLFreshestCRL(crl);
+            }
+        } catch (CryptoSignerException e) {
+            log.warn("Punti di distribuzione delle delta CRL non leggibili", e);
+            return null;
+        }
+        if (urls.isEmpty()) {
+            return null;
+        }
+
+        X509CRL storedDeltaCRL = null;
+        try {
+            storedDeltaCRL = storage.retriveDeltaCRL(crl.getIssuerX500Principal().getName(),
+                    getAuthorityKeyId(crl));
+        } catch (CryptoStorageException | IOException e) {
+            log.error("Errore recuperando la delta CRL dallo storage", e);
+        }
+        if (!CRLUtil.isDeltaOf(storedDeltaCRL, crl)) {
+            storedDeltaCRL = null;
+        } else if (storedDeltaCRL.getNextUpdate() != null
+                && storedDeltaCRL.getNextUpdate().after(new Date())) {
+            log.debug("Recuperata la delta CRL dal repository cache/db");
+            return storedDeltaCRL;
+        }
+
+        X509CRL deltaCRL = download.apply(urls);
+        if (CRLUtil.isDeltaOf(deltaCRL, crl)) {
+            try {
+                storeDownloadedCrl(storage, deltaCRL);
+            } catch (CryptoStorageException e) {
+                log.error("Errore salvando la delta CRL nello storage", e);
+            }
+            return deltaCRL;
+        }
+        if (deltaCRL != null) {
+            log.warn("La delta CRL scaricata da {} non è applicabile alla CRL di {}", urls,
+                    crl.getIssuerX500Principal());
+        }
+        return storedDeltaCRL;
+    }
+
+    /**
+     * Recupera una delta CRL valida alla data di riferimento da applicare alla CRL completa salvata
+     * nello storage, anche se quest'ultima è scaduta (RFC 5280, par. 5.2.4): finché la delta CRL
+     * corrente si riferisce alla CRL completa salvata non è necessario scaricare di nuovo la CRL
+     * completa.
+     *
+     * @param certificate   certificato da verificare
+     * @param crl           CRL completa salvata nello storage
+     * @param storage       storage delle CRL
+     * @param referenceDate data di riferimento della verifica
+     * @param download      scaricamento della CRL dai punti di distribuzione indicati
+     *
+     * @return la delta CRL valida alla data di riferimento oppure null se occorre scaricare la CRL
+     *         completa
+     */
+    public X509CRL getCurrentDeltaCRL(X509Certificate certificate, X509CRL crl,
+            ICRLStorage storage, Date referenceDate, Function<List<String>, X509CRL> download) {
+        X509CRL deltaCRL = getDeltaCRL(certificate, crl, storage, download);
+        if (deltaCRL == null || deltaCRL.getNextUpdate() == null
+                || !deltaCRL.getNextUpdate().after(referenceDate)) {
+            return null;
+        }
+        log.debug("CRL completa scaduta, utilizzo la delta CRL corrente del {}",
+                deltaCRL.getThisUpdate());
+        return deltaCRL;
+    }
+
+    /**
+     * @see #getCurrentDeltaCRL(X509Certificate, X509CRL, ICRLStorage, Date, Function)
+     */
+    public X509CRL getCurrentDeltaCRL(X509Certificate certificate, X509CRL crl,
+            ICRLStorage storage, Date referenceDate, int httpTimeoutConnection,
+            int httpSocketTimeout, int ldapTimeoutConnection) {
+        return getCurrentDeltaCRL(certificate, crl, storage, referenceDate,
+                urls -> getCrlByURL(urls, httpTimeoutConnection, httpSocketTimeout,
+                        ldapTimeoutConnection));
+    }
+
+    /**
+     * Indica se la configurazione prevede la modalità di controllo di revoca indicata
+     *
+     * @param mode modalità del controllo di revoca
+     *
+     * @return true se la modalità configurata coincide
+     */
+    public boolean isRevocationCheckMode(ModalitaControlloRevoca mode) {
+        return CryptoSingleton.getInstance().getConfiguration().getRevocationCheckMode() == mode;
+    }
+
+    /**
+     * Verifica lo stato di revoca del certificato tramite i responder OCSP indicati nel
+     * certificato
+     *
+     * @param certificate           certificato da verificare
+     * @param issuer                certificato della CA emittente
+     * @param httpTimeoutConnection timeout di connessione HTTP in secondi
+     * @param httpSocketTimeout     timeout di socket HTTP in secondi
+     *
+     * @return lo stato del certificato se il responder lo ha indicato (valido o revocato),
+     *         altrimenti null (anche per i certificati scaduti, da verificare sulle CRL)
+     */
+    public OCSPResult getOCSPStatus(X509Certificate certificate, X509Certificate issuer,
+            int httpTimeoutConnection, int httpSocketTimeout) {
+        if (certificate == null || issuer == null) {
+            return null;
+        }
+        if (certificate.getNotAfter().before(new Date())) {
+            // I responder non sono tenuti a conservare lo stato dei certificati scaduti
+            log.debug("Certificato scaduto, controllo OCSP non effettuato");
+            return null;
+        }
+        try {
+            OCSPResult result = new OCSPUtil().check(certificate, issuer,
+                    CryptoSingleton.getInstance().getConfiguration(), httpTimeoutConnection,
+                    httpSocketTimeout);
+            if (result != null && result.isConclusive()) {
+                log.debug("Stato OCSP del certificato: {} ({})", result.getStatus(),
+                        result.getResponderURL());
+                return result;
+            }
+        } catch (CryptoSignerException e) {
+            log.warn("Controllo OCSP non effettuato", e);
+        }
+        return null;
+    }
+
+    /**
+     * Verifica lo stato di revoca del certificato tramite OCSP, recuperando il certificato della
+     * CA emittente dallo storage. I certificati autofirmati non vengono verificati.
+     *
+     * @param certificate           certificato da verificare
+     * @param caStorage             storage dei certificati di certificazione
+     * @param httpTimeoutConnection timeout di connessione HTTP in secondi
+     * @param httpSocketTimeout     timeout di socket HTTP in secondi
+     *
+     * @return lo stato del certificato se il responder lo ha indicato, altrimenti null
+     *
+     * @see #getOCSPStatus(X509Certificate, X509Certificate, int, int)
+     */
+    public OCSPResult getOCSPStatus(X509Certificate certificate, ICAStorage caStorage,
+            int httpTimeoutConnection, int httpSocketTimeout) {
+        if (certificate.getSubjectX500Principal().equals(certificate.getIssuerX500Principal())) {
+            return null;
+        }
+        X509Certificate issuer = null;
+        try {
+            issuer = caStorage.retriveCA(certificate.getIssuerX500Principal(),
+                    getAuthorityKeyId(certificate));
+        } catch (CryptoStorageException | IOException e) {
+            log.error("Errore recuperando il certificato della CA dallo storage", e);
+        }
+        return getOCSPStatus(certificate, issuer, httpTimeoutConnection, httpSocketTimeout);
+    }
+
+    private X509CRL downloadCrl(List<String> urls, int httpTimeoutConnection,
+            int httpSocketTimeout, int ldapTimeoutConnection) {
 
         X509CRL mostRecentCrl = null;
         for (String url : urls) {
-            X509CRL crl = null;
-            try {
-                CRLUtil util = new CRLUtil();
-
-                url = StringUtils.trim(url);
-                log.info("Scarico la CRL dall'URL: {}", url);
-
-                if (url.toUpperCase().startsWith("LDAP")) {
-                    crl = util.searchCrlByLDAP(url, ldapTimeoutConnection);
-                } else if (url.toUpperCase().startsWith("FILE")) {
-                    crl = util.ricercaCrlByFile(url);
-                } else if (url.toUpperCase().startsWith("HTTP")) {
-                    crl = util.ricercaCrlByProxyHTTP(url,
-                            CryptoSingleton.getInstance().getConfiguration(), httpTimeoutConnection,
-                            httpSocketTimeout);
+            X509CRL crl = downloadCrl(url, httpTimeoutConnection, httpSocketTimeout,
+                    ldapTimeoutConnection);
+            if (isMoreRecent(crl, mostRecentCrl)) {
+                mostRecentCrl = crl;
+            }
+        }
+        return mostRecentCrl;
+    }
+
+    /*
+     * Interroga i punti di distribuzione in concorrenza: il download successivo viene avviato
+     * dopo il ritardo configurato oppure subito se un download termina senza una CRL valida. La
+     * prima CRL valida alla data di riferimento interrompe l'attesa degli altri download.
+     */
+    private X509CRL downloadFirstCrl(CryptoConfiguration configuration, List<String> urls,
+            Date referenceDate, final int httpTimeoutConnection, final int httpSocketTimeout,
+            final int ldapTimeoutConnection) {
+        CompletionService<X509CRL> completionService = new ExecutorCompletionService<X509CRL>(
+                configuration.getCrlDownloadExecutor());
+        List<Future<X509CRL>> futures = new ArrayList<Future<X509CRL>>(urls.size());
+        Date coverageDate = new Date();
+        if (referenceDate != null && referenceDate.after(coverageDate)) {
+            coverageDate = referenceDate;
+        }
+        X509CRL mostRecentCrl = null;
+        int completed = 0;
+        try {
+            while (completed < urls.size()) {
+                Future<X509CRL> future = null;
+                if (futures.size() == completed) {
+                    // Nessun download in corso: avvio il successivo
+                    futures.add(completionService.submit(
+                            downloadTask(urls.get(futures.size()), httpTimeoutConnection,
+                                    httpSocketTimeout, ldapTimeoutConnection)));
+                } else if (futures.size() < urls.size()) {
+                    future = completionService.poll(configuration.getCrlHedgeDelay(),
+                            TimeUnit.MILLISECONDS);
+                    if (future == null) {
+                        log.debug("Nessuna CRL entro {} ms, interrogo il punto di "
+                                + "distribuzione successivo", configuration.getCrlHedgeDelay());
+                        futures.add(completionService.submit(
+                                downloadTask(urls.get(futures.size()), httpTimeoutConnection,
+                                        httpSocketTimeout, ldapTimeoutConnection)));
+                    }
                 } else {
-                    throw new CryptoSignerException("Protocollo di comunicazione non supportato!");
+                    future = completionService.take();
+                }
+                if (future == null) {
+                    continue;
+                }
+                completed++;
+                X509CRL crl = getDownloadedCrl(future);
+                if (crl != null && crl.getNextUpdate() != null
+                        && crl.getNextUpdate().after(coverageDate)) {
+                    return crl;
+                }
+                if (isMoreRecent(crl, mostRecentCrl)) {
+                    mostRecentCrl = crl;
+                }
+                if (futures.size() < urls.size()) {
+                    futures.add(completionService.submit(
+                            downloadTask(urls.get(futures.size()), httpTimeoutConnection,
+                                    httpSocketTimeout, ldapTimeoutConnection)));
                 }
-                // log.info("getCrlByURL END");
-                log.info("CRL scaricata correttamente");
-            } catch (CryptoSignerException e) {
-                log.warn("Si è verificato il seguente errore", e);
-            } catch (CertificateException | NoSuchProviderException | IOException
-                    | URISyntaxException e) {
-                log.error("Si è verificato il seguente errore", e);
             }
-            if (crl != null && (mostRecentCrl == null
-                    || mostRecentCrl.getNextUpdate().before(crl.getNextUpdate()))) {
-                mostRecentCrl = crl;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<X509CRL> future : futures) {
+                future.cancel(true);
             }
         }
         return mostRecentCrl;
     }
 
+    private Callable<X509CRL> downloadTask(final String url, final int httpTimeoutConnection,
+            final int httpSocketTimeout, final int ldapTimeoutConnection) {
+        return new Callable<X509CRL>() {
+            @Override
+            public X509CRL call() {
+                return downloadCrl(url, httpTimeoutConnection, httpSocketTimeout,
+                        ldapTimeoutConnection);
+            }
+        };
+    }
+
+    private X509CRL getDownloadedCrl(Future<X509CRL> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            log.error("Si è verificato il seguente errore", e.getCause());
+            return null;
+        }
+    }
+
+    private static boolean isMoreRecent(X509CRL crl, X509CRL mostRecentCrl) {
+        return crl != null && (mostRecentCrl == null
+                || mostRecentCrl.getNextUpdate().before(crl.getNextUpdate()));
+    }
+
+    private X509CRL downloadCrl(String url, int httpTimeoutConnection, int httpSocketTimeout,
+            int ldapTimeoutConnection) {
+        X509CRL crl = null;
+        try {
+            CRLUtil util = new CRLUtil();
+
+            url = StringUtils.trim(url);
+            log.info("Scarico la CRL dall'URL: {}", url);
+
+            if (url.toUpperCase().startsWith("LDAP")) {
+                crl = util.searchCrlByLDAP(url, ldapTimeoutConnection);
+            } else if (url.toUpperCase().startsWith("FILE")) {
+                crl = util.ricercaCrlByFile(url);
+            } else if (url.toUpperCase().startsWith("HTTP")) {
+                crl = util.ricercaCrlByProxyHTTP(url,
+                        CryptoSingleton.getInstance().getConfiguration(), httpTimeoutConnection,
+                        httpSocketTimeout);
+            } else {
+                throw new CryptoSignerException("Protocollo di comunicazione non supportato!");
+            }
+            // log.info("getCrlByURL END");
+            log.info("CRL scaricata correttamente");
+        } catch (CryptoSignerException e) {
+            log.warn("Si è verificato il seguente errore", e);
+        } catch (CertificateException | NoSuchProviderException | IOException
+                | URISyntaxException e) {
+            log.error("Si è verificato il seguente errore", e);
+        }
+        return crl;
+    }
+
     /**
      * Recupera un vettore contenente i distribution point CRL del certificato passato in ingresso
      *
@@ -327,10 +789,42 @@ public class SignerUtil {
      */
     public List<String> getURLCrlDistributionPoint(X509Certificate certificate)
             throws CryptoSignerException {
+        try {
+            return getDistributionPointURLs(certificate.getExtensionValue("2.5.29.31"));
+        } catch (Exception e) {
+            throw new CryptoSignerException("Errore nel recupero del distribution point della CRL",
+                    e);
+        }
+    }
+
+    /**
+     * Recupera i punti di distribuzione delle delta CRL (estensione <code>freshestCRL</code>) del
+     * certificato o della CRL completa passati in ingresso
+     *
+     * @param source certificato o CRL completa
+     *
+     * @return Lista di Distribution point delle delta CRL (vuota se l'estensione non è presente)
+     *
+     * @throws CryptoSignerException in caso di errore
+     */
+    public List<String> getURLFreshestCRL(X509Extension source)
+            throws CryptoSignerException {
+        byte[] extension = source.getExtensionValue("2.5.29.46");
+        if (extension == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return getDistributionPointURLs(extension);
+        } catch (Exception e) {
+            throw new CryptoSignerException(
+                    "Errore nel recupero del distribution point della delta CRL", e);
+        }
+    }
+
+    private List<String> getDistributionPointURLs(byte[] val1) throws Exception {
         ASN1InputStream oAsnInStream = null;
         ASN1InputStream oAsnInStream2 = null;
         try {
-            byte[] val1 = certificate.getExtensionValue("2.5.29.31");
             oAsnInStream = new ASN1InputStream(new ByteArrayInputStream(val1));
             ASN1Primitive derObj = oAsnInStream.readObject();
             DEROctetString dos = (DEROctetString) derObj;
@@ -344,37 +838,22 @@ public class SignerUtil {
             } else {
                 throw new Exception("Lista delle distribution point vuota o nulla");
             }
-        } catch (Exception e) {
-            throw new CryptoSignerException("Errore nel recupero del distribution point della CRL",
-                    e);
         } finally {
             IOUtils.closeQuietly(oAsnInStream);
             IOUtils.closeQuietly(oAsnInStream2);
         }
     }
 
-    private HttpResponse doGet(String urlString) throws IOException {
+    private CloseableHttpResponse doGet(String urlString) throws IOException {
         CryptoConfiguration cryptoConfiguration = context
                 .getBean(CryptoConstants.CRYPTO_CONFIGURATION, CryptoConfiguration.class);
-
-        HttpGet method = new HttpGet(urlString);
-
-        DefaultHttpClient httpclient = new DefaultHttpClient();
-        if (cryptoConfiguration.isProxy()) {
-            Credentials credential = cryptoConfiguration.isNTLSAuth()
-                    ? new NTCredentials(cryptoConfiguration.getProxyUser(),
-                            cryptoConfiguration.getProxyPassword(),
-                            cryptoConfiguration.getUserHost(), cryptoConfiguration.getUserDomain())
-                    : new UsernamePasswordCredentials(cryptoConfiguration.getProxyUser(),
-                            cryptoConfiguration.getProxyPassword());
-            HttpHost proxy = new HttpHost(cryptoConfiguration.getProxyHost(),
-                    cryptoConfiguration.getProxyPort());
-            httpclient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
-            httpclient.getCredentialsProvider().setCredentials(
-                    new AuthScope(proxy.getHostName(), proxy.getPort()), credential);
-        }
-        return httpclient.execute(method);
-
+        // Timeout espliciti: il client è condiviso con il download delle CRL
+        final int timeout = cryptoConfiguration.getTrustedListTimeout() * 1000; // conversione in
+                                                                              // millisecondi
+        HttpGet request = new HttpGet(urlString);
+        request.setConfig(RequestConfig.custom().setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout).setSocketTimeout(timeout).build());
+        return cryptoConfiguration.getHttpClient().execute(request);
     }
 
     private void addCertificateFromList(String localTrustedListUrl,
@@ -624,13 +1103,11 @@ public class SignerUtil {
                     + authIdSignature);
 
             Map<String, X509Certificate> qualifiedCertificates = getQualifiedPrincipalsAndX509Certificates();
+            // Inserisco i certificati in background, con un'unica operazione sullo storage
+            insertCAsAsync(certificatesAuthorityStorage,
+                    new ArrayList<X509Certificate>(qualifiedCertificates.values()));
+            X500Principal issuerPrincipal = signingCertificate.getIssuerX500Principal();
             for (X509Certificate donwloadedCaCert : qualifiedCertificates.values()) {
-                try {
-                    certificatesAuthorityStorage.insertCA(donwloadedCaCert);
-                } catch (Exception ignore) {
-                    log.debug("Errore durante l'inserimento della CA ", ignore);
-                }
-                X500Principal issuerPrincipal = signingCertificate.getIssuerX500Principal();
                 if (donwloadedCaCert.getIssuerX500Principal().getName()
                         .equals(issuerPrincipal.getName())) {
                     String subjectKeyId = getSubjectKeyId(donwloadedCaCert);
@@ -648,6 +1125,15 @@ public class SignerUtil {
         return null;
     }
 
+    private void insertCAsAsync(ICAStorage certificatesAuthorityStorage,
+            List<X509Certificate> certificates) {
+        if (certificatesAuthorityStorage == null || certificates.isEmpty()) {
+            return;
+        }
+        CryptoSingleton.getInstance().getConfiguration().getTrustedListLoader()
+                .submit(certificatesAuthorityStorage, certificates);
+    }
+
     /**
      * Metodo di utilità che consente di trasformare il contenuto in byte in input nella
      * corrispondente stringa esadecimale
@@ -0,0 +1,99 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.eng.crypto.storage.ICAStorage;
+
+/**
+ * Inserimento in background nello storage dei certificati delle trusted list, in modo che le
+ * verifiche non attendano il caricamento.
+ * <p>
+ * I caricamenti sono eseguiti da un unico thread. Per ciascuno storage resta in attesa al più un
+ * caricamento: una nuova richiesta sostituisce la lista in attesa con quella più recente, senza
+ * scartarla.
+ * </p>
+ *
+ */
+public class TrustedListLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(TrustedListLoader.class);
+
+    private final ConcurrentMap<ICAStorage, List<X509Certificate>> pending = new ConcurrentHashMap<ICAStorage, List<X509Certificate>>();
+    private final ExecutorService executor;
+
+    public TrustedListLoader() {
+        final AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ca-load-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Richiede l'inserimento dei certificati nello storage. Se per lo stesso storage è già in
+     * attesa un caricamento, la lista in attesa viene sostituita con quella indicata.
+     *
+     * @param storage      storage dei certificati
+     * @param certificates certificati della trusted list
+     */
+    public void submit(final ICAStorage storage, List<X509Certificate> certificates) {
+        if (pending.put(storage, certificates) != null) {
+            log.debug("Caricamento della trusted list già in attesa, sostituito con il più "
+                    + "recente");
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(storage);
+            }
+        });
+    }
+
+    private void load(ICAStorage storage) {
+        List<X509Certificate> certificates = pending.remove(storage);
+        if (certificates == null) {
+            return;
+        }
+        try {
+            storage.insertCAs(certificates);
+        } catch (Exception e) {
+            log.warn("Errore durante l'inserimento dei certificati della trusted list", e);
+        }
+    }
+
+    /**
+     * Arresta il thread di caricamento
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        pending.clear();
+    }
+}
@@ -103,29 +103,20 @@ public class TsdSigner extends AbstractSigner {
 
     @Override
     public boolean isSignedType(byte[] content, ValidationInfos complianceCheck) {
-        throw new UnsupportedOperationException(
-                "L'invocazione tramite byte array non è supportata");
+        return isSignedType(new ByteArrayInputStream(content), content.length, complianceCheck);
     }
 
     @Override
     public TimeStampToken[] getTimeStampTokens() {
         if (timestamptokens == null) {
-            isSignedType(file, new ValidationInfos());
+            isSignedSource(new ValidationInfos());
         }
         return timestamptokens;
     }
 
     @Override
     public InputStream getUnsignedContent() {
-        try {
-            alreadyExtractedFile = File.createTempFile("content-tsd-signer",
-                    getEnclosedEnvelopeExtension());
-            if (tsd.getContent() != null) {
-                FileUtils.writeByteArrayToFile(alreadyExtractedFile, tsd.getContent());
-            }
-        } catch (Exception e) {
-            log.error("Errore IO", e);
-        }
+        // Il contenuto è già in memoria: il salvataggio su file è demandato a getContentAsFile
         return new ByteArrayInputStream(tsd.getContent());
     }
 
@@ -159,7 +150,7 @@ public class TsdSigner extends AbstractSigner {
     public ValidationInfos validateTimeStampTokensEmbedded() {
         ValidationInfos validationInfos = new ValidationInfos();
         if (this.timestamptokens == null) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 return validationInfos;
             }
@@ -171,14 +162,14 @@ public class TsdSigner extends AbstractSigner {
     public ValidationInfos validateTimeStampTokensEmbedded(TimeStampToken timeStampToken) {
         ValidationInfos validationInfos = new ValidationInfos();
 
-        if (this.file == null) {
+        if (!hasSource()) {
             validationInfos.addError("File non specificato");
             validationInfos.setEsito(VerificheEnums.EsitoControllo.FORMATO_NON_CONOSCIUTO);
             return validationInfos;
         }
 
         if (this.timestamptokens == null || this.timestamptokens.length == 0) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 validationInfos.setEsito(VerificheEnums.EsitoControllo.FORMATO_NON_CONOSCIUTO);
                 return validationInfos;
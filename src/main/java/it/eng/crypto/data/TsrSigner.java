@@ -14,7 +14,6 @@
 package it.eng.crypto.data;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,7 +55,7 @@ public class TsrSigner extends AbstractSigner {
 
     public TimeStampToken[] getTimeStampTokens() {
         if (timestamptokens == null) {
-            isSignedType(file, new ValidationInfos());
+            isSignedSource(new ValidationInfos());
         }
         return timestamptokens;
     }
@@ -188,14 +187,23 @@ public class TsrSigner extends AbstractSigner {
 
     @Override
     public ValidationInfos validateTimeStampTokensDetached(File attachedFile) {
+        return validateTimeStampTokensDetached(
+                attachedFile == null ? null : DocumentContent.of(attachedFile));
+    }
+
+    /**
+     * Valida la marca calcolando l'impronta direttamente sul contenuto, in memoria o su file
+     */
+    @Override
+    public ValidationInfos validateTimeStampTokensDetached(DocumentContent attachedContent) {
         ValidationInfos validationInfos = new ValidationInfos();
-        if (this.file == null) {
+        if (!hasSource()) {
             validationInfos.addError("File di non specificato");
             validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
             return validationInfos;
         }
         if (this.timestamptokens == null || this.timestamptokens.length == 0) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 validationInfos.setEsito(EsitoControllo.FORMATO_NON_CONOSCIUTO);
                 return validationInfos;
@@ -230,7 +238,7 @@ public class TsrSigner extends AbstractSigner {
                 if (contentHash != null && hashAlgOID.equals(lastHashAlgOID)) {
                     hash = contentHash;
                 } else {
-                    hash = generateHash(digest, validationInfos, attachedFile);
+                    hash = generateHash(digest, validationInfos, attachedContent);
                     contentHash = hash;
                     lastHashAlgOID = hashAlgOID;
                 }
@@ -254,19 +262,23 @@ public class TsrSigner extends AbstractSigner {
     }
 
     private byte[] generateHash(MessageDigest digest, ValidationInfos validationInfos,
-            File... files) {
-        if (files == null) {
-            return new byte[0];
+            DocumentContent content) {
+        if (content == null) {
+            validationInfos
+                    .addError("Il file su cui validare la marca temporale non è stato trovato");
+            return digest.digest();
         }
-        for (File file : files) {
-            try (FileInputStream fis = FileUtils.openInputStream(file)) {
-                digest.update(IOUtils.toByteArray(fis));
-            } catch (FileNotFoundException e) {
-                validationInfos
-                        .addError("Il file su cui validare la marca temporale non è stato trovato");
-            } catch (IOException e) {
-                validationInfos.addError("Il token non contiene una marca temporale valida");
+        try (InputStream stream = content.openStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
             }
+        } catch (FileNotFoundException e) {
+            validationInfos
+                    .addError("Il file su cui validare la marca temporale non è stato trovato");
+        } catch (IOException e) {
+            validationInfos.addError("Il token non contiene una marca temporale valida");
         }
         return digest.digest();
     }
@@ -22,7 +22,6 @@ import it.eng.crypto.provider.MyDOMXMLSignatureFactory;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
@@ -62,7 +61,6 @@ import es.mityc.firmaJava.libreria.xades.errores.FirmaXMLError;
 import it.eng.crypto.data.util.ParserPool;
 import it.eng.crypto.exception.XmlParserException;
 import it.eng.crypto.manager.SignatureManager;
-import java.nio.file.Files;
 import java.security.NoSuchProviderException;
 import java.security.ProviderException;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
@@ -126,50 +124,89 @@ public class XMLSigner extends AbstractSigner {
         }
     }
 
+    /**
+     * Restituisce true se il contenuto rispetta lo schema XAdES e contiene almeno una firma. Il
+     * contenuto viene analizzato in memoria: solo i documenti XML che contengono un nodo signature
+     * vengono salvati su file temporaneo, richiesto dalla validazione XAdES, riutilizzando il
+     * documento già parserizzato.
+     */
     public boolean isSignedType(byte[] content, ValidationInfos complianceCheck) {
+        Document document = parseSignedDocument(content);
+        if (document == null) {
+            return false;
+        }
         File tmpFile = null;
-        FileOutputStream fos = null;
         try {
             tmpFile = File.createTempFile("tmp-xml-signer-", null);
-            tmpFile.deleteOnExit(); // Inutile
-            fos = new FileOutputStream(tmpFile);
-            fos.write(content);
-            return isSignedType(tmpFile, complianceCheck);
+            FileUtils.writeByteArrayToFile(tmpFile, content);
+            return isSignedType(tmpFile, document, complianceCheck);
         } catch (IOException e) {
+            log.error("Errore IO", e);
         } finally {
-            try {
-                if (fos != null) {
-                    fos.close();
-                }
-                if (tmpFile != null) {
-                    Files.deleteIfExists(tmpFile.toPath());
-                }
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+            if (tmpFile != null) {
+                FileUtils.deleteQuietly(tmpFile);
             }
         }
         return false;
     }
 
+    /*
+     * Parserizza in memoria il contenuto: restituisce il documento solo se XML con almeno un nodo
+     * signature, altrimenti null
+     */
+    private Document parseSignedDocument(byte[] content) {
+        reset();
+        this.type = null;
+        DocumentBuilder db = null;
+        try {
+            db = parserPool.getBuilder();
+            Document document = db.parse(new ByteArrayInputStream(content));
+            if (document == null) {
+                return null;
+            }
+            SignatureManager.setIsXml(true);
+            return document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature")
+                    .getLength() > 0 ? document : null;
+        } catch (Exception e) {
+            log.debug("Contenuto non in formato XML", e);
+            return null;
+        } finally {
+            if (db != null) {
+                db.reset();
+                parserPool.returnBuilder(db);
+            }
+        }
+    }
+
     /**
      * Restituisce true se il contenuto del file rispetta lo schema XAdES e contiene almeno una
      * firma (nodo signature) ed eventualmente un timestamp
      */
     public boolean isSignedType(File file, ValidationInfos complianceCheck) {
+        return isSignedType(file, null, complianceCheck);
+    }
+
+    /*
+     * Validazione XAdES del file: il documento, se già parserizzato, non viene letto di nuovo
+     */
+    private boolean isSignedType(File file, Document document, ValidationInfos complianceCheck) {
         // Resetto il signer
         reset();
         this.type = null;
         InputStream stream = null;
         DocumentBuilder db = null;
         try {
-            stream = FileUtils.openInputStream(file);
             db = parserPool.getBuilder();
-            doc = db.parse(stream);
+            if (document != null) {
+                doc = document;
+            } else {
+                stream = FileUtils.openInputStream(file);
+                doc = db.parse(stream);
+                db.reset();
+            }
             if (doc != null) {
                 SignatureManager.setIsXml(true);
             }
-            db.reset();
             populateValidationResults(file, db);
         } catch (Exception e) {
             if (xmlValidator != null && xmlValidator.getResultado() != null
@@ -369,7 +406,7 @@ public class XMLSigner extends AbstractSigner {
             DocumentBuilder db = null;
             try {
                 db = parserPool.getBuilder();
-                populateValidationResults(file, db);
+                populateValidationResults(getFile(), db);
             } catch (FirmaXMLError e) {
             } catch (XmlParserException e) {
                 log.error("Errore nel recupero di un DocumentBuilder dal pool", e);
@@ -431,7 +468,7 @@ public class XMLSigner extends AbstractSigner {
             return validationInfos;
         }
         if (this.timestamptokens == null || timestamptokens.length == 0) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 return validationInfos;
             } else {
@@ -502,7 +539,7 @@ public class XMLSigner extends AbstractSigner {
             return validationInfos;
         }
         if (this.timestamptokens == null || timestamptokens.length == 0) {
-            if (!this.isSignedType(file, validationInfos)) {
+            if (!this.isSignedSource(validationInfos)) {
                 validationInfos.addError("File non in formato: " + this.getFormat());
                 return validationInfos;
             } else {
@@ -0,0 +1,33 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.manager;
+
+/**
+ * Riceve gli esiti di un lotto di verifiche
+ * ({@link SignatureManager#verifyAll(java.util.List, IVerificationListener)}) man mano che vengono
+ * completati. Il metodo viene richiamato sul thread che ha avviato il lotto, una volta per
+ * ciascuna richiesta e nell'ordine di completamento.
+ *
+ */
+public interface IVerificationListener {
+
+    /**
+     * Notifica il completamento di una verifica del lotto
+     *
+     * @param index  posizione della richiesta nella lista passata al lotto
+     * @param result esito della verifica
+     */
+    public void onResult(int index, VerificationResult result);
+
+}
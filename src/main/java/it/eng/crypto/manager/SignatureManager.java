@@ -16,11 +16,25 @@ package it.eng.crypto.manager;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import it.eng.crypto.controller.MasterSignerController;
 import it.eng.crypto.controller.MasterTimeStampController;
+import it.eng.crypto.controller.bean.ContentBean;
 import it.eng.crypto.controller.bean.DocumentAndTimeStampInfoBean;
 import it.eng.crypto.controller.bean.InputSignerBean;
 import it.eng.crypto.controller.bean.InputTimeStampBean;
@@ -29,6 +43,9 @@ import it.eng.crypto.controller.bean.OutputTimeStampBean;
 import it.eng.crypto.controller.bean.ValidationInfos;
 import it.eng.crypto.controller.exception.ExceptionController;
 import it.eng.crypto.data.AbstractSigner;
+import it.eng.crypto.data.DocumentContent;
+import it.eng.crypto.data.EnvelopeContext;
+import it.eng.crypto.data.SharedLookupCache;
 import it.eng.crypto.data.SignerUtil;
 import it.eng.crypto.data.type.SignerType;
 import it.eng.crypto.exception.CryptoSignerException;
@@ -87,6 +104,13 @@ import it.eng.crypto.exception.CryptoSignerException;
  * {@link execute(SignatureManagerConfig)}.
  * </p>
  * <p>
+ * I metodi precedenti memorizzano lo stato della chiamata negli attributi dell'istanza. Il metodo
+ * {@link SignatureManager#verify(VerificationRequest)} mantiene invece lo stato in un contesto
+ * creato per la singola richiesta, consentendo di utilizzare una stessa istanza da più thread.
+ * Il metodo {@link SignatureManager#verifyAll(List)} esegue un lotto di richieste in parallelo,
+ * condividendo tra le verifiche i certificati delle CA e le CRL recuperati.
+ * </p>
+ * <p>
  * L'esecuzione attiva l'analisi dei file, che può essere suddivisa in 3 fasi:
  * <ol>
  * <li>Estrazione della marca temporale: viene richiamato il filtro di analisi della marca temporale
@@ -96,8 +120,9 @@ import it.eng.crypto.exception.CryptoSignerException;
  * <li>Verifica del contenuto della busta e iterazione dei controlli sulla firma</li>
  * <li>Se il contenuto può essere a sua volta firmato ({@link AbstractSigner#canContentBeSigned
  * signer.canContentBeSigned = true}), viene richiamato il controllo al passo 2, estraendo il
- * contenuto della busta su file e considerando questo come un file di tipo
- * Contenuto&Firma&Timestamp (configurazione 2)</li>
+ * contenuto della busta e considerando questo come un file di tipo Contenuto&Firma&Timestamp
+ * (configurazione 2). Il contenuto estratto viene salvato su file solo se la sua intestazione
+ * indica che può contenere una busta firmata</li>
  * </ol>
  * </p>
  *
@@ -106,6 +131,8 @@ import it.eng.crypto.exception.CryptoSignerException;
  */
 public class SignatureManager {
 
+    private static final Logger log = LoggerFactory.getLogger(SignatureManager.class);
+
     MasterTimeStampController masterTimeStampController;
     MasterSignerController masterSignerController;
     /**
@@ -162,6 +189,15 @@ public class SignatureManager {
     private int httpCrlSocketTimeout;
     private int ldapCrlTimeout;
 
+    /**
+     * Numero di verifiche eseguite contemporaneamente nei lotti
+     */
+    private int batchPoolSize = Runtime.getRuntime().availableProcessors();
+    /**
+     * Executor per i lotti di verifiche: se non definito ne viene creato uno per ciascun lotto
+     */
+    private ExecutorService batchExecutor;
+
     private static final ThreadLocal<Boolean> _isXml = new ThreadLocal<Boolean>() {
         @Override
         protected Boolean initialValue() {
@@ -169,8 +205,243 @@ public class SignatureManager {
         }
     };
 
-    public OutputTimeStampBean executeMassiveTimeStamp(File timestamp, File[] contentFile) {
-        return null;
+    /**
+     * Verifica una marca temporale detached rispetto a più file di contenuto. I controlli sui
+     * singoli file vengono eseguiti in parallelo e condividono certificati e CRL della TSA.
+     *
+     * @param timestamp   marca temporale detached
+     * @param contentFile file a cui la marca temporale è associata
+     *
+     * @return bean di output contenente le informazioni della marca per ciascun file (individuato
+     *         da {@link DocumentAndTimeStampInfoBean#getAssociatedFile()}), null se non è stato
+     *         possibile estrarre la marca temporale da alcun file. Le proprietà e i controlli di
+     *         conformità dei singoli file vengono riuniti (vedi
+     *         {@link #mergeTimeStampOutputs(Map)}) e gli output dei singoli file restano
+     *         disponibili in {@link OutputTimeStampBean#getFileOutputs()}. Se la verifica è stata
+     *         interrotta o non è riuscita per alcuni file l'output è segnalato come incompleto
+     *         ({@link OutputTimeStampBean#isIncomplete()})
+     */
+    public OutputTimeStampBean executeMassiveTimeStamp(final File timestamp, File[] contentFile) {
+        if (masterTimeStampController == null || timestamp == null || contentFile == null) {
+            return null;
+        }
+        final SharedLookupCache lookupCache = new SharedLookupCache();
+        List<Callable<OutputTimeStampBean>> tasks = new ArrayList<Callable<OutputTimeStampBean>>();
+        for (final File file : contentFile) {
+            tasks.add(new Callable<OutputTimeStampBean>() {
+                @Override
+                public OutputTimeStampBean call() throws Exception {
+                    InputTimeStampBean input = new InputTimeStampBean();
+                    input.setTimeStampFile(timestamp);
+                    input.setContentFile(file);
+                    input.setLookupCache(lookupCache);
+                    input.setEnvelopeContext(new EnvelopeContext(signerUtil));
+                    return masterTimeStampController.executeControll(input);
+                }
+            });
+        }
+
+        boolean incomplete = false;
+        Map<File, OutputTimeStampBean> fileOutputs = new LinkedHashMap<File, OutputTimeStampBean>();
+        ExecutorService executor = batchExecutor != null ? batchExecutor : newBatchExecutor();
+        try {
+            List<Future<OutputTimeStampBean>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                OutputTimeStampBean fileOutput;
+                try {
+                    fileOutput = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    log.warn("Impossibile verificare la marca temporale " + timestamp
+                            + " per il file " + contentFile[i], e.getCause());
+                    incomplete = true;
+                    continue;
+                }
+                if (fileOutput != null && fileOutput.getDocumentAndTimeStampInfos() != null) {
+                    fileOutputs.put(contentFile[i], fileOutput);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Mantengo lo stato di interruzione e segnalo che l'output è parziale
+            log.warn("Verifica della marca temporale {} interrotta", timestamp);
+            Thread.currentThread().interrupt();
+            incomplete = true;
+        } finally {
+            if (executor != batchExecutor) {
+                executor.shutdownNow();
+            }
+        }
+        OutputTimeStampBean output = mergeTimeStampOutputs(fileOutputs);
+        if (output != null) {
+            output.setIncomplete(incomplete);
+        }
+        return output;
+    }
+
+    /**
+     * Riunisce gli output della marca temporale verificata sui singoli file di contenuto: le
+     * informazioni della marca e i controlli di conformità di tutti i file vengono accodati, le
+     * proprietà vengono riunite mantenendo, per le proprietà valorizzate in più file, il valore del
+     * primo file; signer e figlio sono quelli del primo file che li definisce.
+     *
+     * @param fileOutputs output dei singoli file, nell'ordine dei file di contenuto
+     *
+     * @return l'output complessivo, null se non sono presenti output
+     */
+    static OutputTimeStampBean mergeTimeStampOutputs(Map<File, OutputTimeStampBean> fileOutputs) {
+        if (fileOutputs.isEmpty()) {
+            return null;
+        }
+        OutputTimeStampBean output = new OutputTimeStampBean();
+        List<DocumentAndTimeStampInfoBean> infos = new ArrayList<DocumentAndTimeStampInfoBean>();
+        Map<String, ValidationInfos> complianceChecks = null;
+        for (OutputTimeStampBean fileOutput : fileOutputs.values()) {
+            infos.addAll(fileOutput.getDocumentAndTimeStampInfos());
+            for (Map.Entry<String, Object> property : fileOutput.getProperties().entrySet()) {
+                if (!output.getProperties().containsKey(property.getKey())) {
+                    output.setProperty(property.getKey(), property.getValue());
+                }
+            }
+            if (fileOutput.getComplianceChecks() != null) {
+                if (complianceChecks == null) {
+                    complianceChecks = new HashMap<String, ValidationInfos>();
+                }
+                complianceChecks.putAll(fileOutput.getComplianceChecks());
+            }
+            if (output.getSigner() == null) {
+                output.setSigner(fileOutput.getSigner());
+            }
+            if (output.getChild() == null) {
+                output.setChild(fileOutput.getChild());
+            }
+        }
+        output.setDocumentAndTimeStampInfos(infos);
+        output.setComplianceChecks(complianceChecks);
+        output.setFileOutputs(fileOutputs);
+        return output;
+    }
+
+    /**
+     * Esegue in parallelo un lotto di verifiche. Le verifiche del lotto condividono i certificati
+     * delle CA e le CRL recuperati dallo storage o scaricati online, per cui ogni CRL viene
+     * scaricata al più una volta per lotto.
+     *
+     * @param requests richieste di verifica
+     *
+     * @return gli esiti, nello stesso ordine delle richieste
+     */
+    public List<VerificationResult> verifyAll(List<VerificationRequest> requests) {
+        final VerificationResult[] results = new VerificationResult[requests == null ? 0
+                : requests.size()];
+        verifyAll(requests, new IVerificationListener() {
+            @Override
+            public void onResult(int index, VerificationResult result) {
+                results[index] = result;
+            }
+        });
+        List<VerificationResult> list = new ArrayList<VerificationResult>(results.length);
+        for (VerificationResult result : results) {
+            list.add(result);
+        }
+        return list;
+    }
+
+    /**
+     * Esegue in parallelo un lotto di verifiche, notificando gli esiti man mano che vengono
+     * completati. Il numero di verifiche contemporanee è definito da {@link #setBatchPoolSize(int)}
+     * oppure dall'executor impostato con {@link #setBatchExecutor(ExecutorService)}.
+     * <p>
+     * Se il thread che ha avviato il lotto viene interrotto le verifiche non ancora completate
+     * vengono annullate e notificate come non riuscite, con una {@link CancellationException}
+     * come errore ({@link VerificationResult#getError()}); lo stato di interruzione del thread
+     * viene mantenuto.
+     * </p>
+     *
+     * @param requests richieste di verifica
+     * @param listener destinatario degli esiti
+     */
+    public void verifyAll(List<VerificationRequest> requests, IVerificationListener listener) {
+        if (requests == null || requests.isEmpty()) {
+            return;
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener degli esiti non valorizzato");
+        }
+        final SharedLookupCache lookupCache = new SharedLookupCache();
+        ExecutorService executor = batchExecutor != null ? batchExecutor : newBatchExecutor();
+        CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(
+                executor);
+        final VerificationResult[] results = new VerificationResult[requests.size()];
+        boolean[] delivered = new boolean[requests.size()];
+        Map<Future<Integer>, Integer> indexes = new HashMap<Future<Integer>, Integer>();
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                final int index = i;
+                final VerificationRequest request = requests.get(i);
+                indexes.put(completionService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        results[index] = verify(request, lookupCache);
+                        return index;
+                    }
+                }), index);
+            }
+            for (int i = 0; i < indexes.size(); i++) {
+                Future<Integer> future = completionService.take();
+                int index = indexes.get(future);
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Errore non gestito dalla verifica: lo riporto nell'esito del documento e
+                    // proseguo con gli altri
+                    log.error("Errore durante l'esecuzione del lotto di verifiche", e.getCause());
+                    results[index] = VerificationResult.failed(requests.get(index), e.getCause());
+                }
+                delivered[index] = true;
+                listener.onResult(index, results[index]);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Lotto di verifiche interrotto");
+            for (Future<Integer> future : indexes.keySet()) {
+                future.cancel(true);
+            }
+            CancellationException cancellation = new CancellationException(
+                    "Lotto di verifiche interrotto");
+            for (int i = 0; i < delivered.length; i++) {
+                if (!delivered[i]) {
+                    listener.onResult(i, VerificationResult.failed(requests.get(i), cancellation));
+                }
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            if (executor != batchExecutor) {
+                executor.shutdownNow();
+            }
+            lookupCache.clear();
+        }
+    }
+
+    private ExecutorService newBatchExecutor() {
+        return Executors.newFixedThreadPool(Math.max(1, batchPoolSize));
+    }
+
+    /*
+     * Verifica di un elemento del lotto: gli errori imprevisti sono riportati nell'esito
+     */
+    private VerificationResult verify(VerificationRequest request, SharedLookupCache lookupCache) {
+        cleanIsXml();
+        try {
+            VerificationContext context = new VerificationContext(request,
+                    this.useExternalTsdTsrM7MEnvelop, signerUtil);
+            context.setLookupCache(lookupCache);
+            OutputSignerBean output = run(context);
+            return new VerificationResult(request, output, context.getReferenceDate(),
+                    context.isInterrupted());
+        } catch (RuntimeException e) {
+            log.error("Errore durante la verifica del lotto", e);
+            return VerificationResult.failed(request, e);
+        } finally {
+            cleanIsXml();
+        }
     }
 
     /**
@@ -545,12 +816,68 @@ public class SignatureManager {
         this.referenceDate = null;
     }
 
+    /**
+     * Esegue la verifica descritta dalla richiesta. Il metodo non modifica lo stato del manager:
+     * tutte le informazioni relative alla singola verifica sono mantenute in un contesto creato per
+     * la chiamata, per cui un'unica istanza (con i relativi controller) può servire più thread
+     * contemporaneamente.
+     *
+     * @param request richiesta di verifica
+     *
+     * @return esito della verifica
+     */
+    public VerificationResult verify(VerificationRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("Richiesta di verifica non valorizzata");
+        }
+        VerificationContext context = new VerificationContext(request,
+                this.useExternalTsdTsrM7MEnvelop, signerUtil);
+        OutputSignerBean output = run(context);
+        return new VerificationResult(request, output, context.getReferenceDate(),
+                context.isInterrupted());
+    }
+
+    /*
+     * Esecuzione a partire dagli attributi valorizzati dai metodi execute*: al termine riporta
+     * sull'istanza la data di riferimento e il flag di utilizzo della busta esterna, come in
+     * precedenza
+     */
     private OutputSignerBean run() {
+        VerificationContext context = newContextFromAttributes();
+        try {
+            return run(context);
+        } finally {
+            this.referenceDate = context.getReferenceDate();
+            this.useExternalTsdTsrM7MEnvelop = context.isUseExternalTsdTsrM7MEnvelop();
+        }
+    }
+
+    private VerificationContext newContextFromAttributes() {
+        VerificationRequest request = new VerificationRequest(getConfiguration(),
+                detachedContentFile, signatureFile, signatureWithContentFile,
+                timeStampedSignatureFile, timeStampFile, timeStampedSignatureWithContentFile,
+                timeStampsChain, referenceDate);
+        return new VerificationContext(request, this.useExternalTsdTsrM7MEnvelop, signerUtil);
+    }
+
+    private OutputSignerBean run(VerificationContext context) {
+        try {
+            return runCycles(context);
+        } finally {
+            // Ogni busta viene analizzata una sola volta per esecuzione
+            context.getEnvelopeContext().clear();
+            context.getRequest().releaseTemporaryFiles();
+            context.releaseExtractedContents();
+        }
+    }
 
-        CONFIGURATION configuration = getConfiguration();
+    private OutputSignerBean runCycles(VerificationContext context) {
+
+        CONFIGURATION configuration = context.getRequest().getConfiguration();
 
         // Esegue il primo ciclo di controllo
-        OutputSignerBean outputSigner = executeCycle(configuration, referenceDate);
+        OutputSignerBean outputSigner = executeCycle(context, configuration,
+                context.getReferenceDate());
 
         // Se si vuole eseguire il controllo anche sul contenuto sbustato
         if (!singleStep) {
@@ -561,11 +888,10 @@ public class SignatureManager {
                     && currentOutput.getContent().isPossiblySigned()) {
                 // Verifico se il controllo precedente si è interrotto
                 // a causa di un errore di un controllo bloccante
-                if (masterSignerController.isInterrupted()) {
+                if (context.isInterrupted()) {
                     break;
                 } else {
-                    timeStampedSignatureWithContentFile = currentOutput.getContent()
-                            .getContentFile();
+                    ContentBean content = currentOutput.getContent();
                     // Ottengo la marca temporale: valida, più vecchia e non Embedded (ie:
                     // detached,
                     // embedded_m7m e
@@ -578,11 +904,21 @@ public class SignatureManager {
                     // prioritario (CHIUSURA
                     // VOLUMI)
                     if (oldestTS != null && !useExternalReferenceTime) {
-                        useExternalTsdTsrM7MEnvelop = true;
-                        referenceDate = newReference;
+                        context.setUseExternalTsdTsrM7MEnvelop(true);
+                        context.setReferenceDate(newReference);
                     }
 
-                    OutputSignerBean tmpOutput = executeCycle(CONFIGURATION.CONFIG_1_2,
+                    // Il contenuto sbustato in memoria viene salvato su file solo se l'intestazione
+                    // indica che può contenere una busta firmata
+                    DocumentContent document = content.getContent();
+                    if (document != null && document.isInMemory()
+                            && !SignerUtil.canBeSigned(document)) {
+                        log.debug("Contenuto sbustato non firmato, analisi terminata");
+                        break;
+                    }
+                    context.setTimeStampedSignatureWithContent(content.getContent());
+
+                    OutputSignerBean tmpOutput = executeCycle(context, CONFIGURATION.CONFIG_1_2,
                             newReference);
                     if (tmpOutput == null) {
                         break;
@@ -596,10 +932,14 @@ public class SignatureManager {
         return outputSigner;
     }
 
-    private OutputSignerBean executeCycle(CONFIGURATION configuration, Date reference) {
-        OutputTimeStampBean outputTimeStamp = getDocumentAndTimeStampInfos(configuration,
-                reference);
-        OutputSignerBean outputSigner = getOutputSigner(configuration, outputTimeStamp);
+    private OutputSignerBean executeCycle(VerificationContext context,
+            CONFIGURATION configuration, Date reference) {
+        OutputTimeStampBean outputTimeStamp = getDocumentAndTimeStampInfos(context,
+                configuration, reference);
+        OutputSignerBean outputSigner = getOutputSigner(context, configuration, outputTimeStamp);
+        if (outputSigner != null && outputSigner.isInterrupted()) {
+            context.setInterrupted(true);
+        }
         return outputSigner;
     }
 
@@ -608,6 +948,11 @@ public class SignatureManager {
      */
     public OutputTimeStampBean getDocumentAndTimeStampInfos(CONFIGURATION configuration,
             Date reference) {
+        return getDocumentAndTimeStampInfos(newContextFromAttributes(), configuration, reference);
+    }
+
+    private OutputTimeStampBean getDocumentAndTimeStampInfos(VerificationContext context,
+            CONFIGURATION configuration, Date reference) {
 
         if (masterTimeStampController == null) {
             return null;
@@ -620,21 +965,21 @@ public class SignatureManager {
             switch (configuration) {
 
             case CONFIG_1_2:
-                input.setTimeStampWithContentFile(timeStampedSignatureWithContentFile);
+                input.setTimeStampWithContent(context.getTimeStampedSignatureWithContent());
                 break;
 
             case CONFIG_3:
-                input.setTimeStampFile(timeStampFile);
-                input.setContentFile(signatureWithContentFile);
+                input.setTimeStamp(context.getTimeStamp());
+                input.setContent(context.getSignatureWithContent());
                 break;
 
             case CONFIG_4_5:
-                input.setTimeStampWithContentFile(timeStampedSignatureFile);
+                input.setTimeStampWithContent(context.getTimeStampedSignature());
                 break;
 
             case CONFIG_6:
-                input.setTimeStampFile(timeStampFile);
-                input.setContentFile(signatureFile);
+                input.setTimeStamp(context.getTimeStamp());
+                input.setContent(context.getSignature());
                 break;
 
             default:
@@ -642,7 +987,9 @@ public class SignatureManager {
             }
 
             input.setReferenceDate(reference);
-            input.setTimeStampExtensionsChain(timeStampsChain);
+            input.setTimeStampExtensionsChain(context.getTimeStampsChain());
+            input.setEnvelopeContext(context.getEnvelopeContext());
+            input.setLookupCache(context.getLookupCache());
             output = masterTimeStampController.executeControll(input);
 
         } catch (ExceptionController e) {
@@ -665,44 +1012,54 @@ public class SignatureManager {
      */
     public OutputSignerBean getOutputSigner(CONFIGURATION configuration,
             OutputTimeStampBean outputTimeStamp) {
+        VerificationContext context = newContextFromAttributes();
+        OutputSignerBean output = getOutputSigner(context, configuration, outputTimeStamp);
+        this.referenceDate = context.getReferenceDate();
+        return output;
+    }
+
+    private OutputSignerBean getOutputSigner(VerificationContext context,
+            CONFIGURATION configuration, OutputTimeStampBean outputTimeStamp) {
         AbstractSigner signer = null;
         InputSignerBean input = new InputSignerBean();
         input.setCheckCAOnline(isSearchCAOnline());
         input.setHttpCrlTimeoutConnection(getHttpCrlTimeout());
         input.setHttpCrlSocketTimeout(getHttpCrlSocketTimeout());
         input.setLdapCrlTimeoutConnection(getLdapCrlTimeout());
+        input.setEnvelopeContext(context.getEnvelopeContext());
+        input.setLookupCache(context.getLookupCache());
         Map<String, ValidationInfos> complianceChecks = null;
         if (outputTimeStamp != null && outputTimeStamp.getComplianceChecks() != null) {
             complianceChecks = outputTimeStamp.getComplianceChecks();
             outputTimeStamp = null;
         }
-        File envelope = null;
+        DocumentContent envelope = null;
         try {
 
             switch (configuration) {
             case CONFIG_1_2:
                 signer = outputTimeStamp == null ? null : outputTimeStamp.getSigner();
-                envelope = timeStampedSignatureWithContentFile;
+                envelope = context.getTimeStampedSignatureWithContent();
                 break;
 
             case CONFIG_3:
-                signer = signerUtil.getSignerManager(signatureWithContentFile);
-                envelope = signatureWithContentFile;
+                envelope = context.getSignatureWithContent();
+                signer = context.getEnvelopeContext().getSignerManager(envelope);
                 break;
 
             case CONFIG_4_5:
                 signer = outputTimeStamp == null ? null : outputTimeStamp.getSigner();
-                envelope = timeStampedSignatureFile;
+                envelope = context.getTimeStampedSignature();
                 if (signer != null) {
-                    signer.setDetachedFile(detachedContentFile);
+                    signer.setDetachedContent(context.getDetachedContent());
                 }
                 break;
 
             case CONFIG_6:
-                signer = signerUtil.getSignerManager(signatureFile);
-                envelope = signatureFile;
+                envelope = context.getSignature();
+                signer = context.getEnvelopeContext().getSignerManager(envelope);
                 if (signer != null) {
-                    signer.setDetachedFile(detachedContentFile);
+                    signer.setDetachedContent(context.getDetachedContent());
                 }
                 break;
 
@@ -713,7 +1070,7 @@ public class SignatureManager {
         } catch (CryptoSignerException e) {
             complianceChecks = e.getComplianceChecks();
             if (signer != null) {
-                e.printStackTrace();
+                log.warn("Errore durante il recupero della busta da verificare", e);
             }
         }
 
@@ -759,8 +1116,8 @@ public class SignatureManager {
 
         // Popolo il bean di input
         input.setUseExternalReferenceTime(this.useExternalReferenceTime);
-        input.setUseExternalTsdTsrM7MEnvelop(this.useExternalTsdTsrM7MEnvelop);
-        input.setEnvelope(envelope);
+        input.setUseExternalTsdTsrM7MEnvelop(context.isUseExternalTsdTsrM7MEnvelop());
+        input.setEnvelopeContent(envelope);
         input.setUseSigninTimeAsReferenceDate(this.useSigninTimeAsReferenceDate);
         input.setReferenceDateType(this.referenceDateType);
 
@@ -786,17 +1143,24 @@ public class SignatureManager {
          * Data attuale
          */
 
-        if (referenceDate != null) {
-            input.setReferenceDate(referenceDate);
+        if (context.getReferenceDate() != null) {
+            input.setReferenceDate(context.getReferenceDate());
         } else {
-            referenceDate = new Date();
-            input.setReferenceDate(referenceDate);
+            context.setReferenceDate(new Date());
+            input.setReferenceDate(context.getReferenceDate());
         }
+        output = new OutputSignerBean();
         try {
-            output = masterSignerController.executeControll(input);
+            masterSignerController.executeControll(input, output);
         } catch (ExceptionController e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            // Il bean di output contiene l'esito dei controlli eseguiti fino all'errore bloccante
+            log.error("Errore bloccante durante i controlli delle firme", e);
+            output.setInterrupted(true);
+            if (e.getComplianceChecks() != null
+                    && output.getProperty(OutputSignerBean.FORMAT_COMPLIANCE_PROPERTY) == null) {
+                output.setProperty(OutputSignerBean.FORMAT_COMPLIANCE_PROPERTY,
+                        e.getComplianceChecks());
+            }
         }
         output.setProperty(OutputSignerBean.TIME_STAMP_INFO_PROPERTY, timeStampInfos);
         return output;
@@ -1024,4 +1388,20 @@ public class SignatureManager {
     public void setHttpCrlSocketTimeout(int httpCrlSocketTimeout) {
         this.httpCrlSocketTimeout = httpCrlSocketTimeout;
     }
+
+    public int getBatchPoolSize() {
+        return batchPoolSize;
+    }
+
+    public void setBatchPoolSize(int batchPoolSize) {
+        this.batchPoolSize = batchPoolSize;
+    }
+
+    public ExecutorService getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    public void setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import it.eng.crypto.data.DocumentContent;
+import it.eng.crypto.data.EnvelopeContext;
+import it.eng.crypto.data.SharedLookupCache;
+import it.eng.crypto.data.SignerUtil;
+
+/**
+ * Stato di una singola verifica eseguita dal {@link SignatureManager}. Contiene i documenti in
+ * analisi, la data di riferimento temporale aggiornata durante lo sbustamento e le buste già
+ * analizzate. Viene creato per ogni richiesta e non è condiviso tra thread. I documenti in memoria
+ * vengono salvati su file solo dai metodi get*File.
+ *
+ */
+class VerificationContext {
+
+    private final VerificationRequest request;
+    private final DocumentContent detachedContent;
+    private final DocumentContent signature;
+    private final DocumentContent signatureWithContent;
+    private final DocumentContent timeStampedSignature;
+    private final DocumentContent timeStamp;
+    private final File[] timeStampsChain;
+    /**
+     * Busta corrente: inizialmente quella della richiesta, poi il contenuto sbustato
+     */
+    private DocumentContent timeStampedSignatureWithContent;
+    /**
+     * Contenuti sbustati analizzati nei cicli successivi, da rilasciare al termine
+     */
+    private final List<DocumentContent> extractedContents = new ArrayList<DocumentContent>();
+    private Date referenceDate;
+    private boolean useExternalTsdTsrM7MEnvelop;
+    private boolean interrupted;
+    private final EnvelopeContext envelopeContext;
+    /**
+     * Cache condivisa tra le verifiche di un lotto (null per le verifiche singole)
+     */
+    private SharedLookupCache lookupCache;
+
+    VerificationContext(VerificationRequest request, boolean useExternalTsdTsrM7MEnvelop,
+            SignerUtil signerUtil) {
+        this.request = request;
+        this.detachedContent = request.getDetachedContent();
+        this.signature = request.getSignature();
+        this.signatureWithContent = request.getSignatureWithContent();
+        this.timeStampedSignature = request.getTimeStampedSignature();
+        this.timeStamp = request.getTimeStamp();
+        this.timeStampsChain = request.getTimeStampsChain();
+        this.timeStampedSignatureWithContent = request.getTimeStampedSignatureWithContent();
+        this.referenceDate = request.getReferenceDate();
+        this.useExternalTsdTsrM7MEnvelop = useExternalTsdTsrM7MEnvelop;
+        this.envelopeContext = new EnvelopeContext(signerUtil);
+    }
+
+    VerificationRequest getRequest() {
+        return request;
+    }
+
+    DocumentContent getDetachedContent() {
+        return detachedContent;
+    }
+
+    DocumentContent getSignature() {
+        return signature;
+    }
+
+    DocumentContent getSignatureWithContent() {
+        return signatureWithContent;
+    }
+
+    DocumentContent getTimeStampedSignature() {
+        return timeStampedSignature;
+    }
+
+    DocumentContent getTimeStamp() {
+        return timeStamp;
+    }
+
+    File getTimeStampFile() {
+        return toFile(timeStamp);
+    }
+
+    File[] getTimeStampsChain() {
+        return timeStampsChain;
+    }
+
+    DocumentContent getTimeStampedSignatureWithContent() {
+        return timeStampedSignatureWithContent;
+    }
+
+    void setTimeStampedSignatureWithContent(DocumentContent timeStampedSignatureWithContent) {
+        this.timeStampedSignatureWithContent = timeStampedSignatureWithContent;
+        if (timeStampedSignatureWithContent != null) {
+            extractedContents.add(timeStampedSignatureWithContent);
+        }
+    }
+
+    /**
+     * Elimina i file temporanei creati per i contenuti sbustati
+     */
+    void releaseExtractedContents() {
+        for (DocumentContent content : extractedContents) {
+            if (content.isInMemory()) {
+                content.dispose();
+            }
+        }
+        extractedContents.clear();
+    }
+
+    private static File toFile(DocumentContent content) {
+        try {
+            return content == null ? null : content.getFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Date getReferenceDate() {
+        return referenceDate;
+    }
+
+    void setReferenceDate(Date referenceDate) {
+        this.referenceDate = referenceDate;
+    }
+
+    boolean isUseExternalTsdTsrM7MEnvelop() {
+        return useExternalTsdTsrM7MEnvelop;
+    }
+
+    void setUseExternalTsdTsrM7MEnvelop(boolean useExternalTsdTsrM7MEnvelop) {
+        this.useExternalTsdTsrM7MEnvelop = useExternalTsdTsrM7MEnvelop;
+    }
+
+    boolean isInterrupted() {
+        return interrupted;
+    }
+
+    void setInterrupted(boolean interrupted) {
+        this.interrupted = interrupted;
+    }
+
+    EnvelopeContext getEnvelopeContext() {
+        return envelopeContext;
+    }
+
+    SharedLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    void setLookupCache(SharedLookupCache lookupCache) {
+        this.lookupCache = lookupCache;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+
+import it.eng.crypto.data.DocumentContent;
+import it.eng.crypto.manager.SignatureManager.CONFIGURATION;
+
+/**
+ * Richiesta immutabile di verifica da sottoporre a
+ * {@link SignatureManager#verify(VerificationRequest)}. Le istanze si ottengono tramite i metodi
+ * statici corrispondenti alle configurazioni gestite dal {@link SignatureManager}:
+ * <ul>
+ * <li>{@link #embedded(File)} - configurazioni 1 e 2</li>
+ * <li>{@link #embedded(File, File)} - configurazione 3</li>
+ * <li>{@link #detached(File, File)} - configurazioni 4 e 5</li>
+ * <li>{@link #detached(File, File, File)} - configurazione 6</li>
+ * </ul>
+ * Per ciascuno dei metodi è disponibile la variante che accetta un {@link DocumentContent}, per
+ * verificare documenti già presenti in memoria: il contenuto viene passato ai signer senza salvarlo
+ * su file, salvo per i formati che richiedono un file (ad esempio la validazione XAdES). Gli
+ * eventuali file temporanei vengono eliminati al termine della verifica.
+ * <p>
+ * La data di riferimento e la catena di estensioni della marca temporale si definiscono con
+ * {@link #withReferenceDate(Date)} e {@link #withTimeStampExtensions(File...)}, che restituiscono
+ * una nuova richiesta.
+ * </p>
+ *
+ */
+public final class VerificationRequest {
+
+    private final CONFIGURATION configuration;
+    private final DocumentContent detachedContent;
+    private final DocumentContent signature;
+    private final DocumentContent signatureWithContent;
+    private final DocumentContent timeStampedSignature;
+    private final DocumentContent timeStamp;
+    private final DocumentContent timeStampedSignatureWithContent;
+    private final File[] timeStampsChain;
+    private final Date referenceDate;
+
+    VerificationRequest(CONFIGURATION configuration, File detachedContentFile,
+            File signatureFile, File signatureWithContentFile, File timeStampedSignatureFile,
+            File timeStampFile, File timeStampedSignatureWithContentFile, File[] timeStampsChain,
+            Date referenceDate) {
+        this(configuration, of(detachedContentFile), of(signatureFile),
+                of(signatureWithContentFile), of(timeStampedSignatureFile), of(timeStampFile),
+                of(timeStampedSignatureWithContentFile), timeStampsChain, referenceDate);
+    }
+
+    private VerificationRequest(CONFIGURATION configuration, DocumentContent detachedContent,
+            DocumentContent signature, DocumentContent signatureWithContent,
+            DocumentContent timeStampedSignature, DocumentContent timeStamp,
+            DocumentContent timeStampedSignatureWithContent, File[] timeStampsChain,
+            Date referenceDate) {
+        this.configuration = configuration;
+        this.detachedContent = detachedContent;
+        this.signature = signature;
+        this.signatureWithContent = signatureWithContent;
+        this.timeStampedSignature = timeStampedSignature;
+        this.timeStamp = timeStamp;
+        this.timeStampedSignatureWithContent = timeStampedSignatureWithContent;
+        this.timeStampsChain = timeStampsChain == null ? null : timeStampsChain.clone();
+        this.referenceDate = referenceDate == null ? null : new Date(referenceDate.getTime());
+    }
+
+    /**
+     * Firma embedded con eventuale marca temporale embedded
+     *
+     * @param timeStampedSignatureWithContentFile file contenente firma, contenuto firmato ed
+     *                                            eventuale marca temporale
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest embedded(File timeStampedSignatureWithContentFile) {
+        checkNotNull(timeStampedSignatureWithContentFile, "timeStampedSignatureWithContentFile");
+        return embedded(of(timeStampedSignatureWithContentFile));
+    }
+
+    /**
+     * Firma embedded con eventuale marca temporale embedded
+     *
+     * @param timeStampedSignatureWithContent firma, contenuto firmato ed eventuale marca temporale
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest embedded(DocumentContent timeStampedSignatureWithContent) {
+        checkNotNull(timeStampedSignatureWithContent, "timeStampedSignatureWithContent");
+        return new VerificationRequest(CONFIGURATION.CONFIG_1_2, null, null, null, null, null,
+                timeStampedSignatureWithContent, null, null);
+    }
+
+    /**
+     * Firma embedded con marca temporale detached
+     *
+     * @param signatureWithContentFile firma e contenuto firmato
+     * @param timeStampFile            marca temporale detached
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest embedded(File signatureWithContentFile, File timeStampFile) {
+        checkNotNull(signatureWithContentFile, "signatureWithContentFile");
+        checkNotNull(timeStampFile, "timeStampFile");
+        return embedded(of(signatureWithContentFile), of(timeStampFile));
+    }
+
+    /**
+     * Firma embedded con marca temporale detached
+     *
+     * @param signatureWithContent firma e contenuto firmato
+     * @param timeStamp            marca temporale detached
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest embedded(DocumentContent signatureWithContent,
+            DocumentContent timeStamp) {
+        checkNotNull(signatureWithContent, "signatureWithContent");
+        checkNotNull(timeStamp, "timeStamp");
+        return new VerificationRequest(CONFIGURATION.CONFIG_3, null, null, signatureWithContent,
+                null, timeStamp, null, null, null);
+    }
+
+    /**
+     * Firma detached con eventuale marca temporale embedded
+     *
+     * @param detachedContentFile      contenuto firmato
+     * @param timeStampedSignatureFile firma digitale con eventuale marca temporale
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest detached(File detachedContentFile,
+            File timeStampedSignatureFile) {
+        checkNotNull(detachedContentFile, "detachedContentFile");
+        checkNotNull(timeStampedSignatureFile, "timeStampedSignatureFile");
+        return detached(of(detachedContentFile), of(timeStampedSignatureFile));
+    }
+
+    /**
+     * Firma detached con eventuale marca temporale embedded
+     *
+     * @param detachedContent      contenuto firmato
+     * @param timeStampedSignature firma digitale con eventuale marca temporale
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest detached(DocumentContent detachedContent,
+            DocumentContent timeStampedSignature) {
+        checkNotNull(detachedContent, "detachedContent");
+        checkNotNull(timeStampedSignature, "timeStampedSignature");
+        return new VerificationRequest(CONFIGURATION.CONFIG_4_5, detachedContent, null, null,
+                timeStampedSignature, null, null, null, null);
+    }
+
+    /**
+     * Firma detached con marca temporale detached
+     *
+     * @param detachedContentFile contenuto firmato
+     * @param signatureFile       firma digitale
+     * @param timeStampFile       marca temporale
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest detached(File detachedContentFile, File signatureFile,
+            File timeStampFile) {
+        checkNotNull(detachedContentFile, "detachedContentFile");
+        checkNotNull(signatureFile, "signatureFile");
+        checkNotNull(timeStampFile, "timeStampFile");
+        return detached(of(detachedContentFile), of(signatureFile), of(timeStampFile));
+    }
+
+    /**
+     * Firma detached con marca temporale detached
+     *
+     * @param detachedContent contenuto firmato
+     * @param signature       firma digitale
+     * @param timeStamp       marca temporale
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest detached(DocumentContent detachedContent,
+            DocumentContent signature, DocumentContent timeStamp) {
+        checkNotNull(detachedContent, "detachedContent");
+        checkNotNull(signature, "signature");
+        checkNotNull(timeStamp, "timeStamp");
+        return new VerificationRequest(CONFIGURATION.CONFIG_6, detachedContent, signature, null,
+                null, timeStamp, null, null, null);
+    }
+
+    /**
+     * Costruisce la richiesta a partire da un bean di configurazione
+     *
+     * @param config configurazione del metodo di analisi
+     *
+     * @return la richiesta di verifica
+     */
+    public static VerificationRequest fromConfig(SignatureManagerConfig config) {
+        if (config == null || !config.isValid()) {
+            throw new IllegalArgumentException("Configurazione non valida");
+        }
+        VerificationRequest request;
+        switch (config.getConfiguration()) {
+        case CONFIG_3:
+            request = embedded(config.getContentFile(), config.getTimeStampFile());
+            break;
+        case CONFIG_4_5:
+            request = detached(config.getContentFile(), config.getSignatureFile());
+            break;
+        case CONFIG_6:
+            request = detached(config.getContentFile(), config.getSignatureFile(),
+                    config.getTimeStampFile());
+            break;
+        default:
+            request = embedded(config.getContentFile());
+            break;
+        }
+        return request.withTimeStampExtensions(config.getTimeStampExtensions())
+                .withReferenceDate(config.getReferenceDate());
+    }
+
+    /**
+     * Restituisce una copia della richiesta con la data di riferimento temporale indicata
+     *
+     * @param reference data di riferimento temporale (può essere null)
+     *
+     * @return la nuova richiesta
+     */
+    public VerificationRequest withReferenceDate(Date reference) {
+        return new VerificationRequest(configuration, detachedContent, signature,
+                signatureWithContent, timeStampedSignature, timeStamp,
+                timeStampedSignatureWithContent, timeStampsChain, reference);
+    }
+
+    /**
+     * Restituisce una copia della richiesta con la catena di estensioni della marca temporale
+     * indicata
+     *
+     * @param timeStampExtensionFiles catena di estensioni della marca temporale
+     *
+     * @return la nuova richiesta
+     */
+    public VerificationRequest withTimeStampExtensions(File... timeStampExtensionFiles) {
+        return new VerificationRequest(configuration, detachedContent, signature,
+                signatureWithContent, timeStampedSignature, timeStamp,
+                timeStampedSignatureWithContent, timeStampExtensionFiles, referenceDate);
+    }
+
+    CONFIGURATION getConfiguration() {
+        return configuration;
+    }
+
+    /*
+     * I metodi get*File salvano su file temporaneo l'eventuale contenuto in memoria
+     */
+    public File getDetachedContentFile() {
+        return toFile(detachedContent);
+    }
+
+    public File getSignatureFile() {
+        return toFile(signature);
+    }
+
+    public File getSignatureWithContentFile() {
+        return toFile(signatureWithContent);
+    }
+
+    public File getTimeStampedSignatureFile() {
+        return toFile(timeStampedSignature);
+    }
+
+    public File getTimeStampFile() {
+        return toFile(timeStamp);
+    }
+
+    public File getTimeStampedSignatureWithContentFile() {
+        return toFile(timeStampedSignatureWithContent);
+    }
+
+    public DocumentContent getDetachedContent() {
+        return detachedContent;
+    }
+
+    public DocumentContent getSignature() {
+        return signature;
+    }
+
+    public DocumentContent getSignatureWithContent() {
+        return signatureWithContent;
+    }
+
+    public DocumentContent getTimeStampedSignature() {
+        return timeStampedSignature;
+    }
+
+    public DocumentContent getTimeStamp() {
+        return timeStamp;
+    }
+
+    public DocumentContent getTimeStampedSignatureWithContent() {
+        return timeStampedSignatureWithContent;
+    }
+
+    /**
+     * @return una copia della catena di estensioni della marca temporale
+     */
+    public File[] getTimeStampsChain() {
+        return timeStampsChain == null ? null : timeStampsChain.clone();
+    }
+
+    /**
+     * @return una copia della data di riferimento temporale
+     */
+    public Date getReferenceDate() {
+        return referenceDate == null ? null : new Date(referenceDate.getTime());
+    }
+
+    /**
+     * Elimina i file temporanei creati per i contenuti in memoria
+     */
+    void releaseTemporaryFiles() {
+        for (DocumentContent content : new DocumentContent[] { detachedContent, signature,
+                signatureWithContent, timeStampedSignature, timeStamp,
+                timeStampedSignatureWithContent }) {
+            if (content != null && content.isInMemory()) {
+                content.dispose();
+            }
+        }
+    }
+
+    private static DocumentContent of(File file) {
+        return file == null ? null : DocumentContent.of(file);
+    }
+
+    private static File toFile(DocumentContent content) {
+        try {
+            return content == null ? null : content.getFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkNotNull(Object value, String name) {
+        if (value == null) {
+            throw new IllegalArgumentException("Parametro obbligatorio non valorizzato: " + name);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.manager;
+
+import java.util.Date;
+
+import it.eng.crypto.controller.bean.OutputSignerBean;
+
+/**
+ * Esito di una verifica eseguita tramite {@link SignatureManager#verify(VerificationRequest)}
+ *
+ */
+public final class VerificationResult {
+
+    private final VerificationRequest request;
+    private final OutputSignerBean output;
+    private final Date referenceDate;
+    private final boolean interrupted;
+    private final Throwable error;
+
+    VerificationResult(VerificationRequest request, OutputSignerBean output, Date referenceDate,
+            boolean interrupted) {
+        this(request, output, referenceDate, interrupted, null);
+    }
+
+    VerificationResult(VerificationRequest request, OutputSignerBean output, Date referenceDate,
+            boolean interrupted, Throwable error) {
+        this.request = request;
+        this.output = output;
+        this.referenceDate = referenceDate == null ? null : new Date(referenceDate.getTime());
+        this.interrupted = interrupted;
+        this.error = error;
+    }
+
+    /*
+     * Esito di una verifica del lotto terminata con un errore imprevisto
+     */
+    static VerificationResult failed(VerificationRequest request, Throwable error) {
+        return new VerificationResult(request, null, request.getReferenceDate(), true, error);
+    }
+
+    /**
+     * @return la richiesta da cui è stato prodotto l'esito
+     */
+    public VerificationRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Restituisce il bean di output contenente i risultati dell'analisi (null se non è stato
+     * possibile riconoscere alcuna firma o marca)
+     *
+     * @return bean di output della busta più esterna, con i figli per i contenuti sbustati
+     */
+    public OutputSignerBean getOutput() {
+        return output;
+    }
+
+    /**
+     * Restituisce la data di riferimento temporale utilizzata al termine dell'analisi
+     *
+     * @return la data di riferimento temporale
+     */
+    public Date getReferenceDate() {
+        return referenceDate == null ? null : new Date(referenceDate.getTime());
+    }
+
+    /**
+     * Indica se l'analisi è stata interrotta da un controllo bloccante
+     *
+     * @return true se uno dei controlli bloccanti non è andato a buon fine
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Restituisce l'errore imprevisto che ha impedito di completare la verifica all'interno di un
+     * lotto ({@link SignatureManager#verifyAll(java.util.List)})
+     *
+     * @return l'errore oppure null se la verifica è stata completata
+     */
+    public Throwable getError() {
+        return error;
+    }
+}
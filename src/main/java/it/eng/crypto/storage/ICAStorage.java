@@ -16,6 +16,7 @@ package it.eng.crypto.storage;
 import it.eng.crypto.exception.CryptoStorageException;
 
 import java.security.cert.X509Certificate;
+import java.util.Collection;
 import java.util.List;
 
 import javax.security.auth.x500.X500Principal;
@@ -36,6 +37,20 @@ public interface ICAStorage {
      */
     public void insertCA(X509Certificate certificate) throws CryptoStorageException;
 
+    /**
+     * Inserisce in un'unica operazione i certificati indicati (ad esempio quelli di una trusted
+     * list), tralasciando quelli già presenti e invariati. L'implementazione di default inserisce
+     * i certificati uno alla volta.
+     *
+     * @param certificates certificati da inserire
+     */
+    public default void insertCAs(Collection<X509Certificate> certificates)
+            throws CryptoStorageException {
+        for (X509Certificate certificate : certificates) {
+            insertCA(certificate);
+        }
+    }
+
     /**
      * Recupero il certificato dal soggetto X500Principal, se non trova il certificato restituisce
      * null.
@@ -65,4 +80,13 @@ public interface ICAStorage {
      */
     public boolean isActive(X509Certificate certificate, String authorityKeyId)
             throws CryptoStorageException;
+
+    /**
+     * Disattiva il certificato di certificazione. L'implementazione di default non effettua
+     * alcuna operazione.
+     *
+     * @param certificate certificato da disattivare
+     */
+    public default void revokeCA(X509Certificate certificate) throws CryptoStorageException {
+    }
 }
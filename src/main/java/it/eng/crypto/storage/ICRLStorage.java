@@ -41,4 +41,27 @@ public interface ICRLStorage {
      * @return
      */
     public X509CRL retriveCRL(String subjectDN, String keyId) throws CryptoStorageException;
+
+    /**
+     * Inserisco una delta CRL nello storage, senza sostituire la CRL completa dello stesso
+     * emittente. L'implementazione di default non salva la delta CRL.
+     *
+     * @param crl delta CRL
+     */
+    public default void upsertDeltaCRL(X509CRL crl) throws CryptoStorageException {
+    }
+
+    /**
+     * Recupero l'ultima delta CRL salvata per l'emittente. L'implementazione di default
+     * restituisce null.
+     *
+     * @param subjectDN emittente della CRL
+     * @param keyId     identificativo della chiave dell'emittente
+     *
+     * @return la delta CRL oppure null
+     */
+    public default X509CRL retriveDeltaCRL(String subjectDN, String keyId)
+            throws CryptoStorageException {
+        return null;
+    }
 }
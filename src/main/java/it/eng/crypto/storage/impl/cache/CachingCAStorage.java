@@ -0,0 +1,229 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.storage.impl.cache;
+
+import it.eng.crypto.exception.CryptoStorageException;
+import it.eng.crypto.storage.ICAStorage;
+
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Storage dei certificati di certificazione che mantiene in memoria gli esiti di
+ * {@link ICAStorage#retriveCA(X500Principal, String)} dello storage decorato, indicizzati per
+ * soggetto e identificativo della chiave. Vengono memorizzati anche i certificati non trovati,
+ * per un intervallo più breve, in modo che la ricostruzione ripetuta delle stesse catene di
+ * certificazione non richieda accessi allo storage.
+ * <p>
+ * L'inserimento o la disattivazione di un certificato eliminano dalla memoria gli esiti relativi
+ * allo stesso soggetto. Il numero di esiti mantenuti è limitato: superato il limite vengono
+ * eliminati quelli utilizzati meno di recente.
+ * </p>
+ *
+ */
+public class CachingCAStorage implements ICAStorage {
+
+    /**
+     * Esito di una ricerca
+     */
+    private static final class Entry {
+
+        private final X509Certificate certificate;
+        private final long expiration;
+
+        private Entry(X509Certificate certificate, long expiration) {
+            this.certificate = certificate;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Storage dei certificati decorato
+     */
+    private ICAStorage delegate;
+    /**
+     * Numero massimo di esiti mantenuti in memoria
+     */
+    private int maxEntries = 10000;
+    /**
+     * Secondi per cui viene mantenuto in memoria un certificato trovato
+     */
+    private long timeToLive = 3600;
+    /**
+     * Secondi per cui viene mantenuto in memoria un certificato non trovato
+     */
+    private long notFoundTimeToLive = 60;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+            0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    /*
+     * Incrementato a ogni modifica: un esito letto prima di una modifica non viene mantenuto
+     */
+    private long generation = 0;
+
+    public CachingCAStorage() {
+    }
+
+    public CachingCAStorage(ICAStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void insertCA(X509Certificate certificate) throws CryptoStorageException {
+        delegate.insertCA(certificate);
+        invalidate(certificate.getSubjectX500Principal().getName());
+    }
+
+    @Override
+    public void insertCAs(Collection<X509Certificate> certificates)
+            throws CryptoStorageException {
+        delegate.insertCAs(certificates);
+        clear();
+    }
+
+    @Override
+    public void revokeCA(X509Certificate certificate) throws CryptoStorageException {
+        delegate.revokeCA(certificate);
+        invalidate(certificate.getSubjectX500Principal().getName());
+    }
+
+    @Override
+    public X509Certificate retriveCA(X500Principal subject, String authorityKeyId)
+            throws CryptoStorageException {
+        String key = subject.getName() + "|" + authorityKeyId;
+        long readGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.certificate;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses.incrementAndGet();
+            readGeneration = generation;
+        }
+        X509Certificate certificate = delegate.retriveCA(subject, authorityKeyId);
+        long expiration = System.currentTimeMillis()
+                + (certificate != null ? timeToLive : notFoundTimeToLive) * 1000;
+        synchronized (this) {
+            if (generation == readGeneration) {
+                entries.put(key, new Entry(certificate, expiration));
+                // Elimino gli esiti utilizzati meno di recente
+                Iterator<Entry> values = entries.values().iterator();
+                while (entries.size() > maxEntries && values.hasNext()) {
+                    values.next();
+                    values.remove();
+                }
+            }
+        }
+        return certificate;
+    }
+
+    @Override
+    public List<X509Certificate> retriveActiveCA() throws CryptoStorageException {
+        return delegate.retriveActiveCA();
+    }
+
+    @Override
+    public boolean isActive(X509Certificate certificate, String authorityKeyId)
+            throws CryptoStorageException {
+        return delegate.isActive(certificate, authorityKeyId);
+    }
+
+    /*
+     * Elimina gli esiti relativi al soggetto, qualunque sia l'identificativo della chiave
+     */
+    private synchronized void invalidate(String subjectDN) {
+        generation++;
+        String prefix = subjectDN + "|";
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Elimina tutti gli esiti mantenuti in memoria
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * @return il numero di ricerche soddisfatte dalla memoria
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return il numero di ricerche inoltrate allo storage decorato
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return il numero di esiti mantenuti in memoria
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public ICAStorage getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(ICAStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public long getNotFoundTimeToLive() {
+        return notFoundTimeToLive;
+    }
+
+    public void setNotFoundTimeToLive(long notFoundTimeToLive) {
+        this.notFoundTimeToLive = notFoundTimeToLive;
+    }
+}
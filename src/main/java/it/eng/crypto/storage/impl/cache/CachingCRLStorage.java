@@ -0,0 +1,285 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.storage.impl.cache;
+
+import it.eng.crypto.data.CRLRevocationIndex;
+import it.eng.crypto.exception.CryptoStorageException;
+import it.eng.crypto.storage.ICRLStorage;
+
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Storage delle CRL che mantiene in memoria le CRL già decodificate recuperate da un altro
+ * storage (ad esempio il bean remoto o lo storage su file system), indicizzate per emittente e
+ * identificativo della chiave.
+ * <p>
+ * La memoria occupata è limitata dalla dimensione complessiva delle CRL codificate: superato il
+ * limite vengono eliminate le CRL utilizzate meno di recente. La dimensione è quella della
+ * codifica letta per costruire l'indice dei certificati revocati ({@link CRLRevocationIndex}),
+ * utilizzato poi dal controllo di revoca, senza una copia aggiuntiva della codifica. Una CRL resta in memoria fino alla
+ * data di prossimo aggiornamento; le CRL già scadute, utilizzate per le verifiche con riferimento
+ * temporale nel passato, vengono mantenute per l'intervallo configurato. Il salvataggio di una
+ * CRL elimina dalla memoria quelle dello stesso emittente.
+ * </p>
+ *
+ */
+public class CachingCRLStorage implements ICRLStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingCRLStorage.class);
+
+    private static final String DELTA_SUFFIX = "|delta";
+
+    /**
+     * CRL in memoria
+     */
+    private static final class Entry {
+
+        private final X509CRL crl;
+        private final long size;
+        private final long expiration;
+
+        private Entry(X509CRL crl, long size, long expiration) {
+            this.crl = crl;
+            this.size = size;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Storage delle CRL decorato
+     */
+    private ICRLStorage delegate;
+    /**
+     * Dimensione massima in byte delle CRL codificate mantenute in memoria: il default consente di
+     * mantenere almeno due CRL da oltre 100 MB
+     */
+    private long maxBytes = 256L * 1024 * 1024;
+    /**
+     * Secondi per cui viene mantenuta in memoria una CRL già scaduta
+     */
+    private long expiredCrlTimeToLive = 300;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+            0.75f, true);
+    private long bytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    /*
+     * Incrementato a ogni salvataggio: una CRL letta prima di un salvataggio non viene mantenuta
+     */
+    private long generation = 0;
+
+    public CachingCRLStorage() {
+    }
+
+    public CachingCRLStorage(ICRLStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void upsertCRL(X509CRL crl) throws CryptoStorageException {
+        delegate.upsertCRL(crl);
+        invalidate(crl.getIssuerX500Principal().getName(), false);
+    }
+
+    @Override
+    public X509CRL retriveCRL(String subjectDN, String keyId) throws CryptoStorageException {
+        String key = subjectDN + "|" + keyId;
+        X509CRL crl = get(key);
+        if (crl == null) {
+            long readGeneration = getGeneration();
+            crl = delegate.retriveCRL(subjectDN, keyId);
+            put(key, crl, readGeneration);
+        }
+        return crl;
+    }
+
+    @Override
+    public void upsertDeltaCRL(X509CRL crl) throws CryptoStorageException {
+        delegate.upsertDeltaCRL(crl);
+        invalidate(crl.getIssuerX500Principal().getName(), true);
+    }
+
+    @Override
+    public X509CRL retriveDeltaCRL(String subjectDN, String keyId)
+            throws CryptoStorageException {
+        String key = subjectDN + "|" + keyId + DELTA_SUFFIX;
+        X509CRL crl = get(key);
+        if (crl == null) {
+            long readGeneration = getGeneration();
+            crl = delegate.retriveDeltaCRL(subjectDN, keyId);
+            put(key, crl, readGeneration);
+        }
+        return crl;
+    }
+
+    private synchronized X509CRL get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiration <= System.currentTimeMillis()) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.crl;
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    private void put(String key, X509CRL crl, long readGeneration) {
+        if (crl == null) {
+            return;
+        }
+        long size = CRLRevocationIndex.of(crl).getEncodedLength();
+        if (size < 0) {
+            // Codifica non DER: indice costruito dalle voci decodificate
+            try {
+                size = crl.getEncoded().length;
+            } catch (CRLException e) {
+                log.warn("Impossibile determinare la dimensione della CRL di {}", key, e);
+                return;
+            }
+        }
+        if (size > maxBytes) {
+            log.debug("CRL di {} troppo grande per essere mantenuta in memoria: {} byte", key,
+                    size);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expiration = now + expiredCrlTimeToLive * 1000;
+        if (crl.getNextUpdate() != null && crl.getNextUpdate().getTime() > expiration) {
+            expiration = crl.getNextUpdate().getTime();
+        }
+        synchronized (this) {
+            if (generation != readGeneration) {
+                return;
+            }
+            remove(key);
+            entries.put(key, new Entry(crl, size, expiration));
+            bytes += size;
+            // Elimino le CRL utilizzate meno di recente
+            Iterator<Entry> values = entries.values().iterator();
+            while (bytes > maxBytes && values.hasNext()) {
+                bytes -= values.next().size;
+                values.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.size;
+        }
+    }
+
+    /*
+     * Elimina le CRL (o le delta CRL) dell'emittente, qualunque sia l'identificativo della chiave
+     */
+    private synchronized void invalidate(String subjectDN, boolean delta) {
+        generation++;
+        String prefix = subjectDN + "|";
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)
+                    && entry.getKey().endsWith(DELTA_SUFFIX) == delta) {
+                bytes -= entry.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Elimina tutte le CRL mantenute in memoria
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return il numero di richieste soddisfatte dalla memoria
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return il numero di richieste inoltrate allo storage decorato
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return il numero di CRL eliminate per il superamento della dimensione massima
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return il numero di CRL mantenute in memoria
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return la dimensione in byte delle CRL codificate mantenute in memoria
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public ICRLStorage getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(ICRLStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getExpiredCrlTimeToLive() {
+        return expiredCrlTimeToLive;
+    }
+
+    public void setExpiredCrlTimeToLive(long expiredCrlTimeToLive) {
+        this.expiredCrlTimeToLive = expiredCrlTimeToLive;
+    }
+}
@@ -13,20 +13,22 @@
 
 package it.eng.crypto.storage.impl.filesystem;
 
+import it.eng.crypto.data.SignerUtil;
 import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICAStorage;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.security.auth.x500.X500Principal;
@@ -55,12 +57,18 @@ public class FileSystemCAStorage implements ICAStorage, Serializable {
     private static final String CA_DIRECTORY = "CA_VALID_CERTIFICATE";
     private static final String FILE_CONFIG_DIRECTORY = "CONFIG";
     private static final String FILE_CONFIG_NAME = "Configuration";
+    private static final String FILE_INDEX_NAME = "Configuration.idx";
 
     /**
      * Directory di salvataggio dei certificati
      */
     private String directory;
 
+    /**
+     * Indice dei certificati
+     */
+    private transient volatile FileSystemIndex index;
+
     /**
      * Recupera il riferimento alla directory di salvataggio dei certificati
      *
@@ -75,52 +83,103 @@ public class FileSystemCAStorage implements ICAStorage, Serializable {
      *
      * @param directory
      */
-    public void setDirectory(String directory) {
+    public synchronized void setDirectory(String directory) {
         this.directory = directory;
+        index = null;
     }
 
     public void insertCA(X509Certificate certificate) throws CryptoStorageException {
         log.info("insertCA START");
         try {
-            File dir = new File(directory + File.separator + CA_DIRECTORY);
-            if (!dir.exists()) {
-                dir.mkdir();
-            }
+            File file = writeCertificate(getCADirectory(), certificate);
+            updateConfig(certificate, isValid(certificate), file);
+            log.info("insertCA END");
+        } catch (Exception e) {
+            log.error("Errore inserimento/update Certificato di certificazione!", e);
+            throw new CryptoStorageException(
+                    "Errore inserimento/update Certificato di certificazione!", e);
+        }
+    }
 
-            // Creo la directory di configurazione
-            File dirConfig = new File(dir + File.separator + FILE_CONFIG_DIRECTORY);
-            if (!dirConfig.exists()) {
-                dirConfig.mkdir();
+    /**
+     * Inserisce i certificati aggiornando l'indice con un'unica riscrittura. I certificati già
+     * presenti con lo stesso contenuto e lo stesso stato non vengono riscritti.
+     */
+    @Override
+    public void insertCAs(Collection<X509Certificate> certificates)
+            throws CryptoStorageException {
+        log.info("insertCAs START");
+        try {
+            File dir = getCADirectory();
+            FileSystemIndex currentIndex = getIndex();
+            List<FileSystemIndex.Record> records = new ArrayList<FileSystemIndex.Record>();
+            for (X509Certificate certificate : certificates) {
+                String subjectDN = certificate.getSubjectX500Principal().getName();
+                String keyId = SignerUtil.getSubjectKeyId(certificate);
+                boolean active = isValid(certificate);
+                File file = new File(dir, DigestUtils.md5Hex(certificate.getEncoded()));
+                FileSystemIndex.Record current = currentIndex.get(subjectDN, keyId);
+                if (current != null && current.getKeyId().equals(keyId == null ? "" : keyId)
+                        && current.isActive() == active
+                        && current.getFilePath().equals(file.getAbsolutePath())
+                        && file.exists()) {
+                    continue;
+                }
+                writeCertificate(dir, certificate);
+                records.add(new FileSystemIndex.Record(subjectDN, keyId, file.getAbsolutePath(),
+                        active));
             }
-
-            // Calcolo MD5 del soggetto
-            String fileName = DigestUtils.md5Hex(certificate.getEncoded());
-            File file = new File(dir, fileName);
-            if (file.exists()) {
-                file.delete();
+            if (!records.isEmpty()) {
+                currentIndex.putAll(records);
             }
+            log.info("insertCAs END: {} certificati inseriti o aggiornati su {}", records.size(),
+                    certificates.size());
+        } catch (Exception e) {
+            log.error("Errore inserimento/update Certificati di certificazione!", e);
+            throw new CryptoStorageException(
+                    "Errore inserimento/update Certificati di certificazione!", e);
+        }
+    }
 
+    /*
+     * Directory dei certificati, creata se non esiste insieme a quella di configurazione
+     */
+    private File getCADirectory() {
+        File dir = new File(directory + File.separator + CA_DIRECTORY);
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+
+        // Creo la directory di configurazione
+        File dirConfig = new File(dir + File.separator + FILE_CONFIG_DIRECTORY);
+        if (!dirConfig.exists()) {
+            dirConfig.mkdir();
+        }
+        return dir;
+    }
+
+    private File writeCertificate(File dir, X509Certificate certificate)
+            throws CertificateEncodingException, IOException {
+        // Calcolo MD5 del soggetto: un file già presente ha lo stesso contenuto
+        String fileName = DigestUtils.md5Hex(certificate.getEncoded());
+        File file = new File(dir, fileName);
+        if (!file.exists()) {
             // Scrivo il nuovo file
-            FileUtils.writeByteArrayToFile(file, certificate.getEncoded());
+            FileSystemIndex.writeAtomically(file, certificate.getEncoded());
+        }
+        return file;
+    }
 
-            // Inserisco la configurazione
-            boolean active = true;
-            try {
-                certificate.checkValidity();
-                active = true;
-            } catch (CertificateExpiredException e) {
-                log.warn("Certificato scaduto!");
-                active = false;
-            } catch (CertificateNotYetValidException e) {
-                log.warn("Certificato non più valido!");
-                active = false;
-            }
-            updateConfig(certificate, active, file);
-            log.info("insertCA END");
-        } catch (Exception e) {
-            log.error("Errore inserimento/update Certificato di certificazione!", e);
-            throw new CryptoStorageException(
-                    "Errore inserimento/update Certificato di certificazione!", e);
+    private boolean isValid(X509Certificate certificate) {
+        try {
+            certificate.checkValidity();
+            return true;
+        } catch (CertificateExpiredException e) {
+            log.warn("Certificato scaduto!");
+            return false;
+        } catch (CertificateNotYetValidException e) {
+            log.warn("Certificato non più valido!");
+            return false;
         }
     }
 
@@ -129,14 +188,15 @@ public class FileSystemCAStorage implements ICAStorage, Serializable {
         List<X509Certificate> activeCertificates = new ArrayList<X509Certificate>();
         try {
             // Recupero tutte le configurazioni del certificato
-            List<CABean> configs = getAllConfig();
             CertificateFactory factorys = CertificateFactory.getInstance("X509",
                     BouncyCastleProvider.PROVIDER_NAME);
-            for (int i = 0; i < configs.size(); i++) {
-                CABean bean = configs.get(i);
+            for (FileSystemIndex.Record bean : getIndex().values()) {
                 if (bean.isActive()) {
-                    activeCertificates.add((X509Certificate) factorys.generateCertificate(
-                            FileUtils.openInputStream(new File(bean.getFilePath()))));
+                    try (InputStream stream = FileUtils
+                            .openInputStream(new File(bean.getFilePath()))) {
+                        activeCertificates
+                                .add((X509Certificate) factorys.generateCertificate(stream));
+                    }
                 }
             }
         } catch (Exception e) {
@@ -151,15 +211,22 @@ public class FileSystemCAStorage implements ICAStorage, Serializable {
             throws CryptoStorageException {
         log.info("retriveCA START");
         X509Certificate ret = null;
-        CABean bean = getConfig(subject);
+        FileSystemIndex.Record bean;
+        try {
+            bean = getIndex().get(subject.getName(), keyId);
+        } catch (IOException e) {
+            log.error("Errore lettura dell'indice dei certificati", e);
+            throw new CryptoStorageException(e);
+        }
         if (bean != null) {
             File file = new File(bean.getFilePath());
             if (file.exists()) {
                 try {
                     CertificateFactory factorys = CertificateFactory.getInstance("X509",
                             BouncyCastleProvider.PROVIDER_NAME);
-                    ret = (X509Certificate) factorys
-                            .generateCertificate(FileUtils.openInputStream(file));
+                    try (InputStream stream = FileUtils.openInputStream(file)) {
+                        ret = (X509Certificate) factorys.generateCertificate(stream);
+                    }
                 } catch (Exception e) {
                     log.error("Errore recupero certificato per X500Principal:" + subject.getName(),
                             e);
@@ -173,138 +240,87 @@ public class FileSystemCAStorage implements ICAStorage, Serializable {
 
     public void revokeCA(X509Certificate certificate) throws CryptoStorageException {
         log.info("revokeCA START");
-        updateConfig(certificate, false, null);
+        try {
+            updateConfig(certificate, false, null);
+        } catch (IOException e) {
+            log.error("Errore disattivazione Certificato di certificazione!", e);
+            throw new CryptoStorageException(
+                    "Errore disattivazione Certificato di certificazione!", e);
+        }
         log.info("revokeCA END");
     }
 
-    private CABean getConfig(X500Principal principal) {
-        log.info("getConfig START");
-        // Deserializzo il file per recuperare la lista delle configurazioni
-        CABean bean = null;
-        File file = new File(directory + File.separator + CA_DIRECTORY + File.separator
-                + FILE_CONFIG_DIRECTORY + File.separator + FILE_CONFIG_NAME);
-        List<CABean> lista = new ArrayList<CABean>();
-        if (file.exists()) {
-            try {
-                ObjectInputStream input = new ObjectInputStream(FileUtils.openInputStream(file));
-                lista = (List<CABean>) input.readObject();
-                input.close();
-            } catch (Exception e) {
-                log.warn("revokeCA WARNING", e);
-                lista = new ArrayList<CABean>();
-            }
-        }
-        // Ciclo le configurazioni
-        for (int i = 0; i < lista.size(); i++) {
-            if (lista.get(i).getSubjectDN().equals(principal.getName())) {
-                bean = lista.get(i);
-                break;
-            }
-        }
-        log.info("getConfig END");
-        return bean;
+    /*
+     * Indice dei certificati, creato al primo utilizzo importando l'eventuale lista serializzata
+     * delle versioni precedenti
+     */
+    private FileSystemIndex getIndex() {
+        FileSystemIndex current = index;
+        return current != null ? current : createIndex();
     }
 
-    private List<CABean> getAllConfig() {
-        log.info("getAllConfig START");
-        // Deserializzo il file per recuperare la lista delle configurazioni
-        CABean bean = null;
-        File file = new File(directory + File.separator + CA_DIRECTORY + File.separator
-                + FILE_CONFIG_DIRECTORY + File.separator + FILE_CONFIG_NAME);
-        List<CABean> lista = new ArrayList<CABean>();
-        if (file.exists()) {
-            try {
-                ObjectInputStream input = new ObjectInputStream(FileUtils.openInputStream(file));
-                lista = (List<CABean>) input.readObject();
-                input.close();
-            } catch (Exception e) {
-                log.warn("File non inizializzato, warning di lettura");
-                lista = new ArrayList<CABean>();
+    private synchronized FileSystemIndex createIndex() {
+        if (index == null) {
+            File dirConfig = new File(directory + File.separator + CA_DIRECTORY + File.separator
+                    + FILE_CONFIG_DIRECTORY);
+            FileSystemIndex newIndex = new FileSystemIndex(new File(dirConfig, FILE_INDEX_NAME));
+            File legacy = new File(dirConfig, FILE_CONFIG_NAME);
+            if (!newIndex.exists() && legacy.exists()) {
+                importConfig(newIndex, legacy);
             }
+            index = newIndex;
         }
-        log.info("getAllConfig END");
-        return lista;
+        return index;
     }
 
-    private void updateConfig(X509Certificate certificate, boolean active, File fileCert) {
-        log.info("updateConfig START");
-        // Deserializzo il file per recuperare la lista delle configurazioni
-        File file = new File(directory + File.separator + CA_DIRECTORY + File.separator
-                + FILE_CONFIG_DIRECTORY + File.separator + FILE_CONFIG_NAME);
-        List<CABean> lista = new ArrayList<CABean>();
-        if (file.exists()) {
-            try {
-                ObjectInputStream input = new ObjectInputStream(FileUtils.openInputStream(file));
-                lista = (List<CABean>) input.readObject();
-                input.close();
-            } catch (Exception e) {
-                log.warn("File non inizializzato, warning di lettura");
-                lista = new ArrayList<CABean>();
+    @SuppressWarnings("unchecked")
+    private void importConfig(FileSystemIndex newIndex, File legacy) {
+        log.info("Importazione della configurazione {}", legacy);
+        try (ObjectInputStream input = new ObjectInputStream(
+                FileUtils.openInputStream(legacy))) {
+            List<CABean> lista = (List<CABean>) input.readObject();
+            List<FileSystemIndex.Record> records = new ArrayList<FileSystemIndex.Record>();
+            for (CABean bean : lista) {
+                records.add(new FileSystemIndex.Record(bean.getSubjectDN(), null,
+                        bean.getFilePath(), bean.isActive()));
             }
+            newIndex.putAll(records);
+        } catch (Exception e) {
+            log.warn("File non inizializzato, warning di lettura", e);
         }
+    }
 
-        boolean newfile = true;
-
-        // Ciclo le configurazioni
-        for (int i = 0; i < lista.size(); i++) {
-            // if(lista.get(i).getSubjectDN().equals(certificate.getIssuerX500Principal().getName())){
-            if (lista.get(i).getSubjectDN()
-                    .equals(certificate.getSubjectX500Principal().getName())) {
-                newfile = false;
-                CABean bean = lista.get(i);
-                bean.setActive(active);
-                if (fileCert != null) {
-                    bean.setFilePath(fileCert.getAbsolutePath());
-                }
-                lista.set(i, bean);
+    private void updateConfig(X509Certificate certificate, boolean active, File fileCert)
+            throws IOException {
+        log.info("updateConfig START");
+        String keyId = SignerUtil.getSubjectKeyId(certificate);
+        String filePath = null;
+        if (fileCert != null) {
+            filePath = fileCert.getAbsolutePath();
+        } else {
+            FileSystemIndex.Record current = getIndex()
+                    .get(certificate.getSubjectX500Principal().getName(), keyId);
+            if (current != null) {
+                filePath = current.getFilePath();
             }
         }
-        if (newfile) {
-            CABean bean = new CABean();
-            bean.setActive(active);
-            bean.setFilePath(file.getAbsolutePath());
-            // bean.setSubjectDN(certificate.getIssuerX500Principal().getName());
-            bean.setSubjectDN(certificate.getSubjectX500Principal().getName());
-            lista.add(bean);
-        }
-
-        try {
-            // Serializzo la lista
-            FileOutputStream fileConfig = new FileOutputStream(file);
-            ObjectOutputStream streamOut = new ObjectOutputStream(fileConfig);
-            streamOut.writeObject(lista);
-            streamOut.flush();
-            streamOut.close();
-        } catch (IOException e) {
-            log.warn("File non inizializzato, warning di scrittura");
-        }
+        getIndex().put(new FileSystemIndex.Record(
+                certificate.getSubjectX500Principal().getName(), keyId, filePath, active));
         log.info("updateConfig END");
     }
 
     public boolean isActive(X509Certificate certificate, String keyId)
             throws CryptoStorageException {
         log.info("isActive START");
-        // Deserializzo il file per recuperare la lista delle configurazioni
-        File file = new File(directory + File.separator + CA_DIRECTORY + File.separator
-                + FILE_CONFIG_DIRECTORY + File.separator + FILE_CONFIG_NAME);
         boolean active = false;
-        if (file.exists()) {
-            try {
-                ObjectInputStream input = new ObjectInputStream(FileUtils.openInputStream(file));
-                List<CABean> lista = (List<CABean>) input.readObject();
-                input.close();
-                // Ciclo le configurazioni
-                for (int i = 0; i < lista.size(); i++) {
-                    if (lista.get(i).getSubjectDN()
-                            .equals(certificate.getSubjectX500Principal().getName())) {
-                        CABean bean = lista.get(i);
-                        active = bean.isActive();
-                        break;
-                    }
-                }
-            } catch (Exception e) {
-                log.warn("Errore controllo dello stato del certificato");
-            }
+        try {
+            FileSystemIndex.Record record = getIndex().get(
+                    certificate.getSubjectX500Principal().getName(),
+                    SignerUtil.getSubjectKeyId(certificate));
+            active = record != null && record.isActive();
+        } catch (IOException e) {
+            log.error("Errore controllo dello stato del certificato", e);
+            throw new CryptoStorageException(e);
         }
         log.info("isActive END");
         return active;
@@ -13,23 +13,23 @@
 
 package it.eng.crypto.storage.impl.filesystem;
 
+import it.eng.crypto.data.SignerUtil;
 import it.eng.crypto.exception.CryptoStorageException;
 import it.eng.crypto.storage.ICRLStorage;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
-import org.bouncycastle.jce.X509Principal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,18 +44,37 @@ public class FileSystemCRLStorage implements ICRLStorage {
     Logger log = LoggerFactory.getLogger(FileSystemCRLStorage.class);
 
     private static final String CA_DIRECTORY = "CRL_LIST";
+    private static final String DELTA_DIRECTORY = "DELTA_CRL_LIST";
     private static final String FILE_CONFIG_DIRECTORY = "CONFIG";
     private static final String FILE_CONFIG_NAME = "Configuration";
+    private static final String FILE_INDEX_NAME = "Configuration.idx";
 
     /**
      * Directory di salvataggio dei certificati
      */
     private String directory;
 
+    /**
+     * Indici delle directory delle CRL e delle delta CRL
+     */
+    private final Map<String, FileSystemIndex> indexes = new ConcurrentHashMap<String, FileSystemIndex>();
+
     public void upsertCRL(X509CRL crl) throws CryptoStorageException {
+        writeCRL(crl, CA_DIRECTORY);
+    }
+
+    /**
+     * Salva la delta CRL in una directory distinta da quella delle CRL complete
+     */
+    @Override
+    public void upsertDeltaCRL(X509CRL crl) throws CryptoStorageException {
+        writeCRL(crl, DELTA_DIRECTORY);
+    }
+
+    private void writeCRL(X509CRL crl, String listDirectory) throws CryptoStorageException {
         log.info("insertCRL START");
         try {
-            File dir = new File(directory + File.separator + CA_DIRECTORY);
+            File dir = new File(directory + File.separator + listDirectory);
             if (!dir.exists()) {
                 dir.mkdir();
             }
@@ -66,17 +85,15 @@ public class FileSystemCRLStorage implements ICRLStorage {
                 dirConfig.mkdir();
             }
 
-            // Calcolo MD5 del soggetto
+            // Calcolo MD5 del soggetto: un file già presente ha lo stesso contenuto
             String fileName = DigestUtils.md5Hex(crl.getEncoded());
             File file = new File(dir, fileName);
-            if (file.exists()) {
-                file.delete();
+            if (!file.exists()) {
+                // Scrivo il nuovo file
+                FileSystemIndex.writeAtomically(file, crl.getEncoded());
             }
 
-            // Scrivo il nuovo file
-            FileUtils.writeByteArrayToFile(file, crl.getEncoded());
-
-            updateConfig(crl, file);
+            updateConfig(crl, file, listDirectory);
         } catch (Exception e) {
             log.error("Errore insertCRL!", e);
             throw new CryptoStorageException("Errore aggiunta Certificato", e);
@@ -85,12 +102,29 @@ public class FileSystemCRLStorage implements ICRLStorage {
     }
 
     public X509CRL retriveCRL(String subjectDN, String keyId) throws CryptoStorageException {
+        return readCRL(subjectDN, keyId, CA_DIRECTORY);
+    }
+
+    @Override
+    public X509CRL retriveDeltaCRL(String subjectDN, String keyId)
+            throws CryptoStorageException {
+        return readCRL(subjectDN, keyId, DELTA_DIRECTORY);
+    }
+
+    private X509CRL readCRL(String subjectDN, String keyId, String listDirectory)
+            throws CryptoStorageException {
         log.info("retriveCRL START");
         // Controllo se il certificato è valido alla data attuale
         X509CRL crl = null;
 
         // Recupero la configurazione per il certificato
-        CRLBean config = getConfig(subjectDN);
+        FileSystemIndex.Record config;
+        try {
+            config = getIndex(listDirectory).get(subjectDN, keyId);
+        } catch (IOException e) {
+            log.error("Errore lettura dell'indice delle CRL", e);
+            throw new CryptoStorageException(e);
+        }
         if (config != null) {
             String filePath = config.getFilePath();
             try (FileInputStream stream = new FileInputStream(filePath)) {
@@ -123,87 +157,58 @@ public class FileSystemCRLStorage implements ICRLStorage {
      *
      * @param directory
      */
-    public void setDirectory(String directory) {
+    public synchronized void setDirectory(String directory) {
         this.directory = directory;
+        indexes.clear();
     }
 
-    private CRLBean getConfig(String subjectDN) {
-        log.info("getConfig START");
-        X509Principal subjectPrincipal = new X509Principal(subjectDN);
-        // Deserializzo il file per recuperare la lista delle configurazioni
-        CRLBean bean = null;
-        File file = new File(directory + File.separator + CA_DIRECTORY + File.separator
-                + FILE_CONFIG_DIRECTORY + File.separator + FILE_CONFIG_NAME);
-        List<CRLBean> lista = new ArrayList<CRLBean>();
-        if (file.exists()) {
-            try {
-                ObjectInputStream input = new ObjectInputStream(FileUtils.openInputStream(file));
-                lista = (List<CRLBean>) input.readObject();
-                input.close();
-            } catch (Exception e) {
-                log.warn("getConfig warning lettura file serializzato!", e);
-                lista = new ArrayList<CRLBean>();
-            }
-        }
-        // Ciclo le configurazioni
-        for (int i = 0; i < lista.size(); i++) {
-            X509Principal principal = new X509Principal(lista.get(i).getSubjectDN());
-            if (principal.equals(subjectPrincipal, false)) {
-                bean = lista.get(i);
-                break;
-            }
-        }
-        log.info("getConfig END");
-        return bean;
+    /*
+     * Indice della directory indicata, creato al primo utilizzo importando l'eventuale lista
+     * serializzata delle versioni precedenti
+     */
+    private FileSystemIndex getIndex(String listDirectory) {
+        FileSystemIndex index = indexes.get(listDirectory);
+        return index != null ? index : createIndex(listDirectory);
     }
 
-    private void updateConfig(X509CRL crl, File fileCert) {
-        log.info("updateConfig START");
-        // Deserializzo il file per recuperare la lista delle configurazioni
-        File file = new File(directory + File.separator + CA_DIRECTORY + File.separator
-                + FILE_CONFIG_DIRECTORY + File.separator + FILE_CONFIG_NAME);
-        List<CRLBean> lista = new ArrayList<CRLBean>();
-        if (file.exists()) {
-            try {
-                ObjectInputStream input = new ObjectInputStream(FileUtils.openInputStream(file));
-                lista = (List<CRLBean>) input.readObject();
-                input.close();
-            } catch (Exception e) {
-                log.warn("updateConfig warning lettura file serializzato!", e);
-                lista = new ArrayList<CRLBean>();
+    private synchronized FileSystemIndex createIndex(String listDirectory) {
+        FileSystemIndex index = indexes.get(listDirectory);
+        if (index == null) {
+            File dirConfig = new File(directory + File.separator + listDirectory
+                    + File.separator + FILE_CONFIG_DIRECTORY);
+            index = new FileSystemIndex(new File(dirConfig, FILE_INDEX_NAME));
+            File legacy = new File(dirConfig, FILE_CONFIG_NAME);
+            if (!index.exists() && legacy.exists()) {
+                importConfig(index, legacy);
             }
+            indexes.put(listDirectory, index);
         }
+        return index;
+    }
 
-        boolean newfile = true;
-
-        // Ciclo le configurazioni
-        for (int i = 0; i < lista.size(); i++) {
-            if (lista.get(i).getSubjectDN().equals(crl.getIssuerX500Principal().getName())) {
-                newfile = false;
-                CRLBean bean = lista.get(i);
-                if (fileCert != null) {
-                    bean.setFilePath(fileCert.getAbsolutePath());
-                }
-                lista.set(i, bean);
+    @SuppressWarnings("unchecked")
+    private void importConfig(FileSystemIndex index, File legacy) {
+        log.info("Importazione della configurazione {}", legacy);
+        try (ObjectInputStream input = new ObjectInputStream(
+                FileUtils.openInputStream(legacy))) {
+            List<CRLBean> lista = (List<CRLBean>) input.readObject();
+            List<FileSystemIndex.Record> records = new ArrayList<FileSystemIndex.Record>();
+            for (CRLBean bean : lista) {
+                records.add(new FileSystemIndex.Record(bean.getSubjectDN(), null,
+                        bean.getFilePath(), true));
             }
+            index.putAll(records);
+        } catch (Exception e) {
+            log.warn("getConfig warning lettura file serializzato!", e);
         }
-        if (newfile) {
-            CRLBean bean = new CRLBean();
-            bean.setFilePath(file.getAbsolutePath());
-            bean.setSubjectDN(crl.getIssuerX500Principal().getName());
-            lista.add(bean);
-        }
+    }
 
-        try {
-            // Serializzo la lista
-            FileOutputStream fileConfig = new FileOutputStream(file);
-            ObjectOutputStream streamOut = new ObjectOutputStream(fileConfig);
-            streamOut.writeObject(lista);
-            streamOut.flush();
-            streamOut.close();
-        } catch (IOException e) {
-            log.warn("updateConfig warning scrittura file serializzato!", e);
-        }
+    private void updateConfig(X509CRL crl, File fileCert, String listDirectory)
+            throws IOException {
+        log.info("updateConfig START");
+        getIndex(listDirectory).put(new FileSystemIndex.Record(
+                crl.getIssuerX500Principal().getName(), SignerUtil.getAuthorityKeyId(crl),
+                fileCert.getAbsolutePath(), true));
         log.info("updateConfig END");
     }
 }
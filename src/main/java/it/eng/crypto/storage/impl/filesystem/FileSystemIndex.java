@@ -0,0 +1,342 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.storage.impl.filesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indice degli storage su file system: associa il soggetto (DN normalizzato) e l'identificativo
+ * della chiave al file che contiene il certificato o la CRL.
+ * <p>
+ * Le ricerche avvengono senza lock su una fotografia immutabile dell'indice in memoria. Ogni
+ * modifica costruisce la fotografia successiva a partire da quella corrente, la salva in un file
+ * temporaneo che sostituisce l'indice con una rinomina atomica e infine la pubblica: le ricerche
+ * in corso continuano a utilizzare la fotografia precedente e non vedono mai modifiche parziali.
+ * Le modifiche sono serializzate tra loro.
+ * </p>
+ *
+ */
+final class FileSystemIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSystemIndex.class);
+
+    private static final int MAGIC = 0x43494458; // "CIDX"
+    private static final int VERSION = 1;
+
+    /**
+     * Voce dell'indice
+     */
+    static final class Record {
+
+        private final String subjectDN;
+        private final String keyId;
+        private final String filePath;
+        private final boolean active;
+
+        Record(String subjectDN, String keyId, String filePath, boolean active) {
+            this.subjectDN = subjectDN;
+            this.keyId = keyId == null ? "" : keyId;
+            this.filePath = filePath == null ? "" : filePath;
+            this.active = active;
+        }
+
+        String getSubjectDN() {
+            return subjectDN;
+        }
+
+        String getKeyId() {
+            return keyId;
+        }
+
+        String getFilePath() {
+            return filePath;
+        }
+
+        boolean isActive() {
+            return active;
+        }
+    }
+
+    /**
+     * Fotografia immutabile dell'indice
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new LinkedHashMap<String, Record>());
+
+        /*
+         * Voci per soggetto e identificativo della chiave, nell'ordine di inserimento
+         */
+        private final Map<String, Record> byKey;
+        /*
+         * Ultima voce registrata per ciascun soggetto
+         */
+        private final Map<String, Record> bySubject;
+
+        private Snapshot(LinkedHashMap<String, Record> byKey) {
+            Map<String, Record> subjects = new HashMap<String, Record>();
+            for (Map.Entry<String, Record> entry : byKey.entrySet()) {
+                // La chiave è composta dal DN normalizzato e dall'identificativo esadecimale
+                String key = entry.getKey();
+                subjects.put(key.substring(0, key.lastIndexOf('|')), entry.getValue());
+            }
+            this.byKey = Collections.unmodifiableMap(byKey);
+            this.bySubject = Collections.unmodifiableMap(subjects);
+        }
+
+        /*
+         * Fotografia successiva con le voci indicate
+         */
+        private Snapshot with(Collection<Record> records) {
+            LinkedHashMap<String, Record> next = new LinkedHashMap<String, Record>(byKey);
+            for (Record record : records) {
+                String key = key(record);
+                // Reinserisco la voce in coda: l'ultima registrata prevale per il soggetto
+                next.remove(key);
+                next.put(key, record);
+            }
+            return new Snapshot(next);
+        }
+    }
+
+    private final File file;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param file file dell'indice
+     */
+    FileSystemIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Indica se il file dell'indice è già stato creato
+     *
+     * @return true se il file esiste
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Recupera la voce relativa al soggetto e all'identificativo della chiave. Se non esiste una
+     * voce con lo stesso identificativo viene restituita l'ultima registrata per il soggetto.
+     *
+     * @param subjectDN soggetto
+     * @param keyId     identificativo della chiave (può essere null)
+     *
+     * @return la voce oppure null
+     *
+     * @throws IOException se il file dell'indice non è leggibile
+     */
+    Record get(String subjectDN, String keyId) throws IOException {
+        Snapshot current = snapshot();
+        String subject = normalize(subjectDN);
+        Record record = keyId != null ? current.byKey.get(subject + "|" + keyId) : null;
+        return record != null ? record : current.bySubject.get(subject);
+    }
+
+    /**
+     * @return tutte le voci dell'indice
+     *
+     * @throws IOException se il file dell'indice non è leggibile
+     */
+    Collection<Record> values() throws IOException {
+        return snapshot().byKey.values();
+    }
+
+    /**
+     * Registra la voce
+     *
+     * @param record voce da registrare
+     *
+     * @throws IOException in caso di errore di scrittura dell'indice
+     */
+    void put(Record record) throws IOException {
+        putAll(Collections.singletonList(record));
+    }
+
+    /**
+     * Registra le voci con un'unica scrittura dell'indice
+     *
+     * @param records voci da registrare
+     *
+     * @throws IOException in caso di errore di scrittura dell'indice
+     */
+    synchronized void putAll(List<Record> records) throws IOException {
+        Snapshot next = snapshot().with(records);
+        save(next);
+        snapshot = next;
+    }
+
+    private Snapshot snapshot() throws IOException {
+        Snapshot current = snapshot;
+        return current != null ? current : load();
+    }
+
+    /*
+     * Legge l'indice una sola volta e pubblica la prima fotografia. Se il file non è leggibile o
+     * non è un indice la fotografia non viene pubblicata e il file non viene modificato: la
+     * lettura sarà ritentata alla ricerca successiva.
+     */
+    private synchronized Snapshot load() throws IOException {
+        if (snapshot != null) {
+            return snapshot;
+        }
+        LinkedHashMap<String, Record> records = new LinkedHashMap<String, Record>();
+        boolean truncated = false;
+        int count = 0;
+        if (file.exists()) {
+            ByteArrayInputStream bytes;
+            try {
+                bytes = new ByteArrayInputStream(Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                log.error("Errore di lettura dell'indice " + file, e);
+                throw e;
+            }
+            DataInputStream in = new DataInputStream(bytes);
+            if (bytes.available() < 8 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.error("Formato dell'indice non riconosciuto: {}", file);
+                throw new IOException("Formato dell'indice non riconosciuto: " + file);
+            }
+            while (bytes.available() > 0) {
+                try {
+                    Record record = read(in);
+                    String key = key(record);
+                    records.remove(key);
+                    records.put(key, record);
+                    count++;
+                } catch (EOFException e) {
+                    // Record incompleto (scrittura interrotta)
+                    log.warn("Indice {} troncato dopo {} voci", file, count);
+                    truncated = true;
+                    break;
+                }
+            }
+        }
+        Snapshot loaded = records.isEmpty() ? Snapshot.EMPTY : new Snapshot(records);
+        // Riscrivo gli indici troncati o salvati come log con voci superate
+        if (truncated || count > records.size()) {
+            try {
+                save(loaded);
+            } catch (IOException e) {
+                log.warn("Errore durante la riscrittura dell'indice " + file, e);
+            }
+        }
+        snapshot = loaded;
+        return loaded;
+    }
+
+    /*
+     * Salva la fotografia in un file temporaneo che sostituisce l'indice con una rinomina atomica
+     */
+    private void save(Snapshot next) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Record record : next.byKey.values()) {
+            write(out, record);
+        }
+        out.flush();
+        writeAtomically(file, buffer.toByteArray());
+    }
+
+    /**
+     * Scrive il contenuto in un file temporaneo della stessa directory e lo rinomina nel file
+     * indicato, in modo che i lettori trovino sempre il file precedente o quello completo
+     *
+     * @param target  file da scrivere
+     * @param content contenuto
+     *
+     * @throws IOException in caso di errore di scrittura
+     */
+    static void writeAtomically(File target, byte[] content) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File tmp = File.createTempFile(target.getName(), ".tmp", dir);
+        try {
+            try (FileOutputStream stream = new FileOutputStream(tmp)) {
+                stream.write(content);
+                stream.getFD().sync();
+            }
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static String key(Record record) {
+        return normalize(record.getSubjectDN()) + "|" + record.getKeyId();
+    }
+
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        out.writeUTF(record.getSubjectDN());
+        out.writeUTF(record.getKeyId());
+        out.writeUTF(record.getFilePath());
+        out.writeBoolean(record.isActive());
+    }
+
+    private static Record read(DataInputStream in) throws IOException {
+        String subjectDN = in.readUTF();
+        String keyId = in.readUTF();
+        String filePath = in.readUTF();
+        boolean active = in.readBoolean();
+        return new Record(subjectDN, keyId, filePath, active);
+    }
+
+    /**
+     * Normalizza il DN in modo che DN equivalenti (spazi, maiuscole, codifica) coincidano
+     *
+     * @param subjectDN DN
+     *
+     * @return il DN in forma canonica
+     */
+    static String normalize(String subjectDN) {
+        try {
+            return new X500Principal(subjectDN).getName(X500Principal.CANONICAL);
+        } catch (IllegalArgumentException e) {
+            return subjectDN.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+}
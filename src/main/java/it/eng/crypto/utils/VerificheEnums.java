@@ -97,4 +97,13 @@ public class VerificheEnums {
 
         DATA_FIRMA, DATA_VERS, MT_VERS_NORMA, MT_VERS_SEMPLICE, RIF_TEMP_VERS
     }
+
+    /**
+     * Modalità del controllo di revoca: solo CRL, OCSP con CRL in caso di risposta non
+     * disponibile, CRL con OCSP in caso di CRL non scaricabile
+     */
+    public enum ModalitaControlloRevoca {
+
+        CRL, OCSP_CRL, CRL_OCSP
+    }
 }
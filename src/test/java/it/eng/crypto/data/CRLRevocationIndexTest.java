@@ -0,0 +1,237 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifica dell'indice dei certificati revocati costruito in streaming e dalla CRL decodificata
+ */
+public class CRLRevocationIndexTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=CA di prova,O=Test,C=IT");
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static KeyPair caKeys;
+
+    @BeforeAll
+    public static void createKeys() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        caKeys = generator.generateKeyPair();
+    }
+
+    @Test
+    public void testStreamedIndexMatchesDecodedCrl() throws Exception {
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        X509v2CRLBuilder builder = builder(now, 10);
+        Random random = new Random(1);
+        Set<BigInteger> serials = new HashSet<BigInteger>();
+        while (serials.size() < 5000) {
+            // seriali brevi, lunghi e oltre i 192 bit, in ordine casuale
+            BigInteger serial = new BigInteger(
+                    1 + random.nextInt(serials.size() % 100 == 0 ? 220 : 159), random);
+            if (!serials.add(serial)) {
+                continue;
+            }
+            builder.addCRLEntry(serial, new Date(now.getTime() - random.nextInt(1000) * DAY),
+                    random.nextInt(7));
+        }
+        byte[] encoded = sign(builder);
+        X509CRL crl = decode(encoded);
+
+        CRLRevocationIndex streamed = CRLRevocationIndex.read(new ByteArrayInputStream(encoded),
+                caKeys.getPublic());
+        CRLRevocationIndex.clearCache();
+        CRLRevocationIndex decoded = CRLRevocationIndex.of(crl);
+        assertEquals(crl.getRevokedCertificates().size(), streamed.size());
+        assertEquals(crl.getRevokedCertificates().size(), decoded.size());
+        assertEquals(crl.getThisUpdate(), streamed.getThisUpdate());
+        assertEquals(crl.getNextUpdate(), streamed.getNextUpdate());
+        assertEquals(crl.getIssuerX500Principal(), streamed.getIssuer());
+        assertEquals(encoded.length, streamed.getEncodedLength());
+        assertEquals(encoded.length, decoded.getEncodedLength());
+        for (X509CRLEntry entry : crl.getRevokedCertificates()) {
+            for (CRLRevocationIndex index : new CRLRevocationIndex[] { streamed, decoded }) {
+                int position = index.indexOf(entry.getSerialNumber());
+                assertEquals(entry.getRevocationDate(), index.getRevocationDate(position));
+                assertEquals(entry.getRevocationReason(), index.getRevocationReason(position));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            BigInteger serial = new BigInteger(160, random);
+            if (crl.getRevokedCertificate(serial) == null) {
+                assertEquals(-1, streamed.indexOf(serial));
+            }
+        }
+    }
+
+    @Test
+    public void testPemStream() throws Exception {
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        X509v2CRLBuilder builder = builder(now, 10);
+        builder.addCRLEntry(BigInteger.valueOf(1000), now, CRLReason.keyCompromise);
+        String pem = "-----BEGIN X509 CRL-----\n"
+                + Base64.getMimeEncoder().encodeToString(sign(builder))
+                + "\n-----END X509 CRL-----\n";
+        CRLRevocationIndex index = CRLUtil.readRevocationIndex(
+                new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)),
+                caKeys.getPublic());
+        assertEquals(1, index.size());
+        assertEquals(java.security.cert.CRLReason.KEY_COMPROMISE,
+                index.getRevocationReason(index.indexOf(BigInteger.valueOf(1000))));
+    }
+
+    @Test
+    public void testInvalidSignature() throws Exception {
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        X509v2CRLBuilder builder = builder(now, 10);
+        builder.addCRLEntry(BigInteger.valueOf(1000), now, CRLReason.keyCompromise);
+        byte[] encoded = sign(builder);
+        KeyPair otherKeys = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        assertThrows(CRLException.class, () -> CRLRevocationIndex
+                .read(new ByteArrayInputStream(encoded), otherKeys.getPublic()));
+
+        // seriale alterato: la lettura riesce ma la firma non corrisponde
+        byte[] tampered = encoded.clone();
+        for (int i = 0; i < tampered.length - 3; i++) {
+            // INTEGER 1000
+            if (tampered[i] == 0x02 && tampered[i + 1] == 0x02 && tampered[i + 2] == 0x03
+                    && tampered[i + 3] == (byte) 0xE8) {
+                tampered[i + 3] ^= 1;
+                break;
+            }
+        }
+        assertThrows(CRLException.class, () -> CRLRevocationIndex
+                .read(new ByteArrayInputStream(tampered), caKeys.getPublic()));
+    }
+
+    @Test
+    public void testIndirectCrlEntriesOfOtherIssuers() throws Exception {
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        X509v2CRLBuilder builder = builder(now, 10);
+        builder.addCRLEntry(BigInteger.valueOf(1), now, CRLReason.keyCompromise);
+        ExtensionsGenerator otherIssuer = new ExtensionsGenerator();
+        otherIssuer.addExtension(Extension.certificateIssuer, true, new GeneralNames(
+                new GeneralName(new X500Name("CN=Altra CA,O=Test,C=IT"))));
+        builder.addCRLEntry(BigInteger.valueOf(2), now, otherIssuer.generate());
+        // la voce successiva eredita l'emittente della precedente
+        builder.addCRLEntry(BigInteger.valueOf(3), now, CRLReason.keyCompromise);
+        ExtensionsGenerator crlIssuer = new ExtensionsGenerator();
+        crlIssuer.addExtension(Extension.certificateIssuer, true,
+                new GeneralNames(new GeneralName(ISSUER)));
+        builder.addCRLEntry(BigInteger.valueOf(4), now, crlIssuer.generate());
+
+        CRLRevocationIndex index = CRLRevocationIndex
+                .read(new ByteArrayInputStream(sign(builder)), caKeys.getPublic());
+        assertEquals(2, index.size());
+        assertEquals(-1, index.indexOf(BigInteger.valueOf(2)));
+        assertEquals(-1, index.indexOf(BigInteger.valueOf(3)));
+        assertTrue(index.indexOf(BigInteger.valueOf(4)) >= 0);
+    }
+
+    @Test
+    public void testDeltaCrl() throws Exception {
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        X509v2CRLBuilder builder = builder(now, 10);
+        builder.addCRLEntry(BigInteger.valueOf(1), now, CRLReason.certificateHold);
+        builder.addCRLEntry(BigInteger.valueOf(2), now, CRLReason.keyCompromise);
+        X509CRL crl = decode(sign(builder));
+
+        X509v2CRLBuilder deltaBuilder = builder(new Date(now.getTime() + 1000), 11);
+        deltaBuilder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(10));
+        deltaBuilder.addCRLEntry(BigInteger.valueOf(1), now, CRLReason.removeFromCRL);
+        deltaBuilder.addCRLEntry(BigInteger.valueOf(3), now, CRLReason.superseded);
+        X509CRL deltaCrl = decode(sign(deltaBuilder));
+
+        CRLRevocationIndex index = CRLRevocationIndex.of(crl, deltaCrl);
+        assertEquals(2, index.size());
+        assertEquals(-1, index.indexOf(BigInteger.valueOf(1)));
+        assertEquals(java.security.cert.CRLReason.SUPERSEDED,
+                index.getRevocationReason(index.indexOf(BigInteger.valueOf(3))));
+    }
+
+    @Test
+    public void testCachedIndexIndependentOfCrlInstance() throws Exception {
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        X509v2CRLBuilder builder = builder(now, 10);
+        builder.addCRLEntry(BigInteger.valueOf(1), now, CRLReason.keyCompromise);
+        byte[] encoded = sign(builder);
+
+        CRLRevocationIndex.clearCache();
+        CRLRevocationIndex index = CRLRevocationIndex.of(decode(encoded));
+        System.gc();
+        // la stessa CRL decodificata di nuovo utilizza l'indice in cache
+        assertSame(index, CRLRevocationIndex.of(decode(encoded)));
+
+        // CRL diversa dello stesso emittente con gli stessi dati: la firma la distingue
+        X509v2CRLBuilder otherBuilder = builder(now, 10);
+        otherBuilder.addCRLEntry(BigInteger.valueOf(2), now, CRLReason.keyCompromise);
+        CRLRevocationIndex otherIndex = CRLRevocationIndex.of(decode(sign(otherBuilder)));
+        assertNotSame(index, otherIndex);
+        assertEquals(-1, otherIndex.indexOf(BigInteger.valueOf(1)));
+    }
+
+    private static X509v2CRLBuilder builder(Date thisUpdate, int crlNumber) throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        builder.setNextUpdate(new Date(thisUpdate.getTime() + DAY));
+        builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+        return builder;
+    }
+
+    private static byte[] sign(X509v2CRLBuilder builder) throws Exception {
+        return builder
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate()))
+                .getEncoded();
+    }
+
+    private static X509CRL decode(byte[] encoded) throws Exception {
+        return (X509CRL) CertificateFactory.getInstance("X.509")
+                .generateCRL(new ByteArrayInputStream(encoded));
+    }
+}
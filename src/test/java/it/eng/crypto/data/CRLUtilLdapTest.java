@@ -0,0 +1,172 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+
+/**
+ * Verifica del recupero delle CRL via LDAP su un directory server in memoria
+ */
+public class CRLUtilLdapTest {
+
+    private static final String BASE_DN = "o=Test,c=IT";
+    private static final String CA_DN = "cn=CA di prova," + BASE_DN;
+
+    private static byte[] crlEncoded;
+
+    private InMemoryDirectoryServer server;
+    private final List<List<String>> requestedAttributes = Collections
+            .synchronizedList(new ArrayList<List<String>>());
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicBoolean dropNextSearch = new AtomicBoolean();
+
+    @BeforeAll
+    public static void createCrl() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair caKeys = generator.generateKeyPair();
+        Date now = new Date();
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(
+                new X500Name("CN=CA di prova,O=Test,C=IT"), now);
+        builder.setNextUpdate(new Date(now.getTime() + 24 * 60 * 60 * 1000L));
+        builder.addCRLEntry(BigInteger.valueOf(1000), now, CRLReason.keyCompromise);
+        crlEncoded = builder
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate()))
+                .getEncoded();
+    }
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.setSchema(null);
+        config.setAccessLogHandler(new Handler() {
+
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getMessage() != null && record.getMessage().contains(" CONNECT ")) {
+                    connections.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+
+            @Override
+            public void processSearchRequest(InMemoryInterceptedSearchRequest request)
+                    throws LDAPException {
+                requestedAttributes.add(request.getRequest().getAttributeList());
+                if (dropNextSearch.compareAndSet(true, false)) {
+                    // Chiude le connessioni lato server con la richiesta ancora in corso
+                    Thread closer = new Thread(() -> server.closeAllConnections(false));
+                    closer.start();
+                    try {
+                        closer.join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new LDAPException(ResultCode.UNAVAILABLE);
+                }
+            }
+        });
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: " + BASE_DN, "objectClass: top", "objectClass: organization", "o: Test");
+        Entry ca = new Entry(CA_DN);
+        ca.addAttribute("objectClass", "top", "pkiCA");
+        ca.addAttribute("cn", "CA di prova");
+        ca.addAttribute("certificateRevocationList;binary", crlEncoded);
+        ca.addAttribute("authorityRevocationList;binary", crlEncoded);
+        ca.addAttribute("cACertificate;binary", new byte[4096]);
+        server.add(ca);
+        server.startListening();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutDown(true);
+    }
+
+    @Test
+    public void testOnlyBinaryCrlAttributeRequested() throws Exception {
+        X509CRL crl = search();
+        assertNotNull(crl);
+        assertEquals(1, requestedAttributes.size());
+        assertEquals(Arrays.asList("certificateRevocationList;binary"),
+                requestedAttributes.get(0));
+    }
+
+    @Test
+    public void testPooledConnectionReused() throws Exception {
+        assertNotNull(search());
+        assertNotNull(search());
+        assertNotNull(search());
+        assertEquals(3, requestedAttributes.size());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void testRetryOnCommunicationException() throws Exception {
+        assertNotNull(search());
+        assertEquals(1, connections.get());
+
+        // La connessione del pool viene chiusa dal server durante la richiesta successiva
+        dropNextSearch.set(true);
+        assertNotNull(search());
+        assertEquals(3, requestedAttributes.size());
+        assertEquals(2, connections.get());
+    }
+
+    private X509CRL search() throws Exception {
+        String url = "ldap://127.0.0.1:" + server.getListenPort() + "/" + CA_DN;
+        return new CRLUtil().searchCrlByLDAP(url, 5);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import it.eng.crypto.CryptoConfiguration;
+
+/**
+ * Verifica del client OCSP su un responder di prova in esecuzione sulla macchina locale, che firma
+ * le risposte con BouncyCastle
+ */
+public class OCSPUtilTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static KeyPair caKeys;
+    private static KeyPair responderKeys;
+    private static KeyPair otherKeys;
+    private static X509Certificate caCertificate;
+    private static X509Certificate responderCertificate;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private X509Certificate certificate;
+    private CryptoConfiguration configuration;
+
+    /*
+     * Comportamento del responder per il test in corso
+     */
+    private volatile CertificateStatus status;
+    private volatile PrivateKey signingKey;
+    private volatile X509CertificateHolder[] responderChain;
+    private volatile Date nextUpdate;
+
+    @BeforeAll
+    public static void createCertificates() throws Exception {
+        caKeys = generateKeyPair();
+        responderKeys = generateKeyPair();
+        otherKeys = generateKeyPair();
+        X500Name caName = new X500Name("CN=CA di prova,O=Test,C=IT");
+        JcaX509v3CertificateBuilder caBuilder = new JcaX509v3CertificateBuilder(caName,
+                BigInteger.ONE, new Date(System.currentTimeMillis() - HOUR),
+                new Date(System.currentTimeMillis() + 24 * HOUR), caName, caKeys.getPublic());
+        caBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        caCertificate = sign(caBuilder, caKeys.getPrivate());
+
+        JcaX509v3CertificateBuilder responderBuilder = new JcaX509v3CertificateBuilder(
+                caCertificate, BigInteger.valueOf(2), new Date(System.currentTimeMillis() - HOUR),
+                new Date(System.currentTimeMillis() + 24 * HOUR),
+                new X500Name("CN=Responder OCSP,O=Test,C=IT"), responderKeys.getPublic());
+        responderBuilder.addExtension(Extension.extendedKeyUsage, true,
+                new ExtendedKeyUsage(KeyPurposeId.id_kp_OCSPSigning));
+        responderCertificate = sign(responderBuilder, caKeys.getPrivate());
+    }
+
+    @BeforeEach
+    public void startResponder() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ocsp", exchange -> {
+            requests.incrementAndGet();
+            try {
+                byte[] response = respond(
+                        new OCSPReq(IOUtils.toByteArray(exchange.getRequestBody())));
+                exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(caCertificate,
+                BigInteger.valueOf(1000), new Date(System.currentTimeMillis() - HOUR),
+                new Date(System.currentTimeMillis() + 24 * HOUR),
+                new X500Name("CN=Firmatario,O=Test,C=IT"), generateKeyPair().getPublic());
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ocsp";
+        builder.addExtension(Extension.authorityInfoAccess, false,
+                new AuthorityInformationAccess(new AccessDescription(AccessDescription.id_ad_ocsp,
+                        new GeneralName(GeneralName.uniformResourceIdentifier, url))));
+        certificate = sign(builder, caKeys.getPrivate());
+
+        configuration = new CryptoConfiguration();
+        status = CertificateStatus.GOOD;
+        signingKey = caKeys.getPrivate();
+        responderChain = null;
+        nextUpdate = new Date(System.currentTimeMillis() + HOUR);
+    }
+
+    @AfterEach
+    public void stopResponder() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testGood() throws Exception {
+        OCSPResult result = check();
+        assertNotNull(result);
+        assertEquals(OCSPResult.Status.GOOD, result.getStatus());
+    }
+
+    @Test
+    public void testRevoked() throws Exception {
+        Date revocationDate = new Date((System.currentTimeMillis() - HOUR) / 1000 * 1000);
+        status = new RevokedStatus(revocationDate, CRLReason.keyCompromise);
+        OCSPResult result = check();
+        assertNotNull(result);
+        assertEquals(OCSPResult.Status.REVOKED, result.getStatus());
+        assertEquals(revocationDate, result.getRevocationDate());
+        assertEquals(java.security.cert.CRLReason.KEY_COMPROMISE, result.getRevocationReason());
+    }
+
+    @Test
+    public void testUnknown() throws Exception {
+        status = new UnknownStatus();
+        OCSPResult result = check();
+        assertNotNull(result);
+        assertEquals(OCSPResult.Status.UNKNOWN, result.getStatus());
+    }
+
+    @Test
+    public void testDelegatedResponder() throws Exception {
+        signingKey = responderKeys.getPrivate();
+        responderChain = new X509CertificateHolder[] {
+                new JcaX509CertificateHolder(responderCertificate) };
+        OCSPResult result = check();
+        assertNotNull(result);
+        assertEquals(OCSPResult.Status.GOOD, result.getStatus());
+    }
+
+    @Test
+    public void testBadSignature() throws Exception {
+        // Risposta firmata da una chiave estranea alla CA e senza certificato del responder
+        signingKey = otherKeys.getPrivate();
+        assertNull(check());
+        assertEquals(0, configuration.getOcspResponseCache().size());
+    }
+
+    @Test
+    public void testCacheExpiresAtNextUpdate() throws Exception {
+        nextUpdate = new Date(System.currentTimeMillis() + 1500);
+        assertNotNull(check());
+        assertNotNull(check());
+        assertEquals(1, requests.get());
+
+        // Superata la data di prossimo aggiornamento la risposta viene richiesta di nuovo
+        Thread.sleep(2000);
+        nextUpdate = new Date(System.currentTimeMillis() + HOUR);
+        assertNotNull(check());
+        assertEquals(2, requests.get());
+    }
+
+    private OCSPResult check() throws Exception {
+        return new OCSPUtil().check(certificate, caCertificate, configuration, 5, 5);
+    }
+
+    private byte[] respond(OCSPReq request) throws Exception {
+        BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(
+                new RespID(new JcaX509CertificateHolder(
+                        signingKey == responderKeys.getPrivate() ? responderCertificate
+                                : caCertificate).getSubject()));
+        Date now = new Date();
+        for (Req req : request.getRequestList()) {
+            builder.addResponse(req.getCertID(), status, now, nextUpdate);
+        }
+        BasicOCSPResp response = builder.build(
+                new JcaContentSignerBuilder("SHA256withRSA").build(signingKey), responderChain,
+                now);
+        OCSPResp ocspResponse = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, response);
+        return ocspResponse.getEncoded();
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate sign(JcaX509v3CertificateBuilder builder, PrivateKey key)
+            throws Exception {
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(key);
+        return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.OCSPResponse;
+import org.bouncycastle.asn1.ocsp.OCSPResponseStatus;
+import org.bouncycastle.asn1.ocsp.ResponseBytes;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.AttributeCertificateHolder;
+import org.bouncycastle.cert.AttributeCertificateIssuer;
+import org.bouncycastle.cert.X509AttributeCertificateHolder;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v2AttributeCertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.CollectionStore;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifica della busta P7M analizzata in streaming
+ */
+public class P7MSignerTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @BeforeAll
+    public static void addProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testStreamedEnvelopeKeepsAttributeCertificatesAndOtherRevocationInfo(
+            @TempDir Path directory) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        ContentSigner contentSigner = new JcaContentSignerBuilder("SHA256withRSA")
+                .setProvider("BC").build(keys.getPrivate());
+        X500Name name = new X500Name("CN=Firmatario di prova,O=Test,C=IT");
+        Date notBefore = new Date(System.currentTimeMillis() - DAY);
+        Date notAfter = new Date(System.currentTimeMillis() + DAY);
+        X509CertificateHolder certificate = new JcaX509v3CertificateBuilder(name,
+                BigInteger.ONE, notBefore, notAfter, name, keys.getPublic())
+                        .addExtension(Extension.basicConstraints, true,
+                                new BasicConstraints(false))
+                        .build(contentSigner);
+        X509AttributeCertificateHolder attributeCertificate = new X509v2AttributeCertificateBuilder(
+                new AttributeCertificateHolder(name), new AttributeCertificateIssuer(name),
+                BigInteger.TEN, notBefore, notAfter)
+                        .addAttribute(CMSObjectIdentifiers.data, new DERUTF8String("ruolo"))
+                        .build(contentSigner);
+        OCSPResponse ocspResponse = new OCSPResponse(
+                new OCSPResponseStatus(OCSPResponseStatus.SUCCESSFUL),
+                new ResponseBytes(OCSPObjectIdentifiers.id_pkix_ocsp_basic,
+                        new DEROctetString(new byte[] { 1, 2, 3 })));
+
+        CMSSignedDataGenerator signedDataGenerator = new CMSSignedDataGenerator();
+        signedDataGenerator.addSignerInfoGenerator(
+                new JcaSignerInfoGeneratorBuilder(
+                        new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
+                                .build(contentSigner, certificate));
+        signedDataGenerator.addCertificate(certificate);
+        signedDataGenerator.addAttributeCertificates(
+                new CollectionStore<X509AttributeCertificateHolder>(
+                        Collections.singletonList(attributeCertificate)));
+        signedDataGenerator.addOtherRevocationInfo(CMSObjectIdentifiers.id_ri_ocsp_response,
+                ocspResponse);
+        byte[] content = "Contenuto firmato".getBytes(StandardCharsets.UTF_8);
+        File file = directory.resolve("documento.txt.p7m").toFile();
+        Files.write(file.toPath(), signedDataGenerator
+                .generate(new CMSProcessableByteArray(content), true).getEncoded());
+
+        CMSSignedData signedData = new P7MSigner().getStreamedSignedData(file);
+        assertNotNull(signedData);
+        assertEquals(1, signedData.getCertificates().getMatches(null).size());
+        Collection<X509AttributeCertificateHolder> attributeCertificates = signedData
+                .getAttributeCertificates().getMatches(null);
+        assertEquals(1, attributeCertificates.size());
+        assertArrayEquals(attributeCertificate.getEncoded(),
+                attributeCertificates.iterator().next().getEncoded());
+        Collection<?> ocspResponses = signedData
+                .getOtherRevocationInfo(CMSObjectIdentifiers.id_ri_ocsp_response).getMatches(null);
+        assertEquals(1, ocspResponses.size());
+        assertArrayEquals(ocspResponse.getEncoded(),
+                ((ASN1Encodable) ocspResponses.iterator().next()).toASN1Primitive().getEncoded());
+        assertEquals(1, signedData.getSignerInfos().size());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna <p/> This program is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version. <p/> This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Affero General Public License for more details. <p/> You should
+ * have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <https://www.gnu.org/licenses/>.
+ */
+
+package it.eng.crypto.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import it.eng.crypto.controller.bean.DocumentAndTimeStampInfoBean;
+import it.eng.crypto.controller.bean.OutputTimeStampBean;
+import it.eng.crypto.controller.bean.ValidationInfos;
+
+/**
+ * Verifica dell'output complessivo di una marca temporale verificata su più file di contenuto
+ */
+public class SignatureManagerTest {
+
+    @Test
+    public void testMergeTimeStampOutputs() {
+        File first = new File("primo.pdf");
+        File second = new File("secondo.pdf");
+        ValidationInfos firstChecks = new ValidationInfos();
+        ValidationInfos secondChecks = new ValidationInfos();
+        Map<File, OutputTimeStampBean> fileOutputs = new LinkedHashMap<File, OutputTimeStampBean>();
+        fileOutputs.put(first, output(first, "primo", "PRIMO", firstChecks));
+        fileOutputs.put(second, output(second, "secondo", "SECONDO", secondChecks));
+
+        OutputTimeStampBean output = SignatureManager.mergeTimeStampOutputs(fileOutputs);
+        assertEquals(2, output.getDocumentAndTimeStampInfos().size());
+        assertEquals(first, output.getDocumentAndTimeStampInfos().get(0).getAssociatedFile());
+        assertEquals(second, output.getDocumentAndTimeStampInfos().get(1).getAssociatedFile());
+        // proprietà presente in entrambi i file: vale quella del primo
+        assertEquals("primo", output.getProperty("comune"));
+        assertEquals("PRIMO", output.getProperty("PRIMO"));
+        assertEquals("SECONDO", output.getProperty("SECONDO"));
+        assertSame(firstChecks, output.getComplianceChecks().get("PRIMO"));
+        assertSame(secondChecks, output.getComplianceChecks().get("SECONDO"));
+        assertSame(fileOutputs, output.getFileOutputs());
+        assertEquals("secondo", output.getFileOutputs().get(second).getProperty("comune"));
+
+        assertNull(SignatureManager
+                .mergeTimeStampOutputs(new LinkedHashMap<File, OutputTimeStampBean>()));
+    }
+
+    private static OutputTimeStampBean output(File file, String value, String key,
+            ValidationInfos checks) {
+        DocumentAndTimeStampInfoBean info = new DocumentAndTimeStampInfoBean();
+        info.setAssociatedFile(file);
+        List<DocumentAndTimeStampInfoBean> infos = new ArrayList<DocumentAndTimeStampInfoBean>();
+        infos.add(info);
+        Map<String, ValidationInfos> complianceChecks = new HashMap<String, ValidationInfos>();
+        complianceChecks.put(key, checks);
+
+        OutputTimeStampBean output = new OutputTimeStampBean();
+        output.setDocumentAndTimeStampInfos(infos);
+        output.setProperty("comune", value);
+        output.setProperty(key, key);
+        output.setComplianceChecks(complianceChecks);
+        return output;
+    }
+}